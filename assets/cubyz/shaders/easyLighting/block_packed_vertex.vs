@@ -0,0 +1,80 @@
+#version 430
+
+layout (location=0)  in ivec3 packedData;
+
+out vec2 outTexCoord;
+flat out float textureIndex;
+out vec3 mvVertexPos;
+out vec3 outColor;
+
+uniform mat4 projectionMatrix;
+uniform vec3 ambientLight;
+uniform vec3 directionalLight;
+uniform mat4 viewMatrix;
+uniform vec3 modelPosition;
+
+layout(std430, binding = 0) buffer _animationTimes
+{
+    int animationTimes[];
+};
+layout(std430, binding = 1) buffer _animationFrames
+{
+    int animationFrames[];
+};
+
+uniform int time;
+
+// Indexed by the neighbor index of the normal. Needs to match PackedChunkVertices.java.
+const vec3[6] normals = vec3[6](
+	vec3(0, 1, 0),
+	vec3(0, -1, 0),
+	vec3(1, 0, 0),
+	vec3(-1, 0, 0),
+	vec3(0, 0, 1),
+	vec3(0, 0, -1)
+);
+const vec3[6] textureX = vec3[6](
+	vec3(1, 0, 0),
+	vec3(0, 0, -1),
+	vec3(0, 0, -1),
+	vec3(0, 0, 1),
+	vec3(1, 0, 0),
+	vec3(-1, 0, 0)
+);
+const vec3[6] textureY = vec3[6](
+	vec3(0, 0, -1),
+	vec3(1, 0, 0),
+	vec3(0, 1, 0),
+	vec3(0, 1, 0),
+	vec3(0, 1, 0),
+	vec3(0, 1, 0)
+);
+
+vec3 calcLight(int srgb, vec3 vertexNormal) {
+	float s = (srgb >> 24) & 255;
+	float r = (srgb >> 16) & 255;
+	float g = (srgb >> 8) & 255;
+	float b = (srgb >> 0) & 255;
+	s = s*(1 - dot(directionalLight, vertexNormal));
+	r = max(s*ambientLight.x, r);
+	g = max(s*ambientLight.y, g);
+	b = max(s*ambientLight.z, b);
+	return vec3(r, g, b);
+}
+
+void main() {
+	vec3 position = vec3(
+		packedData.x & 1023,
+		packedData.x >> 10 & 1023,
+		packedData.x >> 20 & 1023
+	)/16.0;
+	int normal = packedData.y & 7;
+	int texCoordz = packedData.y >> 3 & 65535;
+
+	outColor = calcLight(packedData.z, normals[normal])*0.003890625;
+	vec4 mvPos = viewMatrix*vec4(position + modelPosition, 1);
+	gl_Position = projectionMatrix*mvPos;
+	outTexCoord = vec2(dot(position, textureX[normal]), dot(position, textureY[normal]));
+	textureIndex = texCoordz + time / animationTimes[texCoordz] % animationFrames[texCoordz];
+	mvVertexPos = mvPos.xyz;
+}
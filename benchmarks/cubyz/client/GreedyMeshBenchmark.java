@@ -0,0 +1,302 @@
+package cubyz.client;
+
+import static cubyz.client.NormalChunkMesh.*;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import cubyz.rendering.models.CubeModel;
+import cubyz.rendering.models.Model;
+import cubyz.rendering.rotation.NoRotation;
+import cubyz.utils.VertexAttribList;
+import cubyz.utils.datastructures.IntSimpleList;
+import cubyz.world.BenchmarkWorld;
+import cubyz.world.Chunk;
+import cubyz.world.MetaChunkMap;
+import cubyz.world.Neighbors;
+import cubyz.world.NormalChunk;
+import cubyz.world.ServerWorld;
+import cubyz.world.blocks.Blocks;
+import cubyz.world.terrain.TerrainGenerationProfile;
+
+/**
+ * Compares the mesh generation of {@link NormalChunkMesh} with and without the {@link GreedyMesher} on terrain generated by the base mod, without a window.<br>
+ * The chunks containing the surface are meshed. Every opaque block without rotation is treated as a cube and gets a texture per block type.
+ * The light is a simplified sunlight: Everything above the surface is fully lit, everything else is dark.
+ * Reports the vertex and index count and the build time per chunk and checks that both meshes cover the same area with the same texture and light.
+ * Also packs both meshes with {@link PackedChunkVertices}, reports the uploaded bytes per chunk and checks that the packed vertices contain the same data.<br>
+ * Usage: java cubyz.client.GreedyMeshBenchmark [repetitions]
+ */
+public final class GreedyMeshBenchmark {
+	private GreedyMeshBenchmark() {} // No instances allowed.
+
+	private static final String WORLD = "greedyMeshBenchmark";
+	private static final long SEED = 0x6eed_e0e5_4000L;
+	/** Size of the meshed area around the origin in chunks. */
+	private static final int CHUNKS = 8;
+	private static final int SUN_LIGHT = 0xff000000;
+
+	/** The visible blocks of a chunk with their neighbors and light, like the {@link cubyz.world.blocks.BlockInstance}s of a chunk. */
+	private static class ChunkBlocks {
+		int size;
+		int[] xyz = new int[0];
+		int[][] textureIndices = new int[0][];
+		int[][] light = new int[0][];
+		byte[] neighbors = new byte[0];
+
+		void add(int x, int y, int z, int[] textureIndices, int[] light, byte neighbors) {
+			if (size == this.neighbors.length) {
+				int capacity = Math.max(16, 2*size);
+				xyz = Arrays.copyOf(xyz, 3*capacity);
+				this.textureIndices = Arrays.copyOf(this.textureIndices, capacity);
+				this.light = Arrays.copyOf(this.light, capacity);
+				this.neighbors = Arrays.copyOf(this.neighbors, capacity);
+			}
+			xyz[3*size] = x;
+			xyz[3*size + 1] = y;
+			xyz[3*size + 2] = z;
+			this.textureIndices[size] = textureIndices;
+			this.light[size] = light;
+			this.neighbors[size] = neighbors;
+			size++;
+		}
+	}
+
+	private static ServerWorld server;
+	private static TerrainGenerationProfile profile;
+	private static final HashMap<Long, NormalChunk> chunks = new HashMap<>();
+	private static final HashMap<Long, Integer> heights = new HashMap<>();
+
+	private static int getBlock(int wx, int wy, int wz) {
+		long key = MetaChunkMap.getKey(wx >> Chunk.chunkShift, wy >> Chunk.chunkShift, wz >> Chunk.chunkShift);
+		NormalChunk chunk = chunks.get(key);
+		if (chunk == null) {
+			chunk = new NormalChunk(server, wx & ~Chunk.chunkMask, wy & ~Chunk.chunkMask, wz & ~Chunk.chunkMask);
+			chunk.generateFromSeed(server.getSeed(), profile);
+			chunks.put(key, chunk);
+		}
+		return chunk.getBlock(wx & Chunk.chunkMask, wy & Chunk.chunkMask, wz & Chunk.chunkMask);
+	}
+
+	private static int getHeight(int wx, int wz) {
+		return heights.computeIfAbsent((long)wx << 32 | (wz & 0xffffffffL), key -> server.getHeight(wx, wz));
+	}
+
+	private static boolean isOpaque(int block) {
+		return block != 0 && !Blocks.transparent(block);
+	}
+
+	private static boolean isCube(int block) {
+		return isOpaque(block) && Blocks.mode(block).getClass() == NoRotation.class;
+	}
+
+	private static int getLight(int wx, int wy, int wz) {
+		if (isOpaque(getBlock(wx, wy, wz))) return 0;
+		return wy >= getHeight(wx, wz) ? SUN_LIGHT : 0;
+	}
+
+	private static ChunkBlocks collectBlocks(int wx, int wy, int wz, HashMap<Integer, int[]> textures) {
+		ChunkBlocks blocks = new ChunkBlocks();
+		for(int x = wx; x < wx + Chunk.chunkSize; x++) {
+			for(int y = wy; y < wy + Chunk.chunkSize; y++) {
+				for(int z = wz; z < wz + Chunk.chunkSize; z++) {
+					int block = getBlock(x, y, z);
+					if (!isCube(block)) continue;
+					byte neighbors = 0;
+					for(int dir = 0; dir < Neighbors.NEIGHBORS; dir++) {
+						if (!isOpaque(getBlock(x + Neighbors.REL_X[dir], y + Neighbors.REL_Y[dir], z + Neighbors.REL_Z[dir]))) {
+							neighbors |= Neighbors.BIT_MASK[dir];
+						}
+					}
+					if (neighbors == 0) continue;
+					int[] light = new int[27];
+					for(int i = 0; i < 27; i++) {
+						light[i] = getLight(x + i%3 - 1, y + i/3%3 - 1, z + i/9 - 1);
+					}
+					int[] textureIndices = textures.computeIfAbsent(block & Blocks.TYPE_MASK, type -> new int[] {type, type, type, type, type, type});
+					blocks.add(x - wx, y - wy, z - wz, textureIndices, light, neighbors);
+				}
+			}
+		}
+		return blocks;
+	}
+
+	private static void meshPerFace(CubeModel cube, ChunkBlocks blocks, VertexAttribList vertices, IntSimpleList faces) {
+		for(int i = 0; i < blocks.size; i++) {
+			cube.addToChunkMesh(blocks.xyz[3*i], blocks.xyz[3*i + 1], blocks.xyz[3*i + 2], blocks.textureIndices[i], blocks.light[i], blocks.neighbors[i], vertices, faces);
+		}
+	}
+
+	private static void meshGreedy(CubeModel cube, GreedyMesher mesher, ChunkBlocks blocks, VertexAttribList vertices, IntSimpleList faces) {
+		for(int i = 0; i < blocks.size; i++) {
+			int x = blocks.xyz[3*i], y = blocks.xyz[3*i + 1], z = blocks.xyz[3*i + 2];
+			byte remaining = mesher.addBlock(x, y, z, blocks.textureIndices[i], blocks.light[i], blocks.neighbors[i]);
+			if (remaining != 0) {
+				cube.addToChunkMesh(x, y, z, blocks.textureIndices[i], blocks.light[i], remaining, vertices, faces);
+			}
+		}
+		mesher.generate(vertices, faces);
+	}
+
+	/**
+	 * Sums up the area of the triangles for every plane, texture and light. Triangles with a light gradient are collected separately.
+	 */
+	private static HashMap<Long, Double> getCoverage(VertexAttribList vertexList, IntSimpleList faces) {
+		int[] vertices = vertexList.toArray();
+		HashMap<Long, Double> coverage = new HashMap<>();
+		for(int i = 0; i < faces.size; i += 3) {
+			int a = faces.array[i]*SIZEOF_VERTEX, b = faces.array[i + 1]*SIZEOF_VERTEX, c = faces.array[i + 2]*SIZEOF_VERTEX;
+			float[] ab = new float[3], ac = new float[3];
+			for(int j = 0; j < 3; j++) {
+				float start = Float.intBitsToFloat(vertices[a + POSITION_X + j]);
+				ab[j] = Float.intBitsToFloat(vertices[b + POSITION_X + j]) - start;
+				ac[j] = Float.intBitsToFloat(vertices[c + POSITION_X + j]) - start;
+			}
+			double crossX = ab[1]*ac[2] - ab[2]*ac[1], crossY = ab[2]*ac[0] - ab[0]*ac[2], crossZ = ab[0]*ac[1] - ab[1]*ac[0];
+			double area = Math.sqrt(crossX*crossX + crossY*crossY + crossZ*crossZ)/2;
+			int dir = Model.normalToNeighbor(Float.intBitsToFloat(vertices[a + NORMAL_X]), Float.intBitsToFloat(vertices[a + NORMAL_Y]), Float.intBitsToFloat(vertices[a + NORMAL_Z]));
+			int plane = (int)Float.intBitsToFloat(vertices[a + POSITION_X + (Neighbors.REL_X[dir] != 0 ? 0 : Neighbors.REL_Y[dir] != 0 ? 1 : 2)]);
+			int texture = (int)Float.intBitsToFloat(vertices[a + TEXTURE_Z]);
+			int light = vertices[a + LIGHTING];
+			if (vertices[b + LIGHTING] != light || vertices[c + LIGHTING] != light) light = -1;
+			long key = (long)light << 32 | dir << 28 | (plane & 255) << 20 | texture & 0xfffff;
+			coverage.merge(key, area, Double::sum);
+		}
+		return coverage;
+	}
+
+	/**
+	 * Checks that the mesh can be packed and that unpacking gives back the same vertices. The texture coordinates only need to match up to whole textures.
+	 */
+	private static boolean checkPacked(VertexAttribList vertexList, IntSimpleList faces) {
+		int[] vertices = vertexList.getArray();
+		IntBuffer packed = PackedChunkVertices.ensureCapacity(null, vertexList.currentVertex());
+		if (!PackedChunkVertices.pack(vertices, vertexList.size(), faces, packed)) return false;
+		for(int i = 0; i < vertexList.currentVertex(); i++) {
+			int vertex = i*SIZEOF_VERTEX;
+			for(int axis = 0; axis < 3; axis++) {
+				if (PackedChunkVertices.getPosition(packed, i, axis) != Float.intBitsToFloat(vertices[vertex + POSITION_X + axis])) return false;
+			}
+			if (PackedChunkVertices.getNormal(packed, i) != Model.normalToNeighbor(Float.intBitsToFloat(vertices[vertex + NORMAL_X]), Float.intBitsToFloat(vertices[vertex + NORMAL_Y]), Float.intBitsToFloat(vertices[vertex + NORMAL_Z]))) return false;
+			if (PackedChunkVertices.getTextureLayer(packed, i) != (int)Float.intBitsToFloat(vertices[vertex + TEXTURE_Z])) return false;
+			if (PackedChunkVertices.getLight(packed, i) != vertices[vertex + LIGHTING]) return false;
+			for(int j = 0; j < 2; j++) {
+				float offset = Float.intBitsToFloat(vertices[vertex + TEXTURE_X + j]) - PackedChunkVertices.getTextureCoordinate(packed, i, j);
+				if (offset != Math.floor(offset)) return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean sameCoverage(HashMap<Long, Double> a, HashMap<Long, Double> b) {
+		if (!a.keySet().equals(b.keySet())) return false;
+		for(Long key : a.keySet()) {
+			if (Math.abs(a.get(key) - b.get(key)) > 1e-3) return false;
+		}
+		return true;
+	}
+
+	public static void main(String[] args) {
+		int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+		// Create a new world with a fixed seed:
+		server = BenchmarkWorld.createServerWorld(WORLD, SEED);
+		profile = server.chunkManager.terrainGenerationProfile;
+
+		CubeModel cube = CubeModel.loadStandardCube();
+		GreedyMesher mesher = new GreedyMesher(cube);
+		if (!mesher.canMerge(cube)) {
+			System.out.println("The standard cube model can't be used for greedy meshing.");
+			System.exit(1);
+		}
+
+		// Collect the chunks that contain the surface:
+		ArrayList<ChunkBlocks> meshedChunks = new ArrayList<>();
+		HashMap<Integer, int[]> textures = new HashMap<>();
+		for(int cx = -CHUNKS/2; cx < CHUNKS/2; cx++) {
+			for(int cz = -CHUNKS/2; cz < CHUNKS/2; cz++) {
+				int wx = cx*Chunk.chunkSize, wz = cz*Chunk.chunkSize;
+				int minHeight = Integer.MAX_VALUE, maxHeight = Integer.MIN_VALUE;
+				for(int x = wx; x < wx + Chunk.chunkSize; x++) {
+					for(int z = wz; z < wz + Chunk.chunkSize; z++) {
+						minHeight = Math.min(minHeight, getHeight(x, z));
+						maxHeight = Math.max(maxHeight, getHeight(x, z));
+					}
+				}
+				for(int wy = (minHeight - 1) & ~Chunk.chunkMask; wy <= maxHeight; wy += Chunk.chunkSize) {
+					meshedChunks.add(collectBlocks(wx, wy, wz, textures));
+				}
+			}
+		}
+
+		VertexAttribList vertices = new VertexAttribList(SIZEOF_VERTEX);
+		IntSimpleList faces = new IntSimpleList(30000);
+		VertexAttribList greedyVertices = new VertexAttribList(SIZEOF_VERTEX);
+		IntSimpleList greedyFaces = new IntSimpleList(30000);
+
+		// Check that both meshes show the same faces:
+		boolean correct = true;
+		boolean packedCorrect = true;
+		for(ChunkBlocks blocks : meshedChunks) {
+			vertices.clear();
+			faces.clear();
+			meshPerFace(cube, blocks, vertices, faces);
+			greedyVertices.clear();
+			greedyFaces.clear();
+			meshGreedy(cube, mesher, blocks, greedyVertices, greedyFaces);
+			correct &= sameCoverage(getCoverage(vertices, faces), getCoverage(greedyVertices, greedyFaces));
+			packedCorrect &= checkPacked(vertices, faces) && checkPacked(greedyVertices, greedyFaces);
+		}
+
+		IntBuffer packed = null;
+		// The first round warms up the JIT:
+		for(int round = 0; round < 2; round++) {
+			long vertexCount = 0, indexCount = 0, greedyVertexCount = 0, greedyIndexCount = 0;
+			long time = 0, greedyTime = 0, packTime = 0;
+			long bytes = 0, greedyBytes = 0, packedBytes = 0, greedyPackedBytes = 0;
+			for(int repetition = 0; repetition < repetitions; repetition++) {
+				for(ChunkBlocks blocks : meshedChunks) {
+					long start = System.nanoTime();
+					vertices.clear();
+					faces.clear();
+					meshPerFace(cube, blocks, vertices, faces);
+					time += System.nanoTime() - start;
+					vertexCount += vertices.currentVertex();
+					indexCount += faces.size;
+					bytes += 4*(vertices.size() + faces.size);
+					packedBytes += 4*(PackedChunkVertices.SIZEOF_PACKED_VERTEX*vertices.currentVertex() + faces.size);
+
+					start = System.nanoTime();
+					greedyVertices.clear();
+					greedyFaces.clear();
+					meshGreedy(cube, mesher, blocks, greedyVertices, greedyFaces);
+					greedyTime += System.nanoTime() - start;
+					greedyVertexCount += greedyVertices.currentVertex();
+					greedyIndexCount += greedyFaces.size;
+					greedyBytes += 4*(greedyVertices.size() + greedyFaces.size);
+
+					start = System.nanoTime();
+					packed = PackedChunkVertices.ensureCapacity(packed, greedyVertices.currentVertex());
+					boolean canPack = PackedChunkVertices.pack(greedyVertices.getArray(), greedyVertices.size(), greedyFaces, packed);
+					packTime += System.nanoTime() - start;
+					greedyPackedBytes += 4*((canPack ? packed.limit() : greedyVertices.size()) + greedyFaces.size);
+				}
+			}
+			if (round == 0) continue;
+			long meshes = (long)repetitions*meshedChunks.size();
+			System.out.println("Chunk meshes, "+meshedChunks.size()+" surface chunks:");
+			System.out.println("\tPer face: "+vertexCount/meshes+" vertices, "+indexCount/meshes+" indices and "+time/meshes/1000+" us per chunk.");
+			System.out.println("\tGreedy:   "+greedyVertexCount/meshes+" vertices, "+greedyIndexCount/meshes+" indices and "+greedyTime/meshes/1000+" us per chunk.");
+			System.out.println("\t"+(100 - 100*greedyVertexCount/Math.max(1, vertexCount))+"% fewer vertices, "+(correct ? "same faces." : "FACES DIFFER."));
+			System.out.println("Uploaded bytes per chunk, vertices and indices:");
+			System.out.println("\tPer face: "+bytes/meshes+" with "+4*SIZEOF_VERTEX+" byte vertices, "+packedBytes/meshes+" packed.");
+			System.out.println("\tGreedy:   "+greedyBytes/meshes+" with "+4*SIZEOF_VERTEX+" byte vertices, "+greedyPackedBytes/meshes+" packed.");
+			System.out.println("\tPacking takes "+packTime/meshes/1000+" us per greedy chunk, "+(packedCorrect ? "same vertices after unpacking." : "PACKED VERTICES DIFFER."));
+		}
+
+		BenchmarkWorld.deleteServerWorld(server);
+		if (!correct || !packedCorrect) System.exit(1);
+	}
+}
@@ -0,0 +1,72 @@
+package cubyz.multiplayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import cubyz.utils.Utils;
+import cubyz.utils.Zipper;
+import pixelguys.json.JsonObject;
+
+/**
+ * Compares the asset transfer of the handshake: the old one, which zips the entire folder for every client,
+ * and the {@link AssetManifest}, for a new client and for a returning client with unchanged assets.
+ * Measures the bytes sent to the client and the time the server and the client need in total.<br>
+ * Usage: java cubyz.multiplayer.AssetTransferBenchmark [asset folder]
+ */
+public final class AssetTransferBenchmark {
+	private AssetTransferBenchmark() {} // No instances allowed.
+
+	public static void main(String[] args) throws IOException {
+		String assets = args.length > 0 ? args[0] : "assets/";
+		Path cache = Files.createTempDirectory("serverAssets");
+		boolean correct;
+		try {
+			long start = System.nanoTime();
+			AssetManifest server = AssetManifest.read(assets, true);
+			System.out.println(server.size()+" files, "+server.getCompressedSize()/1024+" KiB compressed, read once on server start in "+(System.nanoTime() - start)/1000000+" ms");
+
+			for(int i = 0; i < 2; i++) { // The second iteration is measured after the JIT warmed up.
+				start = System.nanoTime();
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				Zipper.pack(assets, out);
+				Utils.deleteDirectory(cache);
+				Zipper.unpack(cache.toString(), new ByteArrayInputStream(out.toByteArray()));
+				long oldTime = System.nanoTime() - start;
+				int oldBytes = out.size();
+
+				Utils.deleteDirectory(cache);
+				start = System.nanoTime();
+				int newFiles = join(server, cache, out);
+				long newTime = System.nanoTime() - start;
+				int newBytes = out.size();
+
+				start = System.nanoTime();
+				int returningFiles = join(server, cache, out);
+				long returningTime = System.nanoTime() - start;
+
+				if(i == 1) {
+					System.out.println("\tOld, every join:       "+oldBytes/1024+" KiB in "+oldTime/1000000+" ms");
+					System.out.println("\tNew client:            "+newBytes/1024+" KiB, "+newFiles+" files in "+newTime/1000000+" ms");
+					System.out.println("\tReturning client:      "+out.size()/1024+" KiB, "+returningFiles+" files in "+returningTime/1000000+" ms");
+				}
+			}
+			correct = AssetManifest.read(cache.toString(), false).toJson().toString().equals(server.toJson().toString());
+			System.out.println("\tClient assets "+(correct ? "match the server." : "DIFFER FROM THE SERVER."));
+		} finally {
+			Utils.deleteDirectory(cache);
+		}
+		if(!correct) System.exit(1);
+	}
+
+	/** Runs the asset part of the handshake. */
+	private static int join(AssetManifest server, Path cache, ByteArrayOutputStream out) throws IOException {
+		JsonObject cachedAssets = AssetManifest.read(cache.toString(), false).toJson();
+		out.reset();
+		server.writeMissingFiles(cachedAssets, out);
+		byte[] data = out.toByteArray();
+		return AssetManifest.update(cache.toString(), data, 0, data.length);
+	}
+}
@@ -0,0 +1,193 @@
+package cubyz.multiplayer;
+
+import java.util.Random;
+
+import cubyz.Settings;
+import cubyz.world.Chunk;
+
+/**
+ * Measures the bytes per second that are needed to send the entity positions to all users,
+ * once in the old format with full precision for every entity to every user
+ * and once with {@link EntitySnapshot}s filtered by {@link Settings#entityDistance} and encoded as delta to the last acknowledged snapshot.<br>
+ * Simulates users walking around an area full of item entities, some of which get kicked around. Packets and acknowledgements get lost at random.
+ * Checks that the client state matches the server state after every received packet.<br>
+ * Usage: java cubyz.multiplayer.EntitySnapshotBenchmark [items] [users] [seconds]
+ */
+public final class EntitySnapshotBenchmark {
+	private EntitySnapshotBenchmark() {} // No instances allowed.
+
+	private static final int UPDATES_PER_SEC = 20;
+	private static final int AREA_SIZE = 256;
+	private static final double PACKET_LOSS = 0.05;
+	private static final double KICK_CHANCE = 0.002; // per item and tick
+	private static final float GRAVITY = 9.81F*1.5F;
+	private static final double WALKING_SPEED = 4;
+	/** The old formats: id, position, rotation and velocity of each entity, index, position and velocity of each item entity. */
+	private static final int OLD_ENTITY_SIZE = 4 + 3*8 + 3*4 + 3*8;
+	private static final int OLD_ITEM_SIZE = 2 + 6*8;
+	/** protocol id, type, time */
+	private static final int OLD_HEADER_SIZE = 1 + 1 + 2;
+	/** protocol id, type, time, sequence, baseline */
+	private static final int NEW_HEADER_SIZE = 1 + 1 + 2 + 4 + 4;
+	private static final int ACKNOWLEDGEMENT_SIZE = 1 + 1 + 1 + 4;
+
+	private static double[] items;
+	private static double[] itemVelocities;
+	private static double[] users;
+	private static double[] userVelocities;
+	private static float[] userRotations;
+	private static double time = 0;
+
+	public static void main(String[] args) {
+		int itemCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int userCount = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+		int ticks = seconds*UPDATES_PER_SEC;
+		Random rand = new Random(0);
+		items = new double[3*itemCount];
+		itemVelocities = new double[3*itemCount];
+		for(int i = 0; i < itemCount; i++) {
+			items[3*i] = rand.nextDouble()*AREA_SIZE;
+			items[3*i + 2] = rand.nextDouble()*AREA_SIZE;
+		}
+		users = new double[3*userCount];
+		userVelocities = new double[3*userCount];
+		userRotations = new float[3*userCount];
+		for(int i = 0; i < userCount; i++) {
+			users[3*i] = rand.nextDouble()*AREA_SIZE;
+			users[3*i + 2] = rand.nextDouble()*AREA_SIZE;
+		}
+
+		EntitySnapshot.History[] serverEntities = new EntitySnapshot.History[userCount];
+		EntitySnapshot.History[] serverItems = new EntitySnapshot.History[userCount];
+		EntitySnapshot.History[] clientEntities = new EntitySnapshot.History[userCount];
+		EntitySnapshot.History[] clientItems = new EntitySnapshot.History[userCount];
+		for(int i = 0; i < userCount; i++) {
+			serverEntities[i] = new EntitySnapshot.History();
+			serverItems[i] = new EntitySnapshot.History();
+			clientEntities[i] = new EntitySnapshot.History();
+			clientItems[i] = new EntitySnapshot.History();
+		}
+		long oldBytes = 0, fullBytes = 0, interestBytes = 0, newBytes = 0, acknowledgementBytes = 0;
+		long sentEntities = 0;
+		int lostPackets = 0;
+		long encodingTime = 0;
+		boolean correct = true;
+		for(int tick = 0; tick < ticks; tick++) {
+			simulate(rand);
+			for(int user = 0; user < userCount; user++) {
+				oldBytes += wireBytes(OLD_HEADER_SIZE + userCount*OLD_ENTITY_SIZE) + wireBytes(OLD_HEADER_SIZE + itemCount*OLD_ITEM_SIZE);
+
+				// Only quantization:
+				EntitySnapshot allItems = new EntitySnapshot(-1);
+				for(int i = 0; i < itemCount; i++) {
+					allItems.add(i, items[3*i], items[3*i + 1], items[3*i + 2], itemVelocities[3*i], itemVelocities[3*i + 1], itemVelocities[3*i + 2], 0, 0, 0);
+				}
+				fullBytes += wireBytes(NEW_HEADER_SIZE + allItems.encodeDelta(EntitySnapshot.EMPTY, 0).length);
+
+				long start = System.nanoTime();
+				EntitySnapshot entities = new EntitySnapshot(serverEntities[user].nextSequence());
+				EntitySnapshot itemsInRange = new EntitySnapshot(serverItems[user].nextSequence());
+				for(int i = 0; i < userCount; i++) {
+					if(!isInRange(user, users[3*i], users[3*i + 1], users[3*i + 2])) continue;
+					entities.add(i, users[3*i], users[3*i + 1], users[3*i + 2], userVelocities[3*i], userVelocities[3*i + 1], userVelocities[3*i + 2], userRotations[3*i], userRotations[3*i + 1], userRotations[3*i + 2]);
+				}
+				for(int i = 0; i < itemCount; i++) {
+					if(!isInRange(user, items[3*i], items[3*i + 1], items[3*i + 2])) continue;
+					itemsInRange.add(i, items[3*i], items[3*i + 1], items[3*i + 2], itemVelocities[3*i], itemVelocities[3*i + 1], itemVelocities[3*i + 2], 0, 0, 0);
+				}
+				sentEntities += entities.size() + itemsInRange.size();
+				EntitySnapshot entityBaseline = serverEntities[user].getBaseline();
+				byte[] entityData = entities.encodeDelta(entityBaseline, 0);
+				serverEntities[user].put(entities);
+				EntitySnapshot itemBaseline = serverItems[user].getBaseline();
+				byte[] itemData = itemsInRange.encodeDelta(itemBaseline, 0);
+				serverItems[user].put(itemsInRange);
+				encodingTime += System.nanoTime() - start;
+				// Quantization and interest management without delta:
+				interestBytes += wireBytes(NEW_HEADER_SIZE + itemsInRange.encodeDelta(EntitySnapshot.EMPTY, 0).length);
+				newBytes += wireBytes(NEW_HEADER_SIZE + entityData.length) + wireBytes(NEW_HEADER_SIZE + itemData.length);
+
+				// Receive it on the client:
+				EntitySnapshot[] sent = {entities, itemsInRange};
+				EntitySnapshot[] baselines = {entityBaseline, itemBaseline};
+				byte[][] data = {entityData, itemData};
+				EntitySnapshot.History[] server = {serverEntities[user], serverItems[user]};
+				EntitySnapshot.History[] client = {clientEntities[user], clientItems[user]};
+				for(int type = 0; type < 2; type++) {
+					if(rand.nextDouble() < PACKET_LOSS) {
+						lostPackets++;
+						continue;
+					}
+					EntitySnapshot baseline = client[type].get(baselines[type].sequence);
+					if(baseline == null) {
+						correct = false;
+						continue;
+					}
+					EntitySnapshot received = EntitySnapshot.decodeDelta(data[type], 0, data[type].length, baseline, sent[type].sequence);
+					correct &= received.sameState(sent[type]);
+					client[type].put(received);
+					acknowledgementBytes += wireBytes(ACKNOWLEDGEMENT_SIZE);
+					if(rand.nextDouble() < PACKET_LOSS) continue;
+					server[type].acknowledge(received.sequence);
+				}
+			}
+		}
+		System.out.println(itemCount+" item entities, "+userCount+" users, "+seconds+" s at "+UPDATES_PER_SEC+" updates/s, "+(int)(PACKET_LOSS*100)+"% packet loss: "+(correct ? "correct" : "CLIENT STATE DIFFERS"));
+		System.out.println("\tOn average "+sentEntities/ticks/userCount+" entities in range of each user.");
+		System.out.println("\tOld format:                    "+oldBytes/seconds+" bytes/s");
+		System.out.println("\tQuantized items, no filter:    "+fullBytes/seconds+" bytes/s (items only)");
+		System.out.println("\tQuantized items in range:      "+interestBytes/seconds+" bytes/s (items only)");
+		System.out.println("\tDelta to acknowledged snapshot: "+newBytes/seconds+" bytes/s + "+acknowledgementBytes/seconds+" bytes/s of acknowledgements");
+		System.out.println("\t"+String.format("%.1f", oldBytes/(double)newBytes)+"x less sent by the server, encoded in "+encodingTime/ticks/1000+" µs per tick, "+lostPackets+" packets lost.");
+		if(!correct) System.exit(1);
+	}
+
+	/** UDP and IP headers, including the IP fragments of large packets. */
+	private static long wireBytes(int payload) {
+		return payload + 8 + 20*((payload + 8 + 1479)/1480);
+	}
+
+	private static boolean isInRange(int user, double x, double y, double z) {
+		double maxDistance = Settings.entityDistance << Chunk.chunkShift;
+		double dx = x - users[3*user];
+		double dy = y - users[3*user + 1];
+		double dz = z - users[3*user + 2];
+		return dx*dx + dy*dy + dz*dz < maxDistance*maxDistance;
+	}
+
+	private static void simulate(Random rand) {
+		double deltaTime = 1.0/UPDATES_PER_SEC;
+		time += deltaTime;
+		for(int i = 0; i < users.length/3; i++) {
+			if(rand.nextInt(100) == 0 || userVelocities[3*i] == 0) {
+				double angle = rand.nextDouble()*2*Math.PI;
+				userVelocities[3*i] = Math.cos(angle)*WALKING_SPEED;
+				userVelocities[3*i + 2] = Math.sin(angle)*WALKING_SPEED;
+				userRotations[3*i + 1] = (float)angle;
+			}
+			userRotations[3*i] = (float)Math.sin(i + time)/2; // Looking up and down.
+			for(int j = 0; j < 3; j += 2) {
+				users[3*i + j] += userVelocities[3*i + j]*deltaTime;
+				if(users[3*i + j] < 0) users[3*i + j] += AREA_SIZE;
+				if(users[3*i + j] >= AREA_SIZE) users[3*i + j] -= AREA_SIZE;
+			}
+		}
+		for(int i = 0; i < items.length/3; i++) {
+			if(rand.nextDouble() < KICK_CHANCE) {
+				itemVelocities[3*i] = rand.nextGaussian()*3;
+				itemVelocities[3*i + 1] = 5;
+				itemVelocities[3*i + 2] = rand.nextGaussian()*3;
+			}
+			if(itemVelocities[3*i + 1] == 0 && items[3*i + 1] == 0) continue; // Resting on the ground.
+			itemVelocities[3*i + 1] -= GRAVITY*deltaTime;
+			for(int j = 0; j < 3; j++) {
+				items[3*i + j] += itemVelocities[3*i + j]*deltaTime;
+			}
+			if(items[3*i + 1] <= 0) {
+				items[3*i + 1] = 0;
+				itemVelocities[3*i] = itemVelocities[3*i + 1] = itemVelocities[3*i + 2] = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package cubyz.multiplayer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Transfers data over a simulated slow and lossy link between two connections on the loopback interface
+ * and reports the goodput and the number of resent packets.<br>
+ * The link has a limited bandwidth with a drop-tail queue, a fixed delay, random loss and random reordering.<br>
+ * Usage: java cubyz.multiplayer.LossyLinkBenchmark [delay ms] [loss %] [reordering %] [bandwidth KiB/s] [queue KiB] [transfer KiB]
+ */
+public final class LossyLinkBenchmark {
+	private LossyLinkBenchmark() {} // No instances allowed.
+
+	private static final int SENDER_PORT = 47660;
+	private static final int RECEIVER_PORT = 47670;
+	private static final int MESSAGE_SIZE = 16384;
+	private static final long TIME_LIMIT = 120_000_000_000L;
+
+	/** Counts the received bytes. */
+	private static final class DataProtocol extends Protocol {
+		private volatile long receivedBytes = 0;
+
+		private DataProtocol() {
+			super((byte)0xfd);
+		}
+
+		@Override
+		public void receive(UDPConnection conn, byte[] data, int offset, int length) {
+			receivedBytes += length;
+		}
+	}
+
+	private static final class Packet implements Comparable<Packet> {
+		private final long arrivalTime;
+		private final byte[] data;
+		private final DatagramChannel channel;
+		private final InetSocketAddress target;
+
+		private Packet(long arrivalTime, byte[] data, DatagramChannel channel, InetSocketAddress target) {
+			this.arrivalTime = arrivalTime;
+			this.data = data;
+			this.channel = channel;
+			this.target = target;
+		}
+
+		@Override
+		public int compareTo(Packet other) {
+			return Long.compare(arrivalTime, other.arrivalTime);
+		}
+	}
+
+	/**
+	 * Forwards packets between two sides. Each direction has its own bandwidth limited queue.
+	 */
+	private static final class LinkSimulator extends Thread {
+		private final long delay, queueTime;
+		private final double loss, reordering, nanosPerByte;
+		private final Random rand = new Random(0);
+		private final Selector selector;
+		private final DatagramChannel senderSide, receiverSide;
+		private final InetSocketAddress sender, receiver;
+		private final long[] linkFreeTime = new long[2];
+		private final PriorityQueue<Packet> packets = new PriorityQueue<>();
+		private volatile boolean running = true;
+		private long droppedPackets = 0;
+
+		private LinkSimulator(long delay, double loss, double reordering, double bytesPerSecond, int queueBytes, InetSocketAddress sender, InetSocketAddress receiver) throws IOException {
+			super("Link simulator");
+			this.delay = delay;
+			this.loss = loss;
+			this.reordering = reordering;
+			this.sender = sender;
+			this.receiver = receiver;
+			nanosPerByte = 1e9/bytesPerSecond;
+			queueTime = (long)(queueBytes*nanosPerByte);
+			selector = Selector.open();
+			senderSide = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+			receiverSide = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+			senderSide.configureBlocking(false);
+			receiverSide.configureBlocking(false);
+			senderSide.register(selector, SelectionKey.OP_READ);
+			receiverSide.register(selector, SelectionKey.OP_READ);
+		}
+
+		private InetSocketAddress getSenderSideAddress() throws IOException {
+			return (InetSocketAddress)senderSide.getLocalAddress();
+		}
+
+		private InetSocketAddress getReceiverSideAddress() throws IOException {
+			return (InetSocketAddress)receiverSide.getLocalAddress();
+		}
+
+		private void forward(ByteBuffer buffer, int direction, DatagramChannel channel, InetSocketAddress target) {
+			long time = System.nanoTime();
+			int size = buffer.remaining() + 20 + 8;
+			long start = Math.max(time, linkFreeTime[direction]);
+			if(start - time > queueTime || rand.nextDouble() < loss) {
+				droppedPackets++;
+				return;
+			}
+			linkFreeTime[direction] = start + (long)(size*nanosPerByte);
+			long arrivalTime = linkFreeTime[direction] + delay;
+			if(rand.nextDouble() < reordering) {
+				arrivalTime += (long)(rand.nextDouble()*delay);
+			}
+			byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			packets.add(new Packet(arrivalTime, data, channel, target));
+		}
+
+		@Override
+		public void run() {
+			ByteBuffer buffer = ByteBuffer.allocate(65536);
+			try {
+				while(running) {
+					long time = System.nanoTime();
+					while(!packets.isEmpty() && packets.peek().arrivalTime <= time) {
+						Packet packet = packets.poll();
+						packet.channel.send(ByteBuffer.wrap(packet.data), packet.target);
+					}
+					long timeout = packets.isEmpty() ? 10 : Math.max(1, (packets.peek().arrivalTime - time)/1000000);
+					selector.select(timeout);
+					selector.selectedKeys().clear();
+					while(true) {
+						buffer.clear();
+						if(senderSide.receive(buffer) == null) break;
+						buffer.flip();
+						forward(buffer, 0, receiverSide, receiver);
+					}
+					while(true) {
+						buffer.clear();
+						if(receiverSide.receive(buffer) == null) break;
+						buffer.flip();
+						forward(buffer, 1, senderSide, sender);
+					}
+				}
+				selector.close();
+				senderSide.close();
+				receiverSide.close();
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		long delay = (args.length > 0 ? Integer.parseInt(args[0]) : 50)*1000000L;
+		double loss = (args.length > 1 ? Double.parseDouble(args[1]) : 2)/100;
+		double reordering = (args.length > 2 ? Double.parseDouble(args[2]) : 10)/100;
+		double bandwidth = (args.length > 3 ? Integer.parseInt(args[3]) : 1024)*1024.0;
+		int queueBytes = (args.length > 4 ? Integer.parseInt(args[4]) : 64)*1024;
+		long transferBytes = (args.length > 5 ? Integer.parseInt(args[5]) : 4096)*1024L;
+		DataProtocol protocol = new DataProtocol();
+
+		UDPConnectionManager senderManager = new UDPConnectionManager(SENDER_PORT, false);
+		UDPConnectionManager receiverManager = new UDPConnectionManager(RECEIVER_PORT, false);
+		InetSocketAddress senderAddress = new InetSocketAddress("127.0.0.1", senderManager.getLocalPort());
+		InetSocketAddress receiverAddress = new InetSocketAddress("127.0.0.1", receiverManager.getLocalPort());
+		LinkSimulator link = new LinkSimulator(delay, loss, reordering, bandwidth, queueBytes, senderAddress, receiverAddress);
+		link.start();
+		UDPConnection sender = new UDPConnection(senderManager, "127.0.0.1:"+link.getSenderSideAddress().getPort());
+		UDPConnection receiver = new UDPConnection(receiverManager, "127.0.0.1:"+link.getReceiverSideAddress().getPort()) {
+			@Override
+			protected boolean canReceive(byte protocol) {
+				return true;
+			}
+		};
+		// Important packets and acknowledgements are accepted before the handshake, so the handshake can be skipped.
+
+		int sentBefore = UDPConnection.packets_sent;
+		int resentBefore = UDPConnection.packets_resent;
+		long start = System.nanoTime();
+		byte[] message = new byte[MESSAGE_SIZE];
+		for(long sent = 0; sent < transferBytes; sent += MESSAGE_SIZE) {
+			sender.sendImportant(protocol, message);
+		}
+		while(protocol.receivedBytes < transferBytes && System.nanoTime() - start < TIME_LIMIT) {
+			Thread.sleep(1);
+		}
+		long time = System.nanoTime() - start;
+		int sent = UDPConnection.packets_sent - sentBefore;
+		int resent = UDPConnection.packets_resent - resentBefore;
+
+		System.out.println("Link: "+delay/1000000+" ms delay, "+loss*100+"% loss, "+reordering*100+"% reordered, "+(int)(bandwidth/1024)+" KiB/s, "+queueBytes/1024+" KiB queue");
+		System.out.println("\tTransferred "+protocol.receivedBytes/1024+" of "+transferBytes/1024+" KiB in "+time/1000000+" ms: "+(long)(protocol.receivedBytes/1024*1e9/time)+" KiB/s goodput");
+		System.out.println("\t"+sent+" packets sent, "+resent+" resent, "+link.droppedPackets+" dropped by the link");
+		System.out.println("\tSender: RTT "+Math.round(sender.getRoundTripTime())+" ms, bandwidth "+(long)sender.getBandwidth()/1024+" KiB/s, window "+sender.getCongestionWindow()+" packets, "+Math.round(1000*sender.getLossRate())/10.0+"% loss");
+		link.running = false;
+		link.join();
+		senderManager.cleanup();
+		receiverManager.cleanup();
+	}
+}
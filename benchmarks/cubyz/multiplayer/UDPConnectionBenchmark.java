@@ -0,0 +1,114 @@
+package cubyz.multiplayer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+
+import cubyz.utils.math.Bits;
+
+/**
+ * Loopback load test for the {@link UDPConnectionManager}.<br>
+ * Opens a manager with one connection per simulated client. Every client keeps a few packets in flight,
+ * which the server sends back through its connection. Reports the round trips per second and the latency percentiles.<br>
+ * Usage: java cubyz.multiplayer.UDPConnectionBenchmark [connections] [seconds] [receive threads]
+ */
+public final class UDPConnectionBenchmark {
+	private UDPConnectionBenchmark() {} // No instances allowed.
+
+	private static final int SERVER_PORT = 47650;
+	private static final int PACKETS_IN_FLIGHT = 4;
+	private static final int PAYLOAD_SIZE = 64;
+	private static final int WARMUP_SECONDS = 1;
+
+	/** Sends every packet back. */
+	private static final class EchoProtocol extends Protocol {
+		private EchoProtocol() {
+			super((byte)0xfd);
+		}
+
+		@Override
+		public void receive(UDPConnection conn, byte[] data, int offset, int length) {
+			conn.sendUnimportant(this, data, offset, length);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int connectionCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int receiveThreads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		EchoProtocol echo = new EchoProtocol();
+
+		UDPConnectionManager server = new UDPConnectionManager(SERVER_PORT, false, receiveThreads);
+		InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getLocalPort());
+		Selector selector = Selector.open();
+		DatagramChannel[] clients = new DatagramChannel[connectionCount];
+		for(int i = 0; i < connectionCount; i++) {
+			clients[i] = DatagramChannel.open();
+			clients[i].bind(new InetSocketAddress("127.0.0.1", 0));
+			clients[i].configureBlocking(false);
+			clients[i].register(selector, SelectionKey.OP_READ);
+			UDPConnection connection = new UDPConnection(server, "127.0.0.1:"+((InetSocketAddress)clients[i].getLocalAddress()).getPort());
+			connection.handShakeComplete = true;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+		byte[] data = new byte[1 + PAYLOAD_SIZE];
+		data[0] = echo.id;
+		for(DatagramChannel client : clients) {
+			for(int i = 0; i < PACKETS_IN_FLIGHT; i++) {
+				send(client, buffer, data, serverAddress);
+			}
+		}
+
+		long[] latencies = new long[1 << 20];
+		int count = 0;
+		long start = System.nanoTime();
+		long measurementStart = start + WARMUP_SECONDS*1000000000L;
+		long end = measurementStart + seconds*1000000000L;
+		while(System.nanoTime() < end) {
+			selector.select(100);
+			for(SelectionKey key : selector.selectedKeys()) {
+				DatagramChannel client = (DatagramChannel)key.channel();
+				while(true) {
+					buffer.clear();
+					SocketAddress sender = client.receive(buffer);
+					if(sender == null) break;
+					buffer.flip();
+					if(buffer.remaining() != data.length || buffer.get(0) != echo.id) continue; // keep-alive
+					long now = System.nanoTime();
+					long sendTime = buffer.getLong(1);
+					if(sendTime >= measurementStart && count < latencies.length) {
+						latencies[count++] = now - sendTime;
+					}
+					send(client, buffer, data, serverAddress);
+				}
+			}
+			selector.selectedKeys().clear();
+		}
+		server.cleanup();
+		for(DatagramChannel client : clients) {
+			client.close();
+		}
+		selector.close();
+
+		Arrays.sort(latencies, 0, count);
+		System.out.println(connectionCount+" connections, "+receiveThreads+" receive thread(s), "+PACKETS_IN_FLIGHT+" packets in flight per connection:");
+		System.out.println("\t"+count/seconds+" round trips/s");
+		if(count != 0) {
+			System.out.println("\tlatency p50: "+latencies[count/2]/1000+" µs, p99: "+latencies[(int)(count*0.99)]/1000+" µs, max: "+latencies[count - 1]/1000+" µs");
+		}
+	}
+
+	private static void send(DatagramChannel client, ByteBuffer buffer, byte[] data, InetSocketAddress serverAddress) throws IOException {
+		Bits.putLong(data, 1, System.nanoTime());
+		buffer.clear();
+		buffer.put(data);
+		buffer.flip();
+		client.send(buffer, serverAddress);
+	}
+}
@@ -0,0 +1,130 @@
+package cubyz.multiplayer.protocols;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import cubyz.utils.datastructures.IntSimpleList;
+import cubyz.world.Chunk;
+import cubyz.world.ChunkData;
+
+/**
+ * Measures the bytes on the wire for block edits of about 10000 blocks,
+ * once with one packet per block and once with the batches of the {@link BlockUpdateProtocol}.<br>
+ * Also checks that the batches decode to the same changes.<br>
+ * Usage: java cubyz.multiplayer.protocols.BlockUpdateBenchmark
+ */
+public final class BlockUpdateBenchmark {
+	private BlockUpdateBenchmark() {} // No instances allowed.
+
+	/** Payload of an important packet: Ethernet MTU minus IP and UDP header minus the packet header. */
+	private static final int DATAGRAM_PAYLOAD = 1500 - 20 - 8 - 5;
+	private static final int DATAGRAM_OVERHEAD = 20 + 8 + 5;
+	private static final int SINGLE_UPDATE_SIZE = 1 + 4*4;
+
+	public static void main(String[] args) {
+		Random rand = new Random(0);
+		IntSimpleList wall = new IntSimpleList();
+		for(int x = 0; x < 100; x++) {
+			for(int y = 0; y < 100; y++) {
+				add(wall, x, y, 7, 1);
+			}
+		}
+		run("100x100 wall of one block", wall);
+
+		IntSimpleList explosion = new IntSimpleList();
+		for(int x = -14; x <= 14; x++) {
+			for(int y = -14; y <= 14; y++) {
+				for(int z = -14; z <= 14; z++) {
+					if(x*x + y*y + z*z <= 13.4*13.4) add(explosion, x, y, z, 0);
+				}
+			}
+		}
+		run("Explosion with radius 13.4", explosion);
+
+		IntSimpleList scattered = new IntSimpleList();
+		for(int i = 0; i < 10000; i++) {
+			add(scattered, rand.nextInt(64), rand.nextInt(64), rand.nextInt(64), rand.nextInt(8) + 1);
+		}
+		run("10000 random changes of 8 blocks in a 64³ area", scattered);
+
+		IntSimpleList cube = new IntSimpleList();
+		for(int x = 0; x < 22; x++) {
+			for(int y = 0; y < 22; y++) {
+				for(int z = 0; z < 22; z++) {
+					add(cube, x, y, z, rand.nextInt(4) + 1);
+				}
+			}
+		}
+		run("22³ cube of 4 blocks inside one chunk", cube);
+	}
+
+	private static void add(IntSimpleList changes, int x, int y, int z, int block) {
+		changes.add(x);
+		changes.add(y);
+		changes.add(z);
+		changes.add(block);
+	}
+
+	private static int messageSize(int length) {
+		int size = 1 + length; // protocol id
+		do {
+			size++;
+			length >>>= 7;
+		} while(length != 0);
+		return size;
+	}
+
+	private static long wireBytes(long streamBytes) {
+		return streamBytes + (streamBytes + DATAGRAM_PAYLOAD - 1)/DATAGRAM_PAYLOAD*DATAGRAM_OVERHEAD;
+	}
+
+	private static void run(String name, IntSimpleList changes) {
+		int count = changes.size/4;
+		long singleBytes = wireBytes((long)count*messageSize(SINGLE_UPDATE_SIZE));
+
+		// Group the changes by chunk, like BlockUpdateProtocol.queue does:
+		LinkedHashMap<ChunkData, IntSimpleList> chunks = new LinkedHashMap<>();
+		for(int i = 0; i < changes.size; i += 4) {
+			int x = changes.array[i], y = changes.array[i + 1], z = changes.array[i + 2];
+			ChunkData chunk = new ChunkData(x & ~Chunk.chunkMask, y & ~Chunk.chunkMask, z & ~Chunk.chunkMask, 1);
+			chunks.computeIfAbsent(chunk, key -> new IntSimpleList()).add(Chunk.getIndex(x & Chunk.chunkMask, y & Chunk.chunkMask, z & Chunk.chunkMask));
+			chunks.get(chunk).add(changes.array[i + 3]);
+		}
+		long batchStream = 0;
+		int fullChunks = 0;
+		int uniqueChanges = 0;
+		long start = System.nanoTime();
+		for(Map.Entry<ChunkData, IntSimpleList> entry : chunks.entrySet()) {
+			ChunkData chunk = entry.getKey();
+			long[] sorted = BlockUpdateProtocol.sortChanges(entry.getValue());
+			uniqueChanges += sorted.length;
+			if(sorted.length > BlockUpdateProtocol.FULL_CHUNK_THRESHOLD) {
+				fullChunks++;
+				continue;
+			}
+			byte[] data = BlockUpdateProtocol.encodeBatch(chunk.wx, chunk.wy, chunk.wz, sorted);
+			batchStream += messageSize(data.length);
+			// Check the result:
+			int[] index = {0};
+			BlockUpdateProtocol.decodeBatch(data, 1, (x, y, z, block) -> {
+				long expected = sorted[index[0]++];
+				int expectedIndex = (int)(expected >>> 32);
+				if(x != chunk.wx + (expectedIndex >> Chunk.chunkShift & Chunk.chunkMask) || y != chunk.wy + (expectedIndex >> Chunk.chunkShift2 & Chunk.chunkMask) || z != chunk.wz + (expectedIndex & Chunk.chunkMask) || block != (int)expected) {
+					throw new IllegalStateException("Decoded change "+x+" "+y+" "+z+" "+block+" doesn't match.");
+				}
+			});
+			if(index[0] != sorted.length) throw new IllegalStateException("Decoded "+index[0]+" of "+sorted.length+" changes.");
+		}
+		long time = System.nanoTime() - start;
+		long batchBytes = wireBytes(batchStream);
+		System.out.println(name+": "+count+" changes, "+uniqueChanges+" unique, in "+chunks.size()+" chunks.");
+		System.out.println("\tOne packet per block: "+singleBytes+" bytes.");
+		if(fullChunks != 0) {
+			System.out.println("\t"+fullChunks+" chunks passed the threshold of "+BlockUpdateProtocol.FULL_CHUNK_THRESHOLD+" changes and are sent as a whole instead.");
+		}
+		if(batchStream != 0) {
+			System.out.println("\tBatched: "+batchBytes+" bytes ("+String.format("%.1f", singleBytes/(double)batchBytes)+"x smaller), encoded in "+time/1000+" µs.");
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package cubyz.multiplayer.server;
+
+import java.util.HashSet;
+
+import cubyz.Settings;
+import cubyz.world.Chunk;
+import cubyz.world.ChunkData;
+import org.joml.Vector3f;
+
+/**
+ * Simulates several users that request the chunks in their render distance every tick, like the client does,
+ * and reports how the {@link ChunkSendQueue} shares the bandwidth between them.<br>
+ * One user stands still, one turns around, one flies away and one joins late.
+ * The chunks are not generated or compressed, they are replaced by data of a typical size.<br>
+ * Usage: java cubyz.multiplayer.server.ChunkSendQueueBenchmark [seconds] [render distance] [total KiB/s]
+ */
+public final class ChunkSendQueueBenchmark {
+	private ChunkSendQueueBenchmark() {} // No instances allowed.
+
+	private static final int TICK_TIME = 50;
+	private static final int CHUNK_BYTES = 6000;
+	private static final int REDUCED_CHUNK_BYTES = 2000;
+	private static final String[] NAMES = {"standing", "turning", "flying", "late"};
+
+	private static final class SimulatedUser extends ChunkSendQueue {
+		private final String name;
+		private final Vector3f rotation = new Vector3f();
+		private double x, y, z;
+		private final HashSet<ChunkData> received = new HashSet<>();
+		private long nearbyTime = -1;
+		private int maxSize = 0;
+		private double sentDistance = 0;
+
+		private SimulatedUser(String name) {
+			super(null);
+			this.name = name;
+		}
+
+		@Override
+		protected byte[] encode(ChunkData chunk) {
+			received.add(chunk);
+			sentDistance += Math.sqrt(chunk.getMinDistanceSquared(x, y, z));
+			return new byte[chunk.voxelSize == 1 ? CHUNK_BYTES : REDUCED_CHUNK_BYTES];
+		}
+
+		@Override
+		protected void send(byte[] data) {}
+
+		@Override
+		protected boolean isConnectionBusy() {
+			return false;
+		}
+
+		/** Requests every chunk in render distance that didn't arrive yet. */
+		private void request(int renderDistance, float LODFactor) {
+			for(int voxelSize = 1; voxelSize <= 2; voxelSize *= 2) {
+				int size = voxelSize*Chunk.chunkSize;
+				int cx = (int)Math.floor(x/size), cy = (int)Math.floor(y/size), cz = (int)Math.floor(z/size);
+				int range = renderDistance;
+				for(int dx = -range; dx <= range; dx++) {
+					for(int dy = -range; dy <= range; dy++) {
+						for(int dz = -range; dz <= range; dz++) {
+							ChunkData chunk = new ChunkData((cx + dx)*size, (cy + dy)*size, (cz + dz)*size, voxelSize);
+							if(!received.contains(chunk) && chunk.isInRenderDistance(x, y, z, renderDistance, LODFactor)) {
+								add(chunk);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		private boolean hasNearbyChunks() {
+			for(int dx = -2; dx < 2; dx++) {
+				for(int dy = -2; dy < 2; dy++) {
+					for(int dz = -2; dz < 2; dz++) {
+						int wx = (int)Math.floor(x/Chunk.chunkSize + dx)*Chunk.chunkSize;
+						int wy = (int)Math.floor(y/Chunk.chunkSize + dy)*Chunk.chunkSize;
+						int wz = (int)Math.floor(z/Chunk.chunkSize + dz)*Chunk.chunkSize;
+						if(!received.contains(new ChunkData(wx, wy, wz, 1))) return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 15;
+		int renderDistance = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+		Settings.chunkBandwidthTotal = (args.length > 2 ? Integer.parseInt(args[2]) : 3072)*1024;
+		float LODFactor = 1;
+		SimulatedUser[] users = new SimulatedUser[NAMES.length];
+		for(int i = 0; i < users.length; i++) {
+			users[i] = new SimulatedUser(NAMES[i]);
+		}
+		int ticks = seconds*1000/TICK_TIME;
+		ChunkSender sender = new ChunkSender();
+		long start = System.nanoTime();
+		for(int tick = 0; tick < ticks; tick++) {
+			double time = tick*TICK_TIME/1000.0;
+			users[1].rotation.y = (float)(time*Math.PI/5);
+			users[2].x = 40*time;
+			int activeUsers = time < seconds/3.0 ? users.length - 1 : users.length;
+			ChunkSendQueue[] queues = new ChunkSendQueue[activeUsers];
+			for(int i = 0; i < activeUsers; i++) {
+				SimulatedUser user = users[i];
+				user.setView(user.x, user.y, user.z, user.rotation, renderDistance, LODFactor);
+				user.request(renderDistance, LODFactor);
+				queues[i] = user;
+			}
+			sender.sendChunks(queues);
+			for(int i = 0; i < activeUsers; i++) {
+				SimulatedUser user = users[i];
+				user.maxSize = Math.max(user.maxSize, user.size());
+				long elapsed = (System.nanoTime() - start)/1000000;
+				if(user.nearbyTime == -1 && user.hasNearbyChunks()) user.nearbyTime = elapsed;
+			}
+			long sleep = start/1000000 + (tick + 1)*TICK_TIME - System.nanoTime()/1000000;
+			if(sleep > 0) Thread.sleep(sleep);
+		}
+		double time = (System.nanoTime() - start)/1e9;
+
+		System.out.println(users.length+" users, render distance "+renderDistance+", "+Settings.chunkBandwidthPerUser/1024+" KiB/s per user, "+Settings.chunkBandwidthTotal/1024+" KiB/s total, "+seconds+" s");
+		long totalBytes = 0;
+		for(SimulatedUser user : users) {
+			totalBytes += user.getBytesSent();
+			System.out.println("\t"+user.name+": "+(long)(user.getBytesSent()/1024/time)+" KiB/s, "+user.getChunksSent()+" chunks sent, average distance "+(int)(user.sentDistance/Math.max(1, user.getChunksSent()))
+				+", nearby chunks after "+user.nearbyTime+" ms, queue at most "+user.maxSize+" now "+user.size()+", "+user.getDuplicates()+" duplicate requests, "+user.getDropped()+" dropped");
+		}
+		System.out.println("\tTotal: "+(long)(totalBytes/1024/time)+" KiB/s");
+	}
+}
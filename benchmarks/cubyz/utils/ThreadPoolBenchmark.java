@@ -0,0 +1,99 @@
+package cubyz.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress test for the {@link ThreadPool} with chunk-like tasks: Several threads queue tasks around a moving player.
+ * Some tasks get cancelled and some leave the render distance before they are run.<br>
+ * Reports the throughput and the time the tasks spent in the queue.<br>
+ * Usage: java cubyz.utils.ThreadPoolBenchmark [number of tasks] [work per task in µs]
+ */
+public final class ThreadPoolBenchmark {
+	private ThreadPoolBenchmark() {} // No instances allowed.
+
+	private static final int PRODUCERS = 4;
+	private static final int RENDER_DISTANCE = 64; // in chunks
+
+	private static volatile double playerX = 0;
+	private static volatile long sink;
+
+	private static class TestTask extends ThreadPool.Task {
+		private final int x, y, z;
+		private final long work;
+		private final long[] latencies;
+		private final int index;
+		private TestTask(int x, int y, int z, long work, long[] latencies, int index) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.work = work;
+			this.latencies = latencies;
+			this.index = index;
+		}
+
+		@Override
+		public float getPriority() {
+			double dx = x - playerX;
+			return -(float)(dx*dx + y*y + z*z);
+		}
+
+		@Override
+		public boolean isStillNeeded() {
+			return Math.abs(x - playerX) <= RENDER_DISTANCE;
+		}
+
+		@Override
+		public void run() {
+			latencies[index] = System.nanoTime() - getQueueTime();
+			long end = System.nanoTime() + work;
+			long value = index;
+			while(System.nanoTime() < end) {
+				value = value*6364136223846793005L + 1442695040888963407L;
+			}
+			sink += value;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int taskCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		long work = (args.length > 1 ? Long.parseLong(args[1]) : 20)*1000;
+		long[] latencies = new long[taskCount];
+		Arrays.fill(latencies, -1);
+		AtomicInteger cancelled = new AtomicInteger();
+
+		long start = System.nanoTime();
+		Thread[] producers = new Thread[PRODUCERS];
+		for(int p = 0; p < PRODUCERS; p++) {
+			final int producer = p;
+			producers[p] = new Thread(() -> {
+				Random rand = new Random(producer);
+				for(int i = producer; i < taskCount; i += PRODUCERS) {
+					TestTask task = new TestTask((int)playerX + rand.nextInt(2*RENDER_DISTANCE) - RENDER_DISTANCE, rand.nextInt(2*RENDER_DISTANCE) - RENDER_DISTANCE, rand.nextInt(2*RENDER_DISTANCE) - RENDER_DISTANCE, work, latencies, i);
+					ThreadPool.Task handle = ThreadPool.addTask(task);
+					if(rand.nextInt(10) == 0) {
+						handle.cancel();
+						cancelled.incrementAndGet();
+					}
+				}
+			});
+			producers[p].start();
+		}
+		// Move the player while the tasks are processed:
+		while(ThreadPool.getQueueSize() != 0 || Arrays.stream(producers).anyMatch(Thread::isAlive)) {
+			Thread.sleep(10);
+			playerX += 0.5;
+		}
+		ThreadPool.clear();
+		long time = System.nanoTime() - start;
+
+		long[] runLatencies = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+		System.out.println("Queued "+taskCount+" tasks on "+PRODUCERS+" threads, "+cancelled.get()+" were cancelled.");
+		System.out.println("Ran "+runLatencies.length+" tasks and discarded "+ThreadPool.tasksDiscarded.get()+" in "+time/1000000+" ms: "+(long)(runLatencies.length*1e9/time)+" tasks/s.");
+		System.out.println(ThreadPool.tasksStolen.get()+" tasks were taken from the queue of another worker.");
+		if(runLatencies.length != 0) {
+			System.out.println("Time in queue: median "+runLatencies[runLatencies.length/2]/1000000+" ms, 99th percentile "+runLatencies[runLatencies.length*99/100]/1000000+" ms, max "+runLatencies[runLatencies.length - 1]/1000000+" ms.");
+		}
+	}
+}
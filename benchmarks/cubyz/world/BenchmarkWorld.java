@@ -0,0 +1,81 @@
+package cubyz.world;
+
+import java.io.File;
+import java.nio.file.Paths;
+
+import org.joml.Vector3d;
+import org.joml.Vector3f;
+
+import cubyz.Constants;
+import cubyz.api.CurrentWorldRegistries;
+import cubyz.api.Side;
+import cubyz.modding.ModLoader;
+import cubyz.multiplayer.server.Server;
+import cubyz.utils.Utils;
+import cubyz.world.items.ItemStack;
+import pixelguys.json.JsonObject;
+import pixelguys.json.JsonParser;
+
+/**
+ * Shared setup of the benchmarks that need a world.<br>
+ * Subclasses only serve chunks, everything else does nothing.
+ * The static methods create a real server world with a fixed seed and delete it again afterwards.
+ */
+public abstract class BenchmarkWorld extends World {
+	public BenchmarkWorld(String name) {
+		super(name);
+	}
+
+	/**
+	 * Creates a new world in the saves folder, replacing an old one with the same name, and loads the mods on the server side.
+	 * The spawn is fixed, so no time is spent searching for it.
+	 */
+	public static ServerWorld createServerWorld(String name, long seed) {
+		Utils.deleteDirectory(Paths.get("saves/"+name));
+		new File("saves/"+name).mkdirs();
+		JsonObject worldData = new JsonObject();
+		worldData.put("version", 1);
+		worldData.put("seed", seed);
+		JsonObject spawn = new JsonObject();
+		spawn.put("x", 0);
+		spawn.put("y", 0); // Skips the spawn search.
+		spawn.put("z", 0);
+		worldData.put("spawn", spawn);
+		JsonParser.storeToFile(worldData, "saves/"+name+"/world.dat");
+
+		Constants.setGameSide(Side.SERVER);
+		ModLoader.load();
+		ServerWorld world = new ServerWorld(name, new JsonObject());
+		Server.world = world;
+		return world;
+	}
+
+	/**
+	 * Cleans up a world from {@link #createServerWorld} and removes it from the saves folder.
+	 */
+	public static void deleteServerWorld(ServerWorld world) {
+		world.cleanup();
+		Server.world = null;
+		Utils.deleteDirectory(Paths.get("saves/"+world.getName()));
+	}
+
+	@Override
+	public void drop(ItemStack stack, Vector3d pos, Vector3f dir, float velocity) {}
+
+	@Override
+	public void updateBlock(int x, int y, int z, int block) {}
+
+	@Override
+	public void update() {}
+
+	@Override
+	public void queueChunks(ChunkData[] chunks) {}
+
+	@Override
+	public void cleanup() {}
+
+	@Override
+	public CurrentWorldRegistries getCurrentRegistries() {
+		return null;
+	}
+}
@@ -0,0 +1,186 @@
+package cubyz.world;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import cubyz.utils.datastructures.HashMapKey3D;
+
+/**
+ * Compares the {@link MetaChunkMap} with rebuilding a HashMap of all MetaChunks every tick, as it was done before.<br>
+ * Simulates players in groups that are far apart and walk in random directions.
+ * Checks that every player has all MetaChunks around it and reports the time and allocations per tick and the lookups per second.<br>
+ * Usage: java cubyz.world.MetaChunkMapBenchmark [players] [ticks]
+ */
+public final class MetaChunkMapBenchmark {
+	private MetaChunkMapBenchmark() {} // No instances allowed.
+
+	private static final int GROUPS = 5;
+	private static final int GROUP_DISTANCE = 100000;
+	private static final double SPEED = 20; // blocks per tick
+	private static final int META_RENDER_DISTANCE = 1;
+	private static final int LOOKUPS = 10000000;
+	private static final int META_SHIFT = MetaChunk.metaChunkShift + Chunk.chunkShift;
+
+	private static double[][] positions;
+	private static double[][] directions;
+
+	public static void main(String[] args) {
+		int players = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		Object[] viewers = new Object[players];
+		for(int i = 0; i < players; i++) {
+			viewers[i] = new Object();
+		}
+
+		// Warm up both implementations first:
+		boolean correct = runOld(players, ticks/4, false);
+		correct &= runNew(viewers, ticks/4, false);
+		correct &= runOld(players, ticks, true);
+		correct &= runNew(viewers, ticks, true);
+		if(!correct) System.exit(1);
+	}
+
+	private static void resetPlayers(int players) {
+		Random rand = new Random(42);
+		positions = new double[players][3];
+		directions = new double[players][3];
+		for(int i = 0; i < players; i++) {
+			int group = i % GROUPS;
+			positions[i][0] = group*GROUP_DISTANCE + rand.nextInt(2000);
+			positions[i][1] = rand.nextInt(200);
+			positions[i][2] = -group*GROUP_DISTANCE + rand.nextInt(2000);
+		}
+	}
+
+	private static void movePlayers(Random rand) {
+		for(int i = 0; i < positions.length; i++) {
+			if(rand.nextInt(100) == 0 || directions[i][0] == 0) {
+				double angle = rand.nextDouble()*2*Math.PI;
+				directions[i][0] = Math.cos(angle)*SPEED;
+				directions[i][2] = Math.sin(angle)*SPEED;
+			}
+			positions[i][0] += directions[i][0];
+			positions[i][2] += directions[i][2];
+		}
+	}
+
+	private static long getAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void report(String name, int ticks, long time, long allocated, long lookupTime, int metaChunks, boolean correct) {
+		System.out.println(name+": "+(correct ? "correct" : "MISSING METACHUNKS")+", "+metaChunks+" metachunks loaded at the end.");
+		System.out.println("\t"+time/ticks/1000+" µs and "+allocated/ticks+" bytes allocated per tick, "+(long)(LOOKUPS*1e9/lookupTime)+" lookups/s.");
+	}
+
+	/**
+	 * The old implementation: All MetaChunks around the players are put into a new HashMap every tick.
+	 */
+	private static boolean runOld(int players, int ticks, boolean print) {
+		resetPlayers(players);
+		Random rand = new Random(0);
+		HashMap<HashMapKey3D, MetaChunk> metaChunks = new HashMap<>();
+		boolean correct = true;
+		long time = 0, allocated = 0;
+		for(int tick = 0; tick < ticks; tick++) {
+			movePlayers(rand);
+			long start = System.nanoTime();
+			long startAllocated = getAllocatedBytes();
+			HashMap<HashMapKey3D, MetaChunk> oldMetaChunks = new HashMap<>(metaChunks);
+			HashMap<HashMapKey3D, MetaChunk> newMetaChunks = new HashMap<>();
+			for(double[] position : positions) {
+				int x0 = (int)position[0] >> META_SHIFT;
+				int y0 = (int)position[1] >> META_SHIFT;
+				int z0 = (int)position[2] >> META_SHIFT;
+				for(int metaX = x0 - META_RENDER_DISTANCE; metaX <= x0 + META_RENDER_DISTANCE + 1; metaX++) {
+					for(int metaY = y0 - META_RENDER_DISTANCE; metaY <= y0 + META_RENDER_DISTANCE + 1; metaY++) {
+						for(int metaZ = z0 - META_RENDER_DISTANCE; metaZ <= z0 + META_RENDER_DISTANCE + 1; metaZ++) {
+							HashMapKey3D key = new HashMapKey3D(metaX, metaY, metaZ);
+							if(newMetaChunks.containsKey(key)) continue;
+							MetaChunk metaChunk = oldMetaChunks.remove(key);
+							if(metaChunk == null) {
+								metaChunk = new MetaChunk(metaX << META_SHIFT, metaY << META_SHIFT, metaZ << META_SHIFT, null);
+							}
+							newMetaChunks.put(key, metaChunk);
+						}
+					}
+				}
+			}
+			oldMetaChunks.forEach((key, metaChunk) -> metaChunk.clean());
+			metaChunks = newMetaChunks;
+			allocated += getAllocatedBytes() - startAllocated;
+			time += System.nanoTime() - start;
+			for(double[] position : positions) {
+				int x = (int)position[0] >> META_SHIFT, y = (int)position[1] >> META_SHIFT, z = (int)position[2] >> META_SHIFT;
+				correct &= metaChunks.containsKey(new HashMapKey3D(x - 1, y - 1, z - 1)) && metaChunks.containsKey(new HashMapKey3D(x + 2, y + 2, z + 2));
+			}
+		}
+		long start = System.nanoTime();
+		int found = 0;
+		for(int i = 0; i < LOOKUPS; i++) {
+			double[] position = positions[i % positions.length];
+			int wx = (int)position[0] + (i & 1023) - 512;
+			int wz = (int)position[2] - (i >> 10 & 1023) + 512;
+			if(metaChunks.get(new HashMapKey3D(wx >> META_SHIFT, (int)position[1] >> META_SHIFT, wz >> META_SHIFT)) != null) found++;
+		}
+		long lookupTime = System.nanoTime() - start;
+		correct &= found == LOOKUPS;
+		if(print) report("HashMap rebuilt every tick", ticks, time, allocated, lookupTime, metaChunks.size(), correct);
+		return correct;
+	}
+
+	private static boolean runNew(Object[] viewers, int ticks, boolean print) {
+		resetPlayers(viewers.length);
+		Random rand = new Random(0);
+		MetaChunkMap metaChunks = new MetaChunkMap(null);
+		boolean correct = true;
+		long time = 0, allocated = 0;
+		for(int tick = 0; tick < ticks; tick++) {
+			movePlayers(rand);
+			long start = System.nanoTime();
+			long startAllocated = getAllocatedBytes();
+			metaChunks.startUpdate();
+			for(int i = 0; i < viewers.length; i++) {
+				metaChunks.updateViewer(viewers[i], positions[i][0], positions[i][1], positions[i][2], META_RENDER_DISTANCE);
+			}
+			metaChunks.removeStaleViewers();
+			allocated += getAllocatedBytes() - startAllocated;
+			time += System.nanoTime() - start;
+			for(double[] position : positions) {
+				int x = (int)position[0], y = (int)position[1], z = (int)position[2];
+				int metaSize = 1 << META_SHIFT;
+				correct &= metaChunks.get(x - metaSize, y - metaSize, z - metaSize) != null && metaChunks.get(x + 2*metaSize, y + 2*metaSize, z + 2*metaSize) != null;
+			}
+		}
+		// Exactly the MetaChunks around the players must be loaded:
+		HashSet<Long> expected = new HashSet<>();
+		for(double[] position : positions) {
+			int x0 = (int)position[0] >> META_SHIFT;
+			int y0 = (int)position[1] >> META_SHIFT;
+			int z0 = (int)position[2] >> META_SHIFT;
+			for(int metaX = x0 - META_RENDER_DISTANCE; metaX <= x0 + META_RENDER_DISTANCE + 1; metaX++) {
+				for(int metaY = y0 - META_RENDER_DISTANCE; metaY <= y0 + META_RENDER_DISTANCE + 1; metaY++) {
+					for(int metaZ = z0 - META_RENDER_DISTANCE; metaZ <= z0 + META_RENDER_DISTANCE + 1; metaZ++) {
+						expected.add(MetaChunkMap.getKey(metaX, metaY, metaZ));
+						correct &= metaChunks.get(metaX << META_SHIFT, metaY << META_SHIFT, metaZ << META_SHIFT) != null;
+					}
+				}
+			}
+		}
+		correct &= expected.size() == metaChunks.size();
+		long start = System.nanoTime();
+		int found = 0;
+		for(int i = 0; i < LOOKUPS; i++) {
+			double[] position = positions[i % positions.length];
+			int wx = (int)position[0] + (i & 1023) - 512;
+			int wz = (int)position[2] - (i >> 10 & 1023) + 512;
+			if(metaChunks.get(wx, (int)position[1], wz) != null) found++;
+		}
+		long lookupTime = System.nanoTime() - start;
+		correct &= found == LOOKUPS;
+		if(print) report("MetaChunkMap", ticks, time, allocated, lookupTime, metaChunks.size(), correct);
+		return correct;
+	}
+}
@@ -0,0 +1,162 @@
+package cubyz.world.entity;
+
+import java.util.Random;
+
+import cubyz.utils.datastructures.ConcurrentLongMap;
+import cubyz.world.BenchmarkWorld;
+import cubyz.world.Chunk;
+import cubyz.world.MetaChunkMap;
+import cubyz.world.NormalChunk;
+import cubyz.world.ServerWorld;
+import cubyz.world.World;
+import cubyz.world.terrain.TerrainGenerationProfile;
+
+/**
+ * Measures the {@link CollisionEngine} on terrain generated by the base mod without a window.<br>
+ * Player and item sized boxes are placed above the surface and moved in random directions, from walking speed up to fast falling.
+ * Reports the collision queries per second and compares the block lookups of the engine with {@link World#getBlock}.
+ * Checks that the lookups agree and counts the boxes that started outside of the terrain but ended up inside of it.<br>
+ * Usage: java cubyz.world.entity.CollisionBenchmark [queries]
+ */
+public final class CollisionBenchmark {
+	private CollisionBenchmark() {} // No instances allowed.
+
+	private static final String WORLD = "collisionBenchmark";
+	private static final long SEED = 0x5eed_c0b1_2e00L;
+	/** Size of the generated area around the origin. */
+	private static final int SIZE = 256;
+	private static final double MAX_SPEED = 3; // blocks per query
+
+	/**
+	 * Serves chunks that are generated on first access. Like the server the chunks are found through a hash map.
+	 */
+	private static class GeneratedWorld extends BenchmarkWorld {
+		private final ServerWorld server;
+		private final TerrainGenerationProfile profile;
+		private final ConcurrentLongMap<NormalChunk> chunks = new ConcurrentLongMap<>();
+
+		public GeneratedWorld(ServerWorld server) {
+			super(WORLD);
+			this.server = server;
+			profile = server.chunkManager.terrainGenerationProfile;
+			seed = server.getSeed();
+		}
+
+		@Override
+		public NormalChunk getChunk(int wx, int wy, int wz) {
+			if (Math.abs(wx) >= SIZE/2 || Math.abs(wz) >= SIZE/2) return null;
+			wx &= ~Chunk.chunkMask;
+			wy &= ~Chunk.chunkMask;
+			wz &= ~Chunk.chunkMask;
+			long key = MetaChunkMap.getKey(wx >> Chunk.chunkShift, wy >> Chunk.chunkShift, wz >> Chunk.chunkShift);
+			NormalChunk chunk = chunks.get(key);
+			if (chunk == null) {
+				chunk = new NormalChunk(server, wx, wy, wz);
+				chunk.generateFromSeed(seed, profile);
+				chunks.put(key, chunk);
+			}
+			return chunk;
+		}
+	}
+
+	private static ServerWorld server;
+	private static World world;
+
+	/** Places the box somewhere above the surface. */
+	private static void place(Random rand, double[] posxyz, double bottom) {
+		int x = rand.nextInt(SIZE - 32) - SIZE/2 + 16;
+		int z = rand.nextInt(SIZE - 32) - SIZE/2 + 16;
+		posxyz[0] = x + rand.nextDouble();
+		posxyz[1] = server.getHeight(x, z) + 1 - bottom + rand.nextDouble()*4;
+		posxyz[2] = z + rand.nextDouble();
+	}
+
+	private static void run(String name, int queries, double width, double bottom, double height, double stepHeight, boolean print) {
+		Random rand = new Random(42);
+		CollisionEngine collision = new CollisionEngine();
+		double[] posxyz = new double[3];
+		double[][] deltas = new double[1024][3];
+		for(double[] delta : deltas) {
+			for(int i = 0; i < 3; i++) {
+				delta[i] = (2*rand.nextDouble() - 1)*MAX_SPEED*rand.nextDouble();
+			}
+		}
+		int endedInside = 0;
+		int started = 0;
+		boolean placed = false;
+		long time = 0;
+		for(int q = 0; q < queries; q++) {
+			if (!placed || q % 16 == 0) {
+				// Move on to a new place every now and then, so the boxes don't get stuck in a hole.
+				place(rand, posxyz, bottom);
+				collision.begin(world, null, posxyz, 0, width, bottom, height, stepHeight);
+				placed = !collision.isInsideBlock();
+				if (!placed) continue;
+				started++;
+			}
+			double[] delta = deltas[q & 1023];
+			long start = System.nanoTime();
+			collision.begin(world, null, posxyz, 0, width, bottom, height, stepHeight);
+			collision.move(delta[0], delta[1], delta[2]);
+			time += System.nanoTime() - start;
+			if (collision.isInsideBlock()) {
+				endedInside++;
+				placed = false;
+			}
+		}
+		if (print) System.out.println("\t"+name+": "+(long)(queries*1e9/time)+" queries/s, "+(endedInside == 0 ? "no box" : endedInside+" of "+started+" boxes")+" ended up inside the terrain.");
+	}
+
+	private static boolean compareLookups(int lookups, boolean print) {
+		Random rand = new Random(42);
+		CollisionEngine collision = new CollisionEngine();
+		double[] posxyz = new double[3];
+		int[] x = new int[lookups], y = new int[lookups], z = new int[lookups];
+		// Probe the surroundings of boxes, like the collision detection does:
+		for(int i = 0; i < lookups; i += 27) {
+			place(rand, posxyz, 0);
+			for(int j = i; j < Math.min(lookups, i + 27); j++) {
+				x[j] = (int)Math.floor(posxyz[0]) + (j - i)%3 - 1;
+				y[j] = (int)Math.floor(posxyz[1]) + (j - i)/3%3 - 1;
+				z[j] = (int)Math.floor(posxyz[2]) + (j - i)/9 - 1;
+			}
+		}
+		long start = System.nanoTime();
+		long sumWorld = 0;
+		for(int i = 0; i < lookups; i++) {
+			sumWorld += world.getBlock(x[i], y[i], z[i]);
+		}
+		long worldTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		long sumEngine = 0;
+		for(int i = 0; i < lookups; i++) {
+			if (i % 27 == 0) collision.begin(world, null, posxyz, 0, 0, 0, 0, 0);
+			sumEngine += collision.getBlock(x[i], y[i], z[i]);
+		}
+		long engineTime = System.nanoTime() - start;
+		if (print) System.out.println("\tBlock lookups: "+(long)(lookups*1e9/worldTime)+"/s through the world, "+(long)(lookups*1e9/engineTime)+"/s with the cached chunk, "+(sumWorld == sumEngine ? "same blocks." : "BLOCKS DIFFER."));
+		return sumWorld == sumEngine;
+	}
+
+	public static void main(String[] args) {
+		int queries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		// Create a new world with a fixed seed:
+		server = BenchmarkWorld.createServerWorld(WORLD, SEED);
+		world = new GeneratedWorld(server);
+
+		// The first round generates the terrain and warms up the JIT:
+		boolean correct = true;
+		for(int round = 0; round < 2; round++) {
+			boolean print = round != 0;
+			if (print) System.out.println("Collision detection, "+queries+" queries each:");
+			run("Player", queries, 0.35, 0, 1.8, 1, print);
+			run("Pig", queries, 0.35, 0, 1, 1, print);
+			run("Item", queries, ItemEntityManager.RADIUS, -ItemEntityManager.RADIUS, ItemEntityManager.DIAMETER, 0, print);
+			correct &= compareLookups(27*(queries/27), print);
+		}
+
+		BenchmarkWorld.deleteServerWorld(server);
+		if (!correct) System.exit(1);
+	}
+}
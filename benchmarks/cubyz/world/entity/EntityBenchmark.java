@@ -0,0 +1,144 @@
+package cubyz.world.entity;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import cubyz.Constants;
+import cubyz.api.Resource;
+import cubyz.api.Side;
+import cubyz.modding.ModLoader;
+import cubyz.world.BenchmarkWorld;
+import cubyz.world.Chunk;
+import cubyz.world.NormalChunk;
+import cubyz.world.World;
+import cubyz.world.blocks.Blocks;
+import pixelguys.json.JsonObject;
+
+/**
+ * Measures the entity simulation without a window: Many pigs walk and jump around on a small hilly terrain with pillars.<br>
+ * The terrain repeats every {@value #SIZE} blocks, so the pigs never leave it. It is computed directly, so the time is spent in the entity update and not in the terrain generation.
+ * Reports the time and allocations per tick, whether the server could keep up 20 updates per second and checks that no pig fell through the ground. Exits with 1 if one did.<br>
+ * Usage: java cubyz.world.entity.EntityBenchmark [pigs] [ticks]
+ */
+public final class EntityBenchmark {
+	private EntityBenchmark() {} // No instances allowed.
+
+	private static final int SIZE = 256;
+	private static final int MASK = SIZE - 1;
+	private static final float DELTA_TIME = 0.05f;
+	private static final long TICK_BUDGET = 50000000; // 20 UPS
+
+	private static int stone;
+	private static final int[][] heightMap = new int[SIZE][SIZE];
+
+	private static class BenchmarkChunk extends NormalChunk {
+		public BenchmarkChunk(World world, int wx, int wy, int wz) {
+			super(world, wx, wy, wz);
+		}
+
+		@Override
+		public boolean isGenerated() {
+			return true;
+		}
+
+		@Override
+		public int getBlock(int x, int y, int z) {
+			return wy + y < heightMap[(wx + x) & MASK][(wz + z) & MASK] ? stone : 0;
+		}
+	}
+
+	private static class RepeatingWorld extends BenchmarkWorld {
+		private final NormalChunk[][] chunks = new NormalChunk[SIZE/Chunk.chunkSize][SIZE/Chunk.chunkSize];
+
+		public RepeatingWorld() {
+			super("entityBenchmark");
+			for(int x = 0; x < chunks.length; x++) {
+				for(int z = 0; z < chunks.length; z++) {
+					chunks[x][z] = new BenchmarkChunk(this, x*Chunk.chunkSize, 0, z*Chunk.chunkSize);
+				}
+			}
+		}
+
+		@Override
+		public NormalChunk getChunk(int wx, int wy, int wz) {
+			if(wy >> Chunk.chunkShift != 0) return null;
+			return chunks[(wx & MASK) >> Chunk.chunkShift][(wz & MASK) >> Chunk.chunkShift];
+		}
+	}
+
+	/** Gentle hills, so the pigs don't take fall damage, and some pillars to bump into. */
+	private static void generateTerrain() {
+		Random rand = new Random(42);
+		for(int x = 0; x < SIZE; x++) {
+			for(int z = 0; z < SIZE; z++) {
+				heightMap[x][z] = 8 + (int)Math.round(4*Math.sin(x*2*Math.PI/64)*Math.cos(z*2*Math.PI/64));
+			}
+		}
+		for(int i = 0; i < SIZE*SIZE/256; i++) {
+			int x = rand.nextInt(SIZE);
+			int z = rand.nextInt(SIZE);
+			heightMap[x][z] += 3;
+		}
+	}
+
+	private static long getAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static boolean run(EntityManager manager, int ticks, boolean print) {
+		int slowTicks = 0;
+		long time = 0;
+		long allocated = getAllocatedBytes();
+		for(int tick = 0; tick < ticks; tick++) {
+			long start = System.nanoTime();
+			manager.update(DELTA_TIME);
+			long tickTime = System.nanoTime() - start;
+			if(tickTime > TICK_BUDGET) slowTicks++;
+			time += tickTime;
+		}
+		allocated = getAllocatedBytes() - allocated;
+		int fallen = 0;
+		for(int i = 0; i < manager.size; i++) {
+			if(manager.posxyz[3*i + 1] < 0) fallen++;
+		}
+		if(print) {
+			System.out.println("\t"+time/ticks/1000+" us and "+allocated/ticks+" bytes allocated per tick, "+slowTicks+" of "+ticks+" ticks took longer than "+TICK_BUDGET/1000000+" ms.");
+			System.out.println("\t"+(time < ticks*TICK_BUDGET ? "Keeps up" : "DOESN'T KEEP UP")+" with 20 updates per second, "+manager.size+" entities left, "+(fallen == 0 ? "none" : fallen)+" fell through the ground.");
+		}
+		return fallen == 0;
+	}
+
+	public static void main(String[] args) {
+		int pigs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+
+		Constants.setGameSide(Side.SERVER);
+		ModLoader.load();
+		Blocks blocks = new Blocks();
+		if(Blocks.size() == 0) {
+			JsonObject air = new JsonObject();
+			air.put("solid", false);
+			blocks.register("", new Resource("cubyz:air"), air);
+		}
+		stone = Blocks.size();
+		blocks.register("", new Resource("cubyz:benchmark_stone"), new JsonObject());
+		generateTerrain();
+
+		World world = new RepeatingWorld();
+		EntityManager manager = new EntityManager(16);
+		Pig pig = new Pig();
+		Random rand = new Random(42);
+		for(int i = 0; i < pigs; i++) {
+			Entity ent = pig.newEntity(world);
+			int x = rand.nextInt(SIZE);
+			int z = rand.nextInt(SIZE);
+			ent.setPosition(x + 0.5, heightMap[x][z], z + 0.5);
+			manager.add(ent);
+		}
+
+		System.out.println("Entity simulation, "+pigs+" pigs:");
+		boolean correct = run(manager, ticks/4, false); // Warm up the JIT.
+		correct &= run(manager, ticks, true);
+		if(!correct) System.exit(1);
+	}
+}
@@ -0,0 +1,120 @@
+package cubyz.world.entity;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the per tick cost of the item entity broad phase with the {@link ItemEntityGrid} and with comparing every entity to every item, as it was done before.<br>
+ * The items are dropped around a few mining sites and roll around a bit every tick. Every tick each player looks for items to pick up and a part of the items looks for stacks to merge with.
+ * Checks that the grid finds the same items as the full scan.<br>
+ * Usage: java cubyz.world.entity.ItemEntityGridBenchmark [players] [ticks]
+ */
+public final class ItemEntityGridBenchmark {
+	private ItemEntityGridBenchmark() {} // No instances allowed.
+
+	private static final int[] ITEM_COUNTS = {1000, 10000, ItemEntityManager.MAX_CAPACITY};
+	private static final int SITES = 50;
+	private static final double SITE_RADIUS = 16;
+	private static final double WORLD_SIZE = 2000;
+	private static final double SPEED = 0.05; // blocks per tick
+	private static final double PLAYER_WIDTH = 0.35, PLAYER_HEIGHT = 1.8;
+
+	private static int bruteForce(double x, double y, double z, double rangeX, double rangeY, double rangeZ, double[] posxyz, int items, int[] result) {
+		int size = 0;
+		for(int i = 0; i < items; i++) {
+			int i3 = 3*i;
+			if(Math.abs(x - posxyz[i3]) < rangeX && Math.abs(y - posxyz[i3 + 1]) < rangeY && Math.abs(z - posxyz[i3 + 2]) < rangeZ) {
+				result[size++] = i;
+			}
+		}
+		return size;
+	}
+
+	private static boolean sameItems(int[] a, int sizeA, int[] b, int sizeB) {
+		if(sizeA != sizeB) return false;
+		int[] sortedA = Arrays.copyOf(a, sizeA);
+		int[] sortedB = Arrays.copyOf(b, sizeB);
+		Arrays.sort(sortedA);
+		Arrays.sort(sortedB);
+		return Arrays.equals(sortedA, sortedB);
+	}
+
+	private static boolean run(int items, int players, int ticks, boolean print) {
+		Random rand = new Random(items);
+		double[][] sites = new double[SITES][3];
+		for(double[] site : sites) {
+			site[0] = rand.nextDouble()*WORLD_SIZE;
+			site[1] = rand.nextDouble()*100;
+			site[2] = rand.nextDouble()*WORLD_SIZE;
+		}
+		double[] posxyz = new double[3*items];
+		ItemEntityGrid grid = new ItemEntityGrid(items);
+		for(int i = 0; i < items; i++) {
+			double[] site = sites[rand.nextInt(SITES)];
+			for(int j = 0; j < 3; j++) {
+				posxyz[3*i + j] = site[j] + (2*rand.nextDouble() - 1)*SITE_RADIUS;
+			}
+			grid.insert(i, posxyz[3*i], posxyz[3*i + 1], posxyz[3*i + 2]);
+		}
+		double[][] playerPositions = new double[players][];
+		for(int p = 0; p < players; p++) {
+			playerPositions[p] = sites[p % SITES];
+		}
+		int[] result = new int[items];
+		int[] expected = new int[items];
+		long gridTime = 0, mergeTime = 0, scanTime = 0;
+		boolean correct = true;
+		for(int tick = 0; tick < ticks; tick++) {
+			for(int i = 0; i < 3*items; i++) {
+				posxyz[i] += (2*rand.nextDouble() - 1)*SPEED;
+			}
+			long start = System.nanoTime();
+			for(int i = 0; i < items; i++) {
+				grid.update(i, posxyz[3*i], posxyz[3*i + 1], posxyz[3*i + 2]);
+			}
+			for(double[] player : playerPositions) {
+				grid.query(player[0], player[1] + PLAYER_HEIGHT/2, player[2], PLAYER_WIDTH + ItemEntityManager.PICKUP_RANGE, PLAYER_HEIGHT + ItemEntityManager.PICKUP_RANGE, PLAYER_WIDTH + ItemEntityManager.PICKUP_RANGE, posxyz, result);
+			}
+			gridTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int mergeChecks = (items + ItemEntityManager.MERGE_INTERVAL - 1)/ItemEntityManager.MERGE_INTERVAL;
+			int mergeStart = tick*mergeChecks % items;
+			for(int i = mergeStart; i < Math.min(items, mergeStart + mergeChecks); i++) {
+				float range = ItemEntityManager.MERGE_RANGE;
+				grid.query(posxyz[3*i], posxyz[3*i + 1], posxyz[3*i + 2], range, range, range, posxyz, result);
+			}
+			mergeTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(double[] player : playerPositions) {
+				bruteForce(player[0], player[1] + PLAYER_HEIGHT/2, player[2], PLAYER_WIDTH + ItemEntityManager.PICKUP_RANGE, PLAYER_HEIGHT + ItemEntityManager.PICKUP_RANGE, PLAYER_WIDTH + ItemEntityManager.PICKUP_RANGE, posxyz, items, expected);
+			}
+			scanTime += System.nanoTime() - start;
+
+			// Compare a few queries with the full scan:
+			for(int k = 0; k < 10; k++) {
+				int i = rand.nextInt(items);
+				double range = 1 + 4*rand.nextDouble();
+				int size = grid.query(posxyz[3*i], posxyz[3*i + 1], posxyz[3*i + 2], range, range, range, posxyz, result);
+				int expectedSize = bruteForce(posxyz[3*i], posxyz[3*i + 1], posxyz[3*i + 2], range, range, range, posxyz, items, expected);
+				correct &= sameItems(result, size, expected, expectedSize);
+			}
+		}
+		if(print) System.out.println("\t"+items+" items: pickup with grid "+gridTime/ticks/1000+" us per tick, with full scan "+scanTime/ticks/1000+" us per tick, merging "+mergeTime/ticks/1000+" us per tick, "
+			+(correct ? "same results." : "RESULTS DIFFER."));
+		return correct;
+	}
+
+	public static void main(String[] args) {
+		int players = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		System.out.println("Item entity broad phase, "+players+" players:");
+		boolean correct = true;
+		for(int items : ITEM_COUNTS) {
+			correct &= run(items, players, ticks/4, false); // Warm up the JIT.
+			correct &= run(items, players, ticks, true);
+		}
+		if(!correct) System.exit(1);
+	}
+}
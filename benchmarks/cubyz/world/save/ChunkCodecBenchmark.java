@@ -0,0 +1,107 @@
+package cubyz.world.save;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+/**
+ * Measures the compression ratio and speed of all chunk codecs on the chunks of a saved world.<br>
+ * Usage: java cubyz.world.save.ChunkCodecBenchmark [world folder] [iterations]
+ */
+public final class ChunkCodecBenchmark {
+	private ChunkCodecBenchmark() {} // No instances allowed.
+
+	public static void main(String[] args) throws IOException, DataFormatException {
+		if(args.length == 0) {
+			System.out.println("Usage: java cubyz.world.save.ChunkCodecBenchmark [world folder] [iterations]");
+			return;
+		}
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		List<byte[]> chunks = loadChunks(new File(args[0]));
+		if(chunks.isEmpty()) {
+			System.out.println("No chunks found in \""+args[0]+"\".");
+			return;
+		}
+		long totalSize = 0;
+		for(byte[] chunk : chunks) {
+			totalSize += chunk.length;
+		}
+		System.out.println("Loaded "+chunks.size()+" chunks with "+totalSize/1024+" KiB of data.");
+
+		ChunkCodec[] codecs = {
+			ChunkCodec.UNCOMPRESSED,
+			ChunkCodec.LZ,
+			new DeflateCodec(Deflater.BEST_SPEED),
+			ChunkCodec.DEFLATE,
+			new DeflateCodec(Deflater.BEST_COMPRESSION),
+		};
+		System.out.println(String.format("%-14s %8s %14s %16s", "codec", "ratio", "compress MB/s", "decompress MB/s"));
+		for(ChunkCodec codec : codecs) {
+			byte[][] compressed = new byte[chunks.size()][];
+			long compressedSize = 0;
+			long compressTime = Long.MAX_VALUE;
+			long decompressTime = Long.MAX_VALUE;
+			for(int iteration = 0; iteration <= iterations; iteration++) { // The first iteration is warm-up.
+				long start = System.nanoTime();
+				for(int i = 0; i < compressed.length; i++) {
+					compressed[i] = codec.compress(chunks.get(i), 0, chunks.get(i).length);
+				}
+				long time = System.nanoTime() - start;
+				if(iteration != 0) compressTime = Math.min(compressTime, time);
+
+				start = System.nanoTime();
+				for(int i = 0; i < compressed.length; i++) {
+					byte[] decompressed = codec.decompress(compressed[i], 0, compressed[i].length);
+					if(iteration == 0 && !Arrays.equals(decompressed, chunks.get(i))) {
+						throw new IllegalStateException(codec+" changed the data of chunk "+i+".");
+					}
+				}
+				time = System.nanoTime() - start;
+				if(iteration != 0) decompressTime = Math.min(decompressTime, time);
+			}
+			for(byte[] data : compressed) {
+				compressedSize += data.length;
+			}
+			System.out.println(String.format("%-14s %8.2f %14.1f %16.1f", codec, (double)totalSize/compressedSize, totalSize*1e3/compressTime, totalSize*1e3/decompressTime));
+		}
+	}
+
+	/**
+	 * Decodes all chunks of all region files in the world folder.
+	 */
+	private static List<byte[]> loadChunks(File worldFolder) throws IOException {
+		List<Path> regionFiles;
+		try (Stream<Path> paths = Files.walk(worldFolder.toPath())) {
+			regionFiles = paths.filter(Files::isRegularFile)
+					.filter(path -> !path.toString().contains("quarantine"))
+					.filter(path -> path.getFileName().toString().matches("-?\\d+\\.\\w+"))
+					.collect(Collectors.toList());
+		}
+		File quarantine = Files.createTempDirectory("cubyz-codec-benchmark").toFile();
+		List<byte[]> chunks = new ArrayList<>();
+		for(Path path : regionFiles) {
+			String name = path.getFileName().toString();
+			String fileEnding = name.substring(name.indexOf('.') + 1);
+			// The position doesn't matter for reading the chunks:
+			RegionFile region = new RegionFile(path.toFile(), quarantine, 0, 0, 0, 1, fileEnding);
+			for(int i = 0; i < RegionFile.CHUNKS_PER_REGION; i++) {
+				byte[] blob = region.loadBlob(i);
+				if(blob == null || !ChunkIO.hasValidChecksum(blob)) continue;
+				byte[] data = ChunkIO.decodeChunk(blob);
+				if(data != null) {
+					chunks.add(data);
+				}
+			}
+		}
+		quarantine.delete();
+		return chunks;
+	}
+}
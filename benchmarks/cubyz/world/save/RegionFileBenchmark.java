@@ -0,0 +1,109 @@
+package cubyz.world.save;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import cubyz.world.Chunk;
+import cubyz.world.SavableChunk;
+
+/**
+ * Compares the bytes written per saved chunk of the sector based region format with the old format, which rewrote the whole region on every save.<br>
+ * Usage: java cubyz.world.save.RegionFileBenchmark [number of saves]
+ */
+public final class RegionFileBenchmark {
+	private RegionFileBenchmark() {} // No instances allowed.
+
+	/**
+	 * A chunk with layered terrain and some noise, so it compresses roughly like a real one.
+	 */
+	private static class TestChunk extends SavableChunk {
+		private final long seed;
+		public TestChunk(int wx, int wy, int wz, long seed) {
+			super(wx, wy, wz, 1);
+			this.seed = seed;
+		}
+
+		@Override
+		public byte[] saveToByteArray() {
+			Random rand = new Random(seed);
+			byte[] data = new byte[4*Chunk.chunkVolume];
+			int surface = rand.nextInt(Chunk.chunkSize);
+			for(int i = 0; i < Chunk.chunkVolume; i++) {
+				int y = i >> Chunk.chunkShift2 & Chunk.chunkMask;
+				int block = y < surface ? 1 : 0;
+				if(block != 0 && rand.nextInt(16) == 0) block = 2 + rand.nextInt(8);
+				data[4*i + 3] = (byte)block;
+			}
+			return data;
+		}
+
+		@Override
+		public boolean loadFromByteArray(byte[] array, int len) {
+			return len == 4*Chunk.chunkVolume;
+		}
+
+		@Override
+		public int getWidth() {
+			return Chunk.chunkSize;
+		}
+
+		@Override
+		public String fileEnding() {
+			return "region";
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int saves = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		File dir = Files.createTempDirectory("cubyz-region-benchmark").toFile();
+		File file = new File(dir, "0.region");
+		Random rand = new Random(0);
+
+		RegionFile region = new RegionFile(file, new File(dir, "quarantine"), 0, 0, 0, 1, "region");
+		// Every save is directly committed to disk, which is the worst case for both formats.
+		for(int i = 0; i < RegionFile.CHUNKS_PER_REGION; i++) {
+			region.saveChunk(createChunk(i, rand.nextLong()));
+		}
+
+		long bytesWrittenBefore = RegionFile.bytesWritten.get();
+		long legacyBytesWritten = 0;
+		long start = System.nanoTime();
+		for(int i = 0; i < saves; i++) {
+			region.saveChunk(createChunk(rand.nextInt(RegionFile.CHUNKS_PER_REGION), rand.nextLong()));
+			// The old format wrote the compressor version, the occupancy bits and a starting index per chunk, followed by all chunk data:
+			legacyBytesWritten += 4 + RegionFile.CHUNKS_PER_REGION/8 + 4*region.getStoredChunkCount() + region.getStoredDataSize();
+		}
+		long time = System.nanoTime() - start;
+		long bytesWritten = RegionFile.bytesWritten.get() - bytesWrittenBefore;
+
+		System.out.println("Saved "+saves+" chunks into a full region in "+time/1000000+" ms.");
+		System.out.println("Sector format: "+bytesWritten/saves+" bytes per saved chunk.");
+		System.out.println("Old format: "+legacyBytesWritten/saves+" bytes per saved chunk.");
+		System.out.println("File size: "+file.length()+" bytes for "+region.getStoredDataSize()+" bytes of chunk data.");
+
+		region.clean();
+
+		// Check that everything can be read again:
+		RegionFile reloaded = new RegionFile(file, new File(dir, "quarantine"), 0, 0, 0, 1, "region");
+		boolean correct = true;
+		for(int i = 0; i < RegionFile.CHUNKS_PER_REGION; i++) {
+			if(!reloaded.loadChunk(createChunk(i, 0))) {
+				System.out.println("Failed to reload chunk "+i+".");
+				correct = false;
+			}
+		}
+		reloaded.clean();
+		file.delete();
+		dir.delete();
+		if(!correct) System.exit(1);
+	}
+
+	private static TestChunk createChunk(int chunkIndex, long seed) {
+		int x = chunkIndex >> 2*RegionFile.REGION_SHIFT & RegionFile.REGION_SIZE - 1;
+		int y = chunkIndex >> RegionFile.REGION_SHIFT & RegionFile.REGION_SIZE - 1;
+		int z = chunkIndex & RegionFile.REGION_SIZE - 1;
+		return new TestChunk(x*Chunk.chunkSize, y*Chunk.chunkSize, z*Chunk.chunkSize, seed);
+	}
+}
@@ -0,0 +1,208 @@
+package cubyz.world.terrain;
+
+import java.io.File;
+import java.util.function.LongSupplier;
+
+import cubyz.Constants;
+import cubyz.utils.math.CubyzMath;
+import cubyz.world.BenchmarkWorld;
+import cubyz.world.Chunk;
+import cubyz.world.NormalChunk;
+import cubyz.world.ReducedChunk;
+import cubyz.world.ServerWorld;
+import cubyz.world.blocks.Blocks;
+import cubyz.world.terrain.biomes.Biome;
+import pixelguys.json.JsonObject;
+import pixelguys.json.JsonParser;
+
+/**
+ * Measures the terrain generation without a window: Normal chunks, reduced chunks of every resolution, map fragments and cave map fragments.<br>
+ * A temporary world with a fixed seed is created from the base mod, so every run generates the same terrain.
+ * The results are hashed and compared to the reference hashes, so an optimization can't change existing worlds unnoticed.
+ * A missing reference hash counts as a mismatch. The reference hashes are recorded with the argument "record", which should only be done when the terrain is supposed to change.<br>
+ * Exits with status 1 if a result is not deterministic or doesn't match its reference.<br>
+ * Usage: java cubyz.world.terrain.TerrainBenchmark [rounds] [record]
+ */
+public final class TerrainBenchmark {
+	private TerrainBenchmark() {} // No instances allowed.
+
+	private static final String WORLD = "terrainBenchmark";
+	private static final String HASH_FILE = "benchmarks/terrainBenchmarkHashes.json";
+	private static final long SEED = 0x5eed_c0b1_2e00L;
+	private static final int WARMUP_ROUNDS = 2;
+	/** x and z of the measured regions. The chunks are placed around the surface. */
+	private static final int[][] POSITIONS = {{0, 0}, {4096, -1024}, {-20000, 7000}, {123456, -65432}};
+
+	private static ServerWorld world;
+	private static TerrainGenerationProfile profile;
+	/** The hash of every block type, so the hashes don't depend on the order in which the blocks were registered. */
+	private static int[] blockHashes;
+
+	private static long hash(long hash, long value) {
+		return hash*31 + value;
+	}
+
+	private static long hashChunk(long hash, Chunk chunk) {
+		for(int x = 0; x < chunk.getWidth(); x += chunk.voxelSize) {
+			for(int y = 0; y < chunk.getWidth(); y += chunk.voxelSize) {
+				for(int z = 0; z < chunk.getWidth(); z += chunk.voxelSize) {
+					int block = chunk.getBlock(x, y, z);
+					hash = hash(hash, blockHashes[block & Blocks.TYPE_MASK] ^ (long)(block >>> 16) << 32);
+				}
+			}
+		}
+		return hash;
+	}
+
+	private static int getSurface(int wx, int wz, int size) {
+		return Math.floorDiv(world.getHeight(wx, wz), size)*size;
+	}
+
+	/** Generates a 2×3×2 block of chunks around the surface at every position. */
+	private static long generateNormalChunks() {
+		long hash = 0;
+		int size = Chunk.chunkSize;
+		for(int[] position : POSITIONS) {
+			// Chunks have to be aligned to their size, otherwise the generators read outside of their cached regions.
+			int wx = Math.floorDiv(position[0], size)*size;
+			int wz = Math.floorDiv(position[1], size)*size;
+			int surface = getSurface(wx, wz, size);
+			for(int dx = 0; dx < 2; dx++) {
+				for(int dy = -1; dy <= 1; dy++) {
+					for(int dz = 0; dz < 2; dz++) {
+						NormalChunk chunk = new NormalChunk(world, wx + dx*size, surface + dy*size, wz + dz*size);
+						chunk.generateFromSeed(world.getSeed(), profile);
+						hash = hashChunk(hash, chunk);
+					}
+				}
+			}
+		}
+		return hash;
+	}
+
+	/** Generates the surface chunk and the chunk below it at every position. */
+	private static long generateReducedChunks(int voxelSize) {
+		long hash = 0;
+		int size = voxelSize*Chunk.chunkSize;
+		for(int[] position : POSITIONS) {
+			int wx = Math.floorDiv(position[0], size)*size;
+			int wz = Math.floorDiv(position[1], size)*size;
+			int surface = getSurface(wx, wz, size);
+			for(int dy = -1; dy <= 0; dy++) {
+				ReducedChunk chunk = new ReducedChunk(world, wx, surface + dy*size, wz, CubyzMath.binaryLog(voxelSize));
+				chunk.generateFromSeed(world.getSeed(), profile);
+				hash = hashChunk(hash, chunk);
+			}
+		}
+		return hash;
+	}
+
+	private static long generateMapFragments(int voxelSize) {
+		long hash = 0;
+		for(int[] position : POSITIONS) {
+			MapFragment map = new MapFragment(position[0] & ~MapFragment.MAP_MASK, position[1] & ~MapFragment.MAP_MASK, voxelSize);
+			profile.mapFragmentGenerator.generateMapFragment(map, world.getSeed());
+			for(int x = 0; x < map.heightMap.length; x++) {
+				for(int z = 0; z < map.heightMap[x].length; z++) {
+					Biome biome = map.biomeMap[x][z];
+					hash = hash(hash, Float.floatToRawIntBits(map.heightMap[x][z]));
+					hash = hash(hash, biome == null ? 0 : biome.getRegistryID().toString().hashCode());
+				}
+			}
+		}
+		return hash;
+	}
+
+	private static long generateCaveMapFragments(int voxelSize) {
+		long hash = 0;
+		int size = voxelSize*CaveMapFragment.WIDTH;
+		for(int[] position : POSITIONS) {
+			int wx = Math.floorDiv(position[0], size)*size;
+			int wz = Math.floorDiv(position[1], size)*size;
+			int wy = getSurface(wx, wz, voxelSize*CaveMapFragment.HEIGHT);
+			CaveMapFragment fragment = new CaveMapFragment(wx, wy, wz, voxelSize, profile);
+			for(int x = 0; x < CaveMapFragment.WIDTH; x++) {
+				for(int z = 0; z < CaveMapFragment.WIDTH; z++) {
+					hash = hash(hash, fragment.getHeightData(x*voxelSize, z*voxelSize));
+				}
+			}
+		}
+		return hash;
+	}
+
+	private static boolean measure(String name, int rounds, JsonObject hashes, boolean record, LongSupplier task) {
+		long expected = 0;
+		long time = 0;
+		boolean deterministic = true;
+		for(int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+			long start = System.nanoTime();
+			long hash = task.getAsLong();
+			if(round >= WARMUP_ROUNDS) time += System.nanoTime() - start;
+			if(round == 0) expected = hash;
+			deterministic &= hash == expected;
+		}
+		String hash = Long.toHexString(expected);
+		String result;
+		if(!deterministic) {
+			result = "NOT DETERMINISTIC";
+		} else if(record) {
+			hashes.put(name, hash);
+			result = "recorded "+hash;
+		} else if(!hashes.has(name)) {
+			result = "NO REFERENCE HASH: "+hash;
+		} else if(hashes.getString(name, "").equals(hash)) {
+			result = "matches the reference";
+		} else {
+			result = "DIFFERS FROM THE REFERENCE: "+hash;
+		}
+		System.out.println("\t"+name+": "+time/rounds/1000000+" ms, "+result+".");
+		return deterministic && (record || hashes.getString(name, "").equals(hash));
+	}
+
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		boolean record = args.length > 1 && args[1].equals("record");
+
+		// Create a new world with a fixed seed:
+		world = BenchmarkWorld.createServerWorld(WORLD, SEED);
+		profile = world.chunkManager.terrainGenerationProfile;
+		blockHashes = new int[Blocks.size()];
+		for(int i = 0; i < blockHashes.length; i++) {
+			blockHashes[i] = Blocks.id(i).toString().hashCode();
+		}
+
+		JsonObject hashes = new JsonObject();
+		if(!record) {
+			if(new File(HASH_FILE).exists()) {
+				hashes = JsonParser.parseObjectFromFile(HASH_FILE);
+			} else {
+				System.out.println("The reference hashes in "+HASH_FILE+" are missing. Record them with the argument \"record\" on a version with the expected terrain.");
+			}
+		}
+		boolean correct = true;
+		System.out.println("Terrain generation, average of "+rounds+" rounds:");
+		correct &= measure("Normal chunks", rounds, hashes, record, TerrainBenchmark::generateNormalChunks);
+		for(int lod = 1; lod <= Constants.HIGHEST_LOD; lod++) {
+			int voxelSize = 1 << lod;
+			correct &= measure("Reduced chunks "+voxelSize, rounds, hashes, record, () -> generateReducedChunks(voxelSize));
+		}
+		for(int voxelSize = 1; voxelSize <= 4; voxelSize *= 2) {
+			int size = voxelSize;
+			correct &= measure("Map fragments "+voxelSize, rounds, hashes, record, () -> generateMapFragments(size));
+		}
+		for(int voxelSize = 1; voxelSize <= 4; voxelSize *= 2) {
+			int size = voxelSize;
+			correct &= measure("Cave map fragments "+voxelSize, rounds, hashes, record, () -> generateCaveMapFragments(size));
+		}
+		System.out.println("Generation steps:");
+		for(String line : GenerationStatistics.getSummary()) {
+			System.out.println("\t"+line);
+		}
+		if(record) {
+			JsonParser.storeToFile(hashes, HASH_FILE);
+		}
+
+		BenchmarkWorld.deleteServerWorld(world);
+		if(!correct) System.exit(1);
+	}
+}
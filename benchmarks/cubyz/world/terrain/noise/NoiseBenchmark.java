@@ -0,0 +1,93 @@
+package cubyz.world.terrain.noise;
+
+/**
+ * Checks that the noise functions still produce the same values for existing seeds and measures their speed.<br>
+ * The values of several regions, seeds and resolutions are hashed and compared to the hashes of the reference implementation.
+ * Any change to the generated values, even in the last bit, changes existing worlds and fails the check.<br>
+ * Usage: java cubyz.world.terrain.noise.NoiseBenchmark
+ */
+public final class NoiseBenchmark {
+	private NoiseBenchmark() {} // No instances allowed.
+
+	private static final long SMOOTH_HASH = 0x3bad773c95d2d9f6L;
+	private static final long RIDGID_HASH = 0xa45739dc4ff8bb01L;
+	private static final long CACHED_3D_HASH = 0x18afd4f632a2e178L;
+
+	private static final int[][] POSITIONS = {{0, 0, 0}, {1024, -2048, 512}, {-4096, 512, -64}, {123456*1024, -654321*1024, 0}};
+	private static final long[] SEEDS = {0, 42, -157839765839495820L};
+
+	private static long hash(long hash, float[] values, int length) {
+		for(int i = 0; i < length; i++) {
+			hash = hash*31 + Float.floatToRawIntBits(values[i]);
+		}
+		return hash;
+	}
+
+	private static boolean check(String name, long hash, long expected) {
+		boolean correct = hash == expected;
+		System.out.println("\t"+name+": "+(correct ? "matches the reference." : "DIFFERS FROM THE REFERENCE: "+Long.toHexString(hash)));
+		return correct;
+	}
+
+	public static void main(String[] args) {
+		PerlinNoise noise = new PerlinNoise();
+		float[] map = new float[1024*1024];
+
+		System.out.println("Regression check:");
+		long hash = 0;
+		for(int voxelSize = 1; voxelSize <= 16; voxelSize *= 2) {
+			for(int[] position : POSITIONS) {
+				for(long seed : SEEDS) {
+					noise.generateSmoothNoise(position[0], position[1], 1024, 1024, 128, 32, seed, voxelSize, 0.5f, map, 0);
+					hash = hash(hash, map, 1024/voxelSize*(1024/voxelSize));
+				}
+			}
+		}
+		boolean correct = check("Smooth noise", hash, SMOOTH_HASH);
+		hash = 0;
+		for(int voxelSize = 1; voxelSize <= 4; voxelSize *= 2) {
+			for(int[] position : POSITIONS) {
+				for(long seed : SEEDS) {
+					noise.generateRidgidNoise(position[0] + 96, position[1] - 32, 256, 512, 256, 16, seed, voxelSize, 0.6f, map, 0);
+					hash = hash(hash, map, 256/voxelSize*(512/voxelSize));
+				}
+			}
+		}
+		correct &= check("Ridgid noise", hash, RIDGID_HASH);
+		hash = 0;
+		for(int p = 0; p < 3; p++) {
+			int[] position = POSITIONS[p];
+			for(long seed : SEEDS) {
+				for(int voxelSize = 1; voxelSize <= 2; voxelSize++) {
+					int outerSize = Math.max(voxelSize, 4);
+					int size = voxelSize*64;
+					int points = size/outerSize + 1;
+					Cached3DFractalNoise cachedNoise = new Cached3DFractalNoise(position[0], position[1], position[2], outerSize, size, seed, 64);
+					cachedNoise.getValues(position[0], position[1], position[2], points, points, points, map);
+					hash = hash(hash, map, points*points*points);
+				}
+			}
+		}
+		correct &= check("Cached 3D fractal noise", hash, CACHED_3D_HASH);
+
+		System.out.println("Speed:");
+		for(int round = 0; round < 3; round++) { // The last round is measured after the JIT warmed up.
+			long start = System.nanoTime();
+			for(int i = 0; i < 20; i++) {
+				noise.generateSmoothNoise(i*1024, 0, 1024, 1024, 128, 32, i, 1, 0.5f, map, 0);
+			}
+			long smoothTime = (System.nanoTime() - start)/20;
+			start = System.nanoTime();
+			for(int i = 0; i < 20; i++) {
+				Cached3DFractalNoise cachedNoise = new Cached3DFractalNoise(i*128, 0, 0, 4, 128, i, 64);
+				cachedNoise.getValues(i*128, 0, 0, 33, 33, 33, map);
+			}
+			long cachedTime = (System.nanoTime() - start)/20;
+			if(round == 2) {
+				System.out.println("\tSmooth noise, 1024x1024 map fragment: "+smoothTime/1000+" us");
+				System.out.println("\tCached 3D fractal noise, 33^3 cave grid: "+cachedTime/1000+" us");
+			}
+		}
+		if(!correct) System.exit(1);
+	}
+}
@@ -0,0 +1,102 @@
+package cubyz.world.terrain.worldgenerators;
+
+import java.util.Arrays;
+
+import cubyz.api.Resource;
+import cubyz.utils.FastRandom;
+import cubyz.utils.ThreadPool;
+import cubyz.world.terrain.BiomePoint;
+import cubyz.world.terrain.MapFragment;
+import cubyz.world.terrain.biomes.Biome;
+import pixelguys.json.JsonParser;
+
+import static cubyz.world.terrain.MapFragment.*;
+
+/**
+ * Measures the time {@link MapGenV1} needs for a map fragment on a single thread and on several threads,
+ * and checks that both produce the same map.<br>
+ * The biomes are placed randomly, like the climate map would do, so no world needs to be loaded.<br>
+ * Usage: java cubyz.world.terrain.worldgenerators.MapGenBenchmark [threads]
+ */
+public final class MapGenBenchmark {
+	private MapGenBenchmark() {} // No instances allowed.
+
+	private static final long SEED = 0x6f2b93a1c4d5e7L;
+
+	private static Biome[] createBiomes() {
+		String[] parameters = {
+			"\"roughness\": 4, \"hills\": 8, \"mountains\": 0",
+			"\"roughness\": 10, \"hills\": 30, \"mountains\": 20",
+			"\"roughness\": 20, \"hills\": 40, \"mountains\": 120",
+			"\"roughness\": 2, \"hills\": 0, \"mountains\": 0",
+		};
+		Biome[] biomes = new Biome[parameters.length];
+		for(int i = 0; i < parameters.length; i++) {
+			biomes[i] = new Biome(new Resource("cubyz", "benchmark"+i), JsonParser.parseObjectFromString("{\"stoneBlock\": \"cubyz:air\", "+parameters[i]+"}"));
+		}
+		return biomes;
+	}
+
+	/** Places one biome in every biome sized cell, like the climate map. */
+	private static BiomePoint[][] createBiomePositions(int wx, int wz, Biome[] biomes) {
+		int size = (MAP_SIZE + 3*BIOME_SIZE)/BIOME_SIZE;
+		BiomePoint[][] biomePositions = new BiomePoint[size][size];
+		FastRandom rand = new FastRandom(SEED ^ wx*31L ^ wz);
+		for(int x = 0; x < size; x++) {
+			for(int z = 0; z < size; z++) {
+				int px = wx - BIOME_SIZE + x*BIOME_SIZE + rand.nextInt(BIOME_SIZE);
+				int pz = wz - BIOME_SIZE + z*BIOME_SIZE + rand.nextInt(BIOME_SIZE);
+				biomePositions[x][z] = new BiomePoint(biomes[rand.nextInt(biomes.length)], px, pz, rand.nextFloat()*200 - 50, rand.nextLong());
+			}
+		}
+		return biomePositions;
+	}
+
+	/** @return the average time per fragment in nanoseconds. */
+	private static long generate(MapGenV1 generator, BiomePoint[][][] biomePositions, MapFragment[] maps) {
+		long start = System.nanoTime();
+		for(int i = 0; i < maps.length; i++) {
+			generator.generateMapFragment(maps[i], SEED, biomePositions[i]);
+		}
+		return (System.nanoTime() - start)/maps.length;
+	}
+
+	private static boolean equals(MapFragment a, MapFragment b) {
+		return Arrays.deepEquals(a.heightMap, b.heightMap) && Arrays.deepEquals(a.biomeMap, b.biomeMap) && a.minHeight == b.minHeight && a.maxHeight == b.maxHeight;
+	}
+
+	public static void main(String[] args) {
+		int threads = Math.min(args.length > 0 ? Integer.parseInt(args[0]) : 8, ThreadPool.getThreadCount() + 1);
+		Biome[] biomes = createBiomes();
+		MapGenV1 generator = new MapGenV1();
+		System.out.println("Map fragment generation, 1 thread compared to "+threads+" threads ("+Runtime.getRuntime().availableProcessors()+" cores):");
+		boolean correct = true;
+		for(int voxelSize = 1; voxelSize <= 4; voxelSize *= 2) {
+			int count = 8;
+			BiomePoint[][][] biomePositions = new BiomePoint[count][][];
+			MapFragment[] singleThreaded = new MapFragment[count];
+			MapFragment[] multiThreaded = new MapFragment[count];
+			long singleTime = 0, multiTime = 0;
+			for(int round = 0; round < 3; round++) { // The last round is measured after the JIT warmed up.
+				for(int i = 0; i < count; i++) {
+					int wx = (i - count/2)*MAP_SIZE;
+					int wz = round*MAP_SIZE;
+					biomePositions[i] = createBiomePositions(wx, wz, biomes);
+					singleThreaded[i] = new MapFragment(wx, wz, voxelSize);
+					multiThreaded[i] = new MapFragment(wx, wz, voxelSize);
+				}
+				generator.setThreads(1);
+				singleTime = generate(generator, biomePositions, singleThreaded);
+				generator.setThreads(threads);
+				multiTime = generate(generator, biomePositions, multiThreaded);
+			}
+			boolean identical = true;
+			for(int i = 0; i < count; i++) {
+				identical &= equals(singleThreaded[i], multiThreaded[i]);
+			}
+			System.out.println("\tVoxel size "+voxelSize+": "+singleTime/1000000+" ms on 1 thread, "+multiTime/1000000+" ms in parallel, "+(identical ? "identical." : "RESULTS DIFFER."));
+			correct &= identical;
+		}
+		if(!correct) System.exit(1);
+	}
+}
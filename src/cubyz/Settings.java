@@ -14,6 +14,11 @@ public final class Settings {
 	private static Language currentLanguage = null;
 	
 	public static int entityDistance = 2;
+
+	/** How many bytes of chunk data the server sends to each user per second. */
+	public static int chunkBandwidthPerUser = 1 << 20;
+	/** How many bytes of chunk data the server sends to all users together per second. */
+	public static int chunkBandwidthTotal = 16 << 20;
 	
 	public static void setLanguage(Language lang) {
 		currentLanguage = lang;
@@ -38,6 +38,9 @@ public final class ClientSettings {
 
 	public static boolean easyLighting = true; // Enables the easy-lighting system.
 
+	/**Merges coplanar faces of full blocks with the same texture and light into larger quads.*/
+	public static boolean GREEDY_MESHING = false;
+
 	public static int GUI_SCALE = 2;
 
 	public static boolean musicOnOff = true; //Turn on or off the music
@@ -74,6 +77,7 @@ public final class ClientSettings {
 		settings.put("vsync", Window.isVSyncEnabled());
 		settings.put("antiAliasSamples", Window.getAntialiasSamples());
 		settings.put("easyLighting", ClientSettings.easyLighting);
+		settings.put("greedyMeshing", ClientSettings.GREEDY_MESHING);
 		settings.put("renderDistance", ClientSettings.RENDER_DISTANCE);
 		settings.put("farDistanceFactor", ClientSettings.LOD_FACTOR);
 		settings.put("fieldOfView", ClientSettings.FOV);
@@ -123,6 +127,8 @@ public final class ClientSettings {
 
 		easyLighting = settings.getBool("easyLighting", easyLighting);
 
+		GREEDY_MESHING = settings.getBool("greedyMeshing", GREEDY_MESHING);
+
 		RENDER_DISTANCE = settings.getInt("renderDistance", RENDER_DISTANCE);
 		
 		LOD_FACTOR = settings.getFloat("farDistanceFactor", LOD_FACTOR);
@@ -0,0 +1,264 @@
+package cubyz.client;
+
+import static cubyz.client.NormalChunkMesh.*;
+
+import cubyz.rendering.models.Model;
+import cubyz.utils.VertexAttribList;
+import cubyz.utils.datastructures.IntSimpleList;
+import cubyz.world.Chunk;
+import cubyz.world.Neighbors;
+
+/**
+ * Merges the visible faces of full cube blocks into larger rectangles, if they lie in the same plane and have the same texture and light.<br>
+ * Faces with a light gradient can't be merged, because the light is interpolated between the corners. These are left to the normal mesh generation.
+ * The merged faces use the same vertex format as {@link NormalChunkMesh}. The texture coordinates go beyond 1, so the texture repeats on every block.
+ * Doesn't need an OpenGL context, so every thread that generates meshes needs its own instance.
+ */
+
+public final class GreedyMesher {
+	private static final int SIZE = Chunk.chunkSize;
+	private static final int SHIFT = Chunk.chunkShift;
+
+	/** The cube model whose faces are merged. */
+	public final Model model;
+	/** False if the model doesn't look like a unit cube with one quad per side. */
+	private boolean supported = true;
+
+	// Per direction:
+	/** The 4 vertices of the model on that side. */
+	private final int[][] faceVertices = new int[Neighbors.NEIGHBORS][4];
+	/** The indices of the 2 triangles on that side, relative to the {@link #faceVertices}. */
+	private final int[][] faceIndices = new int[Neighbors.NEIGHBORS][6];
+	/** The axis(x = 0, y = 1, z = 2) along the normal and the two axes spanning the face. */
+	private final int[] axisN = new int[Neighbors.NEIGHBORS], axisU = new int[Neighbors.NEIGHBORS], axisV = new int[Neighbors.NEIGHBORS];
+	/** The texture coordinates of the corner at u = v = 0 and how they change along u and v. */
+	private final float[][] textureBase = new float[Neighbors.NEIGHBORS][2], textureU = new float[Neighbors.NEIGHBORS][2], textureV = new float[Neighbors.NEIGHBORS][2];
+	/** The indices into the corner light data of the layer containing the block and the layer in front of the face. */
+	private final int[][] lightCells = new int[Neighbors.NEIGHBORS][18];
+
+	// The faces that still need to be merged, indexed by direction, layer, v and u:
+	private final boolean[] present = new boolean[Neighbors.NEIGHBORS*Chunk.chunkVolume];
+	private final int[] textures = new int[Neighbors.NEIGHBORS*Chunk.chunkVolume];
+	private final int[] lights = new int[Neighbors.NEIGHBORS*Chunk.chunkVolume];
+	/** Bit mask of the layers that contain faces in each direction. */
+	private final int[] usedLayers = new int[Neighbors.NEIGHBORS];
+
+	private final float[] position = new float[3];
+
+	public GreedyMesher(Model model) {
+		assert SIZE <= 32 : "The layers need to fit into an int bit mask.";
+		this.model = model;
+		if (model == null) {
+			supported = false;
+			return;
+		}
+		for(int dir = 0; dir < Neighbors.NEIGHBORS; dir++) {
+			axisN[dir] = Neighbors.REL_X[dir] != 0 ? 0 : Neighbors.REL_Y[dir] != 0 ? 1 : 2;
+			axisU[dir] = axisN[dir] == 0 ? 1 : 0;
+			axisV[dir] = axisN[dir] == 2 ? 1 : 2;
+			int[] offset = new int[3];
+			for(int i = 0; i < 18; i++) {
+				offset[axisU[dir]] = i%3;
+				offset[axisV[dir]] = i/3%3;
+				offset[axisN[dir]] = i < 9 ? 1 : 1 + Neighbors.REL_X[dir] + Neighbors.REL_Y[dir] + Neighbors.REL_Z[dir];
+				lightCells[dir][i] = offset[0] + offset[1]*3 + offset[2]*9;
+			}
+		}
+		supported = analyzeModel();
+	}
+
+	/**
+	 * Finds the quad on every side of the cube and the mapping of its texture.
+	 * @return false if the model isn't a unit cube made of 6 quads.
+	 */
+	private boolean analyzeModel() {
+		int vertexCount = model.positions.length/3;
+		int[] direction = new int[vertexCount];
+		int[] localIndex = new int[vertexCount];
+		int[] count = new int[Neighbors.NEIGHBORS];
+		for(int i = 0; i < vertexCount; i++) {
+			float nx = model.normals[3*i], ny = model.normals[3*i + 1], nz = model.normals[3*i + 2];
+			if (Math.abs(nx) + Math.abs(ny) + Math.abs(nz) != 1 || nx*ny != 0 || ny*nz != 0 || nz*nx != 0) return false;
+			int dir = Model.normalToNeighbor(nx, ny, nz);
+			if (count[dir] == 4) return false;
+			for(int axis = 0; axis < 3; axis++) {
+				float pos = model.positions[3*i + axis];
+				if (pos != 0 && pos != 1) return false;
+			}
+			boolean positive = Neighbors.REL_X[dir] + Neighbors.REL_Y[dir] + Neighbors.REL_Z[dir] > 0;
+			if (model.positions[3*i + axisN[dir]] != (positive ? 1 : 0)) return false;
+			direction[i] = dir;
+			localIndex[i] = count[dir];
+			faceVertices[dir][count[dir]++] = i;
+		}
+		for(int dir = 0; dir < Neighbors.NEIGHBORS; dir++) {
+			if (count[dir] != 4) return false;
+		}
+		// Both triangles of a side need to use only the vertices of that side:
+		if (model.indices.length != Neighbors.NEIGHBORS*6) return false;
+		int[] indexCount = new int[Neighbors.NEIGHBORS];
+		for(int i = 0; i < model.indices.length; i += 3) {
+			int dir = direction[model.indices[i]];
+			if (direction[model.indices[i + 1]] != dir || direction[model.indices[i + 2]] != dir || indexCount[dir] == 6) return false;
+			for(int j = 0; j < 3; j++) {
+				faceIndices[dir][indexCount[dir]++] = localIndex[model.indices[i + j]];
+			}
+		}
+		// The texture coordinates need to be an affine function of the position on the side:
+		for(int dir = 0; dir < Neighbors.NEIGHBORS; dir++) {
+			int[] corners = new int[] {-1, -1, -1, -1};
+			for(int vertex : faceVertices[dir]) {
+				int corner = (int)model.positions[3*vertex + axisU[dir]] + 2*(int)model.positions[3*vertex + axisV[dir]];
+				if (corners[corner] != -1) return false;
+				corners[corner] = vertex;
+			}
+			for(int i = 0; i < 2; i++) {
+				textureBase[dir][i] = model.textCoords[2*corners[0] + i];
+				textureU[dir][i] = model.textCoords[2*corners[1] + i] - textureBase[dir][i];
+				textureV[dir][i] = model.textCoords[2*corners[2] + i] - textureBase[dir][i];
+				if (model.textCoords[2*corners[3] + i] != textureBase[dir][i] + textureU[dir][i] + textureV[dir][i]) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if faces of blocks with this model can be merged.
+	 */
+	public boolean canMerge(Model model) {
+		return supported && model == this.model;
+	}
+
+	/**
+	 * Queues the visible faces of a block for merging. The block needs to use the {@link #model} without rotation.
+	 * @param x position relative to the chunk.
+	 * @param y position relative to the chunk.
+	 * @param z position relative to the chunk.
+	 * @param light corner light data of block
+	 * @param neighbors which faces of the block are visible.
+	 * @return the visible faces that can't be merged, because their light isn't the same in all corners.
+	 */
+	public byte addBlock(int x, int y, int z, int[] textureIndices, int[] light, byte neighbors) {
+		byte remaining = 0;
+		for(int dir = 0; dir < Neighbors.NEIGHBORS; dir++) {
+			if ((neighbors & Neighbors.BIT_MASK[dir]) == 0) continue;
+			int faceLight = getLight(faceVertices[dir][0], light);
+			if (!isLightUniform(dir, light) && (getLight(faceVertices[dir][1], light) != faceLight || getLight(faceVertices[dir][2], light) != faceLight || getLight(faceVertices[dir][3], light) != faceLight)) {
+				remaining |= Neighbors.BIT_MASK[dir];
+				continue;
+			}
+			position[0] = x;
+			position[1] = y;
+			position[2] = z;
+			int layer = (int)position[axisN[dir]];
+			int index = dir << 3*SHIFT | layer << 2*SHIFT | (int)position[axisV[dir]] << SHIFT | (int)position[axisU[dir]];
+			present[index] = true;
+			textures[index] = textureIndices[dir];
+			lights[index] = faceLight;
+			usedLayers[dir] |= 1 << layer;
+		}
+		return remaining;
+	}
+
+	/**
+	 * The light of a corner is interpolated from the 2×2 cells around it in the layer of the block and in the layer in front of the face.
+	 * If both layers have the same light everywhere, all corners get the same light, which is the common case on the surface.
+	 */
+	private boolean isLightUniform(int dir, int[] light) {
+		int[] cells = lightCells[dir];
+		int block = light[cells[0]], front = light[cells[9]];
+		for(int i = 1; i < 9; i++) {
+			if (light[cells[i]] != block || light[cells[i + 9]] != front) return false;
+		}
+		return true;
+	}
+
+	private int getLight(int vertex, int[] light) {
+		int i3 = 3*vertex;
+		return Model.interpolateLight(model.positions[i3], model.positions[i3 + 1], model.positions[i3 + 2], model.normals[i3], model.normals[i3 + 1], model.normals[i3 + 2], light);
+	}
+
+	/**
+	 * Merges all queued faces and adds them to the mesh. Afterwards the mesher is empty and can be used for the next chunk.
+	 */
+	public void generate(VertexAttribList vertices, IntSimpleList faces) {
+		for(int dir = 0; dir < Neighbors.NEIGHBORS; dir++) {
+			int layers = usedLayers[dir];
+			while (layers != 0) {
+				int layer = Integer.numberOfTrailingZeros(layers);
+				layers &= layers - 1;
+				mergeLayer(dir, layer, vertices, faces);
+			}
+			usedLayers[dir] = 0;
+		}
+	}
+
+	private boolean matches(int index, int texture, int light) {
+		return present[index] && textures[index] == texture && lights[index] == light;
+	}
+
+	/**
+	 * Greedily covers the faces of one layer with rectangles: Each rectangle is first extended along u and then along v as long as all faces match.
+	 */
+	private void mergeLayer(int dir, int layer, VertexAttribList vertices, IntSimpleList faces) {
+		int start = dir << 3*SHIFT | layer << 2*SHIFT;
+		for(int v = 0; v < SIZE; v++) {
+			for(int u = 0; u < SIZE; u++) {
+				int index = start | v << SHIFT | u;
+				if (!present[index]) continue;
+				int texture = textures[index];
+				int light = lights[index];
+				int width = 1;
+				while (u + width < SIZE && matches(index + width, texture, light)) {
+					width++;
+				}
+				int height = 1;
+				extend:
+				while (v + height < SIZE) {
+					int row = index + (height << SHIFT);
+					for(int i = 0; i < width; i++) {
+						if (!matches(row + i, texture, light)) break extend;
+					}
+					height++;
+				}
+				for(int j = 0; j < height; j++) {
+					int row = index + (j << SHIFT);
+					for(int i = 0; i < width; i++) {
+						present[row + i] = false;
+					}
+				}
+				addQuad(dir, layer, u, v, width, height, texture, light, vertices, faces);
+				u += width - 1;
+			}
+		}
+	}
+
+	private void addQuad(int dir, int layer, int u, int v, int width, int height, int texture, int light, VertexAttribList vertices, IntSimpleList faces) {
+		int indexOffset = vertices.currentVertex();
+		for(int vertex : faceVertices[dir]) {
+			int i3 = 3*vertex;
+			float pu = model.positions[i3 + axisU[dir]]*width;
+			float pv = model.positions[i3 + axisV[dir]]*height;
+			position[axisN[dir]] = layer + model.positions[i3 + axisN[dir]];
+			position[axisU[dir]] = u + pu;
+			position[axisV[dir]] = v + pv;
+			vertices.add(POSITION_X, position[0]);
+			vertices.add(POSITION_Y, position[1]);
+			vertices.add(POSITION_Z, position[2]);
+			vertices.add(NORMAL_X, model.normals[i3]);
+			vertices.add(NORMAL_Y, model.normals[i3 + 1]);
+			vertices.add(NORMAL_Z, model.normals[i3 + 2]);
+
+			vertices.add(LIGHTING, light);
+
+			vertices.add(TEXTURE_X, textureBase[dir][0] + pu*textureU[dir][0] + pv*textureV[dir][0]);
+			vertices.add(TEXTURE_Y, textureBase[dir][1] + pu*textureU[dir][1] + pv*textureV[dir][1]);
+			vertices.add(TEXTURE_Z, (float)texture);
+
+			vertices.endVertex();
+		}
+		for(int index : faceIndices[dir]) {
+			faces.add(index + indexOffset);
+		}
+	}
+}
@@ -78,9 +78,9 @@ public final class Meshes {
 	 */
 	public static void queueMesh(ChunkMesh mesh) {
 		// Calculate the priority, which is determined by distance and resolution/size.
-		double dx = Cubyz.player.getPosition().x - mesh.wx;
-		double dy = Cubyz.player.getPosition().y - mesh.wy;
-		double dz = Cubyz.player.getPosition().z - mesh.wz;
+		double dx = Cubyz.player.getX() - mesh.wx;
+		double dy = Cubyz.player.getY() - mesh.wy;
+		double dz = Cubyz.player.getZ() - mesh.wz;
 		double dist = dx*dx + dy*dy + dz*dz;
 		float priority = -(float)dist/mesh.size;
 		mesh.updatePriority(priority);
@@ -2,6 +2,8 @@ package cubyz.client;
 
 import static org.lwjgl.opengl.GL43.*;
 
+import java.nio.IntBuffer;
+
 import cubyz.rendering.VisibleChunk;
 import cubyz.utils.datastructures.SimpleList;
 import org.joml.Vector3d;
@@ -10,9 +12,12 @@ import org.joml.Vector3f;
 import cubyz.rendering.Camera;
 import cubyz.rendering.ShaderProgram;
 import cubyz.rendering.Window;
+import cubyz.rendering.models.Model;
+import cubyz.rendering.rotation.NoRotation;
 import cubyz.utils.Utils;
 import cubyz.utils.VertexAttribList;
 import cubyz.utils.datastructures.IntSimpleList;
+import cubyz.world.Chunk;
 import cubyz.world.ChunkData;
 import cubyz.world.blocks.BlockInstance;
 import cubyz.world.blocks.Blocks;
@@ -32,11 +37,14 @@ public class NormalChunkMesh extends ChunkMesh {
 	public static final int NORMAL_Y = 7;
 	public static final int NORMAL_Z = 8;
 	public static final int LIGHTING = 9;
-	private static final int SIZEOF_VERTEX = 10;
+	public static final int SIZEOF_VERTEX = 10;
 
 	// ThreadLocal lists, to prevent (re-)allocating tons of memory.
 	private static final ThreadLocal<VertexAttribList> localVertices = ThreadLocal.withInitial(() -> new VertexAttribList(SIZEOF_VERTEX));
 	private static final ThreadLocal<IntSimpleList> localFaces = ThreadLocal.withInitial(() -> new IntSimpleList(30000));
+	/** Reused for uploading packed vertices. Meshes are only uploaded on the render thread. */
+	private static IntBuffer packedVertices = null;
+	private static final ThreadLocal<GreedyMesher> localMesher = ThreadLocal.withInitial(() -> new GreedyMesher(Meshes.models.getByID("cubyz:block.obj")));
 
 	// Shader stuff:
 	public static int loc_projectionMatrix;
@@ -51,6 +59,20 @@ public class NormalChunkMesh extends ChunkMesh {
 	public static int loc_fog_density;
 	public static int loc_time;
 
+	public static final class PackedUniforms {
+		public static int loc_projectionMatrix;
+		public static int loc_viewMatrix;
+		public static int loc_texture_sampler;
+		public static int loc_emissionSampler;
+		public static int loc_ambientLight;
+		public static int loc_directionalLight;
+		public static int loc_modelPosition;
+		public static int loc_fog_activ;
+		public static int loc_fog_color;
+		public static int loc_fog_density;
+		public static int loc_time;
+	}
+
 	public static final class TransparentUniforms {
 		public static int loc_projectionMatrix;
 		public static int loc_viewMatrix;
@@ -73,7 +95,11 @@ public class NormalChunkMesh extends ChunkMesh {
 	}
 
 	public static ShaderProgram shader;
+	/** Used for meshes in the layout of {@link PackedChunkVertices}. */
+	public static ShaderProgram packedShader;
 	public static ShaderProgram transparentShader;
+	/** If the packedShader is currently bound instead of the shader. */
+	private static boolean packedShaderBound = false;
 
 	public static void init(String shaderFolder) throws Exception {
 		if (shader != null)
@@ -81,6 +107,11 @@ public class NormalChunkMesh extends ChunkMesh {
 		shader = new ShaderProgram(Utils.loadResource(shaderFolder + "/block_vertex.vs"),
 				Utils.loadResource(shaderFolder + "/block_fragment.fs"),
 				NormalChunkMesh.class);
+		if (packedShader != null)
+			packedShader.cleanup();
+		packedShader = new ShaderProgram(Utils.loadResource(shaderFolder + "/block_packed_vertex.vs"),
+				Utils.loadResource(shaderFolder + "/block_fragment.fs"),
+				PackedUniforms.class);
 		if (transparentShader != null)
 			transparentShader.cleanup();
 		transparentShader = new ShaderProgram(Utils.loadResource(shaderFolder + "/transparent_vertex.vs"),
@@ -94,7 +125,23 @@ public class NormalChunkMesh extends ChunkMesh {
 	 * @param directional
 	 */
 	public static void bindShader(Vector3f ambient, Vector3f directional, int time) {
+		packedShader.bind();
+
+		packedShader.setUniform(PackedUniforms.loc_fog_activ, Cubyz.fog.isActive());
+		packedShader.setUniform(PackedUniforms.loc_fog_color, Cubyz.fog.getColor());
+		packedShader.setUniform(PackedUniforms.loc_fog_density, Cubyz.fog.getDensity());
+		packedShader.setUniform(PackedUniforms.loc_projectionMatrix, Window.getProjectionMatrix());
+		packedShader.setUniform(PackedUniforms.loc_texture_sampler, 0);
+		packedShader.setUniform(PackedUniforms.loc_emissionSampler, 1);
+		packedShader.setUniform(PackedUniforms.loc_viewMatrix, Camera.getViewMatrix());
+
+		packedShader.setUniform(PackedUniforms.loc_ambientLight, ambient);
+		packedShader.setUniform(PackedUniforms.loc_directionalLight, directional);
+
+		packedShader.setUniform(PackedUniforms.loc_time, time);
+
 		shader.bind();
+		packedShaderBound = false;
 
 		shader.setUniform(loc_fog_activ, Cubyz.fog.isActive());
 		shader.setUniform(loc_fog_color, Cubyz.fog.getColor());
@@ -140,6 +187,9 @@ public class NormalChunkMesh extends ChunkMesh {
 	protected int vaoId = -1;
 
 	protected IntSimpleList vboIdList = new IntSimpleList(2);
+
+	/** If the opaque mesh uses the layout of {@link PackedChunkVertices}. */
+	protected boolean packed;
 	
 	protected int transparentVaoId = -1;
 
@@ -178,7 +228,13 @@ public class NormalChunkMesh extends ChunkMesh {
 		generateModelData(chunk, vertices, faces);
 		vertexCount = faces.size;
 		vboIdList.clear();
-		vaoId = bufferData(vertices, faces, vboIdList);
+		packedVertices = PackedChunkVertices.ensureCapacity(packedVertices, vertices.currentVertex());
+		packed = PackedChunkVertices.pack(vertices.getArray(), vertices.size(), faces, packedVertices);
+		if (packed) {
+			vaoId = bufferPackedData(packedVertices, faces, vboIdList);
+		} else {
+			vaoId = bufferData(vertices, faces, vboIdList);
+		}
 		vertices.clear();
 		faces.clear();
 		generateTransparentModelData(chunk, vertices, faces);
@@ -187,6 +243,35 @@ public class NormalChunkMesh extends ChunkMesh {
 		transparentVaoId = bufferData(vertices, faces, transparentVboIdList);
 	}
 	
+	public int bufferPackedData(IntBuffer packedVertices, IntSimpleList faces, IntSimpleList vboIdList) {
+		
+		generated = true;
+		if (faces.size == 0) {
+			return -1;
+		}
+
+		int vaoId = glGenVertexArrays();
+		glBindVertexArray(vaoId);
+		glEnableVertexAttribArray(0);
+
+		// Vertex VBO
+		int vboId = glGenBuffers();
+		vboIdList.add(vboId);
+		glBindBuffer(GL_ARRAY_BUFFER, vboId);
+		glBufferData(GL_ARRAY_BUFFER, packedVertices, GL_STATIC_DRAW);
+		glVertexAttribIPointer(0, 3, GL_INT, PackedChunkVertices.SIZEOF_PACKED_VERTEX*4, 0);
+
+		// Index VBO
+		vboId = glGenBuffers();
+		vboIdList.add(vboId);
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
+		glBufferData(GL_ELEMENT_ARRAY_BUFFER, faces.toArray(), GL_STATIC_DRAW);
+
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		glBindVertexArray(0);
+		return vaoId;
+	}
+	
 	public int bufferData(VertexAttribList vertices, IntSimpleList faces, IntSimpleList vboIdList) {
 		
 		generated = true;
@@ -273,10 +358,19 @@ public class NormalChunkMesh extends ChunkMesh {
 			glUniform3f(ReducedChunkMesh.loc_lowerBounds, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
 			glUniform3f(ReducedChunkMesh.loc_upperBounds, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
 			shader.bind();
+			packedShaderBound = false;
 			return;
 		}
 		if (vaoId == -1) return;
-		glUniform3f(loc_modelPosition, (float)(wx - playerPosition.x), (float)(wy - playerPosition.y), (float)(wz - playerPosition.z));
+		if (packed != packedShaderBound) {
+			if (packed) {
+				packedShader.bind();
+			} else {
+				shader.bind();
+			}
+			packedShaderBound = packed;
+		}
+		glUniform3f(packed ? PackedUniforms.loc_modelPosition : loc_modelPosition, (float)(wx - playerPosition.x), (float)(wy - playerPosition.y), (float)(wz - playerPosition.z));
 
 		glBindVertexArray(vaoId);
 
@@ -313,15 +407,30 @@ public class NormalChunkMesh extends ChunkMesh {
 	}
 	
 	private static void generateModelData(VisibleChunk chunk, VertexAttribList vertices, IntSimpleList faces) {
+		GreedyMesher mesher = ClientSettings.GREEDY_MESHING ? localMesher.get() : null;
 		// Go through all blocks and check their neighbors:
 		SimpleList<BlockInstance> visibles = chunk.getVisibles();
 		for(int i = 0; i < visibles.size; i++) {
 			BlockInstance bi = visibles.array[i];
 			if (bi != null && !Blocks.transparent(bi.getBlock())) {
 				bi.updateLighting(chunk);
-				Blocks.mode(bi.getBlock()).generateChunkMesh(bi, vertices, faces);
+				int block = bi.getBlock();
+				Model model = BlockMeshes.mesh(block & Blocks.TYPE_MASK).model;
+				if (mesher != null && Blocks.mode(block).getClass() == NoRotation.class && mesher.canMerge(model)) {
+					int x = bi.x & Chunk.chunkMask, y = bi.y & Chunk.chunkMask, z = bi.z & Chunk.chunkMask;
+					int[] textureIndices = BlockMeshes.textureIndices(block);
+					byte remaining = mesher.addBlock(x, y, z, textureIndices, bi.light, bi.getNeighbors());
+					if (remaining != 0) {
+						model.addToChunkMesh(x, y, z, textureIndices, bi.light, remaining, vertices, faces);
+					}
+				} else {
+					Blocks.mode(block).generateChunkMesh(bi, vertices, faces);
+				}
 			}
 		}
+		if (mesher != null) {
+			mesher.generate(vertices, faces);
+		}
 	}
 	
 	private static void generateTransparentModelData(VisibleChunk chunk, VertexAttribList vertices, IntSimpleList faces) {
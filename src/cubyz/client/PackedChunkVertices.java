@@ -0,0 +1,153 @@
+package cubyz.client;
+
+import static cubyz.client.NormalChunkMesh.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import cubyz.rendering.models.Model;
+import cubyz.utils.datastructures.IntSimpleList;
+import cubyz.world.Neighbors;
+
+/**
+ * Packs the vertices of {@link NormalChunkMesh} into 12 bytes instead of 40 bytes:<br>
+ * int 0: the position relative to the chunk in 1/{@value #POSITION_PRECISION} blocks, 10 bits per axis.<br>
+ * int 1: the normal as neighbor index in the lowest 3 bits and the texture array layer in the 16 bits above.<br>
+ * int 2: the light, in the same format as before.<br>
+ * The texture coordinates aren't stored. The shader gets them by projecting the position onto the face, like the sides of the standard cube are textured.
+ * Since the textures repeat, only the fractional part needs to match. Meshes that contain other vertices, for example from rotated torches, can't be packed.
+ * Doesn't need an OpenGL context.
+ */
+
+public final class PackedChunkVertices {
+	private PackedChunkVertices() {} // No instances allowed.
+
+	public static final int SIZEOF_PACKED_VERTEX = 3;
+	public static final int POSITION_PRECISION = 16;
+	private static final int POSITION_BITS = 10;
+	private static final int POSITION_MASK = (1 << POSITION_BITS) - 1;
+	private static final int NORMAL_MASK = 7;
+	private static final int LAYER_SHIFT = 3;
+	private static final int LAYER_MASK = 0xffff;
+
+	/** How the texture coordinates change along x, y and z on a face with the given normal. Needs to match block_packed_vertex.vs. */
+	private static final int[][] TEXTURE_DIRECTION_X = {
+		{1, 0, 0}, // up
+		{0, 0, -1}, // down
+		{0, 0, -1}, // +x
+		{0, 0, 1}, // -x
+		{1, 0, 0}, // +z
+		{-1, 0, 0}, // -z
+	};
+	private static final int[][] TEXTURE_DIRECTION_Y = {
+		{0, 0, -1},
+		{1, 0, 0},
+		{0, 1, 0},
+		{0, 1, 0},
+		{0, 1, 0},
+		{0, 1, 0},
+	};
+
+	/**
+	 * @param vertexCount the number of vertices that are going to be packed.
+	 * @param buffer the buffer that was used before or null.
+	 * @return a direct buffer in native byte order that can hold the packed vertices. The given buffer is reused if it is big enough.
+	 */
+	public static IntBuffer ensureCapacity(IntBuffer buffer, int vertexCount) {
+		int length = vertexCount*SIZEOF_PACKED_VERTEX;
+		if (buffer != null && buffer.capacity() >= length) return buffer;
+		int capacity = Math.max(length, buffer == null ? 0 : 2*buffer.capacity());
+		return ByteBuffer.allocateDirect(4*capacity).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	/**
+	 * Packs the vertices without any allocations.
+	 * @param vertices in the layout of {@link NormalChunkMesh}.
+	 * @param length the number of used entries in vertices.
+	 * @param faces the triangles of the mesh.
+	 * @param packed receives the packed vertices between position 0 and its limit. Needs room for all vertices, see {@link #ensureCapacity}.
+	 * @return false if one of the vertices can't be packed.
+	 */
+	public static boolean pack(int[] vertices, int length, IntSimpleList faces, IntBuffer packed) {
+		int vertexCount = length/SIZEOF_VERTEX;
+		packed.clear();
+		for(int i = 0; i < vertexCount; i++) {
+			int vertex = i*SIZEOF_VERTEX;
+			int position = 0;
+			for(int axis = 0; axis < 3; axis++) {
+				float coordinate = Float.intBitsToFloat(vertices[vertex + POSITION_X + axis])*POSITION_PRECISION;
+				if (coordinate != (int)coordinate || coordinate < 0 || coordinate > POSITION_MASK) return false;
+				position |= (int)coordinate << axis*POSITION_BITS;
+			}
+			float nx = Float.intBitsToFloat(vertices[vertex + NORMAL_X]);
+			float ny = Float.intBitsToFloat(vertices[vertex + NORMAL_Y]);
+			float nz = Float.intBitsToFloat(vertices[vertex + NORMAL_Z]);
+			if (Math.abs(nx) + Math.abs(ny) + Math.abs(nz) != 1 || nx*ny != 0 || ny*nz != 0 || nz*nx != 0) return false;
+			int normal = Model.normalToNeighbor(nx, ny, nz);
+			float layer = Float.intBitsToFloat(vertices[vertex + TEXTURE_Z]);
+			if (layer != (int)layer || layer < 0 || layer > LAYER_MASK) return false;
+			packed.put(position);
+			packed.put(normal | (int)layer << LAYER_SHIFT);
+			packed.put(vertices[vertex + LIGHTING]);
+			for(int j = 0; j < 2; j++) {
+				float offset = getTextureOffset(vertices, packed, i, j);
+				if (offset != Math.floor(offset)) return false;
+			}
+		}
+		packed.flip();
+		// The difference between the stored and the projected texture coordinates needs to be the same within a triangle:
+		for(int i = 0; i < faces.size; i += 3) {
+			int a = faces.array[i], b = faces.array[i + 1], c = faces.array[i + 2];
+			for(int j = 0; j < 2; j++) {
+				float offset = getTextureOffset(vertices, packed, a, j);
+				if (getTextureOffset(vertices, packed, b, j) != offset || getTextureOffset(vertices, packed, c, j) != offset) return false;
+			}
+		}
+		return true;
+	}
+
+	private static float getTextureOffset(int[] vertices, IntBuffer packed, int vertex, int coordinate) {
+		return Float.intBitsToFloat(vertices[vertex*SIZEOF_VERTEX + TEXTURE_X + coordinate]) - getTextureCoordinate(packed, vertex, coordinate);
+	}
+
+	/**
+	 * @param axis x = 0, y = 1, z = 2
+	 * @return the coordinate relative to the chunk.
+	 */
+	public static float getPosition(IntBuffer packed, int vertex, int axis) {
+		return (packed.get(vertex*SIZEOF_PACKED_VERTEX) >>> axis*POSITION_BITS & POSITION_MASK)/(float)POSITION_PRECISION;
+	}
+
+	/**
+	 * @return the direction of the normal as defined in {@link Neighbors}.
+	 */
+	public static int getNormal(IntBuffer packed, int vertex) {
+		return packed.get(vertex*SIZEOF_PACKED_VERTEX + 1) & NORMAL_MASK;
+	}
+
+	public static int getTextureLayer(IntBuffer packed, int vertex) {
+		return packed.get(vertex*SIZEOF_PACKED_VERTEX + 1) >>> LAYER_SHIFT & LAYER_MASK;
+	}
+
+	public static int getLight(IntBuffer packed, int vertex) {
+		return packed.get(vertex*SIZEOF_PACKED_VERTEX + 2);
+	}
+
+	/**
+	 * Projects the position onto the face, like the shader does.
+	 * @param coordinate 0 for x and 1 for y
+	 */
+	public static float getTextureCoordinate(IntBuffer packed, int vertex, int coordinate) {
+		return getTextureCoordinate(packed.get(vertex*SIZEOF_PACKED_VERTEX), getNormal(packed, vertex), coordinate);
+	}
+
+	private static float getTextureCoordinate(int position, int normal, int coordinate) {
+		int[] direction = coordinate == 0 ? TEXTURE_DIRECTION_X[normal] : TEXTURE_DIRECTION_Y[normal];
+		int result = 0;
+		for(int axis = 0; axis < 3; axis++) {
+			result += direction[axis]*(position >>> axis*POSITION_BITS & POSITION_MASK);
+		}
+		return result/(float)POSITION_PRECISION;
+	}
+}
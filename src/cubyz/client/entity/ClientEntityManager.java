@@ -2,9 +2,9 @@ package cubyz.client.entity;
 
 import cubyz.Constants;
 import cubyz.api.CubyzRegistries;
+import cubyz.multiplayer.EntitySnapshot;
 import cubyz.utils.datastructures.SimpleList;
 import cubyz.utils.interpolation.TimeDifference;
-import cubyz.utils.math.Bits;
 import pixelguys.json.JsonObject;
 
 public final class ClientEntityManager {
@@ -50,29 +50,15 @@ public final class ClientEntityManager {
 		timeDifference.reset();
 	}
 
-	public static void serverUpdate(short time, byte[] data, int offset, int length) {
+	public static void serverUpdate(short time, EntitySnapshot snapshot) {
 		timeDifference.addDataPoint(time);
-		int num = length/(4+24+12+24);
-		for(int i = 0; i < num; i++) {
-			int id = Bits.getInt(data, offset);
-			offset += 4;
-			double[] position = new double[]{
-				Bits.getDouble(data, offset),
-				Bits.getDouble(data, offset + 8),
-				Bits.getDouble(data, offset + 16),
-				Bits.getFloat(data, offset + 24),
-				Bits.getFloat(data, offset + 28),
-				Bits.getFloat(data, offset + 32),
-			};
-			offset += 36;
-			double[] velocity = new double[]{
-				Bits.getDouble(data, offset),
-				Bits.getDouble(data, offset + 8),
-				Bits.getDouble(data, offset + 16),
-				0, 0, 0,
-			};
-			offset += 24;
-			for(ClientEntity ent : entities.toArray()) {
+		ClientEntity[] entities = ClientEntityManager.entities.toArray();
+		for(int i = 0; i < snapshot.size(); i++) {
+			int id = snapshot.getId(i);
+			double[] position = new double[6];
+			double[] velocity = new double[6];
+			snapshot.getState(i, position, velocity);
+			for(ClientEntity ent : entities) {
 				if(ent.id == id) {
 					ent.updatePosition(position, velocity, time);
 				}
@@ -39,9 +39,9 @@ public class ClientPlayer extends Player {
 		}
 		lastUpdateTime = newTime;
 		
-		double px = Cubyz.player.getPosition().x;
-		double py = Cubyz.player.getPosition().y;
-		double pz = Cubyz.player.getPosition().z;
+		double px = Cubyz.player.getX();
+		double py = Cubyz.player.getY();
+		double pz = Cubyz.player.getZ();
 		NormalChunk ch = Cubyz.world.getChunk((int) px, (int) py, (int) pz);
 		if (ch == null || !ch.isGenerated()) {
 			if (ch != null)
@@ -103,7 +103,7 @@ public class ClientPlayer extends Player {
 		}
 		Cubyz.playerInc.x = Cubyz.playerInc.y = Cubyz.playerInc.z = 0.0F; // Reset positions
 		super.update(deltaTime);
-		Cubyz.world.getLocalPlayer().getPosition().set(position); // TODO: Correctly send update information to the server.
+		Cubyz.world.getLocalPlayer().setPosition(getX(), getY(), getZ()); // TODO: Correctly send update information to the server.
 	}
 
 	public Inventory getInventory() {
@@ -118,11 +118,6 @@ public class ClientPlayer extends Player {
 		return super.getInventory();
 	}
 
-	@Override
-	protected int getBlock(int x, int y, int z) {
-		return Cubyz.world.getBlock(x, y, z);
-	}
-
 	@Override
 	public World getWorld() {
 		return Cubyz.world;
@@ -1,9 +1,11 @@
 package cubyz.client.entity;
 
+import java.util.Arrays;
+
 import cubyz.Constants;
+import cubyz.multiplayer.EntitySnapshot;
 import cubyz.utils.interpolation.GenericInterpolation;
 import cubyz.utils.interpolation.TimeDifference;
-import cubyz.utils.math.Bits;
 import cubyz.world.World;
 import cubyz.world.entity.ItemEntityManager;
 import cubyz.world.items.ItemStack;
@@ -17,27 +19,20 @@ public class InterpolatedItemEntityManager extends ItemEntityManager {
 		super(world);
 	}
 
-	public void readPosition(byte[] data, int offset, int length, short time) {
-		assert length%(6*8 + 2) == 0 : "length must be a multiple of 6*8 + 2";
+	/**
+	 * Items that are not in the snapshot stop where they are.
+	 */
+	public void readPosition(EntitySnapshot snapshot, short time) {
 		timeDifference.addDataPoint(time);
-		double[] pos = new double[3*MAX_CAPACITY];
+		double[] pos = Arrays.copyOf(posxyz, 3*MAX_CAPACITY);
 		double[] vel = new double[3*MAX_CAPACITY];
-		length += offset;
-		while(offset < length) {
-			int i = Bits.getShort(data, offset) & 0xffff;
-			offset += 2;
-			pos[3*i] = Bits.getDouble(data, offset);
-			offset += 8;
-			pos[3*i+1] = Bits.getDouble(data, offset);
-			offset += 8;
-			pos[3*i+2] = Bits.getDouble(data, offset);
-			offset += 8;
-			vel[3*i] = Bits.getDouble(data, offset);
-			offset += 8;
-			vel[3*i+1] = Bits.getDouble(data, offset);
-			offset += 8;
-			vel[3*i+2] = Bits.getDouble(data, offset);
-			offset += 8;
+		double[] entityPosition = new double[3];
+		double[] entityVelocity = new double[3];
+		for(int j = 0; j < snapshot.size(); j++) {
+			int i = snapshot.getId(j);
+			snapshot.getState(j, entityPosition, entityVelocity);
+			System.arraycopy(entityPosition, 0, pos, 3*i, 3);
+			System.arraycopy(entityVelocity, 0, vel, 3*i, 3);
 		}
 		interpolation.updatePosition(pos, vel, time);
 	}
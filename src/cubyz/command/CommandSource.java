@@ -8,5 +8,10 @@ package cubyz.command;
 public interface CommandSource {
 	
 	void feedback(String feedback);
+
+	/**
+	 * @return true if the source may use commands that affect the server itself, like writing files.
+	 */
+	boolean isOperator();
 	
 }
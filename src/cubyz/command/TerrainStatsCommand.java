@@ -0,0 +1,59 @@
+package cubyz.command;
+
+import java.io.File;
+
+import cubyz.api.Resource;
+import cubyz.world.terrain.GenerationStatistics;
+import pixelguys.json.JsonParser;
+
+/**
+ * Shows how long the terrain generation steps take and how well the caches work, resets these statistics or stores them as json in the terrainStats folder.<br>
+ * Only available to operators.
+ */
+
+public class TerrainStatsCommand extends CommandBase {
+	/** The folder that the statistics are dumped into. */
+	private static final String DIRECTORY = "terrainStats";
+
+	public TerrainStatsCommand() {
+		name = "/terrainStats";
+		expectedArgs = new String[2];
+		expectedArgs[0] = "<reset | dump>";
+		expectedArgs[1] = "<file name>";
+	}
+
+	@Override
+	public Resource getRegistryID() {
+		return new Resource("cubyz", "terrainStats");
+	}
+
+	@Override
+	public void commandExecute(CommandSource source, String[] args) {
+		if (!source.isOperator()) {
+			source.feedback("Only operators can use " + name);
+			return;
+		}
+		if (args.length == 1) {
+			for (String line : GenerationStatistics.getSummary()) {
+				source.feedback(line);
+			}
+		} else if (args[1].equals("reset")) {
+			GenerationStatistics.reset();
+			source.feedback("Terrain generation statistics reset");
+		} else if (args[1].equals("dump")) {
+			String fileName = args.length > 2 ? args[2] : "terrainStats.json";
+			// The file may only be placed inside the statistics folder, so path separators, drive letters and ".." aren't allowed:
+			if (!fileName.matches("[\\w.\\-]+") || fileName.contains("..")) {
+				source.feedback("Invalid file name " + fileName);
+				return;
+			}
+			new File(DIRECTORY).mkdirs();
+			String file = DIRECTORY + "/" + fileName;
+			JsonParser.storeToFile(GenerationStatistics.toJson(), file);
+			source.feedback("Terrain generation statistics stored in " + file);
+		} else {
+			source.feedback("Unknown argument " + args[1] + ", expected reset or dump");
+		}
+	}
+
+}
@@ -35,6 +35,8 @@ public class Input {
 	private boolean executedF3Shortcut = false;
 
 	private final ConsoleLog consoleLog = new ConsoleLog();
+	/** Reused every frame for the block selection. */
+	private final Vector3d playerPosition = new Vector3d();
 	
 	public void init() {
 		Mouse.init();
@@ -98,14 +100,14 @@ public class Input {
 				}
 				if (Keybindings.isPressed("jump")) {
 					if (Cubyz.player.isFlying()) {
-						Cubyz.player.vy = Keyboard.isKeyPressed(GLFW.GLFW_KEY_LEFT_CONTROL) ? 59.45F : 5.45F;
+						Cubyz.player.setVY(Keyboard.isKeyPressed(GLFW.GLFW_KEY_LEFT_CONTROL) ? 59.45F : 5.45F);
 					} else if (Cubyz.player.isOnGround()) {
-						Cubyz.player.vy = 5.45F;
+						Cubyz.player.setVY(5.45F);
 					}
 				}
 				if (Keybindings.isPressed("fall")) {
 					if (Cubyz.player.isFlying()) {
-						Cubyz.player.vy = Keyboard.isKeyPressed(GLFW.GLFW_KEY_LEFT_CONTROL) ? -59 : -5;
+						Cubyz.player.setVY(Keyboard.isKeyPressed(GLFW.GLFW_KEY_LEFT_CONTROL) ? -59 : -5);
 					}
 				}
 				if (Keyboard.isKeyPressed(GLFW.GLFW_KEY_F)) {
@@ -170,7 +172,7 @@ public class Input {
 						Cubyz.world.drop(droppedStack, Cubyz.player.getPosition(), Camera.getDirection(), 1);
 					}
 				}
-				Cubyz.msd.selectSpatial(Cubyz.player.getPosition(), Camera.getViewMatrix().positiveZ(Cubyz.dir).negate(), Cubyz.world);
+				Cubyz.msd.selectSpatial(Cubyz.player.getPosition(playerPosition), Camera.getViewMatrix().positiveZ(Cubyz.dir).negate(), Cubyz.world);
 			}
 			if (Keyboard.isKeyPressed(GLFW.GLFW_KEY_C)) {
 				if (Cubyz.gameUI.getMenuGUI() == null) {
@@ -8,6 +8,7 @@ import cubyz.client.GameLogic;
 import cubyz.gui.MenuGUI;
 import cubyz.multiplayer.Protocols;
 import cubyz.multiplayer.UDPConnection;
+import cubyz.multiplayer.server.Server;
 import cubyz.rendering.Graphics;
 import cubyz.rendering.SSBO;
 import cubyz.rendering.ShaderProgram;
@@ -16,6 +17,8 @@ import cubyz.rendering.text.Fonts;
 import cubyz.utils.Logger;
 import cubyz.utils.ThreadPool;
 import cubyz.utils.Utils;
+import cubyz.utils.datastructures.Cache;
+import cubyz.utils.datastructures.MemoryBudget;
 import cubyz.world.entity.Player;
 
 import static org.lwjgl.opengl.GL43.*;
@@ -78,9 +81,9 @@ public class DebugOverlay extends MenuGUI {
 			
 			if (Cubyz.world != null) {
 				Player p = Cubyz.player;
-				double x = p.getPosition().x;
-				double y = p.getPosition().y;
-				double z = p.getPosition().z;
+				double x = p.getX();
+				double y = p.getY();
+				double z = p.getZ();
 				
 				Graphics.drawText(0 * GUI_SCALE, 40 * GUI_SCALE, "XYZ: " + Math.round(100*x)/100.0 + ", " + Math.round(100*y)/100.0 + ", " + Math.round(100*z)/100.0);
 				Graphics.drawText(0 * GUI_SCALE, 50 * GUI_SCALE, "Render Distance: " + ClientSettings.RENDER_DISTANCE);
@@ -91,7 +94,19 @@ public class DebugOverlay extends MenuGUI {
 				Graphics.drawText(0*GUI_SCALE, 100*GUI_SCALE, "Packet loss: "+Math.round(10000*UDPConnection.packets_resent/(float)UDPConnection.packets_sent)/100.0f+"% ("+UDPConnection.packets_resent+"/"+ UDPConnection.packets_sent +")");
 				Graphics.drawText(0*GUI_SCALE, 110*GUI_SCALE, "Important Protocols total: " + (Protocols.bytesReceived[Protocols.IMPORTANT_PACKET & 0xff] >> 10) + "kiB in " + Protocols.packetsReceived[Protocols.IMPORTANT_PACKET & 0xff] + " packets");
 				Graphics.drawText(0*GUI_SCALE, 120*GUI_SCALE, "Keep-alive: " + (Protocols.bytesReceived[Protocols.KEEP_ALIVE] >> 10) + "kiB in " + Protocols.packetsReceived[Protocols.KEEP_ALIVE] + " packets");
-				int yText = 130;
+				UDPConnection connection = Cubyz.world.serverConnection;
+				Graphics.drawText(0*GUI_SCALE, 130*GUI_SCALE, "Connection: RTT " + Math.round(10*connection.getRoundTripTime())/10.0 + " ms, loss " + Math.round(1000*connection.getLossRate())/10.0 + "%, bandwidth " + ((long)connection.getBandwidth() >> 10) + "kiB/s, window " + connection.getPacketsInFlight() + "/" + connection.getCongestionWindow() + " packets, " + connection.getQueuedPackets() + " queued");
+				int yText = 140;
+				if (Server.world != null) {
+					Graphics.drawText(0*GUI_SCALE, yText*GUI_SCALE, "Chunk cache: " + (Server.world.chunkManager.getChunkCacheMemoryUsage() >> 20) + "MiB");
+					yText += 10;
+					Graphics.drawText(0*GUI_SCALE, yText*GUI_SCALE, "Cache budget: " + (MemoryBudget.GLOBAL.getUsedBytes() >> 20) + "/" + (MemoryBudget.GLOBAL.getMaxBytes() >> 20) + "MiB");
+					yText += 10;
+					for(Cache<?> cache : MemoryBudget.GLOBAL.getCaches()) {
+						Graphics.drawText(0*GUI_SCALE, yText*GUI_SCALE, cache.name + ": " + (cache.getWeight() >> 20) + "MiB, " + Math.round(1000*cache.getHitRate())/10.0 + "% hits, " + cache.evictions.get() + " evictions");
+						yText += 10;
+					}
+				}
 				for(int i = 0; i < Protocols.bytesReceived.length; i++) {
 					if(Protocols.list[i] != null) {
 						Graphics.drawText(0*GUI_SCALE, yText*GUI_SCALE, Protocols.list[i].getClass().getSimpleName() + ": " + (Protocols.bytesReceived[i] >> 10) + "kiB in " + Protocols.packetsReceived[i] + " packets");
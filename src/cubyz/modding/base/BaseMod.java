@@ -52,6 +52,7 @@ public class BaseMod implements Mod {
 		CubyzRegistries.COMMAND_REGISTRY.register(new CureCommand());
 		CubyzRegistries.COMMAND_REGISTRY.register(new TimeCommand());
 		CubyzRegistries.COMMAND_REGISTRY.register(new TPCommand());
+		CubyzRegistries.COMMAND_REGISTRY.register(new TerrainStatsCommand());
 
 		if(Constants.getGameSide() == Side.CLIENT) {
 			ClientRegistries.GUIS.register(new WorkbenchGUI());
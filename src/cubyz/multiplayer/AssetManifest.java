@@ -0,0 +1,195 @@
+package cubyz.multiplayer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+
+import cubyz.utils.Logger;
+import cubyz.utils.math.Bits;
+import cubyz.world.save.ChunkCodec;
+import pixelguys.json.JsonObject;
+import pixelguys.json.JsonParser;
+
+/**
+ * The files of an asset folder together with the SHA-256 hash of their content.<br>
+ * During the handshake the client reports the hashes of the assets it got from the last join,
+ * so the server only needs to send the files that are missing or changed.
+ * The server reads its assets once on startup and keeps every file compressed with deflate, independent of the codec used for saving chunks.
+ */
+public final class AssetManifest {
+	/** Relative paths with '/' as separator. */
+	private final String[] paths;
+	private final String[] hashes;
+	/** Only stored by the server. */
+	private final byte[][] compressedFiles;
+	private long compressedSize = 0;
+
+	private AssetManifest(String[] paths, String[] hashes, byte[][] compressedFiles) {
+		this.paths = paths;
+		this.hashes = hashes;
+		this.compressedFiles = compressedFiles;
+		if(compressedFiles != null) {
+			for(byte[] file : compressedFiles) {
+				compressedSize += file.length;
+			}
+		}
+	}
+
+	/**
+	 * Hashes all files in the directory. A missing directory has no files.
+	 * @param keepFiles whether the compressed files are kept, so they can be sent to clients.
+	 */
+	public static AssetManifest read(String directory, boolean keepFiles) {
+		Path root = Paths.get(directory);
+		ArrayList<String> paths = new ArrayList<>();
+		ArrayList<String> hashes = new ArrayList<>();
+		ArrayList<byte[]> files = new ArrayList<>();
+		if(Files.isDirectory(root)) {
+			try(Stream<Path> stream = Files.walk(root)) {
+				stream.filter(Files::isRegularFile).sorted().forEach(file -> {
+					try {
+						byte[] data = Files.readAllBytes(file);
+						paths.add(root.relativize(file).toString().replace('\\', '/'));
+						hashes.add(hash(data));
+						if(keepFiles) {
+							files.add(ChunkCodec.DEFLATE.compress(data, 0, data.length));
+						}
+					} catch(IOException e) {
+						Logger.error(e);
+					}
+				});
+			} catch(IOException e) {
+				Logger.error(e);
+			}
+		}
+		return new AssetManifest(paths.toArray(new String[0]), hashes.toArray(new String[0]), keepFiles ? files.toArray(new byte[0][]) : null);
+	}
+
+	public static String hash(byte[] data) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(data);
+			StringBuilder result = new StringBuilder(2*hash.length);
+			for(byte b : hash) {
+				result.append(Character.forDigit((b >>> 4) & 15, 16));
+				result.append(Character.forDigit(b & 15, 16));
+			}
+			return result.toString();
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // Every Java platform has to support SHA-256.
+		}
+	}
+
+	public int size() {
+		return paths.length;
+	}
+
+	/** @return the size of all files after compression, as stored by the server. */
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/** @return an object that maps every path to its hash. */
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		for(int i = 0; i < paths.length; i++) {
+			json.put(paths[i], hashes[i]);
+		}
+		return json;
+	}
+
+	/**
+	 * Writes this manifest followed by all files that the client doesn't have in the same version.<br>
+	 * Format: int manifest length, manifest json, then for every file: int path length, path, int data length, compressed data.
+	 * @param cachedAssets the manifest of the client in the format of {@link #toJson()}.
+	 * @return the number of files that were written.
+	 */
+	public int writeMissingFiles(JsonObject cachedAssets, OutputStream out) throws IOException {
+		assert compressedFiles != null : "Only the server keeps the files.";
+		byte[] length = new byte[4];
+		byte[] manifest = toJson().toString().getBytes(StandardCharsets.UTF_8);
+		Bits.putInt(length, 0, manifest.length);
+		out.write(length);
+		out.write(manifest);
+		int count = 0;
+		for(int i = 0; i < paths.length; i++) {
+			if(hashes[i].equals(cachedAssets.getString(paths[i], null))) continue;
+			byte[] path = paths[i].getBytes(StandardCharsets.UTF_8);
+			Bits.putInt(length, 0, path.length);
+			out.write(length);
+			out.write(path);
+			Bits.putInt(length, 0, compressedFiles[i].length);
+			out.write(length);
+			out.write(compressedFiles[i]);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Brings the directory to the state of the server, using the data written by {@link #writeMissingFiles(JsonObject, OutputStream)}.
+	 * Files that are not part of the manifest are deleted, all other files are expected to be up to date or part of the data.
+	 * @return the number of files that were written.
+	 */
+	public static int update(String directory, byte[] data, int offset, int length) throws IOException {
+		Path root = Paths.get(directory).toAbsolutePath().normalize();
+		int end = offset + length;
+		int manifestLength = Bits.getInt(data, offset);
+		offset += 4;
+		JsonObject manifest = JsonParser.parseObjectFromString(new String(data, offset, manifestLength, StandardCharsets.UTF_8));
+		offset += manifestLength;
+
+		// Remove files that are no longer used by the server:
+		if(Files.isDirectory(root)) {
+			ArrayList<Path> unused = new ArrayList<>();
+			try(Stream<Path> stream = Files.walk(root)) {
+				stream.filter(Files::isRegularFile).forEach(file -> {
+					if(manifest.getString(root.relativize(file).toString().replace('\\', '/'), null) == null) {
+						unused.add(file);
+					}
+				});
+			}
+			for(Path file : unused) {
+				Files.delete(file);
+			}
+		}
+
+		int count = 0;
+		while(offset < end) {
+			int pathLength = Bits.getInt(data, offset);
+			offset += 4;
+			String path = new String(data, offset, pathLength, StandardCharsets.UTF_8);
+			offset += pathLength;
+			int fileLength = Bits.getInt(data, offset);
+			offset += 4;
+			byte[] file;
+			try {
+				file = ChunkCodec.DEFLATE.decompress(data, offset, fileLength);
+			} catch(DataFormatException e) {
+				file = null;
+			}
+			offset += fileLength;
+
+			Path target = root.resolve(path).normalize();
+			if(!target.startsWith(root) || target.equals(root)) {
+				Logger.error("Server sent an asset outside of the asset folder: " + path);
+				continue;
+			}
+			if(file == null || !hash(file).equals(manifest.getString(path, null))) {
+				Logger.error("Received corrupted asset: " + path);
+				continue;
+			}
+			Files.createDirectories(target.getParent());
+			Files.write(target, file);
+			count++;
+		}
+		return count;
+	}
+}
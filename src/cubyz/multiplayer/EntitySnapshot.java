@@ -0,0 +1,335 @@
+package cubyz.multiplayer;
+
+import java.util.Arrays;
+
+import cubyz.world.Chunk;
+
+/**
+ * The quantized state of the entities a user can see at one point in time, sorted by id.<br>
+ * Positions are stored as the chunk plus a 16 bit fixed point position inside the chunk,
+ * velocities as 16 bit fixed point and rotations as 16 bit angles.<br>
+ * Snapshots are sent as delta to an older snapshot the receiver has acknowledged:
+ * Only entities that changed are sent, and of those only the groups of values that changed,
+ * each as difference to the old value.
+ */
+public final class EntitySnapshot {
+	/** Chunk xyz, position xyz, velocity xyz, rotation xyz */
+	private static final int FIELDS = 12;
+	private static final int CHUNK = 0, POSITION = 3, VELOCITY = 6, ROTATION = 9;
+	private static final double POSITION_SCALE = 65536/Chunk.chunkSize;
+	private static final double VELOCITY_SCALE = 128;
+	private static final double ROTATION_SCALE = 65536/(2*Math.PI);
+
+	private static final int REMOVED = 1;
+	private static final int CHUNK_CHANGED = 2;
+	private static final int POSITION_CHANGED = 4;
+	private static final int VELOCITY_CHANGED = 8;
+	private static final int ROTATION_CHANGED = 16;
+
+	/** The snapshot every entity is new to. */
+	public static final EntitySnapshot EMPTY = new EntitySnapshot(-1);
+
+	public final int sequence;
+	private int size = 0;
+	private int[] ids = new int[16];
+	private int[] values = new int[16*FIELDS];
+	private boolean sorted = true;
+
+	public EntitySnapshot(int sequence) {
+		this.sequence = sequence;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if(ids.length < capacity) {
+			int newCapacity = Math.max(capacity, 2*ids.length);
+			ids = Arrays.copyOf(ids, newCapacity);
+			values = Arrays.copyOf(values, newCapacity*FIELDS);
+		}
+	}
+
+	private static int quantizeVelocity(double velocity) {
+		return (int)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(velocity*VELOCITY_SCALE)));
+	}
+
+	private static int quantizeRotation(float rotation) {
+		return (int)Math.round(rotation*ROTATION_SCALE) & 0xffff;
+	}
+
+	private void putPosition(int index, double position) {
+		int block = (int)Math.floor(position);
+		int chunk = block >> Chunk.chunkShift;
+		values[FIELDS*size + CHUNK + index] = chunk;
+		values[FIELDS*size + POSITION + index] = (int)Math.min(0xffff, Math.round((position - (chunk << Chunk.chunkShift))*POSITION_SCALE));
+	}
+
+	/**
+	 * Adds an entity. Ids must be unique.
+	 */
+	public void add(int id, double x, double y, double z, double vx, double vy, double vz, float rotX, float rotY, float rotZ) {
+		ensureCapacity(size + 1);
+		if(size != 0 && ids[size - 1] >= id) sorted = false;
+		ids[size] = id;
+		putPosition(0, x);
+		putPosition(1, y);
+		putPosition(2, z);
+		int offset = FIELDS*size;
+		values[offset + VELOCITY] = quantizeVelocity(vx);
+		values[offset + VELOCITY + 1] = quantizeVelocity(vy);
+		values[offset + VELOCITY + 2] = quantizeVelocity(vz);
+		values[offset + ROTATION] = quantizeRotation(rotX);
+		values[offset + ROTATION + 1] = quantizeRotation(rotY);
+		values[offset + ROTATION + 2] = quantizeRotation(rotZ);
+		size++;
+	}
+
+	/**
+	 * Sorts the entities by id. Needs to be called after adding entities out of order.
+	 */
+	public void sort() {
+		if(sorted) return;
+		long[] order = new long[size];
+		for(int i = 0; i < size; i++) {
+			order[i] = (long)ids[i] << 32 | i;
+		}
+		Arrays.sort(order);
+		int[] newIds = new int[ids.length];
+		int[] newValues = new int[values.length];
+		for(int i = 0; i < size; i++) {
+			int old = (int)order[i];
+			newIds[i] = ids[old];
+			System.arraycopy(values, FIELDS*old, newValues, FIELDS*i, FIELDS);
+		}
+		ids = newIds;
+		values = newValues;
+		sorted = true;
+	}
+
+	public int getId(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * Writes position and rotation into the first, velocity into the second array.
+	 */
+	public void getState(int i, double[] position, double[] velocity) {
+		int offset = FIELDS*i;
+		for(int j = 0; j < 3; j++) {
+			position[j] = (values[offset + CHUNK + j] << Chunk.chunkShift) + values[offset + POSITION + j]/POSITION_SCALE;
+			velocity[j] = values[offset + VELOCITY + j]/VELOCITY_SCALE;
+		}
+		if(position.length >= 6) {
+			for(int j = 0; j < 3; j++) {
+				position[3 + j] = (short)values[offset + ROTATION + j]/ROTATION_SCALE;
+			}
+		}
+	}
+
+	/**
+	 * @return true if both snapshots contain the same entities in the same state.
+	 */
+	public boolean sameState(EntitySnapshot other) {
+		return size == other.size
+			&& Arrays.equals(ids, 0, size, other.ids, 0, size)
+			&& Arrays.equals(values, 0, FIELDS*size, other.values, 0, FIELDS*size);
+	}
+
+	private static int writeVarInt(byte[] data, int offset, int value) {
+		int zigzag = value << 1 ^ value >> 31;
+		while((zigzag & ~0x7f) != 0) {
+			data[offset++] = (byte)(zigzag & 0x7f | 0x80);
+			zigzag >>>= 7;
+		}
+		data[offset++] = (byte)zigzag;
+		return offset;
+	}
+
+	private static int writeGroup(byte[] data, int offset, int[] values, int valueOffset, int[] baseValues, int baseOffset) {
+		for(int j = 0; j < 3; j++) {
+			int base = baseValues == null ? 0 : baseValues[baseOffset + j];
+			offset = writeVarInt(data, offset, values[valueOffset + j] - base);
+		}
+		return offset;
+	}
+
+	private static boolean groupChanged(int[] values, int valueOffset, int[] baseValues, int baseOffset) {
+		for(int j = 0; j < 3; j++) {
+			int base = baseValues == null ? 0 : baseValues[baseOffset + j];
+			if(values[valueOffset + j] != base) return true;
+		}
+		return false;
+	}
+
+	private static int writeEntity(byte[] data, int offset, int lastId, int id, int[] values, int valueOffset, int[] baseValues, int baseOffset) {
+		int flags = 0;
+		if(groupChanged(values, valueOffset + CHUNK, baseValues, baseOffset + CHUNK)) flags |= CHUNK_CHANGED;
+		if(groupChanged(values, valueOffset + POSITION, baseValues, baseOffset + POSITION)) flags |= POSITION_CHANGED;
+		if(groupChanged(values, valueOffset + VELOCITY, baseValues, baseOffset + VELOCITY)) flags |= VELOCITY_CHANGED;
+		if(groupChanged(values, valueOffset + ROTATION, baseValues, baseOffset + ROTATION)) flags |= ROTATION_CHANGED;
+		if(flags == 0 && baseValues != null) return offset; // Nothing changed.
+		offset = writeVarInt(data, offset, id - lastId);
+		data[offset++] = (byte)flags;
+		if((flags & CHUNK_CHANGED) != 0) offset = writeGroup(data, offset, values, valueOffset + CHUNK, baseValues, baseOffset + CHUNK);
+		if((flags & POSITION_CHANGED) != 0) offset = writeGroup(data, offset, values, valueOffset + POSITION, baseValues, baseOffset + POSITION);
+		if((flags & VELOCITY_CHANGED) != 0) offset = writeGroup(data, offset, values, valueOffset + VELOCITY, baseValues, baseOffset + VELOCITY);
+		if((flags & ROTATION_CHANGED) != 0) offset = writeGroup(data, offset, values, valueOffset + ROTATION, baseValues, baseOffset + ROTATION);
+		return offset;
+	}
+
+	/**
+	 * Encodes the difference to the baseline. Entities that are unchanged are left out, entities that are missing are marked as removed.
+	 * @param headerSize number of bytes to leave empty at the start.
+	 */
+	public byte[] encodeDelta(EntitySnapshot baseline, int headerSize) {
+		sort();
+		// Worst case: id, flags and 12 values of 5 bytes each.
+		byte[] data = new byte[headerSize + (size + baseline.size)*(5 + 1 + FIELDS*5)];
+		int offset = headerSize;
+		int lastId = 0;
+		int i = 0, j = 0;
+		while(i < size || j < baseline.size) {
+			if(j == baseline.size || i < size && ids[i] < baseline.ids[j]) {
+				int newOffset = writeEntity(data, offset, lastId, ids[i], values, FIELDS*i, null, 0);
+				if(newOffset != offset) lastId = ids[i];
+				offset = newOffset;
+				i++;
+			} else if(i == size || baseline.ids[j] < ids[i]) {
+				offset = writeVarInt(data, offset, baseline.ids[j] - lastId);
+				data[offset++] = REMOVED;
+				lastId = baseline.ids[j];
+				j++;
+			} else {
+				int newOffset = writeEntity(data, offset, lastId, ids[i], values, FIELDS*i, baseline.values, FIELDS*j);
+				if(newOffset != offset) lastId = ids[i];
+				offset = newOffset;
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(data, offset);
+	}
+
+	/**
+	 * Reverses {@link #encodeDelta}.
+	 */
+	public static EntitySnapshot decodeDelta(byte[] data, int offset, int length, EntitySnapshot baseline, int sequence) {
+		EntitySnapshot result = new EntitySnapshot(sequence);
+		result.ensureCapacity(baseline.size);
+		int end = offset + length;
+		int lastId = 0;
+		int j = 0;
+		while(offset < end) {
+			// Read the id:
+			int zigzag = 0;
+			int shift = 0;
+			byte nextByte;
+			do {
+				nextByte = data[offset++];
+				zigzag |= (nextByte & 0x7f) << shift;
+				shift += 7;
+			} while((nextByte & 0x80) != 0);
+			int id = lastId + (zigzag >>> 1 ^ -(zigzag & 1));
+			lastId = id;
+			int flags = data[offset++];
+			// Keep the unchanged entities in front of it:
+			while(j < baseline.size && baseline.ids[j] < id) {
+				result.copyFrom(baseline, j++);
+			}
+			boolean inBaseline = j < baseline.size && baseline.ids[j] == id;
+			if((flags & REMOVED) != 0) {
+				if(inBaseline) j++;
+				continue;
+			}
+			result.ensureCapacity(result.size + 1);
+			int valueOffset = FIELDS*result.size;
+			result.ids[result.size] = id;
+			if(inBaseline) {
+				System.arraycopy(baseline.values, FIELDS*j, result.values, valueOffset, FIELDS);
+				j++;
+			} else {
+				Arrays.fill(result.values, valueOffset, valueOffset + FIELDS, 0);
+			}
+			result.size++;
+			for(int group = 0; group < 4; group++) {
+				if((flags & CHUNK_CHANGED << group) == 0) continue;
+				for(int k = 0; k < 3; k++) {
+					zigzag = 0;
+					shift = 0;
+					do {
+						nextByte = data[offset++];
+						zigzag |= (nextByte & 0x7f) << shift;
+						shift += 7;
+					} while((nextByte & 0x80) != 0);
+					result.values[valueOffset + 3*group + k] += zigzag >>> 1 ^ -(zigzag & 1);
+				}
+			}
+		}
+		while(j < baseline.size) {
+			result.copyFrom(baseline, j++);
+		}
+		return result;
+	}
+
+	private void copyFrom(EntitySnapshot other, int i) {
+		ensureCapacity(size + 1);
+		ids[size] = other.ids[i];
+		System.arraycopy(other.values, FIELDS*i, values, FIELDS*size, FIELDS);
+		size++;
+	}
+
+	/**
+	 * Keeps the last snapshots that were sent or received, so they can be used as baseline for the delta encoding.
+	 */
+	public static final class History {
+		private static final int SIZE = 32;
+		private final EntitySnapshot[] snapshots = new EntitySnapshot[SIZE];
+		private volatile int lastAcknowledged = -1;
+		private int nextSequence = 0;
+
+		public int nextSequence() {
+			return nextSequence++;
+		}
+
+		public void put(EntitySnapshot snapshot) {
+			snapshots[snapshot.sequence & (SIZE - 1)] = snapshot;
+		}
+
+		/**
+		 * @return the snapshot or null if it is no longer stored.
+		 */
+		public EntitySnapshot get(int sequence) {
+			if(sequence == -1) return EMPTY;
+			EntitySnapshot snapshot = snapshots[sequence & (SIZE - 1)];
+			if(snapshot == null || snapshot.sequence != sequence) return null;
+			return snapshot;
+		}
+
+		/**
+		 * Called when the other side received a snapshot.
+		 */
+		public synchronized void acknowledge(int sequence) {
+			if(sequence > lastAcknowledged) {
+				lastAcknowledged = sequence;
+			}
+		}
+
+		/**
+		 * @return the newest snapshot the other side is known to have, or {@link #EMPTY}.
+		 */
+		public EntitySnapshot getBaseline() {
+			int sequence = lastAcknowledged;
+			if(sequence == -1 || nextSequence - sequence > SIZE) return EMPTY;
+			EntitySnapshot snapshot = get(sequence);
+			return snapshot == null ? EMPTY : snapshot;
+		}
+
+		public void clear() {
+			Arrays.fill(snapshots, null);
+			lastAcknowledged = -1;
+			nextSequence = 0;
+		}
+	}
+}
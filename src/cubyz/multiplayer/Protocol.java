@@ -4,7 +4,7 @@ public abstract class Protocol {
 	public final byte id;
 
 	public Protocol(byte id) {
-		assert Protocols.list[id & 0xff] == null && id != Protocols.IMPORTANT_PACKET && id != Protocols.KEEP_ALIVE : "Protocols have duplicate id : " + this.getClass() + " " + Protocols.list[id & 0xff].getClass();
+		assert Protocols.list[id & 0xff] == null && id != Protocols.IMPORTANT_PACKET && id != Protocols.KEEP_ALIVE && id != Protocols.ACKNOWLEDGEMENT : "Protocols have duplicate id : " + this.getClass() + " " + Protocols.list[id & 0xff].getClass();
 		this.id = id;
 		Protocols.list[id & 0xff] = this;
 	}
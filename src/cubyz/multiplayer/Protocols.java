@@ -8,6 +8,7 @@ public final class Protocols {
 	public static final int[] packetsReceived = new int[256];
 
 	public static final byte KEEP_ALIVE = 0;
+	public static final byte ACKNOWLEDGEMENT = (byte)0xfe;
 	public static final byte IMPORTANT_PACKET = (byte)0xff;
 	public static final HandshakeProtocol HANDSHAKE = new HandshakeProtocol();
 	public static final ChunkRequestProtocol CHUNK_REQUEST = new ChunkRequestProtocol();
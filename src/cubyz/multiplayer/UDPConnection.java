@@ -5,18 +5,49 @@ import cubyz.client.Cubyz;
 import cubyz.multiplayer.server.Server;
 import cubyz.multiplayer.server.User;
 import cubyz.utils.Logger;
-import cubyz.utils.datastructures.IntSimpleList;
 import cubyz.utils.datastructures.SimpleList;
 import cubyz.utils.math.Bits;
 
 import java.io.IOException;
 import java.net.*;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 
+/**
+ * A connection to another player or the server.<br>
+ * Important messages are written into a stream, that is split into numbered packets.
+ * The receiver acknowledges them selectively, with the first missing packet and a bitmap of the packets after it.<br>
+ * The sender measures the round trip time and the rate at which packets get delivered, similar to BBR.
+ * Packets are paced at the estimated bottleneck bandwidth and the packets in flight are limited to twice the bandwidth-delay product,
+ * so random packet loss doesn't slow the connection down, unlike in loss based congestion control.<br>
+ * A packet is considered lost once a packet that was sent noticeably later got acknowledged,
+ * or if it wasn't acknowledged within the retransmission timeout. Lost packets are retransmitted before new packets are sent.
+ */
 public class UDPConnection {
 	private static final int MAX_PACKET_SIZE = 65507; // max udp packet size
 	private static final int IMPORTANT_HEADER_SIZE = 5;
 	private static final int MAX_IMPORTANT_PACKET_SIZE = 1500 - 20 - 8; // Ethernet MTU minus IP header minus udp header
+	/** Number of packets after the first missing packet that are covered by an acknowledgement. */
+	private static final int ACKNOWLEDGEMENT_BITS = 1024;
+	private static final int INITIAL_WINDOW = 10;
+	private static final int MIN_WINDOW = 4;
+	private static final int MAX_WINDOW = ACKNOWLEDGEMENT_BITS;
+	private static final long INITIAL_RETRANSMISSION_TIMEOUT = 200_000_000;
+	private static final long MIN_RETRANSMISSION_TIMEOUT = 50_000_000;
+	private static final long MAX_RETRANSMISSION_TIMEOUT = 2_000_000_000;
+	private static final long MIN_REORDERING_WINDOW = 1_000_000;
+	/** The minimal round trip time is forgotten after this time, in case the route changed. */
+	private static final long MIN_ROUND_TRIP_TIME_LIFETIME = 10_000_000_000L;
+	/** The bandwidth is the maximum delivery rate of the last round trips. */
+	private static final int BANDWIDTH_FILTER_ROUNDS = 10;
+	/** The pacing is allowed to catch up on this much time, since the connections are only updated every few milliseconds. */
+	private static final long MAX_PACING_DELAY = 10_000_000;
+	/** 2/ln(2), the smallest gain that still doubles the delivery rate each round trip during startup. */
+	private static final double STARTUP_GAIN = 2.885;
+	private static final double WINDOW_GAIN = 2;
+	/** Pacing gains of the bandwidth probing cycle, each is used for one round trip time. */
+	private static final double[] PROBING_GAINS = {1.25, 0.75, 1, 1, 1, 1, 1, 1};
+	private static final int STARTUP = 0, DRAIN = 1, PROBE_BANDWIDTH = 2;
 
 	public static int packets_sent = 0;
 	public static int packets_resent = 0;
@@ -25,19 +56,64 @@ public class UDPConnection {
 
 	final InetAddress remoteAddress;
 	int remotePort;
+	volatile InetSocketAddress remoteSocketAddress;
 	boolean bruteforcingPort;
 	private int bruteForcedPortRange = 0;
 
 	private final byte[] streamBuffer = new byte[MAX_IMPORTANT_PACKET_SIZE];
 	private int streamPosition = IMPORTANT_HEADER_SIZE;
 	private int messageID = 0;
+	/** The packets in flight, sorted by id. Also used to synchronize the state of the congestion control. */
 	private final SimpleList<UnconfirmedPackage> unconfirmedPackets = new SimpleList<>(new UnconfirmedPackage[1024]);
-	private final IntSimpleList[] receivedPackets = new IntSimpleList[]{new IntSimpleList(), new IntSimpleList(), new IntSimpleList()}; // Resend the confirmation 3 times, to make sure the server doesn't need to resend stuff.
+	/** The packets that wait for space in the congestion window. */
+	private final ArrayDeque<UnconfirmedPackage> queuedPackets = new ArrayDeque<>();
+	/** Packets in flight that were lost and wait for their retransmission. May contain packets that got acknowledged in the meantime. */
+	private final ArrayDeque<UnconfirmedPackage> lostPackets = new ArrayDeque<>();
+	/** The buffers of confirmed packets get reused. */
+	private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
 	private final byte[][] lastReceivedPackets = new byte[65536][];
+	private final byte[] acknowledgementBuffer = new byte[1 + 4 + ACKNOWLEDGEMENT_BITS/8];
 	private int lastIndex = 0;
 
 	int lastIncompletePacket = 0;
-
+	/** Set when an important packet was received, until it is acknowledged. */
+	volatile boolean acknowledgementPending = false;
+	boolean acknowledgementScheduled = false;
+
+	// Congestion control. All times are in nanoseconds, rates are in packets per nanosecond.
+	private double smoothedRoundTripTime = -1;
+	private double roundTripTimeVariance = 0;
+	private long retransmissionTimeout = INITIAL_RETRANSMISSION_TIMEOUT;
+	private long minRoundTripTime = -1;
+	private long minRoundTripTimeStamp = 0;
+	/** Maximum delivery rate of each of the last round trips. */
+	private final double[] deliveryRates = new double[BANDWIDTH_FILTER_ROUNDS];
+	private double bandwidth = 0;
+	private long delivered = 0;
+	/** The round trip ends once a packet that was sent after this many deliveries gets acknowledged. */
+	private long roundEnd = 0;
+	private long roundStartDelivered = 0;
+	private long roundStartTime = 0;
+	/** Set if a packet of this round trip was sent while there was nothing else to send. */
+	private boolean roundApplicationLimited = false;
+	private int round = 0;
+	private int mode = STARTUP;
+	private double fullBandwidth = 0;
+	private int roundsWithoutGrowth = 0;
+	private int probingCycle = 0;
+	private long probingCycleStart = 0;
+	private double pacingGain = STARTUP_GAIN;
+	private double windowGain = STARTUP_GAIN;
+	private int congestionWindow = INITIAL_WINDOW;
+	private double pacingTokens = INITIAL_WINDOW;
+	private long lastPacingTime = System.nanoTime();
+	private long newestAcknowledgedSendTime = Long.MIN_VALUE;
+	/** The reordering window in quarters of the minimal round trip time. Grows when a retransmission turns out to be unnecessary. */
+	private int reorderingWindowQuarters = 1;
+	/** Lost packets that weren't retransmitted yet. */
+	private int lostInFlight = 0;
+	private long packetsSent = 0;
+	private long packetsLost = 0;
 
 	int lastKeepAliveSent = 0, lastKeepAliveReceived = 0, otherKeepAliveReceived = 0;
 
@@ -63,7 +139,6 @@ public class UDPConnection {
 
 		Logger.debug(ipOnly+":"+remotePort);
 		this.manager = manager;
-		manager.addConnection(this);
 
 		//connect
 		InetAddress remoteAddress = null;
@@ -73,6 +148,14 @@ public class UDPConnection {
 			Logger.error(e);
 		}
 		this.remoteAddress = remoteAddress;
+		remoteSocketAddress = new InetSocketAddress(remoteAddress, remotePort);
+		manager.addConnection(this);
+	}
+
+	void setRemotePort(int port) {
+		remotePort = port;
+		remoteSocketAddress = new InetSocketAddress(remoteAddress, port);
+		bruteforcingPort = false;
 	}
 
 	private void flush() {
@@ -87,17 +170,202 @@ public class UDPConnection {
 			}
 			Bits.putInt(streamBuffer, 1, ID);
 
-			DatagramPacket packet = new DatagramPacket(Arrays.copyOf(streamBuffer, streamPosition), streamPosition, remoteAddress, remotePort);
 			synchronized(unconfirmedPackets) {
-				unconfirmedPackets.add(new UnconfirmedPackage(packet, lastKeepAliveSent, ID));
+				byte[] data = freeBuffers.poll();
+				if(data == null) data = new byte[MAX_IMPORTANT_PACKET_SIZE];
+				System.arraycopy(streamBuffer, 0, data, 0, streamPosition);
+				queuedPackets.add(new UnconfirmedPackage(data, streamPosition, ID));
+				sendQueuedPackets(System.nanoTime());
 			}
-			packets_sent++;
-			manager.send(packet);
 
 			streamPosition = IMPORTANT_HEADER_SIZE;
 		}
 	}
 
+	/**
+	 * Needs to be synchronized on unconfirmedPackets.
+	 */
+	private void sendPacket(UnconfirmedPackage packet, long time) {
+		packet.sendTime = time;
+		packet.delivered = delivered;
+		packet.applicationLimited = queuedPackets.isEmpty() && lostInFlight == 0;
+		packets_sent++;
+		packetsSent++;
+		manager.send(packet.data, 0, packet.length, remoteSocketAddress);
+	}
+
+	/**
+	 * Retransmits lost packets and sends queued packets as long as the congestion window and the pacing allow it.
+	 * Needs to be synchronized on unconfirmedPackets.
+	 */
+	private void sendQueuedPackets(long time) {
+		if(bandwidth == 0) {
+			pacingTokens = Math.max(pacingTokens, Math.min(INITIAL_WINDOW, (time - lastPacingTime)*INITIAL_WINDOW/(double)INITIAL_RETRANSMISSION_TIMEOUT));
+		} else {
+			double pacingRate = pacingGain*bandwidth;
+			pacingTokens = Math.min(Math.max(MIN_WINDOW, MAX_PACING_DELAY*pacingRate), pacingTokens + (time - lastPacingTime)*pacingRate);
+		}
+		lastPacingTime = time;
+		while(pacingTokens >= 1 && !lostPackets.isEmpty()) {
+			UnconfirmedPackage packet = lostPackets.poll();
+			if(!packet.lost) continue; // Got acknowledged in the meantime.
+			packet.lost = false;
+			lostInFlight--;
+			packets_resent++;
+			packet.retransmitted = true;
+			sendPacket(packet, time);
+			pacingTokens--;
+		}
+		while(pacingTokens >= 1 && !queuedPackets.isEmpty() && unconfirmedPackets.size - lostInFlight < congestionWindow) {
+			// Packets beyond the range of the acknowledgement bitmap could only be acknowledged after all previous packets arrived:
+			if(unconfirmedPackets.size != 0 && queuedPackets.peek().id - unconfirmedPackets.array[0].id > ACKNOWLEDGEMENT_BITS) break;
+			UnconfirmedPackage packet = queuedPackets.poll();
+			if(unconfirmedPackets.size == 0) { // Nothing in flight, so the delivery rate doesn't include the idle time.
+				roundEnd = roundStartDelivered = delivered;
+				roundStartTime = time;
+			}
+			unconfirmedPackets.add(packet);
+			sendPacket(packet, time);
+			pacingTokens--;
+		}
+	}
+
+	/**
+	 * Needs to be synchronized on unconfirmedPackets.
+	 */
+	private void onLoss(UnconfirmedPackage packet) {
+		packet.lost = true;
+		lostInFlight++;
+		packetsLost++;
+		lostPackets.add(packet);
+	}
+
+	private void updateRoundTripTime(long sample, long time) {
+		if(smoothedRoundTripTime < 0) {
+			smoothedRoundTripTime = sample;
+			roundTripTimeVariance = sample/2.0;
+		} else {
+			roundTripTimeVariance = 0.75*roundTripTimeVariance + 0.25*Math.abs(smoothedRoundTripTime - sample);
+			smoothedRoundTripTime = 0.875*smoothedRoundTripTime + 0.125*sample;
+		}
+		retransmissionTimeout = Math.max(MIN_RETRANSMISSION_TIMEOUT, Math.min(MAX_RETRANSMISSION_TIMEOUT, (long)(smoothedRoundTripTime + 4*roundTripTimeVariance)));
+		if(minRoundTripTime < 0 || sample <= minRoundTripTime || time - minRoundTripTimeStamp > MIN_ROUND_TRIP_TIME_LIFETIME) {
+			minRoundTripTime = sample;
+			minRoundTripTimeStamp = time;
+		}
+	}
+
+	/**
+	 * Updates the bandwidth estimate with the delivery rate of each round trip.
+	 * Measuring over a whole round trip averages out acknowledgements that arrive in bursts.
+	 * Needs to be synchronized on unconfirmedPackets.
+	 */
+	private void updateBandwidth(UnconfirmedPackage newestPacket, long time) {
+		boolean newRound = newestPacket.delivered - roundEnd >= 0 && newestPacket.sendTime - roundStartTime >= 0 && time > roundStartTime;
+		if(newRound) {
+			double rate = (delivered - roundStartDelivered)/(double)(time - roundStartTime);
+			round++;
+			// A sender that had nothing to send doesn't show the available bandwidth, unless it's already higher than the estimate:
+			deliveryRates[round % BANDWIDTH_FILTER_ROUNDS] = !roundApplicationLimited || rate > bandwidth ? rate : 0;
+			bandwidth = 0;
+			for(double deliveryRate : deliveryRates) {
+				bandwidth = Math.max(bandwidth, deliveryRate);
+			}
+			roundEnd = roundStartDelivered = delivered;
+			roundStartTime = time;
+		}
+
+		long bandwidthDelayProduct = (long)Math.ceil(bandwidth*minRoundTripTime);
+		switch(mode) {
+			case STARTUP:
+				if(newRound && !roundApplicationLimited) {
+					if(bandwidth >= 1.25*fullBandwidth) {
+						fullBandwidth = bandwidth;
+						roundsWithoutGrowth = 0;
+					} else if(++roundsWithoutGrowth >= 3) { // The bandwidth stopped growing, so the bottleneck is full.
+						mode = DRAIN;
+						pacingGain = 1/STARTUP_GAIN;
+					}
+				}
+				break;
+			case DRAIN:
+				if(unconfirmedPackets.size - lostInFlight <= bandwidthDelayProduct) { // The queue created during the startup is gone.
+					mode = PROBE_BANDWIDTH;
+					windowGain = WINDOW_GAIN;
+					probingCycle = 0;
+					probingCycleStart = time;
+					pacingGain = PROBING_GAINS[probingCycle];
+				}
+				break;
+			case PROBE_BANDWIDTH:
+				if(time - probingCycleStart > minRoundTripTime) {
+					probingCycle = (probingCycle + 1) % PROBING_GAINS.length;
+					probingCycleStart = time;
+					pacingGain = PROBING_GAINS[probingCycle];
+				}
+				break;
+		}
+		congestionWindow = (int)Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, Math.ceil(windowGain*bandwidthDelayProduct)));
+		if(newRound) {
+			roundApplicationLimited = false;
+		}
+	}
+
+	/**
+	 * Retransmits packets that timed out and sends queued packets. Called regularly by the {@link UDPConnectionManager}.
+	 */
+	void update(long time) {
+		synchronized(unconfirmedPackets) {
+			boolean timeout = false;
+			for(int i = 0; i < unconfirmedPackets.size; i++) {
+				UnconfirmedPackage packet = unconfirmedPackets.array[i];
+				if(!packet.lost && time - packet.sendTime > retransmissionTimeout) {
+					timeout = true;
+					onLoss(packet);
+				}
+			}
+			if(timeout) {
+				retransmissionTimeout = Math.min(MAX_RETRANSMISSION_TIMEOUT, 2*retransmissionTimeout);
+			}
+			sendQueuedPackets(time);
+		}
+	}
+
+	/** @return the smoothed round trip time in milliseconds or -1 if nothing was acknowledged yet. */
+	/**
+	 * @return true if the other side runs on the same machine.
+	 */
+	public boolean isLocal() {
+		return remoteAddress != null && remoteAddress.isLoopbackAddress();
+	}
+
+	public double getRoundTripTime() {
+		return smoothedRoundTripTime < 0 ? -1 : smoothedRoundTripTime/1e6;
+	}
+
+	/** @return the estimated bandwidth in bytes per second. */
+	public double getBandwidth() {
+		return bandwidth*1e9*MAX_IMPORTANT_PACKET_SIZE;
+	}
+
+	/** @return the number of packets that may be in flight. */
+	public int getCongestionWindow() {
+		return congestionWindow;
+	}
+
+	/** @return the fraction of sent important packets that got lost. */
+	public double getLossRate() {
+		return packetsSent == 0 ? 0 : packetsLost/(double)packetsSent;
+	}
+
+	public int getPacketsInFlight() {
+		return unconfirmedPackets.size;
+	}
+
+	public int getQueuedPackets() {
+		return queuedPackets.size();
+	}
+
 	private void writeByteToStream(byte data) {
 		streamBuffer[streamPosition++] = data;
 		if(streamPosition == streamBuffer.length) {
@@ -140,100 +408,108 @@ public class UDPConnection {
 	public void sendUnimportant(Protocol source, byte[] data, int offset, int length) {
 		if(disconnected) return;
 		assert(length + 1 < MAX_PACKET_SIZE) : "Package is too big. Please split it into smaller packages.";
-		byte[] fullData = new byte[length + 1];
-		fullData[0] = source.id;
-		System.arraycopy(data, offset, fullData, 1, length);
-		manager.send(new DatagramPacket(fullData, fullData.length, remoteAddress, remotePort));
+		manager.send(source.id, data, offset, length, remoteSocketAddress);
 	}
 
 	private void receiveKeepAlive(byte[] data, int offset, int length) {
 		otherKeepAliveReceived = Bits.getInt(data, offset);
 		lastKeepAliveReceived = Bits.getInt(data, offset + 4);
-		for(int i = offset + 8; i + 8 <= offset + length; i += 8) {
-			int start = Bits.getInt(data, i);
-			int len = Bits.getInt(data, i + 4);
-			synchronized(unconfirmedPackets) {
-				for(int j = 0; j < unconfirmedPackets.size; j++) {
-					int diff = unconfirmedPackets.array[j].id - start;
-					if(diff >= 0 && diff < len) {
-						unconfirmedPackets.remove(j);
-						j--;
-					}
-				}
-			}
-		}
 	}
 
-	void sendKeepAlive() {
-		byte[] data;
-		synchronized(receivedPackets) {
-			IntSimpleList runLengthEncodingStarts = new IntSimpleList();
-			IntSimpleList runLengthEncodingLengths = new IntSimpleList();
-			for(var packets : receivedPackets) {
-				outer:
-				for(int i = 0; i < packets.size; i++) {
-					int value = packets.array[i];
-					int leftRegion = -1;
-					int rightRegion = -1;
-					for(int reg = 0; reg < runLengthEncodingStarts.size; reg++) {
-						int diff = value - runLengthEncodingStarts.array[reg];
-						if(diff >= 0 && diff < runLengthEncodingLengths.array[reg]) {
-							continue outer; // Value is already in the list.
-						}
-						if(diff == runLengthEncodingLengths.array[reg]) {
-							leftRegion = reg;
-						}
-						if(diff == -1) {
-							rightRegion = reg;
-						}
-					}
-					if(leftRegion == -1) {
-						if(rightRegion == -1) {
-							runLengthEncodingStarts.add(value);
-							runLengthEncodingLengths.add(1);
-						} else {
-							runLengthEncodingStarts.array[rightRegion]--;
-							runLengthEncodingLengths.array[rightRegion]++;
-						}
-					} else if(rightRegion == -1) {
-						runLengthEncodingLengths.array[leftRegion]++;
-					} else {
-						// Needs to combine the regions:
-						runLengthEncodingLengths.array[leftRegion] += runLengthEncodingLengths.array[rightRegion] + 1;
-						runLengthEncodingStarts.removeIndex(rightRegion);
-						runLengthEncodingLengths.removeIndex(rightRegion);
+	private void receiveAcknowledgement(byte[] data, int offset, int length) {
+		int next = Bits.getInt(data, offset);
+		int bitmapLength = Math.min(length - 4, ACKNOWLEDGEMENT_BITS/8);
+		long time = System.nanoTime();
+		synchronized(unconfirmedPackets) {
+			long sampleSendTime = Long.MIN_VALUE;
+			UnconfirmedPackage newestPacket = null;
+			int acknowledgedPackets = 0;
+			int remaining = 0;
+			for(int i = 0; i < unconfirmedPackets.size; i++) {
+				UnconfirmedPackage packet = unconfirmedPackets.array[i];
+				int diff = packet.id - next;
+				boolean acknowledged = diff < 0 || diff > 0 && diff <= 8*bitmapLength && (data[offset + 4 + (diff - 1)/8] & 1 << ((diff - 1) & 7)) != 0;
+				if(!acknowledged) {
+					unconfirmedPackets.array[remaining++] = packet;
+					continue;
+				}
+				if(packet.lost) { // The packet arrived after all.
+					packet.lost = false;
+					lostInFlight--;
+				}
+				acknowledgedPackets++;
+				delivered++;
+				roundApplicationLimited |= packet.applicationLimited;
+				freeBuffers.push(packet.data);
+				if(packet.retransmitted) {
+					if(time - packet.sendTime < minRoundTripTime) { // Too fast for the retransmission, so the original was just late.
+						reorderingWindowQuarters = Math.min(4, reorderingWindowQuarters + 1);
+						continue;
 					}
+				} else if(packet.sendTime > sampleSendTime) { // Only packets that were sent once give a clear round trip time.
+					sampleSendTime = packet.sendTime;
+				}
+				newestAcknowledgedSendTime = Math.max(newestAcknowledgedSendTime, packet.sendTime);
+				if(newestPacket == null || packet.delivered - newestPacket.delivered > 0) {
+					newestPacket = packet;
 				}
 			}
-			IntSimpleList putBackToFront = receivedPackets[receivedPackets.length - 1];
-			System.arraycopy(receivedPackets, 0, receivedPackets, 1, receivedPackets.length - 1);
-			receivedPackets[0] = putBackToFront;
-			receivedPackets[0].clear();
-			data = new byte[runLengthEncodingStarts.size*8 + 9];
-			data[0] = Protocols.KEEP_ALIVE;
-			Bits.putInt(data, 1, lastKeepAliveSent++);
-			Bits.putInt(data, 5, otherKeepAliveReceived);
-			int cur = 9;
-			for(int i = 0; i < runLengthEncodingStarts.size; i++) {
-				Bits.putInt(data, cur, runLengthEncodingStarts.array[i]);
-				cur += 4;
-				Bits.putInt(data, cur, runLengthEncodingLengths.array[i]);
-				cur += 4;
+			Arrays.fill(unconfirmedPackets.array, remaining, unconfirmedPackets.size, null);
+			unconfirmedPackets.size = remaining;
+			if(acknowledgedPackets == 0) return;
+			if(sampleSendTime != Long.MIN_VALUE) {
+				updateRoundTripTime(time - sampleSendTime, time);
 			}
-			assert(cur == data.length);
-		}
-		manager.send(new DatagramPacket(data, data.length, remoteAddress, remotePort));
-		synchronized(unconfirmedPackets) {
-			// Resend packets that didn't receive confirmation within the last 2 keep-alive signals.
+			if(newestPacket != null) {
+				updateBandwidth(newestPacket, time);
+			}
+			// Packets that were sent well before an acknowledged packet are lost:
+			long reorderingWindow = Math.max(MIN_REORDERING_WINDOW, Math.max(0, minRoundTripTime)*reorderingWindowQuarters/4);
 			for(int i = 0; i < unconfirmedPackets.size; i++) {
-				if(lastKeepAliveReceived - unconfirmedPackets.array[i].lastKeepAliveSentBefore >= 2) {
-					packets_sent++;
-					packets_resent++;
-					manager.send(unconfirmedPackets.array[i].packet);
-					unconfirmedPackets.array[i].lastKeepAliveSentBefore = lastKeepAliveSent;
+				UnconfirmedPackage packet = unconfirmedPackets.array[i];
+				if(!packet.lost && packet.sendTime + reorderingWindow < newestAcknowledgedSendTime) {
+					onLoss(packet);
+				}
+			}
+			sendQueuedPackets(time);
+		}
+	}
+
+	/**
+	 * Acknowledges all received packets: the first missing packet followed by a bitmap of the received packets after it.
+	 */
+	void sendAcknowledgement() {
+		acknowledgementPending = false;
+		synchronized(lastReceivedPackets) {
+			int next = lastIncompletePacket;
+			while(next - lastIncompletePacket < 65536 && lastReceivedPackets[next & 65535] != null) {
+				next++;
+			}
+			byte[] data = acknowledgementBuffer;
+			Arrays.fill(data, (byte)0);
+			data[0] = Protocols.ACKNOWLEDGEMENT;
+			Bits.putInt(data, 1, next);
+			int bitmapLength = 0;
+			for(int diff = 1; diff <= ACKNOWLEDGEMENT_BITS; diff++) {
+				int id = next + diff;
+				if(id - lastIncompletePacket >= 65536) break;
+				if(lastReceivedPackets[id & 65535] != null) {
+					data[5 + (diff - 1)/8] |= 1 << ((diff - 1) & 7);
+					bitmapLength = (diff - 1)/8 + 1;
 				}
 			}
+			manager.send(data, 0, 5 + bitmapLength, remoteSocketAddress);
 		}
+	}
+
+	void sendKeepAlive() {
+		byte[] data = new byte[9];
+		data[0] = Protocols.KEEP_ALIVE;
+		Bits.putInt(data, 1, lastKeepAliveSent++);
+		Bits.putInt(data, 5, otherKeepAliveReceived);
+		manager.send(data, 0, data.length, remoteSocketAddress);
+		// Repeat the acknowledgement in case it got lost:
+		sendAcknowledgement();
 		flush();
 		if(bruteforcingPort) { // Brute force through some ports.
 			// This is called every 100 ms, so if I send 10 requests it shouldn't be too bad.
@@ -241,10 +517,10 @@ public class UDPConnection {
 				byte[] fullData = new byte[0];
 				//fullData[0] = Protocols.KEEP_ALIVE.id;
 				if(((remotePort + bruteForcedPortRange) & 65535) != 0) {
-					manager.send(new DatagramPacket(fullData, fullData.length, remoteAddress, (remotePort + bruteForcedPortRange) & 65535));
+					manager.send(fullData, 0, 0, new InetSocketAddress(remoteAddress, (remotePort + bruteForcedPortRange) & 65535));
 				}
 				if(((remotePort - bruteForcedPortRange) & 65535) != 0) {
-					manager.send(new DatagramPacket(fullData, fullData.length, remoteAddress, (remotePort - bruteForcedPortRange) & 65535));
+					manager.send(fullData, 0, 0, new InetSocketAddress(remoteAddress, (remotePort - bruteForcedPortRange) & 65535));
 				}
 				bruteForcedPortRange++;
 			}
@@ -255,6 +531,13 @@ public class UDPConnection {
 		return otherKeepAliveReceived != 0;
 	}
 
+	/**
+	 * @return false if the messages of the protocol have to wait, because the world isn't loaded yet.
+	 */
+	protected boolean canReceive(byte protocol) {
+		return Cubyz.world != null || protocol == Protocols.HANDSHAKE.id;
+	}
+
 	private void collectPackets() {
 		byte[] data;
 		byte protocol;
@@ -265,7 +548,7 @@ public class UDPConnection {
 					return;
 				int newIndex = lastIndex;
 				protocol = lastReceivedPackets[id & 65535][newIndex++];
-				if(Cubyz.world == null && protocol != Protocols.HANDSHAKE.id)
+				if(!canReceive(protocol))
 					return;
 				// Determine the next packet length:
 				int len = 0;
@@ -312,13 +595,13 @@ public class UDPConnection {
 				lastIndex = newIndex;
 			}
 			Protocols.bytesReceived[protocol & 0xff] += data.length + 1;
-			Protocols.list[protocol].receive(this, data, 0, data.length);
+			Protocols.list[protocol & 0xff].receive(this, data, 0, data.length);
 		}
 	}
 
 	public void receive(byte[] data, int len) {
 		byte protocol = data[0];
-		if(!handShakeComplete && protocol != Protocols.HANDSHAKE.id && protocol != Protocols.KEEP_ALIVE && protocol != (byte)0xff) {
+		if(!handShakeComplete && protocol != Protocols.HANDSHAKE.id && protocol != Protocols.KEEP_ALIVE && protocol != Protocols.ACKNOWLEDGEMENT && protocol != (byte)0xff) {
 			return; // Reject all non-handshake packets until the handshake is done.
 		}
 		lastConnection = System.currentTimeMillis();
@@ -347,9 +630,7 @@ public class UDPConnection {
 				Logger.warning("Many incomplete packages. Cannot process any more packages for now.");
 				return;
 			}
-			synchronized(receivedPackets) {
-				receivedPackets[0].add(id);
-			}
+			acknowledgementPending = true;
 			synchronized(lastReceivedPackets) {
 				if(id - lastIncompletePacket < 0 || lastReceivedPackets[id & 65535] != null) {
 					return; // Already received the package in the past.
@@ -360,6 +641,8 @@ public class UDPConnection {
 			}
 		} else if(protocol == Protocols.KEEP_ALIVE) {
 			receiveKeepAlive(data, 1, len - 1);
+		} else if(protocol == Protocols.ACKNOWLEDGEMENT) {
+			receiveAcknowledgement(data, 1, len - 1);
 		} else {
 			Protocols.list[protocol & 0xff].receive(this, data, 1, len - 1);
 		}
@@ -379,13 +662,19 @@ public class UDPConnection {
 	}
 
 	private static final class UnconfirmedPackage {
-		private final DatagramPacket packet;
-		private int lastKeepAliveSentBefore;
+		private final byte[] data;
+		private final int length;
 		private final int id;
-
-		private UnconfirmedPackage(DatagramPacket packet, int lastKeepAliveSentBefore, int id) {
-			this.packet = packet;
-			this.lastKeepAliveSentBefore = lastKeepAliveSentBefore;
+		private long sendTime;
+		/** The number of delivered packets when this packet was sent. */
+		private long delivered;
+		private boolean applicationLimited;
+		private boolean retransmitted = false;
+		private boolean lost = false;
+
+		private UnconfirmedPackage(byte[] data, int length, int id) {
+			this.data = data;
+			this.length = length;
 			this.id = id;
 		}
 	}
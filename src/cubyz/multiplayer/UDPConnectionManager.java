@@ -1,18 +1,42 @@
 package cubyz.multiplayer;
 
 import cubyz.utils.Logger;
+import cubyz.utils.datastructures.SimpleList;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static cubyz.Constants.CONNECTION_TIMEOUT;
 
+/**
+ * Sends and receives all packets of the game through a single non-blocking {@link DatagramChannel}.<br>
+ * Received packets are handed to the connection with the same address and port, which is found in a hash map.
+ * Optionally several threads receive packets in parallel. The manager thread also sends the keep-alive packets.
+ */
 public final class UDPConnectionManager extends Thread {
-	private final DatagramSocket socket;
-	private final DatagramPacket receivedPacket;
+	private static final int MAX_DATAGRAM_SIZE = 65536;
+	/** Limits the packets handled at once, so the keep-alive packets are still sent under load. */
+	private static final int MAX_PACKETS_PER_SELECT = 1024;
+	/** Time between the updates of the connections, which retransmit lost packets and send the paced packets. */
+	private static final int UPDATE_INTERVAL = 5;
+	private final DatagramChannel channel;
+	/** Each thread reuses its own buffers to send packets. */
+	private final ThreadLocal<ByteBuffer> sendBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE));
+	private final Thread[] receiveThreads;
+	private final Selector[] selectors;
 	public final ArrayList<UDPConnection> connections = new ArrayList<>();
+	/** A copy of the connections for the manager thread. */
+	private volatile UDPConnection[] connectionArray = new UDPConnection[0];
+	private final ConcurrentHashMap<InetSocketAddress, UDPConnection> connectionsByAddress = new ConcurrentHashMap<>();
+	/** Connections that don't know the remote port yet. */
+	private final ConcurrentHashMap<InetAddress, UDPConnection> bruteforcingConnections = new ConcurrentHashMap<>();
 	private final ArrayList<DatagramPacket> requests = new ArrayList<>();
 	private volatile boolean running = true;
 	public String externalIPPort = null;
@@ -21,20 +45,62 @@ public final class UDPConnectionManager extends Thread {
 	public boolean online = false;
 
 	public UDPConnectionManager(int localPort, boolean online) {
+		this(localPort, online, 1);
+	}
+
+	/**
+	 * @param receiveThreads number of threads that receive packets, including this one.
+	 */
+	public UDPConnectionManager(int localPort, boolean online, int receiveThreads) {
+		super("UDPConnectionManager");
 		// Connect
-		DatagramSocket socket = null;
+		DatagramChannel channel = null;
 		//TODO: Might want to use SSL or something similar to encode the message
-		while(socket == null) {
+		while(channel == null) {
 			try {
-				socket = new DatagramSocket(localPort);
-			} catch(SocketException e) {
+				channel = DatagramChannel.open();
+				channel.bind(new InetSocketAddress(localPort));
+				channel.configureBlocking(false);
+			} catch(IOException e) {
 				Logger.warning("Couldn't use port "+localPort+".");
+				if(channel != null) {
+					try {
+						channel.close();
+					} catch(IOException ignored) {}
+					channel = null;
+				}
 				localPort++;
 			}
 		}
-		this.socket = socket;
+		this.channel = channel;
 
-		receivedPacket = new DatagramPacket(new byte[65536], 65536);
+		receiveThreads = Math.max(1, receiveThreads);
+		selectors = new Selector[receiveThreads];
+		this.receiveThreads = new Thread[receiveThreads - 1];
+		try {
+			for(int i = 0; i < selectors.length; i++) {
+				selectors[i] = Selector.open();
+				channel.register(selectors[i], SelectionKey.OP_READ);
+			}
+		} catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+		for(int i = 1; i < receiveThreads; i++) {
+			Selector selector = selectors[i];
+			this.receiveThreads[i - 1] = new Thread(() -> {
+				try {
+					ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+					byte[] data = new byte[MAX_DATAGRAM_SIZE];
+					SimpleList<UDPConnection> acknowledgements = new SimpleList<>(new UDPConnection[16]);
+					while(running) {
+						receivePackets(selector, 100, buffer, data, acknowledgements);
+					}
+				} catch(Exception e) {
+					if(running) Logger.crash(e);
+				}
+			}, "UDP receive "+i);
+			this.receiveThreads[i - 1].start();
+		}
 
 		start();
 		if(online) {
@@ -42,6 +108,10 @@ public final class UDPConnectionManager extends Thread {
 		}
 	}
 
+	public int getLocalPort() {
+		return channel.socket().getLocalPort();
+	}
+
 	public void makeOnline() {
 		if(!online) {
 			externalIPPort = STUN.requestIPPort(this);
@@ -62,16 +132,41 @@ public final class UDPConnectionManager extends Thread {
 		}
 	}
 
-	public void send(DatagramPacket packet) {
+	public void send(byte[] data, int offset, int length, InetSocketAddress target) {
+		ByteBuffer buffer = sendBuffers.get();
+		buffer.clear();
+		buffer.put(data, offset, length);
+		buffer.flip();
+		send(buffer, target);
+	}
+
+	/**
+	 * Sends the header byte followed by the data, without copying it into a new array first.
+	 */
+	public void send(byte header, byte[] data, int offset, int length, InetSocketAddress target) {
+		ByteBuffer buffer = sendBuffers.get();
+		buffer.clear();
+		buffer.put(header);
+		buffer.put(data, offset, length);
+		buffer.flip();
+		send(buffer, target);
+	}
+
+	private void send(ByteBuffer buffer, InetSocketAddress target) {
+		// An interrupted thread would close the channel for everyone, so the interrupt is postponed:
+		boolean interrupted = Thread.interrupted();
 		try {
-			socket.send(packet);
+			channel.send(buffer, target);
 		} catch(IOException e) {
 			Logger.error(e);
 		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	public byte[] sendRequest(DatagramPacket packet, long timeout) {
-		send(packet);
+		send(packet.getData(), packet.getOffset(), packet.getLength(), new InetSocketAddress(packet.getAddress(), packet.getPort()));
 		byte[] request = packet.getData();
 		synchronized(requests) {
 			requests.add(packet);
@@ -94,12 +189,21 @@ public final class UDPConnectionManager extends Thread {
 	public void addConnection(UDPConnection connection) {
 		synchronized(connections) {
 			connections.add(connection);
+			connectionArray = connections.toArray(new UDPConnection[0]);
+			if(connection.bruteforcingPort) {
+				bruteforcingConnections.put(connection.remoteAddress, connection);
+			} else {
+				connectionsByAddress.put(connection.remoteSocketAddress, connection);
+			}
 		}
 	}
 
 	public void removeConnection(UDPConnection connection) {
 		synchronized(connections) {
 			connections.remove(connection);
+			connectionArray = connections.toArray(new UDPConnection[0]);
+			connectionsByAddress.remove(connection.remoteSocketAddress, connection);
+			bruteforcingConnections.remove(connection.remoteAddress, connection);
 		}
 	}
 
@@ -108,34 +212,60 @@ public final class UDPConnectionManager extends Thread {
 			connections.get(0).disconnect();
 		}
 		running = false;
+		for(Selector selector : selectors) {
+			selector.wakeup();
+		}
+		for(Thread thread : receiveThreads) {
+			if(thread == Thread.currentThread()) continue;
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				Logger.error(e);
+			}
+		}
 		if(Thread.currentThread() != this) {
-			interrupt();
 			try {
 				join();
 			} catch(InterruptedException e) {
 				Logger.error(e);
 			}
 		}
-		socket.close();
+		try {
+			for(Selector selector : selectors) {
+				selector.close();
+			}
+			channel.close();
+		} catch(IOException e) {
+			Logger.error(e);
+		}
 	}
 
-	private void onReceive() {
-		byte[] data = receivedPacket.getData();
-		int len = receivedPacket.getLength();
-		InetAddress addr = receivedPacket.getAddress();
-		int port = receivedPacket.getPort();
-		for(UDPConnection connection : connections) {
-			if(connection.remoteAddress.equals(addr)) {
-				if(connection.bruteforcingPort) { // brute-forcing the port was successful.
-					connection.remotePort = port;
-					connection.bruteforcingPort = false;
-				}
-				if(connection.remotePort == port) {
-					connection.receive(data, len);
-					return;
+	private UDPConnection findConnection(InetSocketAddress address) {
+		UDPConnection connection = connectionsByAddress.get(address);
+		if(connection != null) return connection;
+		connection = bruteforcingConnections.get(address.getAddress());
+		if(connection != null) { // brute-forcing the port was successful.
+			synchronized(connections) {
+				if(bruteforcingConnections.remove(address.getAddress(), connection)) {
+					connection.setRemotePort(address.getPort());
+					connectionsByAddress.put(connection.remoteSocketAddress, connection);
 				}
 			}
 		}
+		return connection;
+	}
+
+	/**
+	 * @return the connection that received the packet.
+	 */
+	private UDPConnection onReceive(byte[] data, int len, InetSocketAddress address) {
+		UDPConnection connection = findConnection(address);
+		if(connection != null) {
+			connection.receive(data, len);
+			return connection;
+		}
+		InetAddress addr = address.getAddress();
+		int port = address.getPort();
 		// Check if it's part of an active request:
 		synchronized(requests) {
 			for(DatagramPacket packet : requests) {
@@ -144,34 +274,68 @@ public final class UDPConnectionManager extends Thread {
 					synchronized(packet) {
 						packet.notify();
 					}
-					return;
+					return null;
 				}
 			}
 		}
-		if(addr.equals(externalAddress) && port == externalPort) return;
+		if(addr.equals(externalAddress) && port == externalPort) return null;
 		//if(addr.toString().contains("127.0.0.1")) return;
 		Logger.warning("Unknown connection from address: " + addr+":"+port);
 		Logger.debug("Message: "+Arrays.toString(Arrays.copyOf(data, len)));
+		return null;
+	}
+
+	/**
+	 * Waits for packets and handles the packets that arrived.
+	 * Afterwards the received important packets are acknowledged, once per connection.
+	 */
+	private void receivePackets(Selector selector, long timeout, ByteBuffer buffer, byte[] data, SimpleList<UDPConnection> acknowledgements) throws IOException {
+		selector.select(timeout);
+		selector.selectedKeys().clear();
+		for(int i = 0; i < MAX_PACKETS_PER_SELECT && running; i++) {
+			buffer.clear();
+			InetSocketAddress address = (InetSocketAddress)channel.receive(buffer);
+			if(address == null) break; // Nothing left, or another thread got it first.
+			buffer.flip();
+			int len = buffer.remaining();
+			buffer.get(data, 0, len);
+			UDPConnection connection = onReceive(data, len, address);
+			if(connection != null && connection.acknowledgementPending && !connection.acknowledgementScheduled) {
+				connection.acknowledgementScheduled = true;
+				acknowledgements.add(connection);
+			}
+		}
+		for(int i = 0; i < acknowledgements.size; i++) {
+			acknowledgements.array[i].acknowledgementScheduled = false;
+			acknowledgements.array[i].sendAcknowledgement();
+		}
+		acknowledgements.clear();
 	}
 
 	@Override
 	public void run() {
 		assert Thread.currentThread() == this : "UDPConnectionManager.run() shouldn't be called by anyone.";
 		try {
-			socket.setSoTimeout(100);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+			byte[] data = new byte[MAX_DATAGRAM_SIZE];
+			SimpleList<UDPConnection> acknowledgements = new SimpleList<>(new UDPConnection[16]);
 			long lastTime = System.currentTimeMillis();
+			long lastUpdate = System.nanoTime();
 			while (running) {
-				try {
-					socket.receive(receivedPacket);
-					onReceive();
-				} catch(SocketTimeoutException e) {
-					// No message within the last ~100 ms.
+				receivePackets(selectors[0], UPDATE_INTERVAL, buffer, data, acknowledgements);
+
+				if(System.nanoTime() - lastUpdate >= UPDATE_INTERVAL*1000000L) {
+					lastUpdate = System.nanoTime();
+					for(UDPConnection connection : connectionArray) {
+						connection.update(lastUpdate);
+					}
 				}
 
 				// Send a keep-alive packet roughly every 100 ms:
 				if(System.currentTimeMillis() - lastTime > 100 && running) {
 					lastTime = System.currentTimeMillis();
-					for(UDPConnection connection : connections.toArray(new UDPConnection[0])) {
+					UDPConnection[] connections = connectionArray;
+					for(UDPConnection connection : connections) {
 						if(lastTime - connection.lastConnection > CONNECTION_TIMEOUT && connection.isConnected()) {
 							Logger.info("timeout");
 							// Timeout a connection if it was connect at some point. New connections are not timed out because that could annoy players(having to restart the connection several times).
@@ -180,18 +344,14 @@ public final class UDPConnectionManager extends Thread {
 							connection.sendKeepAlive();
 						}
 					}
-					if(connections.isEmpty() && externalAddress != null) {
+					if(connections.length == 0 && externalAddress != null) {
 						// Send a message to external ip, to keep the port open:
-						DatagramPacket packet = new DatagramPacket(new byte[0], 0);
-						packet.setAddress(externalAddress);
-						packet.setPort(externalPort);
-						packet.setLength(0);
-						send(packet);
+						send(new byte[0], 0, 0, new InetSocketAddress(externalAddress, externalPort));
 					}
 				}
 			}
 		} catch (Exception e) {
-			Logger.crash(e);
+			if(running) Logger.crash(e);
 		}
 	}
 }
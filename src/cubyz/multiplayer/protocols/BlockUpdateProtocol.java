@@ -1,23 +1,53 @@
 package cubyz.multiplayer.protocols;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import cubyz.client.Cubyz;
 import cubyz.multiplayer.Protocol;
 import cubyz.multiplayer.UDPConnection;
 import cubyz.multiplayer.server.Server;
 import cubyz.multiplayer.server.User;
+import cubyz.utils.datastructures.IntSimpleList;
 import cubyz.utils.math.Bits;
+import cubyz.world.Chunk;
+import cubyz.world.ChunkData;
+import cubyz.world.NormalChunk;
 
+/**
+ * Sends block changes.<br>
+ * Single changes are sent right away. Changes made by the server are queued with {@link #queue} instead
+ * and sent once per tick by {@link #flush}, grouped by chunk:
+ * Each change is stored as its 15 bit index inside the chunk followed by an index into a palette of the new blocks.
+ * If too many blocks of a chunk changed, the whole chunk is sent instead.
+ */
 public class BlockUpdateProtocol extends Protocol {
+	private static final byte SINGLE_UPDATE = 0;
+	private static final byte BATCH_UPDATE = 1;
+	private static final int INDEX_BITS = 3*Chunk.chunkShift;
+	/** Above this number of changed blocks the chunk is sent as a whole, which is smaller and cheaper to apply. */
+	public static final int FULL_CHUNK_THRESHOLD = Chunk.chunkVolume/16;
+
+	/** The changes of the current tick. For every chunk: the block indices alternating with the new blocks. */
+	private final LinkedHashMap<ChunkData, IntSimpleList> queuedChanges = new LinkedHashMap<>();
+
 	public BlockUpdateProtocol() {
 		super((byte)7);
 	}
 
 	@Override
 	public void receive(UDPConnection conn, byte[] data, int offset, int length) {
-		int x = Bits.getInt(data, offset);
-		int y = Bits.getInt(data, offset + 4);
-		int z = Bits.getInt(data, offset + 8);
-		int newBlock = Bits.getInt(data, offset + 12);
+		if(data[offset] == BATCH_UPDATE) {
+			if(conn instanceof User) return; // Only the server may send batches.
+			decodeBatch(data, offset + 1, (x, y, z, newBlock) -> Cubyz.world.remoteUpdateBlock(x, y, z, newBlock));
+			return;
+		}
+		int x = Bits.getInt(data, offset + 1);
+		int y = Bits.getInt(data, offset + 5);
+		int z = Bits.getInt(data, offset + 9);
+		int newBlock = Bits.getInt(data, offset + 13);
 		if(conn instanceof User) {
 			Server.world.updateBlock(x, y, z, newBlock);
 		} else {
@@ -26,11 +56,174 @@ public class BlockUpdateProtocol extends Protocol {
 	}
 
 	public void send(UDPConnection conn, int x, int y, int z, int newBlock) {
-		byte[] data = new byte[4*4];
-		Bits.putInt(data, 0, x);
-		Bits.putInt(data, 4, y);
-		Bits.putInt(data, 8, z);
-		Bits.putInt(data, 12, newBlock);
+		byte[] data = new byte[1 + 4*4];
+		data[0] = SINGLE_UPDATE;
+		Bits.putInt(data, 1, x);
+		Bits.putInt(data, 5, y);
+		Bits.putInt(data, 9, z);
+		Bits.putInt(data, 13, newBlock);
 		conn.sendImportant(this, data);
 	}
+
+	/**
+	 * Queues a block change that gets sent to the users in range at the end of the tick.
+	 */
+	public synchronized void queue(int x, int y, int z, int newBlock) {
+		ChunkData chunk = new ChunkData(x & ~Chunk.chunkMask, y & ~Chunk.chunkMask, z & ~Chunk.chunkMask, 1);
+		IntSimpleList changes = queuedChanges.get(chunk);
+		if(changes == null) {
+			changes = new IntSimpleList();
+			queuedChanges.put(chunk, changes);
+		}
+		changes.add(Chunk.getIndex(x & Chunk.chunkMask, y & Chunk.chunkMask, z & Chunk.chunkMask));
+		changes.add(newBlock);
+	}
+
+	/**
+	 * Sends the queued changes to all users that have the chunk in render distance.
+	 * The others don't have the chunk and get the new version when they request it.
+	 */
+	public void flush() {
+		Map<ChunkData, IntSimpleList> changes;
+		synchronized(this) {
+			if(queuedChanges.isEmpty()) return;
+			changes = new LinkedHashMap<>(queuedChanges);
+			queuedChanges.clear();
+		}
+		User[] users = Server.users;
+		for(Map.Entry<ChunkData, IntSimpleList> entry : changes.entrySet()) {
+			ChunkData ch = entry.getKey();
+			long[] sortedChanges = sortChanges(entry.getValue());
+			if(sortedChanges.length > FULL_CHUNK_THRESHOLD) {
+				NormalChunk chunk = Server.world.getChunk(ch.wx, ch.wy, ch.wz);
+				if(chunk != null) {
+					// Goes through the send queues, so it counts towards the bandwidth budget and only reaches users that have the chunk loaded.
+					for(User user : users) {
+						user.chunkQueue.addChanged(chunk);
+					}
+					continue;
+				}
+			}
+			byte[] data = encodeBatch(ch.wx, ch.wy, ch.wz, sortedChanges);
+			for(User user : users) {
+				if(user.chunkQueue.isInRenderDistance(ch)) {
+					user.sendImportant(this, data);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all but the last change of every block.
+	 * @param changes the block indices alternating with the new blocks, in the order they happened.
+	 * @return the block index in the upper and the new block in the lower half of each value, sorted by block index.
+	 */
+	static long[] sortChanges(IntSimpleList changes) {
+		int count = changes.size/2;
+		// Sort by block index and then by time:
+		long[] order = new long[count];
+		for(int i = 0; i < count; i++) {
+			order[i] = (long)changes.array[2*i] << 32 | i;
+		}
+		Arrays.sort(order);
+		long[] result = new long[count];
+		int size = 0;
+		for(int i = 0; i < count; i++) {
+			if(i + 1 < count && order[i + 1] >>> 32 == order[i] >>> 32) continue; // A later change overwrites this one.
+			int index = (int)(order[i] >>> 32);
+			int block = changes.array[2*(int)order[i] + 1];
+			result[size++] = (long)index << 32 | (block & 0xffffffffL);
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Packet layout: type, chunk position(3 ints), palette size(short), palette(ints), change count(short),
+	 * followed by the changes as bit stream. Each change uses 15 bits for the block index and just enough bits for the palette index.
+	 * @param changes as returned by {@link #sortChanges}.
+	 */
+	static byte[] encodeBatch(int wx, int wy, int wz, long[] changes) {
+		IntSimpleList palette = new IntSimpleList(16);
+		HashMap<Integer, Integer> paletteMap = new HashMap<>();
+		int[] paletteIndices = new int[changes.length];
+		for(int i = 0; i < changes.length; i++) {
+			int block = (int)changes[i];
+			Integer paletteIndex = paletteMap.get(block);
+			if(paletteIndex == null) {
+				paletteIndex = palette.size;
+				paletteMap.put(block, paletteIndex);
+				palette.add(block);
+			}
+			paletteIndices[i] = paletteIndex;
+		}
+		int paletteBits = getPaletteBits(palette.size);
+		int bitsPerChange = INDEX_BITS + paletteBits;
+		int headerSize = 1 + 12 + 2 + 4*palette.size + 2;
+		byte[] data = new byte[headerSize + (changes.length*bitsPerChange + 7)/8];
+		data[0] = BATCH_UPDATE;
+		Bits.putInt(data, 1, wx);
+		Bits.putInt(data, 5, wy);
+		Bits.putInt(data, 9, wz);
+		Bits.putShort(data, 13, (short)palette.size);
+		for(int i = 0; i < palette.size; i++) {
+			Bits.putInt(data, 15 + 4*i, palette.array[i]);
+		}
+		Bits.putShort(data, headerSize - 2, (short)changes.length);
+		// Write the bit stream:
+		long buffer = 0;
+		int bufferedBits = 0;
+		int offset = headerSize;
+		for(int i = 0; i < changes.length; i++) {
+			buffer = buffer << bitsPerChange | (changes[i] >>> 32) << paletteBits | paletteIndices[i];
+			bufferedBits += bitsPerChange;
+			while(bufferedBits >= 8) {
+				bufferedBits -= 8;
+				data[offset++] = (byte)(buffer >>> bufferedBits);
+			}
+		}
+		if(bufferedBits != 0) {
+			data[offset] = (byte)(buffer << (8 - bufferedBits));
+		}
+		return data;
+	}
+
+	private static int getPaletteBits(int paletteSize) {
+		return paletteSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+	}
+
+	interface BlockChangeConsumer {
+		void accept(int x, int y, int z, int newBlock);
+	}
+
+	/**
+	 * Decodes a packet created by {@link #encodeBatch}, starting after the type.
+	 */
+	static void decodeBatch(byte[] data, int offset, BlockChangeConsumer consumer) {
+		int wx = Bits.getInt(data, offset);
+		int wy = Bits.getInt(data, offset + 4);
+		int wz = Bits.getInt(data, offset + 8);
+		int paletteSize = Bits.getShort(data, offset + 12) & 0xffff;
+		int[] palette = new int[paletteSize];
+		for(int i = 0; i < paletteSize; i++) {
+			palette[i] = Bits.getInt(data, offset + 14 + 4*i);
+		}
+		offset += 14 + 4*paletteSize;
+		int count = Bits.getShort(data, offset) & 0xffff;
+		offset += 2;
+		int paletteBits = getPaletteBits(paletteSize);
+		int bitsPerChange = INDEX_BITS + paletteBits;
+		long buffer = 0;
+		int bufferedBits = 0;
+		for(int i = 0; i < count; i++) {
+			while(bufferedBits < bitsPerChange) {
+				buffer = buffer << 8 | (data[offset++] & 0xff);
+				bufferedBits += 8;
+			}
+			bufferedBits -= bitsPerChange;
+			int value = (int)(buffer >>> bufferedBits) & ((1 << bitsPerChange) - 1);
+			int index = value >>> paletteBits;
+			int block = palette[value & ((1 << paletteBits) - 1)];
+			consumer.accept(wx + (index >> Chunk.chunkShift & Chunk.chunkMask), wy + (index >> Chunk.chunkShift2 & Chunk.chunkMask), wz + (index & Chunk.chunkMask), block);
+		}
+	}
 }
@@ -54,6 +54,13 @@ public class ChunkTransmissionProtocol extends Protocol {
 	}
 
 	public void sendChunk(UDPConnection conn, ChunkData ch) {
+		byte[] data = encodeChunk(ch);
+		if(data != null) {
+			conn.sendImportant(this, data);
+		}
+	}
+
+	public byte[] encodeChunk(ChunkData ch) {
 		byte[] data;
 		if(ch instanceof Chunk) {
 			byte[] compressedChunk = ChunkIO.compressChunk((Chunk)ch);
@@ -76,13 +83,13 @@ public class ChunkTransmissionProtocol extends Protocol {
 			System.arraycopy(compressedData, 0, data, 16, compressedData.length);
 		} else {
 			assert false: "Invalid chunk class to send over the network " + ch.getClass() + ".";
-			return;
+			return null;
 		}
 		Bits.putInt(data, 0, ch.wx);
 		Bits.putInt(data, 4, ch.wy);
 		Bits.putInt(data, 8, ch.wz);
 		Bits.putInt(data, 12, ch.voxelSize);
-		conn.sendImportant(this, data);
+		return data;
 	}
 
 	private static class ChunkLoadTask extends ThreadPool.Task {
@@ -1,44 +1,122 @@
 package cubyz.multiplayer.protocols;
 
+import cubyz.Settings;
 import cubyz.client.Cubyz;
 import cubyz.client.entity.ClientEntityManager;
 import cubyz.client.entity.InterpolatedItemEntityManager;
+import cubyz.multiplayer.EntitySnapshot;
 import cubyz.multiplayer.Protocol;
 import cubyz.multiplayer.UDPConnection;
+import cubyz.multiplayer.server.User;
 import cubyz.utils.math.Bits;
+import cubyz.world.Chunk;
+import cubyz.world.entity.Entity;
+import cubyz.world.entity.ItemEntityManager;
 
+/**
+ * Sends the positions of the entities and item entities that are in {@link Settings#entityDistance} of the user.<br>
+ * Each packet contains an {@link EntitySnapshot} encoded as delta to the last snapshot the client acknowledged.
+ * The client acknowledges every snapshot it receives.
+ */
 public class EntityPositionProtocol extends Protocol {
-	private static final byte ENTITY = 0, ITEM = 1;
+	private static final byte ENTITY = 0, ITEM = 1, ACKNOWLEDGE = 2;
+	/** type, time, sequence, baseline sequence */
+	private static final int HEADER_SIZE = 1 + 2 + 4 + 4;
+
+	/** The snapshots received by the client. */
+	private final EntitySnapshot.History clientEntitySnapshots = new EntitySnapshot.History();
+	private final EntitySnapshot.History clientItemSnapshots = new EntitySnapshot.History();
+	private UDPConnection clientConnection;
+
 	public EntityPositionProtocol() {
 		super((byte)6);
 	}
 
 	@Override
 	public void receive(UDPConnection conn, byte[] data, int offset, int length) {
+		if(data[offset] == ACKNOWLEDGE) {
+			if(!(conn instanceof User)) return;
+			User user = (User)conn;
+			int sequence = Bits.getInt(data, offset + 2);
+			if(data[offset + 1] == ENTITY) {
+				user.entitySnapshots.acknowledge(sequence);
+			} else {
+				user.itemSnapshots.acknowledge(sequence);
+			}
+			return;
+		}
 		if(Cubyz.world == null) return;
-		short time = Bits.getShort(data, offset+1);
-		if(data[offset] == ENTITY) {
-			offset += 3;
-			length -= 3;
-			ClientEntityManager.serverUpdate(time, data, offset, length);
-		} else if(data[offset] == ITEM) {
-			offset += 3;
-			length -= 3;
-			((InterpolatedItemEntityManager)Cubyz.world.itemEntityManager).readPosition(data, offset, length, time);
+		synchronized(this) {
+			if(conn != clientConnection) {
+				clientConnection = conn;
+				clientEntitySnapshots.clear();
+				clientItemSnapshots.clear();
+			}
+			byte type = data[offset];
+			short time = Bits.getShort(data, offset + 1);
+			int sequence = Bits.getInt(data, offset + 3);
+			int baselineSequence = Bits.getInt(data, offset + 7);
+			EntitySnapshot.History history = type == ENTITY ? clientEntitySnapshots : clientItemSnapshots;
+			EntitySnapshot baseline = history.get(baselineSequence);
+			if(baseline == null) return; // Can only happen if packets arrived very late.
+			EntitySnapshot snapshot = EntitySnapshot.decodeDelta(data, offset + HEADER_SIZE, length - HEADER_SIZE, baseline, sequence);
+			history.put(snapshot);
+			sendAcknowledgement(conn, type, sequence);
+			if(type == ENTITY) {
+				ClientEntityManager.serverUpdate(time, snapshot);
+			} else {
+				((InterpolatedItemEntityManager)Cubyz.world.itemEntityManager).readPosition(snapshot, time);
+			}
 		}
 	}
 
-	public void send(UDPConnection conn, byte[] entityData, byte[] itemData) {
-		byte[] fullData = new byte[entityData.length + 3];
-		fullData[0] = ENTITY;
-		Bits.putShort(fullData, 1, (short)System.currentTimeMillis());
-		System.arraycopy(entityData, 0, fullData, 3, entityData.length);
-		conn.sendUnimportant(this, fullData);
-
-		fullData = new byte[itemData.length + 3];
-		fullData[0] = ITEM;
-		Bits.putShort(fullData, 1, (short)System.currentTimeMillis());
-		System.arraycopy(itemData, 0, fullData, 3, itemData.length);
-		conn.sendUnimportant(this, fullData);
+	private void sendAcknowledgement(UDPConnection conn, byte type, int sequence) {
+		byte[] data = new byte[1 + 1 + 4];
+		data[0] = ACKNOWLEDGE;
+		data[1] = type;
+		Bits.putInt(data, 2, sequence);
+		conn.sendUnimportant(this, data);
+	}
+
+	/**
+	 * @return true if the position is within {@link Settings#entityDistance} of the user.
+	 */
+	private static boolean isInRange(User user, double x, double y, double z) {
+		double maxDistance = Settings.entityDistance << Chunk.chunkShift;
+		double dx = x - user.player.getX();
+		double dy = y - user.player.getY();
+		double dz = z - user.player.getZ();
+		return dx*dx + dy*dy + dz*dz < maxDistance*maxDistance;
+	}
+
+	private void sendSnapshot(User user, byte type, EntitySnapshot.History history, EntitySnapshot snapshot) {
+		EntitySnapshot baseline = history.getBaseline();
+		byte[] data = snapshot.encodeDelta(baseline, HEADER_SIZE);
+		history.put(snapshot);
+		data[0] = type;
+		Bits.putShort(data, 1, (short)System.currentTimeMillis());
+		Bits.putInt(data, 3, snapshot.sequence);
+		Bits.putInt(data, 7, baseline.sequence);
+		user.sendUnimportant(this, data);
+	}
+
+	public void send(User user, Entity[] entities, ItemEntityManager itemEntities) {
+		if(user.player == null) return;
+		EntitySnapshot snapshot = new EntitySnapshot(user.entitySnapshots.nextSequence());
+		for(Entity ent : entities) {
+			if(!isInRange(user, ent.getX(), ent.getY(), ent.getZ())) continue;
+			snapshot.add(ent.id, ent.getX(), ent.getY(), ent.getZ(), ent.getVX(), ent.getVY(), ent.getVZ(), ent.getRotation().x, ent.getRotation().y, ent.getRotation().z);
+		}
+		sendSnapshot(user, ENTITY, user.entitySnapshots, snapshot);
+
+		snapshot = new EntitySnapshot(user.itemSnapshots.nextSequence());
+		double[] pos = itemEntities.posxyz;
+		double[] vel = itemEntities.velxyz;
+		for(int ii = 0; ii < itemEntities.size; ii++) {
+			int i = itemEntities.indices[ii] & 0xffff;
+			if(!isInRange(user, pos[3*i], pos[3*i + 1], pos[3*i + 2])) continue;
+			snapshot.add(i, pos[3*i], pos[3*i + 1], pos[3*i + 2], vel[3*i], vel[3*i + 1], vel[3*i + 2], 0, 0, 0);
+		}
+		sendSnapshot(user, ITEM, user.itemSnapshots, snapshot);
 	}
 }
@@ -7,7 +7,6 @@ import cubyz.multiplayer.Protocols;
 import cubyz.multiplayer.UDPConnection;
 import cubyz.multiplayer.server.Server;
 import cubyz.multiplayer.server.User;
-import cubyz.utils.math.Bits;
 import cubyz.world.entity.Entity;
 import cubyz.world.entity.ItemEntityManager;
 import pixelguys.json.*;
@@ -56,31 +55,9 @@ public class EntityProtocol extends Protocol {
 
 	public void sendToClients(Entity[] currentEntities, Entity[] lastSentEntities, ItemEntityManager itemEntities) {
 		synchronized(itemEntities) {
-			byte[] data = new byte[currentEntities.length*(4 + 3*8 + 3*8 + 3*4)];
-			int offset = 0;
 			JsonArray entityChanges = new JsonArray();
 			outer:
 			for(Entity ent : currentEntities) {
-				Bits.putInt(data, offset, ent.id);
-				offset += 4;
-				Bits.putDouble(data, offset, ent.getPosition().x);
-				offset += 8;
-				Bits.putDouble(data, offset, ent.getPosition().y);
-				offset += 8;
-				Bits.putDouble(data, offset, ent.getPosition().z);
-				offset += 8;
-				Bits.putFloat(data, offset, ent.getRotation().x);
-				offset += 4;
-				Bits.putFloat(data, offset, ent.getRotation().y);
-				offset += 4;
-				Bits.putFloat(data, offset, ent.getRotation().z);
-				offset += 4;
-				Bits.putDouble(data, offset, ent.vx);
-				offset += 8;
-				Bits.putDouble(data, offset, ent.vy);
-				offset += 8;
-				Bits.putDouble(data, offset, ent.vz);
-				offset += 8;
 				for(int i = 0; i < lastSentEntities.length; i++) {
 					if(lastSentEntities[i] == ent) {
 						lastSentEntities[i] = null;
@@ -95,7 +72,6 @@ public class EntityProtocol extends Protocol {
 				entityData.put("name", ent.name);
 				entityChanges.add(entityData);
 			}
-			assert offset == data.length;
 			for(Entity ent : lastSentEntities) {
 				if(ent != null) {
 					entityChanges.add(new JsonInt(ent.id));
@@ -134,7 +110,7 @@ public class EntityProtocol extends Protocol {
 					user.sendImportant(this, fullEntityData.toString().getBytes(StandardCharsets.UTF_8));
 					user.receivedFirstEntityData = true;
 				}
-				Protocols.ENTITY_POSITION.send(user, data, itemEntities.getPositionAndVelocityData());
+				Protocols.ENTITY_POSITION.send(user, currentEntities, itemEntities);
 			}
 		}
 	}
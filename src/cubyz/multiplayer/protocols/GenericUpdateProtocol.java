@@ -207,7 +207,7 @@ public class GenericUpdateProtocol extends Protocol {
 	public void sendTimeAndBiome(User user, ServerWorld world) {
 		JsonObject data = new JsonObject();
 		data.put("time", world.gameTime);
-		data.put("biome", world.getBiome((int)user.player.getPosition().x, (int)user.player.getPosition().y, (int)user.player.getPosition().z).getRegistryID().toString());
+		data.put("biome", world.getBiome((int)user.player.getX(), (int)user.player.getY(), (int)user.player.getZ()).getRegistryID().toString());
 		addHeaderAndSendUnimportant(user, TIME_AND_BIOME, data.toString().getBytes(StandardCharsets.UTF_8));
 	}
 }
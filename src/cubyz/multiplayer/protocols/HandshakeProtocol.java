@@ -1,20 +1,18 @@
 package cubyz.multiplayer.protocols;
 
 import cubyz.Constants;
+import cubyz.multiplayer.AssetManifest;
 import cubyz.multiplayer.client.ServerConnection;
 import cubyz.multiplayer.Protocol;
 import cubyz.multiplayer.UDPConnection;
 import cubyz.multiplayer.server.Server;
 import cubyz.multiplayer.server.User;
 import cubyz.utils.Logger;
-import cubyz.utils.Utils;
-import cubyz.utils.Zipper;
 import pixelguys.json.JsonObject;
 import pixelguys.json.JsonParser;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 
@@ -24,6 +22,8 @@ public class HandshakeProtocol extends Protocol {
 	private static final byte STEP_USER_DATA = 1;
 	private static final byte STEP_ASSETS = 2;
 	private static final byte STEP_SERVER_DATA = 3;
+	/** The client keeps the assets of the last server it joined. */
+	private static final String SERVER_ASSETS = "serverAssets";
 
 	public HandshakeProtocol() {
 		super((byte)1);
@@ -43,7 +43,12 @@ public class HandshakeProtocol extends Protocol {
 					// TODO: Send the world data.
 					ByteArrayOutputStream out = new ByteArrayOutputStream();
 					out.write(STEP_ASSETS);
-					Zipper.pack("saves/" + Server.world.getName() + "/assets/", out);
+					try {
+						int files = Server.assets.writeMissingFiles(json.getObjectOrNew("assets"), out);
+						Logger.info("Sending " + files + " of " + Server.assets.size() + " asset files to " + name + ".");
+					} catch(IOException e) {
+						Logger.error(e);
+					}
 					conn.sendImportant(this, out.toByteArray());
 
 					JsonObject jsonObject = new JsonObject();
@@ -69,11 +74,12 @@ public class HandshakeProtocol extends Protocol {
 					}
 					break;
 				case STEP_ASSETS:
-					Logger.info("Received assets.");
-					ByteArrayInputStream in = new ByteArrayInputStream(data, offset+1, length-1);
-					String serverAssets = "serverAssets";
-					Utils.deleteDirectory(new File(serverAssets).toPath());
-					Zipper.unpack(serverAssets, in);
+					try {
+						int files = AssetManifest.update(SERVER_ASSETS, data, offset+1, length-1);
+						Logger.info("Received " + files + " asset files.");
+					} catch(IOException e) {
+						Logger.error(e);
+					}
 					break;
 				case STEP_SERVER_DATA:
 					assert conn instanceof ServerConnection : "Trying to do client handshake from the server side.";
@@ -107,6 +113,8 @@ public class HandshakeProtocol extends Protocol {
 		JsonObject jsonObject = new JsonObject();
 		jsonObject.put("version", Constants.GAME_VERSION);
 		jsonObject.put("name", name);
+		// Only the assets that changed since the last join need to be sent:
+		jsonObject.put("assets", AssetManifest.read(SERVER_ASSETS, false).toJson());
 		byte[] string = jsonObject.toString().getBytes(StandardCharsets.UTF_8);
 		byte[] out = new byte[string.length + 1];
 		out[0] = STEP_USER_DATA;
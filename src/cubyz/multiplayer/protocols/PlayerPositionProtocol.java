@@ -6,7 +6,6 @@ import cubyz.rendering.Camera;
 import cubyz.multiplayer.server.User;
 import cubyz.utils.math.Bits;
 import cubyz.world.entity.Player;
-import org.joml.Vector3d;
 
 /**
  * Continuously sends the player position to the server.
@@ -30,13 +29,12 @@ public class PlayerPositionProtocol extends Protocol {
 		}
 		lastPositionSent = time;
 		byte[] data = new byte[62];
-		Vector3d pos = player.getPosition();
-		Bits.putDouble(data, 0, pos.x);
-		Bits.putDouble(data, 8, pos.y);
-		Bits.putDouble(data, 16, pos.z);
-		Bits.putDouble(data, 24, player.vx);
-		Bits.putDouble(data, 32, player.vy);
-		Bits.putDouble(data, 40, player.vz);
+		Bits.putDouble(data, 0, player.getX());
+		Bits.putDouble(data, 8, player.getY());
+		Bits.putDouble(data, 16, player.getZ());
+		Bits.putDouble(data, 24, player.getVX());
+		Bits.putDouble(data, 32, player.getVY());
+		Bits.putDouble(data, 40, player.getVZ());
 		Bits.putFloat(data, 48, Camera.getRotation().x);
 		Bits.putFloat(data, 52, Camera.getRotation().y);
 		Bits.putFloat(data, 56, Camera.getRotation().z);
@@ -0,0 +1,244 @@
+package cubyz.multiplayer.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cubyz.Settings;
+import cubyz.multiplayer.Protocols;
+import cubyz.multiplayer.UDPConnection;
+import cubyz.world.Chunk;
+import cubyz.world.ChunkData;
+import org.joml.Vector3f;
+
+/**
+ * The chunks that wait to be sent to a user.<br>
+ * Chunks are sent in order of their distance, with chunks in view direction first
+ * and the reduced chunks and visibility data of the LODs after all full resolution chunks in render distance.
+ * Every user gets {@link Settings#chunkBandwidthPerUser} bytes per second, and all users share {@link Settings#chunkBandwidthTotal} fairly through the {@link ChunkSender}.<br>
+ * Chunks that are already queued or that were sent recently are not queued again.
+ * Chunks that are out of render distance are removed, so the queue only contains what the user still needs.
+ */
+public class ChunkSendQueue {
+	/** Safety limit, if there are more chunks, the farthest ones are dropped. */
+	private static final int MAX_QUEUED_CHUNKS = 16384;
+	/** Requests for a chunk that was sent within this time are ignored. The client repeats requests of chunks that didn't arrive yet. */
+	private static final long DUPLICATE_TIMEOUT = 2_000_000_000L;
+	/** Like the chunk generation, chunks are only removed for being out of range after some time, because the player position on the server lags behind. */
+	private static final long OUT_OF_RANGE_TIMEOUT = 10_000_000_000L;
+	/** The unused budget is capped at this time worth of sending. */
+	static final double MAX_BURST_TIME = 0.1;
+
+	private static final class Entry implements Comparable<Entry> {
+		private ChunkData chunk;
+		private final long queueTime;
+		private double cost;
+
+		private Entry(ChunkData chunk, long queueTime) {
+			this.chunk = chunk;
+			this.queueTime = queueTime;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			return Double.compare(cost, other.cost);
+		}
+	}
+
+	private final UDPConnection connection;
+	private final HashMap<ChunkData, Entry> queued = new HashMap<>();
+	/** The queued chunks in the order they get sent, updated every tick. */
+	private Entry[] sorted = new Entry[0];
+	private int nextIndex = 0;
+	/** Sorted by send time. */
+	private final LinkedHashMap<ChunkData, Long> recentlySent = new LinkedHashMap<>();
+	private double budget = 0;
+
+	// The view of the user:
+	private double x, y, z;
+	private double directionX, directionY, directionZ = -1;
+	private int renderDistance;
+	private float LODFactor;
+
+	private long bytesSent = 0;
+	private int chunksSent = 0;
+	private int duplicates = 0;
+	private int dropped = 0;
+
+	public ChunkSendQueue(UDPConnection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Queues the chunk, unless it's already queued or was sent recently.
+	 */
+	public synchronized void add(ChunkData chunk) {
+		ChunkData key = new ChunkData(chunk.wx, chunk.wy, chunk.wz, chunk.voxelSize);
+		Entry entry = queued.get(key);
+		if(entry != null) {
+			entry.chunk = chunk;
+			duplicates++;
+			return;
+		}
+		long time = System.nanoTime();
+		Long sendTime = recentlySent.get(key);
+		if(sendTime != null && time - sendTime < DUPLICATE_TIMEOUT) {
+			duplicates++;
+			return;
+		}
+		queued.put(key, new Entry(chunk, time));
+	}
+
+	/**
+	 * Queues a chunk that was changed, even if it was sent recently.
+	 * Chunks out of render distance are ignored, the user doesn't have them and requests them when they come into range.
+	 */
+	public synchronized void addChanged(ChunkData chunk) {
+		if(!isInRenderDistance(chunk)) return;
+		recentlySent.remove(new ChunkData(chunk.wx, chunk.wy, chunk.wz, chunk.voxelSize));
+		add(chunk);
+	}
+
+	/**
+	 * @return whether the chunk is in the render distance of the user, meaning the user may have it loaded.
+	 */
+	public synchronized boolean isInRenderDistance(ChunkData chunk) {
+		return chunk.isInRenderDistance(x, y, z, renderDistance, LODFactor);
+	}
+
+	/**
+	 * Updates the position, the view direction and the render distance of the user.
+	 */
+	public synchronized void setView(double x, double y, double z, Vector3f rotation, int renderDistance, float LODFactor) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		// Same as the camera direction: (0, 0, -1) rotated around the x and then the y axis.
+		directionX = -Math.cos(rotation.x)*Math.sin(rotation.y);
+		directionY = Math.sin(rotation.x);
+		directionZ = -Math.cos(rotation.x)*Math.cos(rotation.y);
+		this.renderDistance = renderDistance;
+		this.LODFactor = LODFactor;
+	}
+
+	/**
+	 * Chunks in front of the user cost half as much as chunks behind. LOD data is sent after the full resolution chunks.
+	 */
+	private double getCost(ChunkData chunk) {
+		int halfWidth = chunk.voxelSize*Chunk.chunkSize/2;
+		double dx = chunk.wx + halfWidth - x;
+		double dy = chunk.wy + halfWidth - y;
+		double dz = chunk.wz + halfWidth - z;
+		double length = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		double cos = length == 0 ? 1 : (dx*directionX + dy*directionY + dz*directionZ)/length;
+		double cost = Math.sqrt(chunk.getMinDistanceSquared(x, y, z))*(1.5 - 0.5*cos)/chunk.voxelSize;
+		if(chunk.voxelSize != 1) {
+			cost += 2*renderDistance*Chunk.chunkSize;
+		}
+		return cost;
+	}
+
+	/**
+	 * Removes chunks that were sent long ago from the duplicate check and chunks out of render distance from the queue,
+	 * then sorts the remaining chunks.
+	 */
+	synchronized void prepare(long time, double deltaTime, double bytesPerSecond) {
+		budget = Math.min(budget + deltaTime*bytesPerSecond, MAX_BURST_TIME*bytesPerSecond);
+		Iterator<Long> sendTimes = recentlySent.values().iterator();
+		while(sendTimes.hasNext() && time - sendTimes.next() >= DUPLICATE_TIMEOUT) {
+			sendTimes.remove();
+		}
+		ArrayList<Entry> entries = new ArrayList<>(queued.size());
+		Iterator<Map.Entry<ChunkData, Entry>> iterator = queued.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+			if(time - entry.queueTime > OUT_OF_RANGE_TIMEOUT && !entry.chunk.isInRenderDistance(x, y, z, renderDistance, LODFactor)) {
+				iterator.remove();
+				dropped++;
+				continue;
+			}
+			entry.cost = getCost(entry.chunk);
+			entries.add(entry);
+		}
+		sorted = entries.toArray(new Entry[0]);
+		Arrays.sort(sorted);
+		for(int i = MAX_QUEUED_CHUNKS; i < sorted.length; i++) {
+			queued.remove(new ChunkData(sorted[i].chunk.wx, sorted[i].chunk.wy, sorted[i].chunk.wz, sorted[i].chunk.voxelSize));
+			dropped++;
+		}
+		nextIndex = 0;
+	}
+
+	/**
+	 * Sends the next chunk if the budget allows it.
+	 * @return the number of bytes that were sent.
+	 */
+	int sendNext(long time) {
+		ChunkData chunk;
+		synchronized(this) {
+			if(budget <= 0 || isConnectionBusy()) return 0;
+			chunk = null;
+			while(nextIndex < Math.min(sorted.length, MAX_QUEUED_CHUNKS) && chunk == null) {
+				Entry entry = sorted[nextIndex++];
+				ChunkData key = new ChunkData(entry.chunk.wx, entry.chunk.wy, entry.chunk.wz, entry.chunk.voxelSize);
+				if(queued.remove(key) != null) {
+					chunk = entry.chunk;
+					// Removed first, because put keeps the old position of a key in the map, which has to stay sorted by send time:
+					recentlySent.remove(key);
+					recentlySent.put(key, time);
+				}
+			}
+			if(chunk == null) return 0;
+		}
+		// The chunk is only encoded now, so it contains all block changes.
+		byte[] data = encode(chunk);
+		if(data == null) return 0;
+		send(data);
+		synchronized(this) {
+			budget -= data.length;
+			bytesSent += data.length;
+			chunksSent++;
+		}
+		return data.length;
+	}
+
+	protected byte[] encode(ChunkData chunk) {
+		return Protocols.CHUNK_TRANSMISSION.encodeChunk(chunk);
+	}
+
+	protected void send(byte[] data) {
+		connection.sendImportant(Protocols.CHUNK_TRANSMISSION, data);
+	}
+
+	/**
+	 * @return true if the connection has more packets waiting than it may have in flight, so it can't keep up with the budget.
+	 */
+	protected boolean isConnectionBusy() {
+		return connection.getQueuedPackets() > connection.getCongestionWindow();
+	}
+
+	public synchronized int size() {
+		return queued.size();
+	}
+
+	public synchronized long getBytesSent() {
+		return bytesSent;
+	}
+
+	public synchronized int getChunksSent() {
+		return chunksSent;
+	}
+
+	/** @return the number of chunks that were not queued, because they were already queued or sent recently. */
+	public synchronized int getDuplicates() {
+		return duplicates;
+	}
+
+	/** @return the number of chunks that were removed from the queue without sending them. */
+	public synchronized int getDropped() {
+		return dropped;
+	}
+}
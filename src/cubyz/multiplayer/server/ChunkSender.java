@@ -0,0 +1,48 @@
+package cubyz.multiplayer.server;
+
+import cubyz.Settings;
+
+/**
+ * Shares the chunk bandwidth of the server between the {@link ChunkSendQueue}s of all users.<br>
+ * The queues take turns sending a chunk, starting with a different queue every tick, until {@link Settings#chunkBandwidthTotal} is used up.
+ */
+public final class ChunkSender {
+	private long lastTime = System.nanoTime();
+	private int firstQueue = 0;
+	/** Reused every tick, only reallocated when the number of users changes. */
+	private ChunkSendQueue[] queues = new ChunkSendQueue[0];
+
+	/**
+	 * Sends the chunks of all users within their budget. Should be called every server tick.
+	 */
+	public void sendChunks(User[] users) {
+		if(queues.length != users.length) {
+			queues = new ChunkSendQueue[users.length];
+		}
+		for(int i = 0; i < users.length; i++) {
+			queues[i] = users[i].chunkQueue;
+		}
+		sendChunks(queues);
+	}
+
+	void sendChunks(ChunkSendQueue[] queues) {
+		long time = System.nanoTime();
+		double deltaTime = (time - lastTime)/1e9;
+		lastTime = time;
+		if(queues.length == 0) return;
+		double totalBudget = Math.min(deltaTime, ChunkSendQueue.MAX_BURST_TIME)*Settings.chunkBandwidthTotal;
+		for(ChunkSendQueue queue : queues) {
+			queue.prepare(time, deltaTime, Settings.chunkBandwidthPerUser);
+		}
+		firstQueue = (firstQueue + 1) % queues.length;
+		boolean sentSomething = true;
+		while(totalBudget > 0 && sentSomething) {
+			sentSomething = false;
+			for(int i = 0; i < queues.length && totalBudget > 0; i++) {
+				int sent = queues[(firstQueue + i) % queues.length].sendNext(time);
+				totalBudget -= sent;
+				sentSomething |= sent != 0;
+			}
+		}
+	}
+}
@@ -4,6 +4,7 @@ import cubyz.Constants;
 import cubyz.api.Side;
 import cubyz.client.GameLauncher;
 import cubyz.modding.ModLoader;
+import cubyz.multiplayer.AssetManifest;
 import cubyz.multiplayer.Protocols;
 import cubyz.multiplayer.UDPConnectionManager;
 import cubyz.utils.Logger;
@@ -20,6 +21,8 @@ public final class Server extends Pacer {
 	private	static final Server server = new Server();
 
 	public static ServerWorld world = null;
+	/** The assets of the world, which are sent to joining clients. */
+	public static AssetManifest assets = null;
 	public static User[] users = new User[0];
 	private static final SimpleList<User> usersList = new SimpleList<>(new User[16]);
 	public static UDPConnectionManager connectionManager = null;
@@ -36,6 +39,7 @@ public final class Server extends Pacer {
 			}
 
 			Server.world = new ServerWorld(args[0], null);
+			assets = AssetManifest.read("saves/" + world.getName() + "/assets/", true);
 
 			if(GameLauncher.renderer == null) { // headless server
 				connectionManager = new UDPConnectionManager(Constants.DEFAULT_PORT, true);
@@ -59,6 +63,7 @@ public final class Server extends Pacer {
 		if(world != null)
 			world.cleanup();
 		world = null;
+		assets = null;
 	}
 	public static void stop(){
 		if (server != null)
@@ -70,6 +75,7 @@ public final class Server extends Pacer {
 	}
 
 	public static void disconnect(User user) {
+		world.chunkManager.cancelTasks(user);
 		world.forceSave();
 		synchronized(usersList) {
 			if(user.name != null) {
@@ -96,14 +102,17 @@ public final class Server extends Pacer {
 	}
 
 	private Entity[] lastSentEntities = new Entity[0];
+	private final ChunkSender chunkSender = new ChunkSender();
 
 	@Override
 	public void update() {
 		world.update();
 
+		User[] users = Server.users;
 		for(User user : users) {
 			user.update();
 		}
+		chunkSender.sendChunks(users);
 		Entity[] entities = world.getEntities();
 		Protocols.ENTITY.sendToClients(entities, lastSentEntities, world.itemEntityManager);
 		lastSentEntities = entities;
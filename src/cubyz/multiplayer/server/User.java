@@ -2,6 +2,7 @@ package cubyz.multiplayer.server;
 
 import cubyz.Constants;
 import cubyz.command.CommandSource;
+import cubyz.multiplayer.EntitySnapshot;
 import cubyz.multiplayer.Protocols;
 import cubyz.multiplayer.UDPConnection;
 import cubyz.multiplayer.UDPConnectionManager;
@@ -23,6 +24,11 @@ public class User extends UDPConnection implements CommandSource {
 	public int renderDistance;
 	public float LODFactor;
 	public boolean receivedFirstEntityData = false;
+	/** The entity positions that were sent to this user. */
+	public final EntitySnapshot.History entitySnapshots = new EntitySnapshot.History();
+	public final EntitySnapshot.History itemSnapshots = new EntitySnapshot.History();
+	/** The requested chunks that weren't sent yet. */
+	public final ChunkSendQueue chunkQueue = new ChunkSendQueue(this);
 	public final String ipPort;
 
 	public Thread waitingThread;
@@ -48,25 +54,22 @@ public class User extends UDPConnection implements CommandSource {
 		this.name = name;
 		assert(player == null);
 		player = Server.world.findPlayer(this);
-		interpolation.outPosition[0] = player.getPosition().x;
-		interpolation.outPosition[1] = player.getPosition().y;
-		interpolation.outPosition[2] = player.getPosition().z;
-		interpolation.outVelocity[0] = player.vx;
-		interpolation.outVelocity[1] = player.vy;
-		interpolation.outVelocity[2] = player.vz;
+		interpolation.outPosition[0] = player.getX();
+		interpolation.outPosition[1] = player.getY();
+		interpolation.outPosition[2] = player.getZ();
+		interpolation.outVelocity[0] = player.getVX();
+		interpolation.outVelocity[1] = player.getVY();
+		interpolation.outVelocity[2] = player.getVZ();
 	}
 
 	public void update() {
 		short time = (short)(System.currentTimeMillis() - Constants.ENTITY_LOOKBACK);
 		time -= difference.difference;
 		interpolation.update(time, lastTime);
-		player.getPosition().x = interpolation.outPosition[0];
-		player.getPosition().y = interpolation.outPosition[1];
-		player.getPosition().z = interpolation.outPosition[2];
-		player.vx = interpolation.outVelocity[0];
-		player.vy = interpolation.outVelocity[1];
-		player.vz = interpolation.outVelocity[2];
+		player.setPosition(interpolation.outPosition[0], interpolation.outPosition[1], interpolation.outPosition[2]);
+		player.setVelocity(interpolation.outVelocity[0], interpolation.outVelocity[1], interpolation.outVelocity[2]);
 		lastTime = time;
+		chunkQueue.setView(player.getX(), player.getY(), player.getZ(), player.getRotation(), renderDistance, LODFactor);
 	}
 
 	public void receiveData(byte[] data, int offset) {
@@ -95,4 +98,12 @@ public class User extends UDPConnection implements CommandSource {
 	public void feedback(String feedback) {
 		Protocols.CHAT.send(this, "#ffff00"+feedback);
 	}
+
+	/**
+	 * Only the host, who connects from the same machine, is an operator.
+	 */
+	@Override
+	public boolean isOperator() {
+		return isLocal();
+	}
 }
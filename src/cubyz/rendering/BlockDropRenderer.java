@@ -211,21 +211,19 @@ public final class BlockDropRenderer {
 		}
 	}
 	
-	private static Cache<ItemVoxelModel> voxelModels = new Cache<ItemVoxelModel>(new ItemVoxelModel[32][32]);
+	private static Cache<ItemVoxelModel> voxelModels = new Cache<ItemVoxelModel>("Item models", new ItemVoxelModel[32][32], model -> 0, replace -> {
+		if(replace.index != -1)
+			freeIndices.add(replace);
+	}, null);
 	
 	private static int getModelIndex(Item item) {
 		ItemVoxelModel compareObject = new ItemVoxelModel(item);
-		int hash = compareObject.hashCode() & voxelModels.cache.length-1;
-		synchronized(voxelModels.cache[hash]) {
-			// Check if it's already inside:
-			ItemVoxelModel result = voxelModels.find(compareObject, hash);
-			if(result != null) return result.index;
+		int hash = compareObject.hashCode() & voxelModels.getLineCount()-1;
+		// Replaced models give their index back to freeIndices.
+		return voxelModels.findOrCreate(compareObject, hash, () -> {
 			compareObject.init();
-			ItemVoxelModel replace = voxelModels.addToCache(compareObject, hash);
-			if(replace != null && replace.index != -1)
-				freeIndices.add(replace);
-			return compareObject.index;
-		}
+			return compareObject;
+		}).index;
 	}
 	
 	private static void renderItemDrops(FrustumIntersection frustumInt, Vector3f ambientLight, DirectionalLight directionalLight, Vector3d playerPosition) {
@@ -61,6 +61,8 @@ public class MainRenderer {
 	private final Matrix4f frustumProjectionMatrix = new Matrix4f();
 	private final FrustumIntersection frustumInt = new FrustumIntersection();
 	
+	/** Reused every frame for the position of the camera. */
+	private final Vector3d cameraPosition = new Vector3d();
 	private float playerBobbing;
 	private boolean bobbingUp;
 	
@@ -189,7 +191,7 @@ public class MainRenderer {
 		BlockMeshes.loadMeshes(); // Loads all meshes that weren't loaded yet.
 		Vector3d playerPosition = null;
 		if(Cubyz.player != null)
-			playerPosition = new Vector3d(Cubyz.player.getPosition());
+			playerPosition = Cubyz.player.getPosition(cameraPosition);
 		
 		if (Cubyz.player != null) {
 			if (Cubyz.playerInc.x != 0 || Cubyz.playerInc.z != 0) { // while walking
@@ -206,10 +208,10 @@ public class MainRenderer {
 				}
 			}
 			if (Cubyz.playerInc.y != 0) {
-				Cubyz.player.vy = Cubyz.playerInc.y;
+				Cubyz.player.setVY(Cubyz.playerInc.y);
 			}
 			if (Cubyz.playerInc.x != 0) {
-				Cubyz.player.vx = Cubyz.playerInc.x;
+				Cubyz.player.setVX(Cubyz.playerInc.x);
 			}
 			playerPosition.y += Player.cameraHeight + playerBobbing;
 		}
@@ -389,7 +391,7 @@ public class MainRenderer {
 			fogShader.bind();
 			// Draw the water fog if the player is underwater:
 			Player player = Cubyz.player;
-			int block = Cubyz.world.getBlock((int)Math.round(player.getPosition().x), (int)(player.getPosition().y + player.height), (int)Math.round(player.getPosition().z));
+			int block = Cubyz.world.getBlock((int)Math.round(player.getX()), (int)(player.getY() + player.height), (int)Math.round(player.getZ()));
 			if (block != 0 && !Blocks.solid(block)) {
 				if (Blocks.id(block).toString().equals("cubyz:water")) {
 					fogShader.setUniform(FogUniforms.loc_fog_activ, waterFog.isActive());
@@ -122,9 +122,9 @@ public class RenderOctTree {
 		if(lastRD != renderDistance || lastFactor != LODFactor) {
 			Protocols.GENERIC_UPDATE.sendRenderDistance(Cubyz.world.serverConnection, renderDistance, LODFactor);
 		}
-		int px = (int)Cubyz.player.getPosition().x;
-		int py = (int)Cubyz.player.getPosition().y;
-		int pz = (int)Cubyz.player.getPosition().z;
+		int px = (int)Cubyz.player.getX();
+		int py = (int)Cubyz.player.getY();
+		int pz = (int)Cubyz.player.getZ();
 		//if (lastX == px && lastY == py && lastZ == pz && lastRD == renderDistance && lastFactor == LODFactor) return; TODO: Send a chunk request to the server for normalChunks as well, to prevent issues here.
 		
 		int maxRenderDistance = (int)Math.ceil((renderDistance << Constants.HIGHEST_LOD)*LODFactor*Chunk.chunkSize);
@@ -83,7 +83,7 @@ public class VisibleChunk extends NormalChunk {
 			for(int y = 0; y < chunkSize; y++) {
 				for(int  z = 0; z < chunkSize; z++) {
 					int index = getIndex(x, y, z);
-					int b = blocks[index];
+					int b = blocks.get(index);
 					if (b != 0) {
 						getNeighbors(x, y, z, neighbors);
 						for (int i = 0; i < Neighbors.NEIGHBORS; i++) {
@@ -168,17 +168,17 @@ public class VisibleChunk extends NormalChunk {
 						}
 						// Update blocks from loaded chunks:
 						BlockInstance inst = ch.getBlockInstanceAt(indexOther);
-						int block = ch.blocks[indexOther];
+						int block = ch.blocks.get(indexOther);
 						// Update neighbor information:
 						if (inst != null) {
-							inst.updateNeighbor(chunkIndices[k] ^ 1, blocksBlockNot(blocks[indexThis], block, indexThis - indexOther));
+							inst.updateNeighbor(chunkIndices[k] ^ 1, blocksBlockNot(blocks.get(indexThis), block, indexThis - indexOther));
 							continue;
 						}
 						// Update visibility:
 						if (block == 0) {
 							continue;
 						}
-						if (blocksBlockNot(blocks[indexThis], block, indexThis - indexOther)) {
+						if (blocksBlockNot(blocks.get(indexThis), block, indexThis - indexOther)) {
 							ch.revealBlock(dx[k], dy[k], dz[k]);
 							continue;
 						}
@@ -218,7 +218,7 @@ public class VisibleChunk extends NormalChunk {
 	public void revealBlock(int x, int y, int z) {
 		if(containsInstance(x, y, z)) return;
 		int index = getIndex(x, y, z);
-		int b = blocks[index];
+		int b = blocks.get(index);
 		BlockInstance bi = new BlockInstance(b, new Vector3i(x + wx, y + wy, z + wz), this, (ClientWorld)world);
 		int[] neighbors = getNeighbors(x, y , z);
 		for(int k = 0; k < 6; k++) {
@@ -359,7 +359,7 @@ public class VisibleChunk extends NormalChunk {
 	 * @param index
 	 */
 	public void constructiveLightUpdate(int index) {
-		int blockColor = Blocks.light(blocks[index]);
+		int blockColor = Blocks.light(blocks.get(index));
 		int s = blockColor >>> 24;
 		int r = (blockColor >>> 16) & 255;
 		int g = (blockColor >>> 8) & 255;
@@ -410,10 +410,11 @@ public class VisibleChunk extends NormalChunk {
 			int lightValue = queue.lightValue();
 			int index = queue.index();
 			queue.removeMax();
-			if(!Blocks.lightingTransparent(blocks[index]) && ((Blocks.light(blocks[index]) >>> channelShift) & 255) != lightValue) continue;
-			lightValue = propagateLight(blocks[index], lightValue, channelShift);
-			if (blocks[index] != 0)
-				lightValue = Math.max(lightValue, (Blocks.light(blocks[index]) >>> channelShift) & 255);
+			int block = blocks.get(index);
+			if(!Blocks.lightingTransparent(block) && ((Blocks.light(block) >>> channelShift) & 255) != lightValue) continue;
+			lightValue = propagateLight(block, lightValue, channelShift);
+			if (block != 0)
+				lightValue = Math.max(lightValue, (Blocks.light(block) >>> channelShift) & 255);
 			int prevValue = (light[index] >>> channelShift) & 255;
 			setUpdated();
 			if (lightValue <= prevValue) continue;
@@ -523,70 +524,71 @@ public class VisibleChunk extends NormalChunk {
 	public void lightUpdateInternal(int index, int channelShift) {
 		if (!startedloading) return;
 		int newValue = 0;
-		if (blocks[index] != 0) newValue = (Blocks.light(blocks[index]) >>> channelShift) & 255;
+		int block = blocks.get(index);
+		if (block != 0) newValue = (Blocks.light(block) >>> channelShift) & 255;
 		int prevValue = (light[index] >>> channelShift) & 255;
 		// Go through all neighbors and check if the old value comes from them:
 		// z-1:
 		if ((index & getIndex(0, 0, chunkMask)) == 0) { // if (z == 0)
 			VisibleChunk neighborChunk = (VisibleChunk)world.getChunk(wx, wy, wz - Chunk.chunkSize);
 			if (neighborChunk != null) {
-				newValue = Math.max(newValue, propagateLight(blocks[index], (neighborChunk.light[index ^ getIndex(0, 0, chunkMask)] >>> channelShift) & 255, channelShift));
+				newValue = Math.max(newValue, propagateLight(block, (neighborChunk.light[index ^ getIndex(0, 0, chunkMask)] >>> channelShift) & 255, channelShift));
 			}
 		} else {
-			newValue = Math.max(newValue, propagateLight(blocks[index], (light[index - getIndex(0, 0, 1)] >>> channelShift) & 255, channelShift));
+			newValue = Math.max(newValue, propagateLight(block, (light[index - getIndex(0, 0, 1)] >>> channelShift) & 255, channelShift));
 		}
 		// z+1:
 		if ((index & getIndex(0, 0, chunkMask)) == getIndex(0, 0, chunkMask)) { // if (z == chunkSize-1)
 			VisibleChunk neighborChunk = (VisibleChunk)world.getChunk(wx, wy, wz + Chunk.chunkSize);
 			if (neighborChunk != null) {
-				newValue = Math.max(newValue, propagateLight(blocks[index], (neighborChunk.light[index ^ getIndex(0, 0, chunkMask)] >>> channelShift) & 255, channelShift));
+				newValue = Math.max(newValue, propagateLight(block, (neighborChunk.light[index ^ getIndex(0, 0, chunkMask)] >>> channelShift) & 255, channelShift));
 			}
 		} else {
-			newValue = Math.max(newValue, propagateLight(blocks[index], (light[index + getIndex(0, 0, 1)] >>> channelShift) & 255, channelShift));
+			newValue = Math.max(newValue, propagateLight(block, (light[index + getIndex(0, 0, 1)] >>> channelShift) & 255, channelShift));
 		}
 		// x-1:
 		if ((index & getIndex(chunkMask, 0, 0)) == 0) { // if (x == 0)
 			VisibleChunk neighborChunk = (VisibleChunk)world.getChunk(wx - Chunk.chunkSize, wy, wz);
 			if (neighborChunk != null) {
-				newValue = Math.max(newValue, propagateLight(blocks[index], (neighborChunk.light[index ^ getIndex(chunkMask, 0, 0)] >>> channelShift) & 255, channelShift));
+				newValue = Math.max(newValue, propagateLight(block, (neighborChunk.light[index ^ getIndex(chunkMask, 0, 0)] >>> channelShift) & 255, channelShift));
 			}
 		} else {
-			newValue = Math.max(newValue, propagateLight(blocks[index], (light[index - getIndex(1, 0, 0)] >>> channelShift) & 255, channelShift));
+			newValue = Math.max(newValue, propagateLight(block, (light[index - getIndex(1, 0, 0)] >>> channelShift) & 255, channelShift));
 		}
 		// x+1:
 		if ((index & getIndex(chunkMask, 0, 0)) == getIndex(chunkMask, 0, 0)) { // if (x == chunkSIze-1)
 			VisibleChunk neighborChunk = (VisibleChunk)world.getChunk(wx + Chunk.chunkSize, wy, wz);
 			if (neighborChunk != null) {
-				newValue = Math.max(newValue, propagateLight(blocks[index], (neighborChunk.light[index ^ getIndex(chunkMask, 0, 0)] >>> channelShift) & 255, channelShift));
+				newValue = Math.max(newValue, propagateLight(block, (neighborChunk.light[index ^ getIndex(chunkMask, 0, 0)] >>> channelShift) & 255, channelShift));
 			}
 		} else {
-			newValue = Math.max(newValue, propagateLight(blocks[index], (light[index + getIndex(1, 0, 0)] >>> channelShift) & 255, channelShift));
+			newValue = Math.max(newValue, propagateLight(block, (light[index + getIndex(1, 0, 0)] >>> channelShift) & 255, channelShift));
 		}
 		// y-1:
 		if ((index & getIndex(0, chunkMask, 0)) == 0) { // if (y == 0)
 			VisibleChunk neighborChunk = (VisibleChunk)world.getChunk(wx, wy - Chunk.chunkSize, wz);
 			if (neighborChunk != null) {
-				newValue = Math.max(newValue, propagateLight(blocks[index], (neighborChunk.light[index ^ getIndex(0, chunkMask, 0)] >>> channelShift) & 255, channelShift));
+				newValue = Math.max(newValue, propagateLight(block, (neighborChunk.light[index ^ getIndex(0, chunkMask, 0)] >>> channelShift) & 255, channelShift));
 			}
 		} else {
-			newValue = Math.max(newValue, propagateLight(blocks[index], (light[index - getIndex(0, 1, 0)] >>> channelShift) & 255, channelShift));
+			newValue = Math.max(newValue, propagateLight(block, (light[index - getIndex(0, 1, 0)] >>> channelShift) & 255, channelShift));
 		}
 		// y+1:
 		if ((index & getIndex(0, chunkMask, 0)) == getIndex(0, chunkMask, 0)) { // if (y == chunkSize-1)
 			VisibleChunk neighborChunk = (VisibleChunk)world.getChunk(wx, wy + Chunk.chunkSize, wz);
 			if (neighborChunk != null) {
 				int lightValue = (neighborChunk.light[index ^ getIndex(0, chunkMask, 0)] >>> channelShift) & 255;
-				newValue = Math.max(newValue, propagateLight(blocks[index], lightValue + (channelShift == 24 && lightValue == 255 ? 8 : 0), channelShift));
+				newValue = Math.max(newValue, propagateLight(block, lightValue + (channelShift == 24 && lightValue == 255 ? 8 : 0), channelShift));
 			}
 		} else {
 			int lightValue = (light[index + getIndex(0, 1, 0)] >>> channelShift) & 255;
-			newValue = Math.max(newValue, propagateLight(blocks[index], lightValue + (channelShift == 24 && lightValue == 255 ? 8 : 0), channelShift));
+			newValue = Math.max(newValue, propagateLight(block, lightValue + (channelShift == 24 && lightValue == 255 ? 8 : 0), channelShift));
 		}
 		
 		// Insert the new value and update neighbors:
 		if (newValue == prevValue) return;
 		if (newValue >= prevValue) {
-			singleSourceConstructiveLightUpdate(index, newValue - propagateLight(blocks[index], 0, channelShift), channelShift);
+			singleSourceConstructiveLightUpdate(index, newValue - propagateLight(block, 0, channelShift), channelShift);
 			return;
 		}
 		setUpdated();
@@ -112,9 +112,15 @@ public class CubeModel extends Model {
 	}
 	
 	
+	/**
+	 * Loads the standard cube without registering it. Doesn't need an OpenGL context.
+	 */
+	public static CubeModel loadStandardCube() {
+		Model template = ModelLoader.loadUnregisteredModel(new Resource("", ""), "assets/cubyz/models/3d/block.obj");
+		return new CubeModel(new Resource("cubyz", "block.obj"), template);
+	}
+	
 	public static void registerCubeModels() {
-		Model standardCube = ModelLoader.loadUnregisteredModel(new Resource("", ""), "assets/cubyz/models/3d/block.obj");
-		standardCube = new CubeModel(new Resource("cubyz", "block.obj"), standardCube);
-		Meshes.models.register(standardCube);
+		Meshes.models.register(loadStandardCube());
 	}
 }
@@ -116,19 +116,19 @@ public class StackableRotation implements RotationMode {
 	public boolean checkEntityAndDoCollision(Entity ent, Vector4d vel, int x, int y, int z, int block) {
 		// Check if the player can step onto this:
 		float yOffset = Math.max(1, (block >>> 16)/16.0f);
-		if (y + yOffset - ent.getPosition().y > 0 && y + yOffset - ent.getPosition().y <= ent.stepHeight) {
-			vel.w = Math.max(vel.w, y + yOffset - ent.getPosition().y);
+		if (y + yOffset - ent.getY() > 0 && y + yOffset - ent.getY() <= ent.stepHeight) {
+			vel.w = Math.max(vel.w, y + yOffset - ent.getY());
 			return false;
 		}
 		if (vel.y == 0) {
-			return	   y + yOffset >= ent.getPosition().y
-					&& y <= ent.getPosition().y + ent.height;
+			return	   y + yOffset >= ent.getY()
+					&& y <= ent.getY() + ent.height;
 		}
 		if (vel.y >= 0) {
 			return true;
 		}
-		if (y + yOffset >= ent.getPosition().y + vel.y) {
-			vel.y = y + yOffset - ent.getPosition().y;
+		if (y + yOffset >= ent.getY() + vel.y) {
+			vel.y = y + yOffset - ent.getY();
 		}
 		return false;
 	}
@@ -45,6 +45,27 @@ public class FastRandom {
 		return (int)(seed >>> (48 - bits));
 	}
 
+	/**
+	 * Advances the state as if {@link #next(int)} was called the given number of times, in O(log(steps)).
+	 */
+	public void skip(long steps) {
+		// Combines the linear steps seed → seed*mul + add by repeated squaring.
+		long mul = multiplier;
+		long add = addend;
+		long totalMul = 1;
+		long totalAdd = 0;
+		while(steps != 0) {
+			if((steps & 1) != 0) {
+				totalMul = totalMul*mul & mask;
+				totalAdd = (totalAdd*mul + add) & mask;
+			}
+			add = (add*mul + add) & mask;
+			mul = mul*mul & mask;
+			steps >>>= 1;
+		}
+		seed = (seed*totalMul + totalAdd) & mask;
+	}
+
 	public static int nextInt(long seed) {
 		return next(seed, 32);
 	}
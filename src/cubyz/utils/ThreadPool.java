@@ -1,88 +1,439 @@
 package cubyz.utils;
 
-import cubyz.utils.datastructures.BlockingMaxHeap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
+/**
+ * Runs tasks on all but two cores, higher priorities first.<br>
+ * Every worker has its own queue. New tasks are spread over the queues and idle workers steal from the others,
+ * so workers rarely contend for the same lock.<br>
+ * Inside a queue, tasks are sorted into buckets of similar priority instead of being kept in exact order.
+ * Priorities are updated lazily: A task is only scored again when it reaches the front of its queue and hasn't been scored recently.
+ * In addition every extraction checks a few tasks at the back of the queue, so tasks that are no longer needed don't pile up.
+ */
 public final class ThreadPool {
+	private ThreadPool() {} // No instances allowed.
 
-	private static final int REFRESH_TIME = 100; // The time after which all priorities get refreshed in milliseconds.
+	private static final long REFRESH_TIME = 100_000_000; // The time after which the priority of a task is recalculated in nanoseconds.
+	/** The number of tasks at the back of the queue that are checked on every extraction. */
+	private static final int SWEEP_COUNT = 2;
 
 	private static final Thread[] threads;
-	private static final BlockingMaxHeap<Task> loadList;
+	private static final WorkQueue[] queues;
+	private static final AtomicInteger size = new AtomicInteger();
+	private static final AtomicInteger idleThreads = new AtomicInteger();
+	private static final AtomicInteger busyThreads = new AtomicInteger();
+	private static final AtomicInteger nextQueue = new AtomicInteger();
+	private static final Object idleLock = new Object();
+
+	// Statistics:
+	public static final AtomicInteger tasksRun = new AtomicInteger();
+	public static final AtomicInteger tasksDiscarded = new AtomicInteger();
+	public static final AtomicInteger tasksStolen = new AtomicInteger();
 
 	static {
 		threads = new Thread[Math.max(1, Runtime.getRuntime().availableProcessors() - 2)];
+		queues = new WorkQueue[threads.length];
+		for (int i = 0; i < threads.length; i++) {
+			queues[i] = new WorkQueue();
+		}
 		for (int i = 0; i < threads.length; i++) {
-			Thread thread = new Thread(ThreadPool::run);
+			final int index = i;
+			Thread thread = new Thread(() -> run(index));
 			thread.setName("Worker-Thread-" + (i+1));
 			thread.setPriority(Thread.MIN_PRIORITY);
 			thread.setDaemon(true);
 			thread.start();
 			threads[i] = thread;
 		}
-		loadList = new BlockingMaxHeap<>(new Task[1024], threads.length);
 	}
 
-	private static void run() {
-		long lastUpdate = System.currentTimeMillis();
+	private static void run(int index) {
+		WorkQueue ownQueue = queues[index];
 		while (true) {
-			Task popped;
-			try {
-				popped = loadList.extractMax();
-			} catch (InterruptedException e) {
-				break;
+			Task task = findTask(index);
+			if (task == null) {
+				try {
+					waitForTasks();
+				} catch (InterruptedException e) {
+					break;
+				}
+				continue;
 			}
 			try {
-				popped.run();
+				task.run();
 			} catch (Throwable e) {
-				Logger.error("Could not run task " + popped + " !");
+				Logger.error("Could not run task " + task + " !");
 				Logger.error(e);
 			}
-			if(Thread.currentThread() == threads[0] && System.currentTimeMillis() - lastUpdate > REFRESH_TIME) { // Only update priorities on the first worker thread and after a specific amount of time.
-				lastUpdate = System.currentTimeMillis();
-				// Update the priority of all elements:
-				Task[] array = loadList.toArray();
-				for(Task element : array) {
-					if (element != null) {
-						if(!element.isStillNeeded()) {
-							loadList.remove(element);
-							continue;
-						}
-						element.cachedPriority = element.getPriority();
-					}
+			tasksRun.incrementAndGet();
+			busyThreads.decrementAndGet();
+			ownQueue.sweep();
+		}
+	}
+
+	/**
+	 * Takes the task with the highest priority from the own queue, unless another queue has a task of a higher bucket.
+	 * @return null if all queues are empty.
+	 */
+	private static Task findTask(int index) {
+		WorkQueue ownQueue = queues[index];
+		int bestBucket = ownQueue.topBucket;
+		WorkQueue bestQueue = ownQueue;
+		for (WorkQueue queue : queues) {
+			if (queue.topBucket > bestBucket) {
+				bestBucket = queue.topBucket;
+				bestQueue = queue;
+			}
+		}
+		Task task = bestQueue.poll();
+		if (task != null) {
+			if (bestQueue != ownQueue) tasksStolen.incrementAndGet();
+			return task;
+		}
+		// The queue was emptied in the meantime, so look at every queue:
+		for (int i = 0; i < queues.length; i++) {
+			WorkQueue queue = queues[(index + i) % queues.length];
+			task = queue.poll();
+			if (task != null) {
+				if (queue != ownQueue) tasksStolen.incrementAndGet();
+				return task;
+			}
+		}
+		return null;
+	}
+
+	private static void waitForTasks() throws InterruptedException {
+		synchronized (idleLock) {
+			idleThreads.incrementAndGet();
+			try {
+				while (size.get() == 0) {
+					idleLock.wait();
 				}
-				loadList.updatePriority();
+			} finally {
+				idleThreads.decrementAndGet();
 			}
 		}
 	}
 
+	/**
+	 * Removes all queued tasks and waits until all tasks that are currently running are done.
+	 */
 	public static void clear() {
-		loadList.clear();
+		for (WorkQueue queue : queues) {
+			queue.clear();
+		}
 		// Wait until all in-progress tasks are done:
-		while(loadList.waitingThreadCount() < threads.length) {
+		while (busyThreads.get() != 0) {
 			try {
 				Thread.sleep(1);
 			} catch(Exception e) {}
 		}
 	}
 
-	public static void addTask(Task task) {
-		if(task.isStillNeeded()) {
+	/**
+	 * @param task
+	 * @return the task, which can be used to cancel it.
+	 */
+	public static Task addTask(Task task) {
+		if (task.isStillNeeded()) {
 			task.cachedPriority = task.getPriority();
-			loadList.add(task);
+			task.lastRefresh = System.nanoTime();
+			task.queueTime = task.lastRefresh;
+			queues[Math.floorMod(nextQueue.getAndIncrement(), queues.length)].add(task);
+			if (idleThreads.get() != 0) {
+				synchronized (idleLock) {
+					idleLock.notify();
+				}
+			}
 		}
+		return task;
 	}
 
 	public static int getQueueSize() {
-		return loadList.size();
+		return size.get();
+	}
+
+	public static int getThreadCount() {
+		return threads.length;
+	}
+
+	/**
+	 * Runs the action for every index from 0 to count - 1 and returns when all of them are done.<br>
+	 * The calling thread works on the indices itself, while up to maxThreads - 1 workers help out when they are idle.
+	 * It only waits for indices that are already being worked on, so it is safe to call this from inside a task.
+	 * @param maxThreads the maximum number of threads working on it, including the calling thread.
+	 */
+	public static void runParallel(int count, int maxThreads, IntConsumer action) {
+		ParallelTask parallelTask = new ParallelTask(count, action);
+		int helpers = Math.min(Math.min(maxThreads, threads.length + 1), count) - 1;
+		for(int i = 0; i < helpers; i++) {
+			addTask(parallelTask);
+		}
+		parallelTask.run();
+		synchronized(parallelTask) {
+			while(parallelTask.finished != count) {
+				try {
+					parallelTask.wait();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		if(parallelTask.exception != null) {
+			throw new RuntimeException(parallelTask.exception);
+		}
+	}
+
+	/**
+	 * A task that can run on several threads at once, every thread takes the next index until all are taken.
+	 */
+	private static final class ParallelTask extends Task {
+		private final int count;
+		private final IntConsumer action;
+		private final AtomicInteger nextIndex = new AtomicInteger();
+		private int finished = 0;
+		private Throwable exception;
+
+		private ParallelTask(int count, IntConsumer action) {
+			this.count = count;
+			this.action = action;
+		}
+
+		@Override
+		public void run() {
+			int index;
+			while((index = nextIndex.getAndIncrement()) < count) {
+				try {
+					action.accept(index);
+				} catch(Throwable e) {
+					synchronized(this) {
+						exception = e;
+					}
+				}
+				synchronized(this) {
+					finished++;
+					if(finished == count) notifyAll();
+				}
+			}
+		}
+
+		@Override
+		public float getPriority() {
+			return Float.MAX_VALUE; // Someone is waiting for it.
+		}
+
+		@Override
+		public boolean isStillNeeded() {
+			return nextIndex.get() < count;
+		}
+	}
+
+	/**
+	 * Maps the priority to one of 2048 buckets, keeping the order. Each bucket covers about 20 % of the priority's magnitude.
+	 */
+	private static int getBucket(float priority) {
+		int bits = Float.floatToIntBits(priority);
+		bits ^= (bits >> 31) & 0x7fffffff; // Makes negative numbers sort correctly as integers.
+		return (bits >> 21) + WorkQueue.BUCKETS/2;
+	}
+
+	/**
+	 * A queue of tasks sorted into priority buckets. Tasks inside a bucket are run in the order they were added.
+	 */
+	private static final class WorkQueue {
+		private static final int BUCKETS = 2048;
+
+		/** The deques are created when a bucket is used for the first time. */
+		private final ArrayList<ArrayDeque<Task>> buckets = new ArrayList<>(Collections.nCopies(BUCKETS, null));
+		private final long[] nonEmptyBuckets = new long[BUCKETS/64];
+		/** The highest non-empty bucket or -1. Read without locking to find the queue with the most important task. */
+		private volatile int topBucket = -1;
+		private int sweepBucket = -1;
+
+		private void addToBucket(Task task, int bucket) {
+			if (buckets.get(bucket) == null) {
+				buckets.set(bucket, new ArrayDeque<>());
+			}
+			buckets.get(bucket).addLast(task);
+			nonEmptyBuckets[bucket >> 6] |= 1L << (bucket & 63);
+			if (bucket > topBucket) topBucket = bucket;
+		}
+
+		private Task pollFromBucket(int bucket) {
+			Task task = buckets.get(bucket).pollFirst();
+			if (buckets.get(bucket).isEmpty()) {
+				nonEmptyBuckets[bucket >> 6] &= ~(1L << (bucket & 63));
+				if (bucket == topBucket) {
+					topBucket = findLowerBucket(bucket);
+				}
+			}
+			return task;
+		}
+
+		/**
+		 * @return the highest non-empty bucket below the given one or -1.
+		 */
+		private int findLowerBucket(int bucket) {
+			for (int i = (bucket - 1) >> 6; i >= 0 && bucket > 0; i--) {
+				long word = nonEmptyBuckets[i];
+				if (i == (bucket - 1) >> 6) {
+					word &= -1L >>> (63 - ((bucket - 1) & 63));
+				}
+				if (word != 0) {
+					return i*64 + 63 - Long.numberOfLeadingZeros(word);
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return the lowest non-empty bucket or -1.
+		 */
+		private int findLowestBucket() {
+			for (int i = 0; i < nonEmptyBuckets.length; i++) {
+				if (nonEmptyBuckets[i] != 0) {
+					return i*64 + Long.numberOfTrailingZeros(nonEmptyBuckets[i]);
+				}
+			}
+			return -1;
+		}
+
+		synchronized void add(Task task) {
+			addToBucket(task, getBucket(task.cachedPriority));
+			size.incrementAndGet();
+		}
+
+		/**
+		 * Removes the task with the highest priority. Tasks that weren't scored recently are scored again and moved, if they belong into a lower bucket.
+		 * @return null if there is no task left.
+		 */
+		synchronized Task poll() {
+			while (topBucket != -1) {
+				int bucket = topBucket;
+				Task task = pollFromBucket(bucket);
+				if (task.cancelled) {
+					discard();
+					continue;
+				}
+				long time = System.nanoTime();
+				if (time - task.lastRefresh > REFRESH_TIME) {
+					task.lastRefresh = time;
+					if (!task.isStillNeeded()) {
+						task.cancelled = true;
+						discard();
+						continue;
+					}
+					task.cachedPriority = task.getPriority();
+					int newBucket = getBucket(task.cachedPriority);
+					if (newBucket < bucket) {
+						addToBucket(task, newBucket);
+						continue;
+					}
+				}
+				size.decrementAndGet();
+				busyThreads.incrementAndGet();
+				return task;
+			}
+			return null;
+		}
+
+		/**
+		 * Checks a few tasks starting at the lowest priority, removes those that are no longer needed and moves the others into their current bucket.
+		 */
+		synchronized void sweep() {
+			long time = System.nanoTime();
+			for (int i = 0; i < SWEEP_COUNT; i++) {
+				if (sweepBucket == -1 || buckets.get(sweepBucket) == null || buckets.get(sweepBucket).isEmpty()) {
+					sweepBucket = findLowestBucket();
+					if (sweepBucket == -1) return;
+				}
+				Task task = buckets.get(sweepBucket).peekFirst();
+				if (time - task.lastRefresh <= REFRESH_TIME) {
+					// Everything after it in this bucket was checked even more recently, so continue in the next higher bucket:
+					sweepBucket = findHigherBucket(sweepBucket);
+					continue;
+				}
+				pollFromBucket(sweepBucket);
+				task.lastRefresh = time;
+				if (task.cancelled || !task.isStillNeeded()) {
+					task.cancelled = true;
+					discard();
+					continue;
+				}
+				task.cachedPriority = task.getPriority();
+				addToBucket(task, getBucket(task.cachedPriority));
+			}
+		}
+
+		/**
+		 * @return the lowest non-empty bucket above the given one or -1.
+		 */
+		private int findHigherBucket(int bucket) {
+			for (int i = bucket + 1; i <= topBucket; i++) {
+				if ((nonEmptyBuckets[i >> 6] & 1L << (i & 63)) != 0) return i;
+			}
+			return -1;
+		}
+
+		private void discard() {
+			size.decrementAndGet();
+			tasksDiscarded.incrementAndGet();
+		}
+
+		synchronized void clear() {
+			for (int i = 0; i < BUCKETS; i++) {
+				if (buckets.get(i) != null) {
+					for (Task task : buckets.get(i)) {
+						task.cancelled = true;
+					}
+					size.addAndGet(-buckets.get(i).size());
+					buckets.get(i).clear();
+				}
+			}
+			Arrays.fill(nonEmptyBuckets, 0);
+			topBucket = -1;
+			sweepBucket = -1;
+		}
 	}
 
 	public abstract static class Task implements Comparable<Task>, Runnable {
 		private float cachedPriority;
+		private long lastRefresh;
+		private long queueTime;
+		private volatile boolean cancelled = false;
+
 		@Override
 		public int compareTo(Task other) {
 			return (int)Math.signum(cachedPriority - other.cachedPriority);
 		}
 
+		/**
+		 * The task will be removed without running, if it didn't start yet.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * @return true if the task was cancelled or dropped, because it was no longer needed.
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * @return the time in nanoseconds, as given by {@link System#nanoTime()}, at which this task was added.
+		 */
+		public long getQueueTime() {
+			return queueTime;
+		}
+
 		public abstract float getPriority();
 		public abstract boolean isStillNeeded();
 	}
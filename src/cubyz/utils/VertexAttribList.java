@@ -44,6 +44,13 @@ public class VertexAttribList {
 		return currentIndex/numberOfAttributes;
 	}
 	
+	/**
+	 * @return the internal array without copying it. Only the first {@link #size()} entries are used. It gets replaced when the list grows.
+	 */
+	public int[] getArray() {
+		return attribs;
+	}
+	
 	public int[] toArray() {
 		return Arrays.copyOf(attribs, currentIndex);
 	}
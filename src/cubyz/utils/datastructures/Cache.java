@@ -1,25 +1,126 @@
 package cubyz.utils.datastructures;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
-/** 
-* Implements a simple set associative cache with LRU replacement strategy.
+/**
+* Implements a thread-safe set associative cache with LRU replacement strategy.<br>
+* Every entry has a weight, an estimate of its memory usage in bytes. Caches that share a {@link MemoryBudget}
+* evict their least recently used entries once the total weight of all of them exceeds the budget.<br>
+* Entries that get kicked out of the cache are passed to the eviction callback, for example to save them.
 */
 
 public class Cache<T> {
-	public final T[][] cache;
+	/** Counts how many calls of {@link #findOrCreate} are creating entries in the current thread. */
+	private static final ThreadLocal<int[]> creationDepth = ThreadLocal.withInitial(() -> new int[1]);
+
+	public final String name;
+	private final T[][] cache;
+	private final long[][] weights;
+	private final long[][] accessTimes;
+	private final ReentrantLock[] locks;
+	private final ToLongFunction<T> weigher;
+	private final Consumer<T> onEviction;
+	private final MemoryBudget budget;
+	private final AtomicLong weight = new AtomicLong();
+
+	// Statistics:
+	public final AtomicLong hits = new AtomicLong();
+	public final AtomicLong misses = new AtomicLong();
+	public final AtomicLong evictions = new AtomicLong();
+
 	/**
-	 * The cache will be initialized using the given layout.
+	 * Creates a cache without weights, eviction callback and memory budget.
 	 * @param layout first dimension gives the hash size, second dimension gives the associativity.
 	 */
 	public Cache(T[][] layout) {
+		this("", layout, t -> 0, null, null);
+	}
+
+	/**
+	 * The cache will be initialized using the given layout.
+	 * @param name shown in the statistics.
+	 * @param layout first dimension gives the hash size, second dimension gives the associativity.
+	 * @param weigher estimates the memory usage of an entry in bytes. It is called once, when the entry is added.
+	 * @param onEviction gets called with every entry that got kicked out of the cache. May be null.
+	 * @param budget the memory budget that is shared with other caches. May be null.
+	 */
+	public Cache(String name, T[][] layout, ToLongFunction<T> weigher, Consumer<T> onEviction, MemoryBudget budget) {
+		this.name = name;
 		cache = layout;
+		weights = new long[layout.length][layout[0].length];
+		accessTimes = new long[layout.length][layout[0].length];
+		locks = new ReentrantLock[layout.length];
+		for(int i = 0; i < locks.length; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		this.weigher = weigher;
+		this.onEviction = onEviction;
+		this.budget = budget;
+		if (budget != null) {
+			budget.register(this);
+		}
+	}
+
+	/**
+	 * @return the number of sets. The index passed to the other functions must be smaller than this.
+	 */
+	public int getLineCount() {
+		return cache.length;
+	}
+
+	/**
+	 * @return the sum of the weights of all entries in bytes.
+	 */
+	public long getWeight() {
+		return weight.get();
+	}
+
+	/**
+	 * @return the share of requests that found their entry in the cache.
+	 */
+	public double getHitRate() {
+		long hits = this.hits.get();
+		long requests = hits + misses.get();
+		return requests == 0 ? 0 : hits/(double)requests;
+	}
+
+	/**
+	 * Moves the entry at position i to the front of its line. The lock must be held.
+	 */
+	private void moveToFront(int index, int i) {
+		T t = cache[index][i];
+		long entryWeight = weights[index][i];
+		System.arraycopy(cache[index], 0, cache[index], 1, i);
+		System.arraycopy(weights[index], 0, weights[index], 1, i);
+		System.arraycopy(accessTimes[index], 0, accessTimes[index], 1, i);
+		cache[index][0] = t;
+		weights[index][0] = entryWeight;
+		accessTimes[index][0] = System.nanoTime();
+	}
+
+	/**
+	 * Searches the line for the entry. The lock must be held.
+	 * @return the entry, which is now at the front of its line, or null.
+	 */
+	private T unsynchronized_find(Object compare, int index) {
+		for(int i = 0; i < cache[index].length; i++) {
+			T ret = cache[index][i];
+			if (ret == null) break;
+			if (compare.equals(ret)) {
+				moveToFront(index, i);
+				hits.incrementAndGet();
+				return ret;
+			}
+		}
+		misses.incrementAndGet();
+		return null;
 	}
-	
-	public int cacheRequests = 0;
-	public int cacheMisses = 0;
-	
+
 	/**
 	 * Tries to find the entry that fits to the supplied hashable.
 	 * @param compare
@@ -27,43 +128,168 @@ public class Cache<T> {
 	 * @return
 	 */
 	public T find(Object compare, int index) {
-		cacheRequests++;
-		synchronized(cache[index]) {
-			for(int i = 0; i < cache[index].length; i++) {
-				T ret = cache[index][i];
-				if (compare.equals(ret)) {
-					if (i != 0) { // No need to put it up front when it already is on the front.
-						System.arraycopy(cache[index], 0, cache[index], 1, i);
-						cache[index][0] = ret;
-					}
-					return ret;
-				}
-			}
+		locks[index].lock();
+		try {
+			return unsynchronized_find(compare, index);
+		} finally {
+			locks[index].unlock();
 		}
-		cacheMisses++;
-		return null;
 	}
-	
-	public void clear() {
-		for(T[] line : cache) {
-			Arrays.fill(line, null);
+
+	/**
+	 * Tries to find the entry that fits to the supplied hashable. If there is none, a new one is created and added.
+	 * The line is locked during creation, so every entry is only created once.
+	 * @param compare
+	 * @param index the hash that is fit within cache.length
+	 * @param supplier creates the new entry.
+	 * @return
+	 */
+	public T findOrCreate(Object compare, int index, Supplier<T> supplier) {
+		T ret;
+		T evicted = null;
+		locks[index].lock();
+		try {
+			ret = unsynchronized_find(compare, index);
+			if (ret != null) return ret;
+			int[] depth = creationDepth.get();
+			depth[0]++;
+			try {
+				ret = supplier.get();
+			} finally {
+				depth[0]--;
+			}
+			evicted = unsynchronized_add(ret, index);
+		} finally {
+			locks[index].unlock();
+		}
+		if (evicted != null) {
+			evicted(evicted);
+		}
+		// The memory budget is only enforced when no line is locked by this thread. This prevents deadlocks in the eviction callbacks.
+		if (budget != null && creationDepth.get()[0] == 0) {
+			budget.enforce();
 		}
+		return ret;
 	}
+
 	/**
-	 * Adds a new object into the cache.
-	 * @param t
-	 * @param index the hash that is fit within cache.length
-	 * @return the object that got kicked out of the cache if any.
+	 * Adds a new object to the front of the line. The lock must be held.
+	 * @return the object that got kicked out of the line if any.
 	 */
-	public T addToCache(T t, int index) {
-		T previous = cache[index][cache[index].length - 1];
-		System.arraycopy(cache[index], 0, cache[index], 1, cache[index].length - 1);
+	private T unsynchronized_add(T t, int index) {
+		int last = cache[index].length - 1;
+		T previous = cache[index][last];
+		long previousWeight = weights[index][last];
+		System.arraycopy(cache[index], 0, cache[index], 1, last);
+		System.arraycopy(weights[index], 0, weights[index], 1, last);
+		System.arraycopy(accessTimes[index], 0, accessTimes[index], 1, last);
 		cache[index][0] = t;
+		weights[index][0] = weigher.applyAsLong(t);
+		accessTimes[index][0] = System.nanoTime();
+		changeWeight(weights[index][0] - (previous == null ? 0 : previousWeight));
 		return previous;
 	}
 
+	private void changeWeight(long difference) {
+		weight.addAndGet(difference);
+		if (budget != null) {
+			budget.add(difference);
+		}
+	}
+
+	private void evicted(T t) {
+		evictions.incrementAndGet();
+		if (onEviction != null) {
+			onEviction.accept(t);
+		}
+	}
+
+	/**
+	 * Used by the {@link MemoryBudget} to find a line that contains entries. Doesn't lock, so the result may be outdated.
+	 * @return the first line at or after start that isn't empty or -1.
+	 */
+	int findOccupiedLine(int start) {
+		for(int i = 0; i < cache.length; i++) {
+			int index = (start + i) % cache.length;
+			if (cache[index][0] != null) return index;
+		}
+		return -1;
+	}
+
+	/**
+	 * Used by the {@link MemoryBudget} to compare the age of entries in different caches.
+	 * @return the last access time of the least recently used entry in the line, or Long.MAX_VALUE if the line is empty or in use.
+	 */
+	long getOldestAccessTime(int index) {
+		if (!locks[index].tryLock()) return Long.MAX_VALUE;
+		try {
+			for(int i = cache[index].length - 1; i >= 0; i--) {
+				if (cache[index][i] != null) return accessTimes[index][i];
+			}
+			return Long.MAX_VALUE;
+		} finally {
+			locks[index].unlock();
+		}
+	}
+
+	/**
+	 * Used by the {@link MemoryBudget} to remove the least recently used entry of the line.
+	 * Nothing is removed if the line is in use or if the entry was accessed after the given time.
+	 * @return true if an entry was removed.
+	 */
+	boolean evictOldest(int index, long accessTime) {
+		T evicted = null;
+		if (!locks[index].tryLock()) return false;
+		try {
+			for(int i = cache[index].length - 1; i >= 0; i--) {
+				if (cache[index][i] != null) {
+					if (accessTimes[index][i] != accessTime) break;
+					evicted = cache[index][i];
+					cache[index][i] = null;
+					changeWeight(-weights[index][i]);
+					break;
+				}
+			}
+		} finally {
+			locks[index].unlock();
+		}
+		if (evicted == null) return false;
+		evicted(evicted);
+		return true;
+	}
+
+	/**
+	 * Removes all entries without calling the eviction callback.
+	 */
+	public void clear() {
+		for(int index = 0; index < cache.length; index++) {
+			locks[index].lock();
+			try {
+				long removedWeight = 0;
+				for(int i = 0; i < cache[index].length; i++) {
+					if (cache[index][i] != null) removedWeight += weights[index][i];
+				}
+				Arrays.fill(cache[index], null);
+				Arrays.fill(weights[index], 0);
+				changeWeight(-removedWeight);
+			} finally {
+				locks[index].unlock();
+			}
+		}
+	}
+
+	/**
+	 * Calls the consumer with every entry. The lines are copied, so the consumer may use the cache.
+	 */
 	public void foreach(Consumer<T> consumer) {
-		for(T[] array : cache) {
+		for(int index = 0; index < cache.length; index++) {
+			T[] array;
+			locks[index].lock();
+			try {
+				array = Arrays.copyOf(cache[index], cache[index].length);
+			} finally {
+				locks[index].unlock();
+			}
 			for(T obj : array) {
 				if (obj != null)
 					consumer.accept(obj);
@@ -0,0 +1,260 @@
+package cubyz.utils.datastructures;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * A concurrent hash map with primitive long keys, for example packed chunk coordinates.<br>
+ * The map is split into segments. Each segment is an open addressing table that is changed in place under the segment's write lock.
+ * Reads don't lock: They use an optimistic read of the segment's {@link StampedLock} and only retry, if a change happened at the same time.
+ * This is made for maps that are read much more often than they are changed.
+ */
+public class ConcurrentLongMap<V> {
+	private static final int SEGMENT_SHIFT = 8;
+	private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+	private static final int MIN_CAPACITY = 4;
+	/** After this many failed optimistic reads the read lock is used, so a reader can't starve. */
+	private static final int OPTIMISTIC_TRIES = 4;
+
+	private static final class Table {
+		private final long[] keys;
+		private final Object[] values;
+		private Table(int capacity) {
+			keys = new long[capacity];
+			values = new Object[capacity];
+		}
+	}
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	private static final class Segment {
+		private final StampedLock lock = new StampedLock();
+		/** Only replaced when the table gets resized. Both arrays always have the same length. */
+		private Table table = new Table(MIN_CAPACITY);
+		private volatile int size = 0;
+	}
+
+	public ConcurrentLongMap() {
+		for(int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * Scrambles the bits, so neighboring coordinates end up in different segments and slots.
+	 */
+	private static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	private Segment getSegment(long hash) {
+		return segments[(int)(hash >>> (64 - SEGMENT_SHIFT))];
+	}
+
+	/**
+	 * The probe is limited to the table length, so a reader that sees a table in the middle of a change can't loop forever.
+	 * @return the slot of the key or the empty slot where it belongs or -1 if neither was found.
+	 */
+	private static int findSlot(Table table, long key, long hash) {
+		int mask = table.keys.length - 1;
+		int slot = (int)hash & mask;
+		for(int i = 0; i <= mask; i++) {
+			if(table.values[slot] == null || table.keys[slot] == key) return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private static Object getValue(Table table, long key, long hash) {
+		int slot = findSlot(table, key, hash);
+		return slot == -1 ? null : table.values[slot];
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		long hash = hash(key);
+		Segment segment = getSegment(hash);
+		for(int i = 0; i < OPTIMISTIC_TRIES; i++) {
+			long stamp = segment.lock.tryOptimisticRead();
+			if(stamp == 0) continue;
+			Object value = getValue(segment.table, key, hash);
+			if(segment.lock.validate(stamp)) return (V)value;
+		}
+		long stamp = segment.lock.readLock();
+		try {
+			return (V)getValue(segment.table, key, hash);
+		} finally {
+			segment.lock.unlockRead(stamp);
+		}
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Moves all entries into a new table of the given capacity. Needs the write lock.
+	 */
+	private static void resize(Segment segment, int capacity) {
+		Table old = segment.table;
+		Table table = new Table(capacity);
+		for(int i = 0; i < old.keys.length; i++) {
+			if(old.values[i] == null) continue;
+			long key = old.keys[i];
+			int slot = findSlot(table, key, hash(key));
+			table.keys[slot] = key;
+			table.values[slot] = old.values[i];
+		}
+		segment.table = table;
+	}
+
+	/**
+	 * @param value must not be null.
+	 * @return the previous value or null.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		assert value != null : "The map doesn't support null values.";
+		long hash = hash(key);
+		Segment segment = getSegment(hash);
+		long stamp = segment.lock.writeLock();
+		try {
+			Table table = segment.table;
+			int slot = findSlot(table, key, hash);
+			V previous = (V)table.values[slot];
+			if(previous == null) {
+				// Keep the load factor below 1/2:
+				if(2*(segment.size + 1) > table.keys.length) {
+					resize(segment, 2*table.keys.length);
+					table = segment.table;
+					slot = findSlot(table, key, hash);
+				}
+				segment.size++;
+			}
+			table.keys[slot] = key;
+			table.values[slot] = value;
+			return previous;
+		} finally {
+			segment.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @return the removed value or null.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		long hash = hash(key);
+		Segment segment = getSegment(hash);
+		long stamp = segment.lock.writeLock();
+		try {
+			Table table = segment.table;
+			int slot = findSlot(table, key, hash);
+			V previous = (V)table.values[slot];
+			if(previous == null) return null;
+			// Shift the following entries back, so no probe sequence gets interrupted by the new gap:
+			int mask = table.keys.length - 1;
+			int gap = slot;
+			int next = (gap + 1) & mask;
+			while(table.values[next] != null) {
+				int home = (int)hash(table.keys[next]) & mask;
+				// Only move the entry, if its home slot isn't cyclically between the gap and its current slot:
+				if(((next - home) & mask) >= ((next - gap) & mask)) {
+					table.keys[gap] = table.keys[next];
+					table.values[gap] = table.values[next];
+					gap = next;
+				}
+				next = (next + 1) & mask;
+			}
+			table.values[gap] = null;
+			segment.size--;
+			int capacity = table.keys.length;
+			while(capacity > MIN_CAPACITY && 8*segment.size < capacity) {
+				capacity /= 2;
+			}
+			if(capacity != table.keys.length) {
+				resize(segment, capacity);
+			}
+			return previous;
+		} finally {
+			segment.lock.unlockWrite(stamp);
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for(Segment segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	/**
+	 * Iterates over a snapshot of every segment, so the consumer may change the map.
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachValue(Consumer<V> consumer) {
+		Object[] snapshot = new Object[MIN_CAPACITY];
+		for(Segment segment : segments) {
+			if(segment.size == 0) continue;
+			int count = 0;
+			long stamp = segment.lock.readLock();
+			try {
+				Object[] values = segment.table.values;
+				if(snapshot.length < values.length) snapshot = new Object[values.length];
+				for(Object value : values) {
+					if(value != null) snapshot[count++] = value;
+				}
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+			for(int i = 0; i < count; i++) {
+				consumer.accept((V)snapshot[i]);
+				snapshot[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Copies all values into the array or a new array, if it is too small.
+	 * @return the array, followed by null, if it is larger than needed.
+	 */
+	@SuppressWarnings("unchecked")
+	public V[] toArray(V[] array) {
+		int size = size();
+		if(array.length < size) {
+			array = Arrays.copyOf(array, size);
+		}
+		int index = 0;
+		for(Segment segment : segments) {
+			long stamp = segment.lock.readLock();
+			try {
+				for(Object value : segment.table.values) {
+					if(value != null && index < array.length) array[index++] = (V)value;
+				}
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
+		if(index < array.length) array[index] = null;
+		return array;
+	}
+
+	public void clear() {
+		for(Segment segment : segments) {
+			long stamp = segment.lock.writeLock();
+			try {
+				segment.table = new Table(MIN_CAPACITY);
+				segment.size = 0;
+			} finally {
+				segment.lock.unlockWrite(stamp);
+			}
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package cubyz.utils.datastructures;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A memory limit in bytes that is shared by several {@link Cache}s.<br>
+ * When the total weight of the caches exceeds the limit, entries are evicted until it fits again.
+ * The evicted entry is the least recently used one out of a few randomly sampled lines, which approximates LRU over all caches
+ * without keeping a global order.
+ */
+public class MemoryBudget {
+	/** Used by the chunk, map and region caches of the game. */
+	public static final MemoryBudget GLOBAL = new MemoryBudget(Runtime.getRuntime().maxMemory()/2);
+
+	private static final int SAMPLES = 8;
+	/** Gives up after this many evictions failed in a row, because all sampled lines were in use. */
+	private static final int MAX_FAILURES = 16;
+
+	private volatile long maxBytes;
+	private final AtomicLong usedBytes = new AtomicLong();
+	private final CopyOnWriteArrayList<Cache<?>> caches = new CopyOnWriteArrayList<>();
+
+	public MemoryBudget(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	void register(Cache<?> cache) {
+		caches.add(cache);
+	}
+
+	/**
+	 * Stops tracking a cache that is no longer used. Its entries should be removed before.
+	 */
+	public void unregister(Cache<?> cache) {
+		caches.remove(cache);
+		usedBytes.addAndGet(-cache.getWeight());
+	}
+
+	void add(long bytes) {
+		usedBytes.addAndGet(bytes);
+	}
+
+	public long getUsedBytes() {
+		return usedBytes.get();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Changing the limit takes effect the next time an entry is added to one of the caches.
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return all caches that use this budget.
+	 */
+	public List<Cache<?>> getCaches() {
+		return caches;
+	}
+
+	/**
+	 * Evicts entries until the used memory fits into the budget.
+	 */
+	void enforce() {
+		int failures = 0;
+		while (usedBytes.get() > maxBytes && failures < MAX_FAILURES) {
+			if (evictOne()) {
+				failures = 0;
+			} else {
+				failures++;
+			}
+		}
+	}
+
+	/**
+	 * Picks a cache with a probability proportional to its weight.
+	 */
+	private Cache<?> pickCache(ThreadLocalRandom rand) {
+		long totalWeight = 0;
+		for (Cache<?> cache : caches) {
+			totalWeight += Math.max(0, cache.getWeight());
+		}
+		if (totalWeight <= 0) return null;
+		long value = rand.nextLong(totalWeight);
+		for (Cache<?> cache : caches) {
+			value -= Math.max(0, cache.getWeight());
+			if (value < 0) return cache;
+		}
+		return null;
+	}
+
+	private boolean evictOne() {
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		Cache<?> oldestCache = null;
+		int oldestLine = -1;
+		long oldestTime = Long.MAX_VALUE;
+		for (int i = 0; i < SAMPLES; i++) {
+			Cache<?> cache = pickCache(rand);
+			if (cache == null) return false;
+			int line = cache.findOccupiedLine(rand.nextInt(cache.getLineCount()));
+			if (line == -1) continue;
+			long time = cache.getOldestAccessTime(line);
+			if (time < oldestTime) {
+				oldestTime = time;
+				oldestCache = cache;
+				oldestLine = line;
+			}
+		}
+		if (oldestCache == null) return false;
+		return oldestCache.evictOldest(oldestLine, oldestTime);
+	}
+}
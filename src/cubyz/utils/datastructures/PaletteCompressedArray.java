@@ -0,0 +1,179 @@
+package cubyz.utils.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * A fixed length int array that stores a palette of all values it contains and packs the palette indices into a long array.<br>
+ * The bit width of the indices grows on demand(1, 2, 4, 8, 16 or 32 bits), so entries never cross the border between two longs.<br>
+ * If all entries are equal no index data is stored at all.<br>
+ * Reading is safe while another thread writes: The index data, the palette and the bit width are published together in one Storage object.
+ * The palette only grows in place past the length that older storages know about, so a reader that finds an index outside of its palette retries with the newest storage.
+ * Writes are synchronized, because neighboring entries share the same long.
+ */
+
+public class PaletteCompressedArray {
+	private static final class Storage {
+		/** Packed indices into the palette. Empty if all entries are the same. */
+		private final long[] data;
+		private final int[] palette;
+		/** Only the first paletteLength entries of the palette are in use. */
+		private final int paletteLength;
+		private final int bitSize;
+
+		private Storage(long[] data, int[] palette, int paletteLength, int bitSize) {
+			this.data = data;
+			this.palette = palette;
+			this.paletteLength = paletteLength;
+			this.bitSize = bitSize;
+		}
+
+		private int getPaletteIndex(int index) {
+			int bitIndex = index*bitSize;
+			return (int)(data[bitIndex >>> 6] >>> (bitIndex & 63) & (1L << bitSize) - 1);
+		}
+	}
+
+	public final int length;
+	private volatile Storage storage;
+	// Most writes come in long runs of the same value, so caching the last palette index avoids most palette searches:
+	private int lastValue;
+	private int lastPaletteIndex = 0;
+
+	/**
+	 * @param length
+	 * @param initialValue value of all entries
+	 */
+	public PaletteCompressedArray(int length, int initialValue) {
+		assert (length & 63) == 0 : "The length needs to be a multiple of 64.";
+		this.length = length;
+		storage = new Storage(new long[0], new int[] {initialValue}, 1, 0);
+		lastValue = initialValue;
+	}
+
+	public int get(int index) {
+		while(true) {
+			Storage storage = this.storage;
+			if (storage.bitSize == 0) return storage.palette[0];
+			int paletteIndex = storage.getPaletteIndex(index);
+			if (paletteIndex < storage.paletteLength) return storage.palette[paletteIndex];
+			// The palette grew after the storage was read.
+		}
+	}
+
+	public synchronized void set(int index, int value) {
+		int paletteIndex = getOrAddToPalette(value);
+		Storage storage = this.storage;
+		if (storage.bitSize == 0) return;
+		int bitIndex = index*storage.bitSize;
+		long mask = (1L << storage.bitSize) - 1;
+		int shift = bitIndex & 63;
+		long[] data = storage.data;
+		data[bitIndex >>> 6] = data[bitIndex >>> 6] & ~(mask << shift) | (long)paletteIndex << shift;
+	}
+
+	/**
+	 * Sets all entries to the same value and frees the index data.
+	 * @param value
+	 */
+	public synchronized void fill(int value) {
+		storage = new Storage(new long[0], new int[] {value}, 1, 0);
+		lastValue = value;
+		lastPaletteIndex = 0;
+	}
+
+	/**
+	 * @return true if all entries share the same value.
+	 */
+	public boolean isUniform() {
+		return storage.paletteLength == 1;
+	}
+
+	private int getOrAddToPalette(int value) {
+		if (value == lastValue) return lastPaletteIndex;
+		Storage storage = this.storage;
+		int[] palette = storage.palette;
+		int paletteIndex = -1;
+		for(int i = 0; i < storage.paletteLength; i++) {
+			if (palette[i] == value) {
+				paletteIndex = i;
+				break;
+			}
+		}
+		if (paletteIndex == -1) {
+			long[] data = storage.data;
+			int bitSize = storage.bitSize;
+			paletteIndex = storage.paletteLength;
+			if (paletteIndex == 1L << bitSize) {
+				bitSize = bitSize == 0 ? 1 : 2*bitSize;
+				data = increaseBitSize(storage, bitSize);
+			}
+			if (paletteIndex == palette.length) {
+				palette = Arrays.copyOf(palette, (int)Math.min(2L*palette.length, 1L << bitSize));
+			}
+			palette[paletteIndex] = value; // Older storages don't use this entry yet.
+			this.storage = new Storage(data, palette, paletteIndex + 1, bitSize); // Publish the palette, before any index can refer to the new entry.
+		}
+		lastValue = value;
+		lastPaletteIndex = paletteIndex;
+		return paletteIndex;
+	}
+
+	private long[] increaseBitSize(Storage storage, int newBitSize) {
+		long[] newData = new long[length*newBitSize/64];
+		if (storage.bitSize != 0) {
+			for(int i = 0; i < length; i++) {
+				int newBitIndex = i*newBitSize;
+				newData[newBitIndex >>> 6] |= (long)storage.getPaletteIndex(i) << (newBitIndex & 63);
+			}
+		} // Otherwise all old entries refer to palette index 0, which is what a zeroed array already contains.
+		return newData;
+	}
+
+	/**
+	 * Removes palette entries that are no longer in use and reduces the bit width if possible.
+	 * Collapses to a single value if the array is uniform.
+	 * The result is published as a new storage, so other threads can keep reading.
+	 */
+	public synchronized void optimize() {
+		Storage storage = this.storage;
+		if (storage.bitSize == 0) return;
+		int paletteLength = storage.paletteLength;
+		int[] usage = new int[paletteLength];
+		for(int i = 0; i < length; i++) {
+			usage[storage.getPaletteIndex(i)]++;
+		}
+		int[] newPalette = new int[paletteLength];
+		int[] indexMap = new int[paletteLength];
+		int newPaletteLength = 0;
+		for(int i = 0; i < paletteLength; i++) {
+			if (usage[i] != 0) {
+				indexMap[i] = newPaletteLength;
+				newPalette[newPaletteLength++] = storage.palette[i];
+			}
+		}
+		if (newPaletteLength == paletteLength) return;
+		int newBitSize = 0;
+		while((1L << newBitSize) < newPaletteLength) {
+			newBitSize = newBitSize == 0 ? 1 : 2*newBitSize;
+		}
+		long[] newData = new long[length*newBitSize/64];
+		if (newBitSize != 0) {
+			for(int i = 0; i < length; i++) {
+				int newBitIndex = i*newBitSize;
+				newData[newBitIndex >>> 6] |= (long)indexMap[storage.getPaletteIndex(i)] << (newBitIndex & 63);
+			}
+		}
+		this.storage = new Storage(newData, Arrays.copyOf(newPalette, newPaletteLength), newPaletteLength, newBitSize);
+		lastValue = newPalette[0];
+		lastPaletteIndex = 0;
+	}
+
+	/**
+	 * @return an estimate of the heap memory used by this array in bytes.
+	 */
+	public long getMemoryUsage() {
+		final int objectHeader = 16;
+		Storage storage = this.storage;
+		return objectHeader + 24 + objectHeader + 24 + objectHeader + 8L*storage.data.length + objectHeader + 4L*storage.palette.length;
+	}
+}
@@ -6,9 +6,11 @@ import org.joml.Vector3d;
 
 import cubyz.client.GameLauncher;
 import cubyz.utils.Logger;
+import cubyz.utils.datastructures.PaletteCompressedArray;
 import cubyz.utils.math.Bits;
 import cubyz.world.save.ChunkIO;
 import cubyz.world.terrain.CaveMap;
+import cubyz.world.terrain.GenerationStatistics;
 import cubyz.world.terrain.TerrainGenerationProfile;
 import cubyz.world.terrain.generators.Generator;
 
@@ -22,8 +24,10 @@ public abstract class Chunk extends SavableChunk {
 	
 	public static final int chunkMask = chunkSize - 1;
 	
+	public static final int chunkVolume = 1 << 3*chunkShift;
+	
 	public final World world;
-	protected final int[] blocks = new int[chunkSize*chunkSize*chunkSize];
+	protected final PaletteCompressedArray blocks = new PaletteCompressedArray(chunkVolume, 0);
 	
 	private boolean wasChanged = false;
 	/** When a chunk is cleaned, it won't be saved by the ChunkManager anymore, so following changes need to be saved directly. */
@@ -97,15 +101,46 @@ public abstract class Chunk extends SavableChunk {
 	public void generate(long seed, TerrainGenerationProfile terrainGenerationProfile) {
 		assert !generated : "Seriously, why would you generate this chunk twice???";
 		if(!ChunkIO.loadChunkFromFile(world, this)) {
-			CaveMap caveMap = new CaveMap(this);
-			CaveBiomeMap biomeMap = new CaveBiomeMap(this);
-			
-			for (Generator g : terrainGenerationProfile.generators) {
-				g.generate(seed ^ g.getGeneratorSeed(), wx, wy, wz, this, caveMap, biomeMap);
-			}
+			runGenerators(seed, terrainGenerationProfile);
 		}
 		generated = true;
 	}
+
+	/**
+	 * Generates this chunk from the seed, ignoring any saved version.
+	 * @param seed
+	 * @param terrainGenerationProfile
+	 */
+	public void generateFromSeed(long seed, TerrainGenerationProfile terrainGenerationProfile) {
+		assert !generated : "Seriously, why would you generate this chunk twice???";
+		runGenerators(seed, terrainGenerationProfile);
+		generated = true;
+	}
+
+	private void runGenerators(long seed, TerrainGenerationProfile terrainGenerationProfile) {
+		long chunkTime = System.nanoTime();
+		long chunkBytes = GenerationStatistics.getAllocatedBytes();
+		long time = chunkTime;
+		long bytes = chunkBytes;
+		CaveMap caveMap = new CaveMap(this);
+		GenerationStatistics.record(GenerationStatistics.CAVE_MAP, time, bytes);
+		time = System.nanoTime();
+		bytes = GenerationStatistics.getAllocatedBytes();
+		CaveBiomeMap biomeMap = new CaveBiomeMap(this);
+		GenerationStatistics.record(GenerationStatistics.CAVE_BIOME_MAP, time, bytes);
+		
+		Generator[] generators = terrainGenerationProfile.generators;
+		for (int i = 0; i < generators.length; i++) {
+			Generator g = generators[i];
+			time = System.nanoTime();
+			bytes = GenerationStatistics.getAllocatedBytes();
+			g.generate(seed ^ g.getGeneratorSeed(), wx, wy, wz, this, caveMap, biomeMap);
+			GenerationStatistics.record(terrainGenerationProfile.generatorTimers[i], time, bytes);
+		}
+		// Generators overwrite a lot of blocks, so there might be some unused palette entries left:
+		blocks.optimize();
+		GenerationStatistics.record(GenerationStatistics.CHUNK, chunkTime, chunkBytes);
+	}
 	
 	/**
 	 * Checks if the given <b>relative</b> coordinates lie within the bounds of this chunk.
@@ -181,7 +216,7 @@ public abstract class Chunk extends SavableChunk {
 	public byte[] saveToByteArray() {
 		byte[] data = new byte[4*blocks.length];
 		for(int i = 0; i < blocks.length; i++) {
-			Bits.putInt(data, i*4, blocks[i]);
+			Bits.putInt(data, i*4, blocks.get(i));
 		}
 		return data;
 	}
@@ -193,12 +228,20 @@ public abstract class Chunk extends SavableChunk {
 			return false;
 		}
 		for(int i = 0; i < blocks.length; i++) {
-			blocks[i] = Bits.getInt(data, i*4);
+			blocks.set(i, Bits.getInt(data, i*4));
 		}
+		blocks.optimize();
 		generated = true;
 		return true;
 	}
 
+	/**
+	 * @return an estimate of the heap memory used by the block data of this chunk in bytes.
+	 */
+	public long getMemoryUsage() {
+		return blocks.getMemoryUsage();
+	}
+
 	@Override
 	public String fileEnding() {
 		return "region";
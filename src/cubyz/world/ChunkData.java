@@ -33,7 +33,10 @@ public class ChunkData {
 
 	public float getPriority(Player source) {
 		int halfWidth = voxelSize * Chunk.chunkSize / 2;
-		return -(float) source.getPosition().distanceSquared(wx + halfWidth, wy + halfWidth, wz + halfWidth)/voxelSize/voxelSize + 2*CubyzMath.binaryLog(voxelSize)*Chunk.chunkSize*Chunk.chunkSize;
+		double dx = source.getX() - (wx + halfWidth);
+		double dy = source.getY() - (wy + halfWidth);
+		double dz = source.getZ() - (wz + halfWidth);
+		return -(float)(dx*dx + dy*dy + dz*dz)/voxelSize/voxelSize + 2*CubyzMath.binaryLog(voxelSize)*Chunk.chunkSize*Chunk.chunkSize;
 	}
 
 	public double getMinDistanceSquared(double px, double py, double pz) {
@@ -46,6 +49,19 @@ public class ChunkData {
 		dz = Math.max(0, dz - halfWidth);
 		return dx*dx + dy*dy + dz*dz;
 	}
+
+	/**
+	 * @return true if a player at the given position with the given render distance still needs this chunk.
+	 */
+	public boolean isInRenderDistance(double px, double py, double pz, int renderDistance, float LODFactor) {
+		double minDistSquare = getMinDistanceSquared(px, py, pz);
+		//                                                   ↓ Margin for error. (diagonal of 1 chunk)
+		double targetRenderDistance = (renderDistance*Chunk.chunkSize + Chunk.chunkSize*Math.sqrt(3));//*Math.pow(LODFactor, Math.log(voxelSize)/Math.log(2));
+		if(voxelSize != 1) {
+			targetRenderDistance *= voxelSize*LODFactor;
+		}
+		return minDistSquare <= targetRenderDistance*targetRenderDistance;
+	}
 	
 	@Override
 	public String toString() {
@@ -1,13 +1,15 @@
 package cubyz.world;
 
-import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import cubyz.multiplayer.Protocols;
+import cubyz.Constants;
 import cubyz.multiplayer.server.Server;
 import cubyz.multiplayer.server.User;
 import cubyz.utils.Logger;
 import cubyz.utils.ThreadPool;
 import cubyz.utils.datastructures.Cache;
+import cubyz.utils.datastructures.MemoryBudget;
 import cubyz.utils.math.CubyzMath;
 import cubyz.world.save.ChunkIO;
 import cubyz.world.terrain.*;
@@ -23,12 +25,12 @@ public class ChunkManager {
 
 	public final TerrainGenerationProfile terrainGenerationProfile;
 
-	// There will be at most 1 GiB of reduced and 500 MB of normal chunks in here.
+	// The caches share the global memory budget. Their size only limits the number of entries.
 	private static final int REDUCED_CHUNK_CACHE_MASK = 2047;
 	private static final int NORMAL_CHUNK_CACHE_MASK = 1023;
-	private final Cache<ReducedChunk> reducedChunkCache = new Cache<>(new ReducedChunk[REDUCED_CHUNK_CACHE_MASK+1][4]);
-	private final Cache<NormalChunk> normalChunkCache = new Cache<>(new NormalChunk[NORMAL_CHUNK_CACHE_MASK+1][4]);
-	// There will be at most 1 GiB of map data in here.
+	private final Cache<ReducedChunk> reducedChunkCache = new Cache<>("Reduced chunks", new ReducedChunk[REDUCED_CHUNK_CACHE_MASK+1][4], Chunk::getMemoryUsage, Chunk::clean, MemoryBudget.GLOBAL);
+	private final Cache<NormalChunk> normalChunkCache = new Cache<>("Normal chunks", new NormalChunk[NORMAL_CHUNK_CACHE_MASK+1][4], Chunk::getMemoryUsage, null, MemoryBudget.GLOBAL);
+	// Without a memory budget there would be at most 1 GiB of map data in here.
 	private static final int[] MAP_CACHE_MASK = {
 		7, // 256 MiB // 4(1 in best-case) maps are needed at most for each player. So 32 will be enough for 8(32 in best case) player groups.
 		31, // 256 MiB
@@ -38,14 +40,10 @@ public class ChunkManager {
 		2047, // 64 MiB
 	};
 	@SuppressWarnings("unchecked")
-	private final Cache<MapFragment>[] mapCache = new Cache[] {
-	    new Cache<>(new MapFragment[MAP_CACHE_MASK[0] + 1][4]),
-	    new Cache<>(new MapFragment[MAP_CACHE_MASK[1] + 1][4]),
-	    new Cache<>(new MapFragment[MAP_CACHE_MASK[2] + 1][4]),
-	    new Cache<>(new MapFragment[MAP_CACHE_MASK[3] + 1][4]),
-	    new Cache<>(new MapFragment[MAP_CACHE_MASK[4] + 1][4]),
-	    new Cache<>(new MapFragment[MAP_CACHE_MASK[5] + 1][4]),
-	};
+	private final Cache<MapFragment>[] mapCache = new Cache[MAP_CACHE_MASK.length];
+
+	/** The queued chunk tasks of every user, so they can be cancelled when the user disconnects. */
+	private final ConcurrentHashMap<User, Set<ChunkLoadTask>> userTasks = new ConcurrentHashMap<>();
 
 	private class ChunkLoadTask extends ThreadPool.Task {
 		private final ChunkData ch;
@@ -67,6 +65,14 @@ public class ChunkManager {
 
 		@Override
 		public boolean isStillNeeded() {
+			boolean stillNeeded = checkIfStillNeeded();
+			if(!stillNeeded) {
+				removeFromUserTasks();
+			}
+			return stillNeeded;
+		}
+
+		private boolean checkIfStillNeeded() {
 			if(source != null) {
 				boolean isConnected = false;
 				for(User user : Server.users) {
@@ -81,13 +87,7 @@ public class ChunkManager {
 			}
 			if(System.currentTimeMillis() - creationTime > 10000) { // Only remove stuff after 10 seconds to account for trouble when for example teleporting.
 				for(User user : Server.users) {
-					double minDistSquare = ch.getMinDistanceSquared(user.player.getPosition().x, user.player.getPosition().y, user.player.getPosition().z);
-					//                                                                   ↓ Margin for error. (diagonal of 1 chunk)
-					double targetRenderDistance = (user.renderDistance*Chunk.chunkSize + Chunk.chunkSize*Math.sqrt(3));//*Math.pow(user.LODFactor, Math.log(ch.voxelSize)/Math.log(2));
-					if(ch.voxelSize != 1) {
-						targetRenderDistance *= ch.voxelSize*user.LODFactor;
-					}
-					if(minDistSquare <= targetRenderDistance*targetRenderDistance) {
+					if(ch.isInRenderDistance(user.player.getX(), user.player.getY(), user.player.getZ(), user.renderDistance, user.LODFactor)) {
 						return true;
 					}
 				}
@@ -96,13 +96,25 @@ public class ChunkManager {
 			return true;
 		}
 
+		private void removeFromUserTasks() {
+			if(source == null) return;
+			Set<ChunkLoadTask> tasks = userTasks.get(source);
+			if(tasks != null) {
+				tasks.remove(this);
+			}
+		}
+
 		@Override
 		public void run() {
+			removeFromUserTasks();
 			synchronousGenerate(ch, source);
 		}
 	}
 
 	public ChunkManager(ServerWorld world, JsonObject settings) {
+		for(int i = 0; i < mapCache.length; i++) {
+			mapCache[i] = new Cache<>("Map fragments "+(1 << i), new MapFragment[MAP_CACHE_MASK[i] + 1][4], MapFragment::getMemoryUsage, null, MemoryBudget.GLOBAL);
+		}
 		this.world = world;
 
 		terrainGenerationProfile = new TerrainGenerationProfile(settings, world.getCurrentRegistries(), world.getSeed());
@@ -112,8 +124,30 @@ public class ChunkManager {
 		ClimateMap.init(terrainGenerationProfile);
 	}
 
-	public void queueChunk(ChunkData ch, User source) {
-		ThreadPool.addTask(new ChunkLoadTask(ch, source));
+	/**
+	 * @param ch
+	 * @param source the user that requested the chunk or null.
+	 * @return a handle that can be used to cancel the task.
+	 */
+	public ThreadPool.Task queueChunk(ChunkData ch, User source) {
+		ChunkLoadTask task = new ChunkLoadTask(ch, source);
+		if(source != null) {
+			userTasks.computeIfAbsent(source, user -> ConcurrentHashMap.newKeySet()).add(task);
+		}
+		return ThreadPool.addTask(task);
+	}
+
+	/**
+	 * Cancels all queued chunk tasks that were requested by the user.
+	 * @param source
+	 */
+	public void cancelTasks(User source) {
+		Set<ChunkLoadTask> tasks = userTasks.remove(source);
+		if(tasks != null) {
+			for(ChunkLoadTask task : tasks) {
+				task.cancel();
+			}
+		}
 	}
 	
 	public void synchronousGenerate(ChunkData ch, User source) {
@@ -130,26 +164,26 @@ public class ChunkManager {
 				chunk = getOrGenerateNormalChunk(ch);
 			}
 			if(source != null) {
-				Protocols.CHUNK_TRANSMISSION.sendChunk(source, chunk);
+				source.chunkQueue.add(chunk);
 			} else {
 				for(User user : Server.users) {
-					Protocols.CHUNK_TRANSMISSION.sendChunk(user, chunk);
+					user.chunkQueue.add(chunk);
 				}
 			}
 		} else if((ch.wx & (ch.voxelSize*Chunk.chunkSize - 1)) == 0) { // requests an aligned chunk (→ not the visibility data)
 			ReducedChunk chunk = getOrGenerateReducedChunk(ch.wx, ch.wy, ch.wz, ch.voxelSize);
 			if(source != null) {
-				Protocols.CHUNK_TRANSMISSION.sendChunk(source, chunk);
+				source.chunkQueue.add(chunk);
 			} else {
 				Logger.error("No source for aligned chunk.");
 			}
 		} else {
 			ReducedChunkVisibilityData visibilityData = new ReducedChunkVisibilityData(world, ch.wx, ch.wy, ch.wz, ch.voxelSize);
 			if(source != null) {
-				Protocols.CHUNK_TRANSMISSION.sendChunk(source, visibilityData);
+				source.chunkQueue.add(visibilityData);
 			}/*TODO: This feature was temporarily removed to keep compatibility with the zig version. else {
 				for(User user : Server.users) {
-					Protocols.CHUNK_TRANSMISSION.sendChunk(user, visibilityData);
+					user.chunkQueue.add(visibilityData);
 				}
 			}*/
 		}
@@ -163,19 +197,13 @@ public class ChunkManager {
 		int index = CubyzMath.binaryLog(voxelSize);
 		int hash = data.hashCode() & MAP_CACHE_MASK[index];
 
-		MapFragment res = mapCache[index].find(data, hash);
-		if (res != null) return res;
-
-		synchronized(mapCache[index].cache[hash]) {
-			res = mapCache[index].find(data, hash);
-			if (res != null) return res;
-
+		final int x = wx, z = wz;
+		return mapCache[index].findOrCreate(data, hash, () -> {
 			// Generate a new map fragment:
-			res = new MapFragment(wx, wz, voxelSize);
+			MapFragment res = new MapFragment(x, z, voxelSize);
 			terrainGenerationProfile.mapFragmentGenerator.generateMapFragment(res, world.getSeed());
-			mapCache[index].addToCache(res, hash);
-		}
-		return res;
+			return res;
+		});
 	}
 
 	/**
@@ -193,19 +221,13 @@ public class ChunkManager {
 		wz &= chunkMask;
 		ChunkData data = new ChunkData(wx, wy, wz, voxelSize);
 		int hash = data.hashCode() & REDUCED_CHUNK_CACHE_MASK;
-		ReducedChunk res = reducedChunkCache.find(data, hash);
-		if (res != null) return res;
-		synchronized(reducedChunkCache.cache[hash]) {
-			res = reducedChunkCache.find(data, hash);
-			if (res != null) return res;
+		// Evicted chunks get cleaned by the cache.
+		return reducedChunkCache.findOrCreate(data, hash, () -> {
 			// Generate a new chunk:
-			res = new ReducedChunk(world, wx, wy, wz, CubyzMath.binaryLog(voxelSize));
+			ReducedChunk res = new ReducedChunk(world, data.wx, data.wy, data.wz, CubyzMath.binaryLog(voxelSize));
 			res.generate(world.getSeed(), terrainGenerationProfile);
-			ReducedChunk old = reducedChunkCache.addToCache(res, hash);
-			if(old != null)
-				old.clean();
-		}
-		return res;
+			return res;
+		});
 	}
 
 	/**
@@ -215,13 +237,9 @@ public class ChunkManager {
 	 */
 	public NormalChunk getOrGenerateNormalChunk(ChunkData data) {
 		int hash = data.hashCode() & NORMAL_CHUNK_CACHE_MASK;
-		NormalChunk res = normalChunkCache.find(data, hash);
-		if (res != null) return res;
-		synchronized(normalChunkCache.cache[hash]) {
-			res = normalChunkCache.find(data, hash);
-			if (res != null) return res;
+		return normalChunkCache.findOrCreate(data, hash, () -> {
 			// Check if the world has it:
-			res = world.getChunk(data.wx, data.wy, data.wz);
+			NormalChunk res = world.getChunk(data.wx, data.wy, data.wz);
 			if(res == null) {
 				// Generate a new chunk:
 				res = new NormalChunk(world, data.wx, data.wy, data.wz);
@@ -229,43 +247,53 @@ public class ChunkManager {
 			if(!res.isGenerated()) {
 				res.generate(world.getSeed(), terrainGenerationProfile);
 			}
-			normalChunkCache.addToCache(res, hash);
-		}
-		return res;
+			return res;
+		});
 	}
 	public NormalChunk getNormalChunkFromCache(ChunkData data) {
 		int hash = data.hashCode() & NORMAL_CHUNK_CACHE_MASK;
 		return normalChunkCache.find(data, hash);
 	}
 
+	/**
+	 * @return an estimate of the heap memory used by the block data of all cached normal and reduced chunks in bytes.
+	 */
+	public long getChunkCacheMemoryUsage() {
+		return normalChunkCache.getWeight() + reducedChunkCache.getWeight();
+	}
+
 	public void cleanup() {
 		for(Cache<MapFragment> cache : mapCache) {
 			cache.clear();
 		}
 		for(int i = 0; i < 5; i++) { // Saving one chunk may create and update a new lower resolution chunk.
-		
-			for(ReducedChunk[] array : reducedChunkCache.cache) {
-				array = Arrays.copyOf(array, array.length); // Make a copy to prevent issues if the cache gets resorted during cleanup.
-				for(ReducedChunk chunk : array) {
-					if (chunk != null)
-						chunk.clean();
-				}
-			}
+			reducedChunkCache.foreach(Chunk::clean);
 		}
 		for(Cache<MapFragment> cache : mapCache) {
 			cache.clear();
+			MemoryBudget.GLOBAL.unregister(cache);
 		}
 		ThreadPool.clear();
 		CaveBiomeMap.cleanup();
 		CaveMap.cleanup();
 		ClimateMap.cleanup();
 		reducedChunkCache.clear();
+		normalChunkCache.clear();
+		MemoryBudget.GLOBAL.unregister(reducedChunkCache);
+		MemoryBudget.GLOBAL.unregister(normalChunkCache);
 		ChunkIO.clean();
 	}
 
+	/**
+	 * Queues all changed reduced chunks for saving.
+	 * Saving a chunk updates the chunk with the next lower resolution, so the resolutions are saved from high to low.
+	 */
 	public void forceSave() {
-		for(int i = 0; i < 5; i++) { // Saving one chunk may create and update a new lower resolution chunk.
-			reducedChunkCache.foreach(Chunk::save);
+		for(int voxelSize = 2; voxelSize <= 1 << Constants.HIGHEST_LOD; voxelSize *= 2) {
+			int currentVoxelSize = voxelSize;
+			reducedChunkCache.foreach(chunk -> {
+				if(chunk.voxelSize == currentVoxelSize) chunk.save();
+			});
 		}
 	}
 }
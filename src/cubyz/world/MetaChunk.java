@@ -21,6 +21,8 @@ public class MetaChunk {
 	public final int wx, wy, wz;
 	public final NormalChunk[] chunks;
 	public final ServerWorld world;
+	/** The number of players that need this MetaChunk. Only used by the {@link MetaChunkMap}. */
+	int viewers = 0;
 	public MetaChunk(int wx, int wy, int wz, ServerWorld world) {
 		this.wx = wx;
 		this.wy = wy;
@@ -90,9 +92,8 @@ public class MetaChunk {
 							int dz = Neighbors.REL_Z[i];
 							if (dy == -1 || (neighbors[Neighbors.DIR_DOWN] != 0 && Blocks.blockClass(neighbors[Neighbors.DIR_DOWN]) != Blocks.BlockClass.FLUID)) {
 								ch.addBlockPossiblyOutside(block, wx+bx+dx, wy+by+dy, wz+bz+dz, true);
-								for(User user : Server.users) { // Send the liquid update to all players:
-									Protocols.BLOCK_UPDATE.send(user, wx+bx+dx, wy+by+dy, wz+bz+dz, block);
-								}
+								// Send the liquid update to all players:
+								Protocols.BLOCK_UPDATE.queue(wx+bx+dx, wy+by+dy, wz+bz+dz, block);
 							}
 						}
 					}
@@ -101,7 +102,13 @@ public class MetaChunk {
 		}
 	}
 	
-	public void update(int entityDistance, ArrayList<NormalChunk> chunksList) {
+	/**
+	 * Loads the chunks that are in range of a player and cleans the others.
+	 * @param chunksList all loaded chunks get added to it.
+	 * @return true if a chunk was loaded or cleaned.
+	 */
+	public boolean update(int entityDistance, ArrayList<NormalChunk> chunksList) {
+		boolean changed = false;
 		// Shift the player position, so chunks are loaded once the center comes into render distance:
 		int edSquare = entityDistance*entityDistance << Chunk.chunkShift2;
 		for(int px = 0; px < metaChunkSize; px++) {
@@ -112,9 +119,9 @@ public class MetaChunk {
 					int wz = pz*Chunk.chunkSize + this.wz;
 					boolean isNeeded = false;
 					for(User user : Server.users) {
-						long dx = Math.max(0, Math.abs(wx - (int)user.player.getPosition().x + Chunk.chunkSize/2) - Chunk.chunkSize/2);
-						long dy = Math.max(0, Math.abs(wy - (int)user.player.getPosition().y + Chunk.chunkSize/2) - Chunk.chunkSize/2);
-						long dz = Math.max(0, Math.abs(wz - (int)user.player.getPosition().z + Chunk.chunkSize/2) - Chunk.chunkSize/2);
+						long dx = Math.max(0, Math.abs(wx - (int)user.player.getX() + Chunk.chunkSize/2) - Chunk.chunkSize/2);
+						long dy = Math.max(0, Math.abs(wy - (int)user.player.getY() + Chunk.chunkSize/2) - Chunk.chunkSize/2);
+						long dz = Math.max(0, Math.abs(wz - (int)user.player.getZ() + Chunk.chunkSize/2) - Chunk.chunkSize/2);
 						long dist = dx*dx + dy*dy + dz*dz;
 						if(dist < edSquare) {
 							isNeeded = true;
@@ -127,6 +134,7 @@ public class MetaChunk {
 						if (chunk != null) {
 							chunk.clean();
 							chunks[index] = null;
+							changed = true;
 						}
 					} else if (chunk == null) {
 						try {
@@ -139,6 +147,7 @@ public class MetaChunk {
 							}
 							chunks[index] = chunk;
 							chunksList.add(chunk);
+							changed = true;
 						} catch (Exception e) {
 							Logger.error(e);
 						}
@@ -148,6 +157,7 @@ public class MetaChunk {
 				}
 			}
 		}
+		return changed;
 	}
 	
 	public NormalChunk getChunk(int wx, int wy, int wz) {
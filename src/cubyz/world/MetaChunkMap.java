@@ -0,0 +1,164 @@
+package cubyz.world;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import cubyz.utils.datastructures.ConcurrentLongMap;
+
+/**
+ * Keeps the MetaChunks around the players loaded.<br>
+ * The MetaChunks are stored by their packed coordinates and count the players that need them.
+ * When a player moves into another MetaChunk only the MetaChunks at the edges of its area are added or removed.<br>
+ * Lookups may happen on any thread, the players are only updated by the server thread.
+ */
+public class MetaChunkMap {
+	private static final int META_SHIFT = MetaChunk.metaChunkShift + Chunk.chunkShift;
+	private static final int COORDINATE_MASK = 0x1fffff; // 21 bits per coordinate.
+
+	private final ServerWorld world;
+	private final ConcurrentLongMap<MetaChunk> metaChunks = new ConcurrentLongMap<>();
+	private final HashMap<Object, Viewer> viewers = new HashMap<>();
+	private int tick = 0;
+	/** Reused to describe the new area of a moving player. */
+	private final Viewer newArea = new Viewer();
+
+	/** The area of MetaChunks a player needs. */
+	private static final class Viewer {
+		private int x, y, z, distance;
+		private int lastTick;
+	}
+
+	public MetaChunkMap(ServerWorld world) {
+		this.world = world;
+	}
+
+	/**
+	 * Packs the coordinates of the MetaChunk into a single key. Each coordinate keeps its lower 21 bits.
+	 */
+	public static long getKey(int metaX, int metaY, int metaZ) {
+		return (long)metaX << 42 ^ (long)(metaY & COORDINATE_MASK) << 21 ^ (metaZ & COORDINATE_MASK);
+	}
+
+	public MetaChunk get(int wx, int wy, int wz) {
+		return metaChunks.get(getKey(wx >> META_SHIFT, wy >> META_SHIFT, wz >> META_SHIFT));
+	}
+
+	public int size() {
+		return metaChunks.size();
+	}
+
+	/**
+	 * Iterates over a snapshot of the MetaChunks.
+	 */
+	public void forEach(Consumer<MetaChunk> consumer) {
+		metaChunks.forEachValue(consumer);
+	}
+
+	/**
+	 * Starts a new update. Every player that is still online needs to be updated afterwards, followed by {@link #removeStaleViewers()}.
+	 */
+	public void startUpdate() {
+		tick++;
+	}
+
+	/**
+	 * Loads the MetaChunks that came into range of the player and releases those that left it.
+	 * @param viewer an object that identifies the player.
+	 * @param metaRenderDistance in MetaChunks.
+	 */
+	public void updateViewer(Object viewer, double x, double y, double z, int metaRenderDistance) {
+		int x0 = (int)x >> META_SHIFT;
+		int y0 = (int)y >> META_SHIFT;
+		int z0 = (int)z >> META_SHIFT;
+		Viewer old = viewers.get(viewer);
+		if (old == null) {
+			old = new Viewer();
+			viewers.put(viewer, old);
+			addArea(x0, y0, z0, metaRenderDistance, null);
+		} else if (old.x != x0 || old.y != y0 || old.z != z0 || old.distance != metaRenderDistance) {
+			// Load the new MetaChunks first, so shared MetaChunks don't get cleaned in between:
+			addArea(x0, y0, z0, metaRenderDistance, old);
+			newArea.x = x0;
+			newArea.y = y0;
+			newArea.z = z0;
+			newArea.distance = metaRenderDistance;
+			removeArea(old, newArea);
+		}
+		old.x = x0;
+		old.y = y0;
+		old.z = z0;
+		old.distance = metaRenderDistance;
+		old.lastTick = tick;
+	}
+
+	/**
+	 * Releases the MetaChunks of all players that weren't updated since {@link #startUpdate()}.
+	 */
+	public void removeStaleViewers() {
+		Iterator<Viewer> iterator = viewers.values().iterator();
+		while (iterator.hasNext()) {
+			Viewer viewer = iterator.next();
+			if (viewer.lastTick != tick) {
+				removeArea(viewer, null);
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes all MetaChunks without cleaning them.
+	 */
+	public void clear() {
+		metaChunks.clear();
+		viewers.clear();
+	}
+
+	private static boolean isInArea(Viewer area, int metaX, int metaY, int metaZ) {
+		return area != null
+			&& metaX >= area.x - area.distance && metaX <= area.x + area.distance + 1
+			&& metaY >= area.y - area.distance && metaY <= area.y + area.distance + 1
+			&& metaZ >= area.z - area.distance && metaZ <= area.z + area.distance + 1;
+	}
+
+	/**
+	 * Adds a player to all MetaChunks in the area, that are not in the excluded area.
+	 */
+	private void addArea(int x0, int y0, int z0, int distance, Viewer excluded) {
+		for(int metaX = x0 - distance; metaX <= x0 + distance + 1; metaX++) {
+			for(int metaY = y0 - distance; metaY <= y0 + distance + 1; metaY++) {
+				for(int metaZ = z0 - distance; metaZ <= z0 + distance + 1; metaZ++) {
+					if (isInArea(excluded, metaX, metaY, metaZ)) continue;
+					long key = getKey(metaX, metaY, metaZ);
+					MetaChunk metaChunk = metaChunks.get(key);
+					if (metaChunk == null) {
+						metaChunk = new MetaChunk(metaX << META_SHIFT, metaY << META_SHIFT, metaZ << META_SHIFT, world);
+						metaChunks.put(key, metaChunk);
+					}
+					metaChunk.viewers++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a player from all MetaChunks in the area, that are not in the excluded area. MetaChunks that are no longer needed get cleaned.
+	 */
+	private void removeArea(Viewer area, Viewer excluded) {
+		for(int metaX = area.x - area.distance; metaX <= area.x + area.distance + 1; metaX++) {
+			for(int metaY = area.y - area.distance; metaY <= area.y + area.distance + 1; metaY++) {
+				for(int metaZ = area.z - area.distance; metaZ <= area.z + area.distance + 1; metaZ++) {
+					if (isInArea(excluded, metaX, metaY, metaZ)) continue;
+					long key = getKey(metaX, metaY, metaZ);
+					MetaChunk metaChunk = metaChunks.get(key);
+					if (metaChunk == null) continue;
+					metaChunk.viewers--;
+					if (metaChunk.viewers == 0) {
+						metaChunks.remove(key);
+						metaChunk.clean();
+					}
+				}
+			}
+		}
+	}
+}
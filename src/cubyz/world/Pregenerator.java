@@ -0,0 +1,158 @@
+package cubyz.world;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cubyz.Constants;
+import cubyz.api.Side;
+import cubyz.modding.ModLoader;
+import cubyz.multiplayer.server.Server;
+import cubyz.utils.Logger;
+import cubyz.utils.math.CubyzMath;
+import cubyz.world.save.ChunkIO;
+import pixelguys.json.JsonObject;
+import pixelguys.json.JsonParser;
+
+/**
+ * Generates and saves all chunks around a position ahead of time, so they don't need to be generated while playing.<br>
+ * The progress is stored in the world folder. An interrupted run continues where it stopped, when it is started again with the same arguments.<br>
+ * Usage: java cubyz.world.Pregenerator [world] [x] [y] [z] [radius] [lod levels, for example 0,1,2 (default: 0)]
+ */
+public final class Pregenerator {
+	private Pregenerator() {} // No instances allowed.
+
+	/** The progress is stored after every batch is written to disk. */
+	private static final int BATCH_SIZE = 1024;
+	private static final long REPORT_INTERVAL = 5000; // ms
+
+	public static void main(String[] args) throws InterruptedException {
+		if(args.length < 5) {
+			System.out.println("Usage: java cubyz.world.Pregenerator [world] [x] [y] [z] [radius] [lod levels, for example 0,1,2 (default: 0)]");
+			return;
+		}
+		String name = args[0];
+		int x = Integer.parseInt(args[1]);
+		int y = Integer.parseInt(args[2]);
+		int z = Integer.parseInt(args[3]);
+		int radius = Integer.parseInt(args[4]);
+		String lodArgument = args.length > 5 ? args[5] : "0";
+		ArrayList<Integer> lods = new ArrayList<>();
+		for(String lod : lodArgument.split(",")) {
+			int lodLevel = Integer.parseInt(lod.trim());
+			if(lodLevel < 0 || lodLevel > Constants.HIGHEST_LOD) {
+				System.out.println("LOD levels need to be between 0 and "+Constants.HIGHEST_LOD+".");
+				return;
+			}
+			lods.add(lodLevel);
+		}
+		if(!new File("saves/"+name).isDirectory()) {
+			Logger.error("The world \""+name+"\" doesn't exist. Create it in the game first.");
+			return;
+		}
+
+		Constants.setGameSide(Side.SERVER);
+		ModLoader.load();
+		ServerWorld world = new ServerWorld(name, null);
+		Server.world = world;
+
+		List<ChunkData> chunks = collectChunks(x, y, z, radius, lods);
+
+		File progressFile = new File("saves/"+name+"/pregeneration.json");
+		String parameters = x+" "+y+" "+z+" "+radius+" "+lodArgument;
+		JsonObject progress = JsonParser.parseObjectFromFile(progressFile.getPath());
+		int start = 0;
+		if(parameters.equals(progress.getString("parameters", ""))) {
+			start = Math.min(progress.getInt("completed", 0), chunks.size());
+			Logger.info("Continuing at chunk "+start+" of "+chunks.size()+".");
+		}
+		Logger.info("Generating "+(chunks.size() - start)+" chunks on "+Runtime.getRuntime().availableProcessors()+" threads.");
+
+		long startTime = System.currentTimeMillis();
+		long lastReport = startTime;
+		AtomicInteger generated = new AtomicInteger();
+		for(int batchStart = start; batchStart < chunks.size(); batchStart += BATCH_SIZE) {
+			int batchEnd = Math.min(batchStart + BATCH_SIZE, chunks.size());
+			AtomicInteger nextIndex = new AtomicInteger(batchStart);
+			Thread[] threads = new Thread[Runtime.getRuntime().availableProcessors()];
+			for(int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread(() -> {
+					int index;
+					while((index = nextIndex.getAndIncrement()) < batchEnd) {
+						generateChunk(world, chunks.get(index));
+						generated.incrementAndGet();
+					}
+				});
+				threads[i].setName("Pregeneration-Thread-"+(i+1));
+				threads[i].start();
+			}
+			for(Thread thread : threads) {
+				while(thread.isAlive()) {
+					thread.join(REPORT_INTERVAL);
+					if(System.currentTimeMillis() - lastReport >= REPORT_INTERVAL) {
+						lastReport = System.currentTimeMillis();
+						report(generated.get(), chunks.size() - start, lastReport - startTime);
+					}
+				}
+			}
+			ChunkIO.flush();
+			JsonObject newProgress = new JsonObject();
+			newProgress.put("parameters", parameters);
+			newProgress.put("completed", batchEnd);
+			JsonParser.storeToFile(newProgress, progressFile.getPath());
+		}
+		report(generated.get(), chunks.size() - start, System.currentTimeMillis() - startTime);
+		world.cleanup();
+		Server.world = null;
+		Logger.info("Pregeneration finished.");
+	}
+
+	/**
+	 * @return all chunks of the given lod levels that are inside the sphere, sorted by lod level and distance to the center.
+	 */
+	private static List<ChunkData> collectChunks(int x, int y, int z, int radius, List<Integer> lods) {
+		ArrayList<ChunkData> chunks = new ArrayList<>();
+		for(int lod : lods) {
+			int voxelSize = 1 << lod;
+			int size = voxelSize*Chunk.chunkSize;
+			ArrayList<ChunkData> lodChunks = new ArrayList<>();
+			for(int wx = Math.floorDiv(x - radius, size)*size; wx <= x + radius; wx += size) {
+				for(int wy = Math.floorDiv(y - radius, size)*size; wy <= y + radius; wy += size) {
+					for(int wz = Math.floorDiv(z - radius, size)*size; wz <= z + radius; wz += size) {
+						ChunkData ch = new ChunkData(wx, wy, wz, voxelSize);
+						if(ch.getMinDistanceSquared(x, y, z) <= (double)radius*radius) {
+							lodChunks.add(ch);
+						}
+					}
+				}
+			}
+			lodChunks.sort(Comparator.comparingDouble(ch -> ch.getMinDistanceSquared(x, y, z)));
+			chunks.addAll(lodChunks);
+		}
+		return chunks;
+	}
+
+	private static void generateChunk(ServerWorld world, ChunkData ch) {
+		try {
+			Chunk chunk;
+			if(ch.voxelSize == 1) {
+				chunk = new NormalChunk(world, ch.wx, ch.wy, ch.wz);
+			} else {
+				chunk = new ReducedChunk(world, ch.wx, ch.wy, ch.wz, CubyzMath.binaryLog(ch.voxelSize));
+			}
+			chunk.generate(world.getSeed(), world.chunkManager.terrainGenerationProfile);
+			ChunkIO.storeChunkToFile(world, chunk);
+		} catch(Throwable e) {
+			Logger.error("Could not generate chunk "+ch+".");
+			Logger.error(e);
+		}
+	}
+
+	private static void report(int generated, int total, long time) {
+		double chunksPerSecond = generated*1000.0/Math.max(1, time);
+		long eta = chunksPerSecond > 0 ? (long)((total - generated)/chunksPerSecond) : 0;
+		Logger.info(String.format("%d/%d chunks (%.1f%%), %.1f chunks/s, ETA %d:%02d:%02d", generated, total, 100.0*generated/Math.max(1, total), chunksPerSecond, eta/3600, eta/60%60, eta%60));
+	}
+}
@@ -35,8 +35,8 @@ public class ReducedChunk extends Chunk {
 		y >>= voxelSizeShift;
 		z >>= voxelSizeShift;
 		int index = getIndex(x, y, z);
-		if (blocks[index] == 0 || Blocks.degradable(blocks[index])) {
-			blocks[index] = newBlock;
+		if (blocks.get(index) == 0 || Blocks.degradable(blocks.get(index))) {
+			blocks.set(index, newBlock);
 		}
 	}
 	
@@ -46,7 +46,7 @@ public class ReducedChunk extends Chunk {
 		y >>= voxelSizeShift;
 		z >>= voxelSizeShift;
 		int index = getIndex(x, y, z);
-		blocks[index] = newBlock;
+		blocks.set(index, newBlock);
 	}
 	
 	@Override
@@ -55,7 +55,7 @@ public class ReducedChunk extends Chunk {
 		y >>= voxelSizeShift;
 		z >>= voxelSizeShift;
 		int index = getIndex(x, y, z);
-		blocks[index] = newBlock;
+		blocks.set(index, newBlock);
 	}
 
 	public void updateFromLowerResolution(Chunk chunk) {
@@ -75,7 +75,7 @@ public class ReducedChunk extends Chunk {
 							for(int dz = 0; dz <= 1; dz++) {
 								int index = getIndex(x*2 + dx, y*2 + dy, z*2 + dz);
 								int i = dx*4 + dz*2 + dy;
-								blocks[i] = chunk.blocks[index];
+								blocks[i] = chunk.blocks.get(index);
 								if(blocks[i] == 0) continue; // I don't care about air blocks.
 								
 								int count = 0;
@@ -85,7 +85,7 @@ public class ReducedChunk extends Chunk {
 									int nz = z*2 + dz + Neighbors.REL_Z[n];
 									if((nx & chunkMask) == nx && (ny & chunkMask) == ny && (nz & chunkMask) == nz) { // If it's inside the chunk.
 										int neighborIndex = getIndex(nx, ny, nz);
-										if(Blocks.transparent(chunk.blocks[neighborIndex])) {
+										if(Blocks.transparent(chunk.blocks.get(neighborIndex))) {
 											count += 5;
 										}
 									} else {
@@ -108,7 +108,7 @@ public class ReducedChunk extends Chunk {
 					}
 					// Update the block:
 					int thisIndex = getIndex(x + xOffset, y + yOffset, z + zOffset);
-					this.blocks[thisIndex] = block;
+					this.blocks.set(thisIndex, block);
 				}
 			}
 		}
@@ -139,7 +139,7 @@ public class ReducedChunk extends Chunk {
 		y >>= voxelSizeShift;
 		z >>= voxelSizeShift;
 		int index = getIndex(x, y, z);
-		return blocks[index];
+		return blocks.get(index);
 	}
 }
 
@@ -55,7 +55,7 @@ public class ReducedChunkVisibilityData extends ChunkData {
 		x &= Chunk.chunkMask;
 		y &= Chunk.chunkMask;
 		z &= Chunk.chunkMask;
-		return chunk.blocks[Chunk.getIndex(x, y, z)];
+		return chunk.blocks.get(Chunk.getIndex(x, y, z));
 	}
 
 	public ReducedChunkVisibilityData(int wx, int wy, int wz, int voxelSize, byte[] x, byte[] y, byte[] z, byte[] neighbors, int[] visibleBlocks) {
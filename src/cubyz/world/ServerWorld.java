@@ -9,13 +9,13 @@ import cubyz.multiplayer.server.User;
 import cubyz.utils.FastRandom;
 import cubyz.utils.Logger;
 import cubyz.utils.Utils;
-import cubyz.utils.datastructures.HashMapKey3D;
 import cubyz.world.blocks.BlockEntity;
 import cubyz.world.blocks.Blocks;
 import cubyz.world.entity.*;
 import cubyz.world.items.BlockDrop;
 import cubyz.world.items.ItemStack;
 import cubyz.world.save.BlockPalette;
+import cubyz.world.save.ChunkCodec;
 import cubyz.world.save.ChunkIO;
 import cubyz.world.save.WorldIO;
 import cubyz.world.terrain.CaveBiomeMapFragment;
@@ -33,17 +33,21 @@ import java.io.FileOutputStream;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.function.Consumer;
 
 public class ServerWorld extends World {
 	public ChunkManager chunkManager;
 	private long lastUnimportantDataSent = System.currentTimeMillis();
-	protected HashMap<HashMapKey3D, MetaChunk> metaChunks = new HashMap<HashMapKey3D, MetaChunk>();
+	protected final MetaChunkMap metaChunks = new MetaChunkMap(this);
 	protected NormalChunk[] chunks = new NormalChunk[0];
+	/** Reused every tick to collect the loaded chunks. */
+	private final ArrayList<NormalChunk> chunkList = new ArrayList<>();
+	private boolean chunksChanged = false;
+	private final Consumer<MetaChunk> updateMetaChunk = metaChunk -> chunksChanged |= metaChunk.update(Settings.entityDistance, chunkList);
 
 	public WorldIO wio;
 
-	protected ArrayList<Entity> entities = new ArrayList<>();
+	public final EntityManager entityManager = new EntityManager(16);
 
 	public ServerWorld(String name, JsonObject generatorSettings) {
 		super(name);
@@ -66,6 +70,7 @@ public class ServerWorld extends World {
 		} else {
 			seed = new FastRandom(System.nanoTime()).nextInt();
 			registries = new CurrentWorldRegistries(this, "saves/" + name + "/assets/", blockPalette);
+			ChunkIO.codec = ChunkCodec.DEFLATE;
 			wio.saveWorldData();
 		}
 		JsonParser.storeToFile(blockPalette.save(), "saves/" + name + "/palette.json");
@@ -131,9 +136,7 @@ public class ServerWorld extends World {
 	}
 
 	public void forceSave() {
-		for(MetaChunk chunk : metaChunks.values().toArray(new MetaChunk[0])) {
-			if (chunk != null) chunk.save();
-		}
+		metaChunks.forEach(MetaChunk::save);
 		wio.saveWorldData();
 		savePlayers();
 		chunkManager.forceSave();
@@ -142,18 +145,15 @@ public class ServerWorld extends World {
 	}
 
 	public void addEntity(Entity ent) {
-		entities.add(ent);
+		entityManager.add(ent);
 	}
 
 	public void removeEntity(Entity ent) {
-		entities.remove(ent);
+		entityManager.remove(ent);
 	}
 
 	public void setEntities(Entity[] arr) {
-		entities = new ArrayList<>(arr.length);
-		for (Entity e : arr) {
-			entities.add(e);
-		}
+		entityManager.setEntities(arr);
 	}
 
 	private boolean isValidSpawnLocation(int x, int z) {
@@ -174,10 +174,8 @@ public class ServerWorld extends World {
 			int old = ch.getBlock(x & Chunk.chunkMask, y & Chunk.chunkMask, z & Chunk.chunkMask);
 			if(old == newBlock) return;
 			ch.updateBlock(x & Chunk.chunkMask, y & Chunk.chunkMask, z & Chunk.chunkMask, newBlock);
-			// Send the block update to all players:
-			for(User user : Server.users) {
-				Protocols.BLOCK_UPDATE.send(user, x, y, z, newBlock);
-			}
+			// Send the block update to all players at the end of the tick:
+			Protocols.BLOCK_UPDATE.queue(x, y, z, newBlock);
 			if((old & Blocks.TYPE_MASK) == (newBlock & Blocks.TYPE_MASK)) return;
 			for(BlockDrop drop : Blocks.blockDrops(old)) {
 				int amount = (int)(drop.amount);
@@ -220,9 +218,9 @@ public class ServerWorld extends World {
 			}
 		}
 		// Entities
-		for (int i = 0; i < entities.size(); i++) {
-			Entity en = entities.get(i);
-			en.update(deltaTime);
+		entityManager.update(deltaTime);
+		for (int i = 0; i < entityManager.size; i++) {
+			Entity en = entityManager.entities[i];
 			// Check item entities:
 			if (en.getInventory() != null) {
 				itemEntityManager.checkEntity(en);
@@ -231,20 +229,17 @@ public class ServerWorld extends World {
 		// Item Entities
 		itemEntityManager.update(deltaTime);
 		// Block Entities
-		for(MetaChunk chunk : metaChunks.values()) {
-			chunk.updateBlockEntities();
-		}
+		metaChunks.forEach(MetaChunk::updateBlockEntities);
 
 		// Liquids
 		if (gameTime % 3 == 0) {
 			//Profiler.startProfiling();
-			for(MetaChunk chunk : metaChunks.values()) {
-				chunk.liquidUpdate();
-			}
+			metaChunks.forEach(MetaChunk::liquidUpdate);
 			//Profiler.printProfileTime("liquid-update");
 		}
 
 		seek();
+		Protocols.BLOCK_UPDATE.flush();
 	}
 
 	@Override
@@ -260,45 +255,23 @@ public class ServerWorld extends World {
 
 	public void seek() {
 		// Care about the metaChunks:
-		HashMap<HashMapKey3D, MetaChunk> oldMetaChunks = new HashMap<>(metaChunks);
-		HashMap<HashMapKey3D, MetaChunk> newMetaChunks = new HashMap<>();
+		int metaRenderDistance = (int)Math.ceil(Settings.entityDistance/(float)(MetaChunk.metaChunkSize*Chunk.chunkSize));
+		metaChunks.startUpdate();
 		for(User user : Server.users) {
-			ArrayList<NormalChunk> chunkList = new ArrayList<>();
-			int metaRenderDistance = (int)Math.ceil(Settings.entityDistance/(float)(MetaChunk.metaChunkSize*Chunk.chunkSize));
-			int x0 = (int)user.player.getPosition().x >> (MetaChunk.metaChunkShift + Chunk.chunkShift);
-			int y0 = (int)user.player.getPosition().y >> (MetaChunk.metaChunkShift + Chunk.chunkShift);
-			int z0 = (int)user.player.getPosition().z >> (MetaChunk.metaChunkShift + Chunk.chunkShift);
-			for(int metaX = x0 - metaRenderDistance; metaX <= x0 + metaRenderDistance + 1; metaX++) {
-				for(int metaY = y0 - metaRenderDistance; metaY <= y0 + metaRenderDistance + 1; metaY++) {
-					for(int metaZ = z0 - metaRenderDistance; metaZ <= z0 + metaRenderDistance + 1; metaZ++) {
-						HashMapKey3D key = new HashMapKey3D(metaX, metaY, metaZ);
-						if(newMetaChunks.containsKey(key)) continue; // It was already updated from another players perspective.
-						// Check if it already exists:
-						MetaChunk metaChunk = oldMetaChunks.get(key);
-						oldMetaChunks.remove(key);
-						if (metaChunk == null) {
-							metaChunk = new MetaChunk(metaX *(MetaChunk.metaChunkSize*Chunk.chunkSize), metaY*(MetaChunk.metaChunkSize*Chunk.chunkSize), metaZ *(MetaChunk.metaChunkSize*Chunk.chunkSize), this);
-						}
-						newMetaChunks.put(key, metaChunk);
-						metaChunk.update(Settings.entityDistance, chunkList);
-					}
-				}
-			}
-			oldMetaChunks.forEach((key, chunk) -> {
-				chunk.clean();
-			});
+			metaChunks.updateViewer(user, user.player.getX(), user.player.getY(), user.player.getZ(), metaRenderDistance);
+		}
+		metaChunks.removeStaleViewers();
+		// Load and unload the chunks inside the metaChunks:
+		chunkList.clear();
+		chunksChanged = false;
+		metaChunks.forEach(updateMetaChunk);
+		if(chunksChanged || chunkList.size() != chunks.length) {
 			chunks = chunkList.toArray(new NormalChunk[0]);
-			metaChunks = newMetaChunks;
 		}
 	}
 
 	public MetaChunk getMetaChunk(int wx, int wy, int wz) {
-		// Test if the metachunk exists:
-		int metaX = wx >> (MetaChunk.metaChunkShift + Chunk.chunkShift);
-		int metaY = wy >> (MetaChunk.metaChunkShift + Chunk.chunkShift);
-		int metaZ = wz >> (MetaChunk.metaChunkShift + Chunk.chunkShift);
-		HashMapKey3D key = new HashMapKey3D(metaX, metaY, metaZ);
-		return metaChunks.get(key);
+		return metaChunks.get(wx, wy, wz);
 	}
 	@Override
 	public NormalChunk getChunk(int wx, int wy, int wz) {
@@ -328,7 +301,7 @@ public class ServerWorld extends World {
 	}
 
 	public Entity[] getEntities() {
-		return entities.toArray(new Entity[0]);
+		return entityManager.getEntities();
 	}
 
 	public int getHeight(int wx, int wz) {
@@ -338,9 +311,7 @@ public class ServerWorld extends World {
 	public void cleanup() {
 		// Be sure to dereference and finalize the maximum of things
 		try {
-			for(MetaChunk chunk : metaChunks.values()) {
-				if (chunk != null) chunk.clean();
-			}
+			metaChunks.forEach(MetaChunk::clean);
 			chunkManager.forceSave();
 			ChunkIO.save();
 
@@ -351,7 +322,7 @@ public class ServerWorld extends World {
 			wio.saveWorldData();
 			savePlayers();
 			JsonParser.storeToFile(itemEntityManager.store(), "saves/" + name + "/items.json");
-			metaChunks = null;
+			metaChunks.clear();
 		} catch (Exception e) {
 			Logger.error(e);
 		}
@@ -0,0 +1,244 @@
+package cubyz.world.entity;
+
+import org.joml.Vector3d;
+import org.joml.Vector4d;
+
+import cubyz.world.Chunk;
+import cubyz.world.NormalChunk;
+import cubyz.world.World;
+import cubyz.world.blocks.Blocks;
+
+/**
+ * Collision of axis aligned boxes with the blocks of a world. Used by all entities and item entities.<br>
+ * A query is started with {@link #begin} and describes a box around a position stored in an array:
+ * x and z reach `width` in both directions, y reaches from `position + bottom` to `position + bottom + height`.
+ * The chunk of the last block is cached during the query, so most block lookups don't need to go through the world.
+ * Nothing is allocated, so every thread that does collision detection needs its own instance.
+ */
+
+public final class CollisionEngine {
+	public static final int BLOCKED_X = 1, BLOCKED_Y = 2, BLOCKED_Z = 4;
+
+	// The current query:
+	private World world;
+	private NormalChunk chunk;
+	private Entity entity;
+	private double[] posxyz;
+	private int index3;
+	private double width, bottom, height, stepHeight;
+
+	/** The movement along the current axis. The 4th element is the height of the step needed for it. */
+	private final Vector4d change = new Vector4d();
+	/** Passed to the rotation modes, which need the position of the box. */
+	private final Vector3d position = new Vector3d();
+	/** The axes in which the last {@link #move} was stopped. */
+	public int blocked;
+
+	/**
+	 * Starts a new query. The cached chunk is dropped, because it might have been unloaded since the last query.
+	 * @param entity is passed to the rotation modes of blocks with a special hitbox. If null, these blocks are only checked for overlap.
+	 * @param posxyz position of the box. Gets changed by {@link #move}.
+	 * @param index3 index of the x coordinate in posxyz.
+	 * @param stepHeight height the box can move upwards without jumping.
+	 */
+	public void begin(World world, Entity entity, double[] posxyz, int index3, double width, double bottom, double height, double stepHeight) {
+		this.world = world;
+		this.chunk = null;
+		this.entity = entity;
+		this.posxyz = posxyz;
+		this.index3 = index3;
+		this.width = width;
+		this.bottom = bottom;
+		this.height = height;
+		this.stepHeight = stepHeight;
+	}
+
+	/**
+	 * @return the position of the bottom of the box. The vector is reused by the next call.
+	 */
+	public Vector3d getPosition() {
+		return position.set(posxyz[index3], posxyz[index3 + 1] + bottom, posxyz[index3 + 2]);
+	}
+
+	/**
+	 * @return the chunk at the given world coordinates or null if it isn't loaded.
+	 */
+	public NormalChunk getChunk(int x, int y, int z) {
+		NormalChunk chunk = this.chunk;
+		if (chunk == null || chunk.wx != (x & ~Chunk.chunkMask) || chunk.wy != (y & ~Chunk.chunkMask) || chunk.wz != (z & ~Chunk.chunkMask)) {
+			chunk = world.getChunk(x, y, z);
+			if (chunk != null) this.chunk = chunk;
+		}
+		return chunk;
+	}
+
+	/**
+	 * @return the block at the given world coordinates or 0 if it isn't loaded.
+	 */
+	public int getBlock(int x, int y, int z) {
+		NormalChunk chunk = getChunk(x, y, z);
+		if (chunk == null || !chunk.isGenerated()) return 0;
+		return chunk.getBlock(x & Chunk.chunkMask, y & Chunk.chunkMask, z & Chunk.chunkMask);
+	}
+
+	/**
+	 * Checks if the box would collide with the block when moved by `displacement`.
+	 * Blocks that can be stepped on don't collide and store the step height in `displacement.w`.
+	 * @return true if the block is in the way.
+	 */
+	public boolean checkBlock(int x, int y, int z, Vector4d displacement) {
+		return checkBlock(x, y, z, displacement, stepHeight);
+	}
+
+	private boolean checkBlock(int x, int y, int z, Vector4d displacement, double stepHeight) {
+		int block = getBlock(x, y, z);
+		if (block == 0 || !Blocks.solid(block)) return false;
+		if (Blocks.mode(block).changesHitbox()) {
+			if (entity != null) {
+				return Blocks.mode(block).checkEntityAndDoCollision(entity, displacement, x, y, z, block);
+			}
+			position.set(posxyz[index3] + displacement.x, posxyz[index3 + 1] + bottom + displacement.y, posxyz[index3 + 2] + displacement.z);
+			return Blocks.mode(block).checkEntity(position, width, height, x, y, z, block);
+		}
+		// Check for stepping:
+		double minY = posxyz[index3 + 1] + bottom;
+		if (y + 1 - minY > 0 && y + 1 - minY <= stepHeight) {
+			displacement.w = Math.max(displacement.w, y + 1 - minY);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the box overlaps the block without moving. Stepping isn't considered.
+	 */
+	public boolean checkBlock(int x, int y, int z) {
+		change.set(0, 0, 0, 0);
+		return checkBlock(x, y, z, change, 0);
+	}
+
+	/**
+	 * @return true if the box currently overlaps a solid block.
+	 */
+	public boolean isInsideBlock() {
+		double x = posxyz[index3], y = posxyz[index3 + 1] + bottom, z = posxyz[index3 + 2];
+		int minX = (int)Math.floor(x - width), maxX = (int)Math.ceil(x + width) - 1;
+		int minY = (int)Math.floor(y), maxY = (int)Math.ceil(y + height) - 1;
+		int minZ = (int)Math.floor(z - width), maxZ = (int)Math.ceil(z + width) - 1;
+		for(int bx = minX; bx <= maxX; bx++) {
+			for(int by = minY; by <= maxY; by++) {
+				for(int bz = minZ; bz <= maxZ; bz++) {
+					if (checkBlock(bx, by, bz)) return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Moves the box one axis after another and stops it at the first block in its way.
+	 * Every block layer between the start and the end is checked, so fast boxes can't skip through thin walls.
+	 * The axes in which the box was stopped are stored in {@link #blocked}.
+	 * @return The height of the step taken.
+	 */
+	public double move(double deltaX, double deltaY, double deltaZ) {
+		blocked = 0;
+		double step = moveAxis(0, deltaX);
+		moveAxis(1, deltaY); // Don't step in y-direction.
+		return step + moveAxis(2, deltaZ);
+	}
+
+	/**
+	 * Moves the box along one axis. Blocks that can be stepped on are climbed right away, so the following axes start from the new height.
+	 * @return The height of the step taken.
+	 */
+	private double moveAxis(int axis, double delta) {
+		change.set(0, 0, 0, 0);
+		if (delta == 0) return 0;
+		change.setComponent(axis, delta);
+		double x = posxyz[index3], y = posxyz[index3 + 1] + bottom, z = posxyz[index3 + 2];
+		// The block layers covered by the box in every direction:
+		int minX = (int)Math.floor(x - width), maxX = (int)Math.ceil(x + width) - 1;
+		int minY = (int)Math.floor(y), maxY = (int)Math.ceil(y + height) - 1;
+		int minZ = (int)Math.floor(z - width), maxZ = (int)Math.ceil(z + width) - 1;
+		// Distance from the position to the lower and upper side of the box in this direction:
+		double lowerOffset = axis == 1 ? -bottom : width;
+		double upperOffset = axis == 1 ? bottom + height : width;
+		double pos = posxyz[index3 + axis];
+		int front, last;
+		if (delta < 0) {
+			front = axis == 0 ? minX : axis == 1 ? minY : minZ;
+			last = (int)Math.floor(pos - lowerOffset + delta);
+		} else {
+			front = axis == 0 ? maxX : axis == 1 ? maxY : maxZ;
+			last = (int)Math.floor(pos + upperOffset + delta);
+		}
+		int minA = axis == 0 ? minY : minX, maxA = axis == 0 ? maxY : maxX;
+		int minB = axis == 2 ? minY : minZ, maxB = axis == 2 ? maxY : maxZ;
+		// First check for partial blocks:
+		checkLayer(axis, front, minA, maxA, minB, maxB, false);
+		// Only the layers that are actually entered may require a step:
+		double step = 0;
+		if (change.get(axis) == delta) {
+			step = change.w;
+			int direction = delta < 0 ? -1 : 1;
+			for(int layer = front + direction; layer*direction <= last*direction; layer += direction) {
+				if (checkLayer(axis, layer, minA, maxA, minB, maxB, true)) {
+					change.setComponent(axis, 0);
+					posxyz[index3 + axis] = delta < 0 ? layer + 1 + lowerOffset : layer - upperOffset;
+					break;
+				}
+				step = change.w;
+			}
+		}
+		posxyz[index3 + axis] += change.get(axis);
+		if (change.get(axis) != delta) {
+			blocked |= 1 << axis;
+		}
+		if (axis == 1 || step == 0) return 0;
+		if (isBlockedAbove(step)) {
+			// The step doesn't fit below the ceiling, so it acts like a wall:
+			posxyz[index3 + axis] = pos;
+			blocked |= 1 << axis;
+			return 0;
+		}
+		posxyz[index3 + 1] += step;
+		return step;
+	}
+
+	/**
+	 * @return true if the box would hit a block when moved upwards by the given distance.
+	 */
+	private boolean isBlockedAbove(double distance) {
+		double x = posxyz[index3], top = posxyz[index3 + 1] + bottom + height, z = posxyz[index3 + 2];
+		int minX = (int)Math.floor(x - width), maxX = (int)Math.ceil(x + width) - 1;
+		int minZ = (int)Math.floor(z - width), maxZ = (int)Math.ceil(z + width) - 1;
+		change.set(0, distance, 0, 0);
+		for(int layer = (int)Math.ceil(top); layer <= (int)Math.floor(top + distance); layer++) {
+			if (checkLayer(1, layer, minX, maxX, minZ, maxZ, true)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks all blocks of one layer orthogonal to the axis, that are covered by the box.
+	 * A and B are the other two axes in the order x, y, z.
+	 * @param stopAtCollision if false all blocks are checked, so the rotation modes can adjust the displacement.
+	 */
+	private boolean checkLayer(int axis, int layer, int minA, int maxA, int minB, int maxB, boolean stopAtCollision) {
+		boolean collision = false;
+		for(int a = minA; a <= maxA; a++) {
+			for(int b = minB; b <= maxB; b++) {
+				if (axis == 0) {
+					collision |= checkBlock(layer, a, b, change);
+				} else if (axis == 1) {
+					collision |= checkBlock(a, layer, b, change);
+				} else {
+					collision |= checkBlock(a, b, layer, change);
+				}
+				if (collision && stopAtCollision) return true;
+			}
+		}
+		return collision;
+	}
+}
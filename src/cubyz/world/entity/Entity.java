@@ -20,10 +20,10 @@ public class Entity {
 
 	protected World world;
 
-	protected Vector3d position = new Vector3d();
+	/** The store that holds the position and velocity of this entity. */
+	EntityManager manager;
+	int index;
 	protected Vector3f rotation = new Vector3f();
-	public double vx, vy, vz;
-	public double targetVX, targetVZ; // The velocity the AI wants the entity to have.
 
 	protected double scale = 1f;
 	public final double stepHeight;
@@ -60,6 +60,7 @@ public class Entity {
 		this.maxHunger = hunger = maxHunger;
 		this.stepHeight = stepHeight;
 		entityAI = ai;
+		new EntityManager(1).add(this);
 
 		id = currentID++;
 	}
@@ -68,175 +69,32 @@ public class Entity {
 		return scale;
 	}
 	
+	/**
+	 * Starts a collision query for the hitbox of this entity.
+	 */
+	protected CollisionEngine beginCollision() {
+		CollisionEngine collision = manager.collision;
+		collision.begin(getWorld(), this, manager.posxyz, 3*index, width, 0, height, stepHeight);
+		return collision;
+	}
+
 	/**
 	 * Checks collision against all blocks within the hitbox and updates positions.
 	 * @return The height of the step taken. Needed for hunger calculations.
 	 */
 	protected double collisionDetection(float deltaTime) {
-		// Simulate movement in all directions and prevent movement in a direction that would get the player into a block:
-		int minX = (int)Math.floor(position.x - width);
-		int maxX = (int)Math.ceil(position.x + width) - 1;
-		int minY = (int)Math.floor(position.y);
-		int maxY = (int)Math.ceil(position.y + height) - 1;
-		int minZ = (int)Math.floor(position.z - width);
-		int maxZ = (int)Math.ceil(position.z + width) - 1;
-		double deltaX = vx*deltaTime;
-		double deltaY = vy*deltaTime;
-		double deltaZ = vz*deltaTime;
-		Vector4d change = new Vector4d(deltaX, 0, 0, 0);
-		double step = 0.0f;
-		if (deltaX < 0) {
-			int minX2 = (int)Math.floor(position.x - width + deltaX);
-			// First check for partial blocks:
-			for(int y = minY; y <= maxY; y++) {
-				for(int z = minZ; z <= maxZ; z++) {
-					checkBlock(minX, y, z, change);
-				}
-			}
-			if (minX2 != minX && deltaX == change.x) {
-				outer:
-				for(int y = minY; y <= maxY; y++) {
-					for(int z = minZ; z <= maxZ; z++) {
-						if (checkBlock(minX2, y, z, change)) {
-							change.x = 0;
-							position.x = minX2 + 1 + width;
-							break outer;
-						}
-					}
-				}
-			}
-		} else if (deltaX > 0) {
-			int maxX2 = (int)Math.floor(position.x + width + deltaX);
-			// First check for partial blocks:
-			for(int y = minY; y <= maxY; y++) {
-				for(int z = minZ; z <= maxZ; z++) {
-					checkBlock(maxX, y, z, change);
-				}
-			}
-			if (maxX2 != maxX && deltaX == change.x) {
-				outer:
-				for(int y = minY; y <= maxY; y++) {
-					for(int z = minZ; z <= maxZ; z++) {
-						if (checkBlock(maxX2, y, z, change)) {
-							change.x = 0;
-							position.x = maxX2 - width;
-							break outer;
-						}
-					}
-				}
-			}
+		CollisionEngine collision = beginCollision();
+		double step = collision.move(getVX()*deltaTime, getVY()*deltaTime, getVZ()*deltaTime);
+		if ((collision.blocked & CollisionEngine.BLOCKED_X) != 0) {
+			setVX(0);
 		}
-		position.x += change.x;
-		if (deltaX != change.x) {
-			vx = 0;
-			change.w = 0; // Don't step if the player walks into a wall.
+		if ((collision.blocked & CollisionEngine.BLOCKED_Z) != 0) {
+			setVZ(0);
 		}
-		step = Math.max(step, change.w);
-		change.x = 0;
-		change.y = deltaY;
-		minX = (int)Math.floor(position.x - width);
-		maxX = (int)Math.ceil(position.x + width) - 1;
-		if (deltaY < 0) {
-			int minY2 = (int)Math.floor(position.y + deltaY);
-			// First check for partial blocks:
-			for(int x = minX; x <= maxX; x++) {
-				for(int z = minZ; z <= maxZ; z++) {
-					checkBlock(x, minY, z, change);
-				}
-			}
-			if (minY2 != minY && deltaY == change.y) {
-				outer:
-				for(int x = minX; x <= maxX; x++) {
-					for(int z = minZ; z <= maxZ; z++) {
-						if (checkBlock(x, minY2, z, change)) {
-							change.y = 0;
-							position.y = minY2 + 1;
-							break outer;
-						}
-					}
-				}
-			}
-		} else if (deltaY > 0) {
-			int maxY2 = (int)Math.floor(position.y + height + deltaY);
-			// First check for partial blocks:
-			for(int x = minX; x <= maxX; x++) {
-				for(int z = minZ; z <= maxZ; z++) {
-					checkBlock(x, maxY, z, change);
-				}
-			}
-			if (maxY2 != maxY && deltaY == change.y) {
-				outer:
-				for(int x = minX; x <= maxX; x++) {
-					for(int z = minZ; z <= maxZ; z++) {
-						if (checkBlock(x, maxY2, z, change)) {
-							change.y = 0;
-							position.y = maxY2 - height;
-							break outer;
-						}
-					}
-				}
-			}
-		}
-		position.y += change.y;
-		if (deltaY != change.y) {
+		if ((collision.blocked & CollisionEngine.BLOCKED_Y) != 0) {
 			stopVY();
 		}
-		change.w = 0; // Don't step in y-direction.
-		step = Math.max(step, change.w);
-		change.y = 0;
-		change.z = deltaZ;
-		minY = (int)Math.floor(position.y);
-		maxY = (int)Math.ceil(position.y + height) - 1;
-		if (deltaZ < 0) {
-			int minZ2 = (int)Math.floor(position.z - width + deltaZ);
-			// First check for partial blocks:
-			for(int x = minX; x <= maxX; x++) {
-				for(int y = minY; y <= maxY; y++) {
-					checkBlock(x, y, minZ, change);
-				}
-			}
-			if (minZ2 != minZ && change.z == deltaZ) {
-				outer:
-				for(int x = minX; x <= maxX; x++) {
-					for(int y = minY; y <= maxY; y++) {
-						if (checkBlock(x, y, minZ2, change)) {
-							change.z = 0;
-							position.z = minZ2 + 1 + width;
-							break outer;
-						}
-					}
-				}
-			}
-		} else if (deltaZ > 0) {
-			int maxZ2 = (int)Math.floor(position.z + width + deltaZ);
-			// First check for partial blocks:
-			for(int x = minX; x <= maxX; x++) {
-				for(int y = minY; y <= maxY; y++) {
-					checkBlock(x, y, maxZ, change);
-				}
-			}
-			if (maxZ2 != maxZ && deltaZ == change.z) {
-				outer:
-				for(int x = minX; x <= maxX; x++) {
-					for(int y = minY; y <= maxY; y++) {
-						if (checkBlock(x, y, maxZ2, change)) {
-							change.z = 0;
-							position.z = maxZ2 - width;
-							break outer;
-						}
-					}
-				}
-			}
-		}
-		position.z += change.z;
-		if (deltaZ != change.z) {
-			vz = 0;
-			change.w = 0; // Don't step if the player walks into a wall.
-		}
-		step = Math.max(step, change.w);
-		// And finally consider the stepping component:
-		position.y += step;
-		if (step != 0) vy = 0;
+		if (step != 0) setVY(0);
 		return step;
 	}
 	
@@ -253,40 +111,26 @@ public class Entity {
 	
 	public void stopVY() {
 		takeDamage(calculateFallDamage());
-		vy = 0;
+		setVY(0);
 	}
 	
 	public int calculateFallDamage() {
+		double vy = getVY();
 		if (vy < 0)
 			return (int)(8*vy*vy/900);
 		return 0;
 	}
 	
 	public boolean checkBlock(int x, int y, int z, Vector4d displacement) {
-		int b = getBlock(x, y, z);
-		if (b != 0 && Blocks.solid(b)) {
-			if (Blocks.mode(b).changesHitbox()) {
-				return Blocks.mode(b).checkEntityAndDoCollision(this, displacement, x, y, z, b);
-			}
-			// Check for stepping:
-			if (y + 1 - position.y > 0 && y + 1 - position.y <= stepHeight) {
-				displacement.w = Math.max(displacement.w, y + 1 - position.y);
-				return false;
-			}
-			return true;
-		}
-		return false;
-	}
-
-	protected int getBlock(int x, int y, int z) {
-		return world.getBlock(x, y, z);
+		return beginCollision().checkBlock(x, y, z, displacement);
 	}
 	
 	public boolean checkBlock(int x, int y, int z) {
-		int b = getBlock(x, y, z);
+		CollisionEngine collision = beginCollision();
+		int b = collision.getBlock(x, y, z);
 		if (b != 0 && Blocks.solid(b)) {
 			if (Blocks.mode(b).changesHitbox()) {
-				return Blocks.mode(b).checkEntity(position, width, height, x, y, z, b);
+				return Blocks.mode(b).checkEntity(collision.getPosition(), width, height, x, y, z, b);
 			}
 			return true;
 		}
@@ -295,9 +139,10 @@ public class Entity {
 	
 	public boolean isOnGround() {
 		// Determine if the entity is on the ground by virtually displacing it by 0.2 below its current position:
-		Vector4d displacement = new Vector4d(0, -0.2f, 0, 0);
-		checkBlock((int)Math.floor(position.x), (int)Math.floor(position.y), (int)Math.floor(position.z), displacement);
-		if (checkBlock((int)Math.floor(position.x), (int)Math.floor(position.y + displacement.y), (int)Math.floor(position.z), displacement)) {
+		CollisionEngine collision = beginCollision();
+		Vector4d displacement = manager.change.set(0, -0.2f, 0, 0);
+		collision.checkBlock((int)Math.floor(getX()), (int)Math.floor(getY()), (int)Math.floor(getZ()), displacement);
+		if (collision.checkBlock((int)Math.floor(getX()), (int)Math.floor(getY() + displacement.y), (int)Math.floor(getZ()), displacement)) {
 			return true;
 		}
 		return displacement.y != -0.2f || displacement.w != 0;
@@ -306,20 +151,31 @@ public class Entity {
 	public void hit(Tool weapon, Vector3f direction) {
 		if (weapon == null) {
 			takeDamage(1);
-			vx += direction.x*0.2;
-			vy += direction.y*0.2;
-			vz += direction.z*0.2;
+			setVelocity(getVX() + direction.x*0.2, getVY() + direction.y*0.2, getVZ() + direction.z*0.2);
 		} else {
 			takeDamage(weapon.getDamage());
 			// TODO: Weapon specific knockback.
-			vx += direction.x*0.2;
-			vy += direction.y*0.2;
-			vz += direction.z*0.2;
+			setVelocity(getVX() + direction.x*0.2, getVY() + direction.y*0.2, getVZ() + direction.z*0.2);
 		}
 	}
 	
 	public void update(float deltaTime) {
-		double step = collisionDetection(deltaTime);
+		updateState(deltaTime, move(deltaTime));
+	}
+
+	/**
+	 * Moves the entity according to its velocity. Called for all entities of a world before {@link #updateState(float, double)}.
+	 * @return The height of the step taken.
+	 */
+	protected double move(float deltaTime) {
+		return collisionDetection(deltaTime);
+	}
+
+	/**
+	 * Updates the AI, velocity, health and hunger after the entity was moved.
+	 * @param step The height of the step taken in {@link #move(float)}.
+	 */
+	protected void updateState(float deltaTime, double step) {
 		if (entityAI != null)
 			entityAI.update(this);
 		updateVelocity(deltaTime);
@@ -344,6 +200,7 @@ public class Entity {
 		// Passive energy consumption:
 		hunger -= 0.00013333*deltaTime; // Will deplete hunger after 22 minutes of standing still.
 		// Energy consumption due to movement:
+		double vx = getVX(), vy = getVY(), vz = getVZ();
 		hunger -= (vx*vx + vz*vz)/900/16*deltaTime;
 		
 		// Jumping:
@@ -375,9 +232,11 @@ public class Entity {
 	
 	protected void updateVelocity(float deltaTime) {
 		// TODO: Use the entities mass, force and ground structure to calculate a realistic velocity change.
-		vx += (targetVX-vx)/5*deltaTime;
-		vz += (targetVZ-vz)/5*deltaTime;
-		vy -= World.GRAVITY*deltaTime;
+		int i3 = 3*index;
+		double[] velxyz = manager.velxyz;
+		velxyz[i3] += (getTargetVX() - velxyz[i3])/5*deltaTime;
+		velxyz[i3 + 2] += (getTargetVZ() - velxyz[i3 + 2])/5*deltaTime;
+		velxyz[i3 + 1] -= World.GRAVITY*deltaTime;
 	}
 	
 	// NDT related
@@ -415,9 +274,9 @@ public class Entity {
 	public JsonObject save() {
 		JsonObject json = new JsonObject();
 		json.put("id", type.getRegistryID().toString());
-		json.put("position", saveVector(position));
+		json.put("position", saveVector(getPosition()));
 		json.put("rotation", saveVector(rotation));
-		json.put("velocity", saveVector(new Vector3d(vx, vy, vz)));
+		json.put("velocity", saveVector(new Vector3d(getVX(), getVY(), getVZ())));
 		json.put("health", health);
 		json.put("hunger", hunger);
 		if(!name.isEmpty()) {
@@ -427,12 +286,10 @@ public class Entity {
 	}
 	
 	public void loadFrom(JsonObject json) {
-		position = loadVector3d(json.getObjectOrNew("position"));
+		setPosition(loadVector3d(json.getObjectOrNew("position")));
 		rotation = loadVector3f(json.getObjectOrNew("rotation"));
 		Vector3d velocity = loadVector3d(json.getObjectOrNew("velocity"));
-		vx = velocity.x;
-		vy = velocity.y;
-		vz = velocity.z;
+		setVelocity(velocity.x, velocity.y, velocity.z);
 		health = json.getFloat("health", maxHealth);
 		hunger = json.getFloat("hunger", maxHunger);
 		name = json.getString("name", "");
@@ -446,18 +303,108 @@ public class Entity {
 		return world;
 	}
 	
+	/**
+	 * Use {@link #getX()}, {@link #getY()}, {@link #getZ()} or {@link #getPosition(Vector3d)} in code that runs often.
+	 * @return a new copy of the position. Use {@link #setPosition(double, double, double)} to change it.
+	 */
 	public Vector3d getPosition() {
-		return position;
+		return getPosition(new Vector3d());
+	}
+
+	/**
+	 * @param dest gets the position.
+	 * @return dest
+	 */
+	public Vector3d getPosition(Vector3d dest) {
+		int i3 = 3*index;
+		double[] posxyz = manager.posxyz;
+		return dest.set(posxyz[i3], posxyz[i3 + 1], posxyz[i3 + 2]);
+	}
+
+	public double getX() {
+		return manager.posxyz[3*index];
+	}
+
+	public double getY() {
+		return manager.posxyz[3*index + 1];
+	}
+
+	public double getZ() {
+		return manager.posxyz[3*index + 2];
+	}
+
+	public void setX(double x) {
+		manager.posxyz[3*index] = x;
+	}
+
+	public void setY(double y) {
+		manager.posxyz[3*index + 1] = y;
+	}
+
+	public void setZ(double z) {
+		manager.posxyz[3*index + 2] = z;
+	}
+
+	public void setPosition(double x, double y, double z) {
+		int i3 = 3*index;
+		double[] posxyz = manager.posxyz;
+		posxyz[i3] = x;
+		posxyz[i3 + 1] = y;
+		posxyz[i3 + 2] = z;
 	}
 	
 	public void setPosition(Vector3i position) {
-		this.position.x = position.x;
-		this.position.y = position.y;
-		this.position.z = position.z;
+		setPosition(position.x, position.y, position.z);
 	}
 	
 	public void setPosition(Vector3d position) {
-		this.position = position;
+		setPosition(position.x, position.y, position.z);
+	}
+
+	public double getVX() {
+		return manager.velxyz[3*index];
+	}
+
+	public double getVY() {
+		return manager.velxyz[3*index + 1];
+	}
+
+	public double getVZ() {
+		return manager.velxyz[3*index + 2];
+	}
+
+	public void setVX(double vx) {
+		manager.velxyz[3*index] = vx;
+	}
+
+	public void setVY(double vy) {
+		manager.velxyz[3*index + 1] = vy;
+	}
+
+	public void setVZ(double vz) {
+		manager.velxyz[3*index + 2] = vz;
+	}
+
+	public void setVelocity(double vx, double vy, double vz) {
+		int i3 = 3*index;
+		double[] velxyz = manager.velxyz;
+		velxyz[i3] = vx;
+		velxyz[i3 + 1] = vy;
+		velxyz[i3 + 2] = vz;
+	}
+
+	/** The velocity the AI wants the entity to have. */
+	public double getTargetVX() {
+		return manager.targetVelxz[2*index];
+	}
+
+	public double getTargetVZ() {
+		return manager.targetVelxz[2*index + 1];
+	}
+
+	public void setTargetVelocity(double targetVX, double targetVZ) {
+		manager.targetVelxz[2*index] = targetVX;
+		manager.targetVelxz[2*index + 1] = targetVZ;
 	}
 	
 	public Vector3f getRotation() {
@@ -494,30 +441,30 @@ public class Entity {
 	 */
 	public void aabCollision(Vector4d vel, double x0, double y0, double z0, double w, double h, double d, int block) {
 		// check if the displacement is inside the box:
-		if (aabCollision(position.x - width + vel.x, position.y + vel.y, position.z - width + vel.z, width*2, height, width*2, x0, y0, z0, w, h, d)) {
+		if (aabCollision(getX() - width + vel.x, getY() + vel.y, getZ() - width + vel.z, width*2, height, width*2, x0, y0, z0, w, h, d)) {
 			// Check if the entity can step on it:
-			if (y0 + h - position.y > 0 && y0 + h - position.y <= stepHeight) {
-				vel.w = Math.max(vel.w, y0 + h - position.y);
+			if (y0 + h - getY() > 0 && y0 + h - getY() <= stepHeight) {
+				vel.w = Math.max(vel.w, y0 + h - getY());
 				return;
 			}
 			// Only collide if the previous position was outside:
-			if (!aabCollision(position.x - width, position.y, position.z - width, width*2, height, width*2, x0, y0, z0, w, h, d)) {
+			if (!aabCollision(getX() - width, getY(), getZ() - width, width*2, height, width*2, x0, y0, z0, w, h, d)) {
 				// Check in which direction the current displacement goes and changes accordingly:
 				if (vel.x < 0) {
-					vel.x = x0 + w - (position.x - width) + 0.01f;
+					vel.x = x0 + w - (getX() - width) + 0.01f;
 				} else if (vel.x > 0) {
-					vel.x = x0 - (position.x + width) - 0.01f;
+					vel.x = x0 - (getX() + width) - 0.01f;
 				}
 				else if (vel.y < 0) {
-					vel.y = y0 + h - (position.y) + 0.01f;
+					vel.y = y0 + h - (getY()) + 0.01f;
 				}
 				else if (vel.y > 0) {
-					vel.y = y0 - (position.y + height) - 0.01f;
+					vel.y = y0 - (getY() + height) - 0.01f;
 				}
 				else if (vel.z < 0) {
-					vel.z = z0 + d - (position.z - width) + 0.01f;
+					vel.z = z0 + d - (getZ() - width) + 0.01f;
 				} else if (vel.z > 0) {
-					vel.z = z0 - (position.z + width) - 0.01f;
+					vel.z = z0 - (getZ() + width) - 0.01f;
 				}
 			}
 		}
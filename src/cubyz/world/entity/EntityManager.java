@@ -0,0 +1,162 @@
+package cubyz.world.entity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.joml.Vector4d;
+
+/**
+ * Stores the position and velocity of many entities in flat arrays, so the physics can go through them in one pass.<br>
+ * The {@link Entity} objects are views into a store. An entity that is not part of a world uses its own store of size 1.
+ * Uses a data oriented implementation, like the {@link ItemEntityManager}.
+ */
+
+public class EntityManager {
+	public double[] posxyz;
+	public double[] velxyz;
+	/** The horizontal velocity the AI wants the entity to have. */
+	public double[] targetVelxz;
+	public Entity[] entities;
+	public int size;
+
+	/** The step height of every entity in the current update. */
+	private double[] steps;
+	/** Entities can't be moved around while they are updated, so adding and removing them needs to wait until the update is done. */
+	private boolean updating = false;
+	private final ArrayList<Entity> added = new ArrayList<>();
+	private final ArrayList<Entity> removed = new ArrayList<>();
+
+	/** Used for the collision detection of the entities in this store. */
+	final CollisionEngine collision = new CollisionEngine();
+	/** Scratch space for the ground checks of the entities in this store. */
+	final Vector4d change = new Vector4d();
+
+	public EntityManager(int capacity) {
+		posxyz = new double[3*capacity];
+		velxyz = new double[3*capacity];
+		targetVelxz = new double[2*capacity];
+		entities = new Entity[capacity];
+		steps = new double[capacity];
+	}
+
+	private void increaseCapacity() {
+		int capacity = Math.max(16, entities.length*2);
+		posxyz = Arrays.copyOf(posxyz, 3*capacity);
+		velxyz = Arrays.copyOf(velxyz, 3*capacity);
+		targetVelxz = Arrays.copyOf(targetVelxz, 2*capacity);
+		entities = Arrays.copyOf(entities, capacity);
+		steps = Arrays.copyOf(steps, capacity);
+	}
+
+	/**
+	 * Moves the entity into this store, keeping its position and velocity.
+	 * During an update the entity stays in its own store until the update is done.
+	 */
+	public void add(Entity ent) {
+		synchronized(this) {
+			if(updating) {
+				added.add(ent);
+				return;
+			}
+			if(size == entities.length) {
+				increaseCapacity();
+			}
+			int i = size;
+			EntityManager old = ent.manager;
+			if(old != null) {
+				assert old.entities.length == 1 : "The entity needs to be removed from its world first.";
+				System.arraycopy(old.posxyz, 3*ent.index, posxyz, 3*i, 3);
+				System.arraycopy(old.velxyz, 3*ent.index, velxyz, 3*i, 3);
+				System.arraycopy(old.targetVelxz, 2*ent.index, targetVelxz, 2*i, 2);
+			} else {
+				Arrays.fill(posxyz, 3*i, 3*i + 3, 0);
+				Arrays.fill(velxyz, 3*i, 3*i + 3, 0);
+				Arrays.fill(targetVelxz, 2*i, 2*i + 2, 0);
+			}
+			entities[i] = ent;
+			ent.manager = this;
+			ent.index = i;
+			size++;
+		}
+	}
+
+	/**
+	 * Moves the entity into its own store, so it can still be used after it was removed.
+	 */
+	public void remove(Entity ent) {
+		synchronized(this) {
+			if(updating && added.remove(ent)) return;
+			if(ent.manager != this) return;
+			if(updating) {
+				removed.add(ent);
+				return;
+			}
+			int i = ent.index;
+			new EntityManager(1).add(ent);
+			size--;
+			// Put the stuff at the last index to the removed index:
+			System.arraycopy(posxyz, 3*size, posxyz, 3*i, 3);
+			System.arraycopy(velxyz, 3*size, velxyz, 3*i, 3);
+			System.arraycopy(targetVelxz, 2*size, targetVelxz, 2*i, 2);
+			entities[i] = entities[size];
+			entities[i].index = i;
+			entities[size] = null; // Allow it to be garbage collected.
+		}
+	}
+
+	/**
+	 * Removes all entities and adds the given ones.
+	 * @param ents may contain null.
+	 */
+	public void setEntities(Entity[] ents) {
+		synchronized(this) {
+			while(size != 0) {
+				remove(entities[size - 1]);
+			}
+			for(Entity ent : ents) {
+				if(ent != null) {
+					add(ent);
+				}
+			}
+		}
+	}
+
+	public Entity[] getEntities() {
+		synchronized(this) {
+			return Arrays.copyOf(entities, size);
+		}
+	}
+
+	/**
+	 * First moves all entities and then updates their AI, health and hunger.
+	 */
+	public void update(float deltaTime) {
+		Entity[] entities;
+		double[] steps;
+		int size;
+		synchronized(this) {
+			updating = true;
+			// Entities that are added during the update wait for the next one, so the arrays stay the same until then.
+			entities = this.entities;
+			steps = this.steps;
+			size = this.size;
+		}
+		for(int i = 0; i < size; i++) {
+			steps[i] = entities[i].move(deltaTime);
+		}
+		for(int i = 0; i < size; i++) {
+			entities[i].updateState(deltaTime, steps[i]);
+		}
+		synchronized(this) {
+			updating = false;
+			for(Entity ent : removed) {
+				remove(ent);
+			}
+			removed.clear();
+			for(Entity ent : added) {
+				add(ent);
+			}
+			added.clear();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package cubyz.world.entity;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the item entities, so pickup and merging only need to look at the items close by.<br>
+ * The cells are hashed into a fixed number of buckets, each bucket is a linked list of item indices.
+ * Items of different cells may share a bucket, so queries check the cell of every item.
+ */
+final class ItemEntityGrid {
+	/** Cells are 4×4×4 blocks. */
+	static final int CELL_SHIFT = 2;
+	private static final int BUCKET_MASK = (1 << 16) - 1;
+
+	/** The first item of every bucket or -1. */
+	private final int[] heads = new int[BUCKET_MASK + 1];
+	private final int[] next;
+	private final int[] previous;
+	/** The cell every item is currently sorted into. */
+	private final long[] cells;
+
+	ItemEntityGrid(int capacity) {
+		Arrays.fill(heads, -1);
+		next = new int[capacity];
+		previous = new int[capacity];
+		cells = new long[capacity];
+	}
+
+	private static long getCell(int cx, int cy, int cz) {
+		return (cx & 0x1fffffL) << 42 | (cy & 0x1fffffL) << 21 | (cz & 0x1fffffL);
+	}
+
+	private static long getCell(double x, double y, double z) {
+		return getCell((int)Math.floor(x) >> CELL_SHIFT, (int)Math.floor(y) >> CELL_SHIFT, (int)Math.floor(z) >> CELL_SHIFT);
+	}
+
+	private static int getBucket(long cell) {
+		return (int)(cell*0x9e3779b97f4a7c15L >>> 48) & BUCKET_MASK;
+	}
+
+	private void link(int i, long cell) {
+		int bucket = getBucket(cell);
+		cells[i] = cell;
+		previous[i] = -1;
+		next[i] = heads[bucket];
+		if(heads[bucket] != -1) {
+			previous[heads[bucket]] = i;
+		}
+		heads[bucket] = i;
+	}
+
+	private void unlink(int i) {
+		if(previous[i] == -1) {
+			heads[getBucket(cells[i])] = next[i];
+		} else {
+			next[previous[i]] = next[i];
+		}
+		if(next[i] != -1) {
+			previous[next[i]] = previous[i];
+		}
+	}
+
+	synchronized void insert(int i, double x, double y, double z) {
+		link(i, getCell(x, y, z));
+	}
+
+	synchronized void remove(int i) {
+		unlink(i);
+	}
+
+	/**
+	 * Moves the item to its new cell. Only locks if the cell actually changed.
+	 */
+	void update(int i, double x, double y, double z) {
+		long cell = getCell(x, y, z);
+		if(cell == cells[i]) return;
+		synchronized(this) {
+			unlink(i);
+			link(i, cell);
+		}
+	}
+
+	/**
+	 * Finds all items with |position - center| < range in every coordinate.
+	 * @param posxyz the positions of the items.
+	 * @param result needs space for every item that could be found.
+	 * @return the number of items stored in result.
+	 */
+	synchronized int query(double x, double y, double z, double rangeX, double rangeY, double rangeZ, double[] posxyz, int[] result) {
+		int minX = (int)Math.floor(x - rangeX) >> CELL_SHIFT, maxX = (int)Math.floor(x + rangeX) >> CELL_SHIFT;
+		int minY = (int)Math.floor(y - rangeY) >> CELL_SHIFT, maxY = (int)Math.floor(y + rangeY) >> CELL_SHIFT;
+		int minZ = (int)Math.floor(z - rangeZ) >> CELL_SHIFT, maxZ = (int)Math.floor(z + rangeZ) >> CELL_SHIFT;
+		int size = 0;
+		for(int cx = minX; cx <= maxX; cx++) {
+			for(int cy = minY; cy <= maxY; cy++) {
+				for(int cz = minZ; cz <= maxZ; cz++) {
+					long cell = getCell(cx, cy, cz);
+					for(int i = heads[getBucket(cell)]; i != -1; i = next[i]) {
+						if(cells[i] != cell) continue;
+						int i3 = 3*i;
+						if(Math.abs(x - posxyz[i3]) < rangeX && Math.abs(y - posxyz[i3 + 1]) < rangeY && Math.abs(z - posxyz[i3 + 2]) < rangeZ) {
+							result[size++] = i;
+						}
+					}
+				}
+			}
+		}
+		return size;
+	}
+}
@@ -3,16 +3,13 @@ package cubyz.world.entity;
 import cubyz.multiplayer.Protocols;
 import cubyz.multiplayer.server.Server;
 import cubyz.multiplayer.server.User;
-import cubyz.utils.math.Bits;
 import cubyz.world.ServerWorld;
 import cubyz.world.items.tools.Tool;
 import org.joml.Vector3d;
 import org.joml.Vector3f;
 
 import cubyz.utils.Logger;
-import cubyz.world.NormalChunk;
 import cubyz.world.World;
-import cubyz.world.blocks.Blocks;
 import cubyz.world.items.Item;
 import cubyz.world.items.ItemStack;
 import pixelguys.json.*;
@@ -29,6 +26,10 @@ public class ItemEntityManager {
 	public static final float DIAMETER = 2*RADIUS;
 
 	public static final float PICKUP_RANGE = 1;
+	/** Stacks of the same item that are closer than this are merged. */
+	public static final float MERGE_RANGE = 0.5f;
+	/** Every item is checked for merging once in this many ticks. */
+	static final int MERGE_INTERVAL = 20;
 
 	private static final float MAX_AIR_SPEED_GRAVITY = 10;
 
@@ -45,6 +46,14 @@ public class ItemEntityManager {
 	public final short[] indices = new short[MAX_CAPACITY];
 	public final short[] reverseIndices = new short[MAX_CAPACITY];
 
+	/** Follows the positions that are changed in {@link #update(float)}. */
+	private final ItemEntityGrid grid = new ItemEntityGrid(MAX_CAPACITY);
+	/** Reused for the grid queries. */
+	private final int[] queryResult = new int[MAX_CAPACITY];
+	private int mergeIndex = 0;
+	/** Only used by the server thread in {@link #update(float)}. */
+	private final CollisionEngine collision = new CollisionEngine();
+
 	private final World world;
 	private final float gravity;
 	private final float airDragFactor;
@@ -112,29 +121,6 @@ public class ItemEntityManager {
 
 	}
 
-	public byte[] getPositionAndVelocityData() {
-		byte[] data = new byte[size*(6*8 + 2)];
-		int offset = 0;
-		for(int ii = 0; ii < size; ii++) {
-			int i = indices[ii] & 0xffff;
-			Bits.putShort(data, offset, (short)i);
-			offset += 2;
-			Bits.putDouble(data, offset, posxyz[3*i]);
-			offset += 8;
-			Bits.putDouble(data, offset, posxyz[3*i+1]);
-			offset += 8;
-			Bits.putDouble(data, offset, posxyz[3*i+2]);
-			offset += 8;
-			Bits.putDouble(data, offset, velxyz[3*i]);
-			offset += 8;
-			Bits.putDouble(data, offset, velxyz[3*i+1]);
-			offset += 8;
-			Bits.putDouble(data, offset, velxyz[3*i+2]);
-			offset += 8;
-		}
-		return data;
-	}
-
 	private JsonObject storeSingle(int i) {
 		int i3 = i*3;
 		JsonObject obj = new JsonObject();
@@ -172,10 +158,11 @@ public class ItemEntityManager {
 		for(int ii = 0; ii < size; ii++) {
 			int i = indices[ii] & 0xffff;
 			int i3 = i*3;
-			NormalChunk chunk = world.getChunk((int)posxyz[i3], (int)posxyz[i3+1], (int)posxyz[i3+2]);
-			if(chunk != null) {
+			collision.begin(world, null, posxyz, i3, RADIUS, -RADIUS, DIAMETER, 0);
+			if(collision.getChunk((int)posxyz[i3], (int)posxyz[i3+1], (int)posxyz[i3+2]) != null) {
 				// Check collision with blocks:
-				updateEnt(chunk, i3, deltaTime);
+				updateEnt(i3, deltaTime);
+				grid.update(i, posxyz[i3], posxyz[i3+1], posxyz[i3+2]);
 			}
 			pickupCooldown[i]--;
 			despawnTime[i]--;
@@ -184,34 +171,71 @@ public class ItemEntityManager {
 				ii--;
 			}
 		}
+		mergeStacks();
 	}
 
-	public void checkEntity(Entity ent) {
-		for(int ii = 0; ii < size; ii++) {
+	/**
+	 * Merges stacks of the same item that lie close together, so large drops don't fill up the world with item entities.
+	 * To spread the cost only a part of the items is checked every tick.
+	 */
+	private void mergeStacks() {
+		if(mergeIndex >= size) mergeIndex = 0;
+		int end = Math.min(size, mergeIndex + (size + MERGE_INTERVAL - 1)/MERGE_INTERVAL);
+		// Going backwards, so removing an item never moves an unchecked item of this slice to an already checked index.
+		for(int ii = end - 1; ii >= mergeIndex; ii--) {
 			int i = indices[ii] & 0xffff;
+			if(itemStacks[i].getItem() instanceof Tool) continue;
 			int i3 = 3*i;
+			int neighbors = grid.query(posxyz[i3], posxyz[i3+1], posxyz[i3+2], MERGE_RANGE, MERGE_RANGE, MERGE_RANGE, posxyz, queryResult);
+			for(int n = 0; n < neighbors; n++) {
+				int j = queryResult[n];
+				if(j == i || itemStacks[j].getItem() != itemStacks[i].getItem() || !itemStacks[j].canAddAll(itemStacks[i].getAmount())) continue;
+				itemStacks[j].add(itemStacks[i].getAmount());
+				despawnTime[j] = Math.max(despawnTime[j], despawnTime[i]);
+				remove(i);
+				if(world instanceof ServerWorld) {
+					// Re-adding is the only way to tell the clients about the new amount:
+					lastUpdates.add(new JsonInt(j));
+					lastUpdates.add(storeSingle(j));
+				}
+				break;
+			}
+		}
+		mergeIndex = end;
+	}
+
+	/**
+	 * Finds all items with |position - center| < range in every coordinate.<br>
+	 * Only works for items that are moved by {@link #update(float)}.
+	 * @param result needs space for every item that could be found.
+	 * @return the number of item indices stored in result.
+	 */
+	public int getNeighbors(double x, double y, double z, double rangeX, double rangeY, double rangeZ, int[] result) {
+		return grid.query(x, y, z, rangeX, rangeY, rangeZ, posxyz, result);
+	}
+
+	public void checkEntity(Entity ent) {
+		int candidates = getNeighbors(ent.getX(), ent.getY() + ent.height/2, ent.getZ(), ent.width + PICKUP_RANGE, ent.height + PICKUP_RANGE, ent.width + PICKUP_RANGE, queryResult);
+		for(int n = 0; n < candidates; n++) {
+			int i = queryResult[n];
 			if (pickupCooldown[i] >= 0) continue; // Item cannot be picked up yet.
-			if (Math.abs(ent.position.x - posxyz[i3]) < ent.width + PICKUP_RANGE && Math.abs(ent.position.y + ent.height/2 - posxyz[i3 + 1]) < ent.height + PICKUP_RANGE && Math.abs(ent.position.z - posxyz[i3 + 2]) < ent.width + PICKUP_RANGE) {
-				if(ent.getInventory().canCollect(itemStacks[i].getItem())) {
-					if(ent instanceof Player) {
-						// Needs to go through the network.
-						for(User user : Server.users) {
-							if(user.player == ent) {
-								Protocols.GENERIC_UPDATE.itemStackCollect(user, itemStacks[i]);
-								remove(i);
-								ii--;
-								break;
-							}
-						}
-					} else {
-						int newAmount = ent.getInventory().addItem(itemStacks[i].getItem(), itemStacks[i].getAmount());
-						if(newAmount != 0) {
-							itemStacks[i].setAmount(newAmount);
-						} else {
+			if(ent.getInventory().canCollect(itemStacks[i].getItem())) {
+				if(ent instanceof Player) {
+					// Needs to go through the network.
+					for(User user : Server.users) {
+						if(user.player == ent) {
+							Protocols.GENERIC_UPDATE.itemStackCollect(user, itemStacks[i]);
 							remove(i);
-							ii--;
+							break;
 						}
 					}
+				} else {
+					int newAmount = ent.getInventory().addItem(itemStacks[i].getItem(), itemStacks[i].getAmount());
+					if(newAmount != 0) {
+						itemStacks[i].setAmount(newAmount);
+					} else {
+						remove(i);
+					}
 				}
 			}
 		}
@@ -273,6 +297,7 @@ public class ItemEntityManager {
 			itemStacks[i] = itemStack;
 			this.despawnTime[i] = despawnTime;
 			this.pickupCooldown[i] = pickupCooldown;
+			grid.insert(i, x, y, z);
 			if(world instanceof ServerWorld) {
 				lastUpdates.add(storeSingle(i));
 			}
@@ -290,6 +315,7 @@ public class ItemEntityManager {
 			indices[ii] = indices[size];
 			reverseIndices[indices[ii] & 0xffff] = (short)ii;
 			itemStacks[i] = null; // Allow it to be garbage collected.
+			grid.remove(i);
 			if(world instanceof ServerWorld) {
 				lastUpdates.add(new JsonInt(i));
 			}
@@ -306,32 +332,27 @@ public class ItemEntityManager {
 		return new Vector3f(rotxyz[index], rotxyz[index+1], rotxyz[index+2]);
 	}
 
-	private void updateEnt(NormalChunk chunk, int index3, float deltaTime) {
-		boolean startedInABlock = checkBlocks(chunk, index3);
-		if(startedInABlock) {
-			fixStuckInBlock(chunk, index3, deltaTime);
+	private void updateEnt(int index3, float deltaTime) {
+		if(collision.isInsideBlock()) {
+			fixStuckInBlock(index3, deltaTime);
 			return;
 		}
-		float drag = airDragFactor;
-		float[] acceleration = new float[] {0, -gravity*deltaTime, 0};
-		// Update gravity:
-		for(int i = 0; i < 3; i++) { // Change one coordinate at a time and see if it would collide.
-			double old = posxyz[index3 + i];
-			posxyz[index3 + i] += velxyz[index3 + i]*deltaTime + acceleration[i]*deltaTime;
-			if(checkBlocks(chunk, index3)) {
-				posxyz[index3 + i] = old;
-				velxyz[index3 + i] *= 0.5; // Half it to effectively perform asynchronous binary search for the collision boundary.
+		float drag = airDragFactor + 1.5f; // TODO: Calculate drag from block properties and add buoyancy.
+		float accelerationY = -gravity*deltaTime;
+		collision.move(velxyz[index3]*deltaTime, velxyz[index3 + 1]*deltaTime + accelerationY*deltaTime, velxyz[index3 + 2]*deltaTime);
+		for(int i = 0; i < 3; i++) {
+			if((collision.blocked & 1 << i) != 0) {
+				velxyz[index3 + i] = 0; // The item hit a block in this direction.
 			}
-			drag += 0.5; // TODO: Calculate drag from block properties and add buoyancy.
 		}
+		velxyz[index3 + 1] += accelerationY;
 		// Apply drag:
 		for(int i = 0; i < 3; i++) {
-			velxyz[index3 + i] += acceleration[i];
 			velxyz[index3 + i] *= Math.max(0, 1 - drag*deltaTime);
 		}
 	}
 
-	private void fixStuckInBlock(NormalChunk chunk, int index3, float deltaTime) {
+	private void fixStuckInBlock(int index3, float deltaTime) {
 		double x = posxyz[index3] - 0.5;
 		double y = posxyz[index3+1] - 0.5;
 		double z = posxyz[index3+2] - 0.5;
@@ -346,7 +367,7 @@ public class ItemEntityManager {
 		for(int dx = 0; dx <= 1; dx++) {
 			for(int dy = 0; dy <= 1; dy++) {
 				for(int dz = 0; dz <= 1; dz++) {
-					boolean isBlockSolid = checkBlock(chunk, index3, x0 + dx, y0 + dy, z0 + dz);
+					boolean isBlockSolid = collision.checkBlock(x0 + dx, y0 + dy, z0 + dz);
 					if(!isBlockSolid) {
 						double dist = (x0 + dx - x)*(x0 + dx - x) + (y0 + dy - y)*(y0 + dy - y) + (z0 + dz - z)*(z0 + dz - z);
 						if(dist < closestDist) {
@@ -376,57 +397,4 @@ public class ItemEntityManager {
 			posxyz[index3+2] += velxyz[index3+2]*deltaTime;
 		}
 	}
-
-	private boolean checkBlocks(NormalChunk chunk, int index3) {
-		double x = posxyz[index3] - RADIUS;
-		double y = posxyz[index3+1] - RADIUS;
-		double z = posxyz[index3+2] - RADIUS;
-		int x0 = (int)Math.floor(x);
-		int y0 = (int)Math.floor(y);
-		int z0 = (int)Math.floor(z);
-		boolean isSolid = checkBlock(chunk, index3, x0, y0, z0);
-		if (x - x0 + DIAMETER >= 1) {
-			isSolid |= checkBlock(chunk, index3, x0+1, y0, z0);
-			if (y - y0 + DIAMETER >= 1) {
-				isSolid |= checkBlock(chunk, index3, x0, y0+1, z0);
-				isSolid |= checkBlock(chunk, index3, x0+1, y0+1, z0);
-				if (z - z0 + DIAMETER >= 1) {
-					isSolid |= checkBlock(chunk, index3, x0, y0, z0+1);
-					isSolid |= checkBlock(chunk, index3, x0+1, y0, z0+1);
-					isSolid |= checkBlock(chunk, index3, x0, y0+1, z0+1);
-					isSolid |= checkBlock(chunk, index3, x0+1, y0+1, z0+1);
-				}
-			} else {
-				if (z - z0 + DIAMETER >= 1) {
-					isSolid |= checkBlock(chunk, index3, x0, y0, z0+1);
-					isSolid |= checkBlock(chunk, index3, x0+1, y0, z0+1);
-				}
-			}
-		} else {
-			if (y - y0 + DIAMETER >= 1) {
-				isSolid |= checkBlock(chunk, index3, x0, y0+1, z0);
-				if (z - z0 + DIAMETER >= 1) {
-					isSolid |= checkBlock(chunk, index3, x0, y0, z0+1);
-					isSolid |= checkBlock(chunk, index3, x0, y0+1, z0+1);
-				}
-			} else {
-				if (z - z0 + DIAMETER >= 1) {
-					isSolid |= checkBlock(chunk, index3, x0, y0, z0+1);
-				}
-			}
-		}
-		return isSolid;
-	}
-
-	private boolean checkBlock(NormalChunk chunk, int index3, int x, int y, int z) {
-		// Transform to chunk-relative coordinates:
-		int block = chunk.getBlockPossiblyOutside(x - chunk.wx, y - chunk.wy, z - chunk.wz);
-		if (block == 0) return false;
-		// Check if the item entity is inside the block:
-		boolean isInside = true;
-		if (Blocks.mode(block).changesHitbox()) {
-			isInside = Blocks.mode(block).checkEntity(new Vector3d(posxyz[index3], posxyz[index3+1]-RADIUS, posxyz[index3+2]), RADIUS, DIAMETER, x, y, z, block);
-		}
-		return isInside && Blocks.solid(block);
-	}
 }
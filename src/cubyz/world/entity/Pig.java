@@ -31,7 +31,7 @@ public class Pig extends EntityType {
 	@Override
 	public void die(Entity ent) {
 		// Drop 1-4 raw meat:
-		ent.world.drop(new ItemStack(drop, 1+(int)(Math.random()*4)), ent.position, new Vector3f((float)Math.random(), (float)Math.random(), (float)Math.random()), 0.2f);
+		ent.world.drop(new ItemStack(drop, 1+(int)(Math.random()*4)), ent.getPosition(), new Vector3f((float)Math.random(), (float)Math.random(), (float)Math.random()), 0.2f);
 		super.die(ent);
 	}
 	
@@ -45,17 +45,16 @@ public class Pig extends EntityType {
 		public void update(Entity ent) {
 			if (directionTimer <= System.currentTimeMillis()) {
 				directionTimer = System.currentTimeMillis() + directionRandom.nextInt(5000);
-				ent.targetVX = directionRandom.nextFloat() * 0.2f - 0.1f;
-				ent.targetVZ = directionRandom.nextFloat() * 0.2f - 0.1f;
-				double xzAngle = Math.atan(ent.targetVZ/ent.targetVX);
-				if (ent.targetVX > 0) xzAngle += Math.PI;
+				ent.setTargetVelocity(directionRandom.nextFloat() * 0.2f - 0.1f, directionRandom.nextFloat() * 0.2f - 0.1f);
+				double xzAngle = Math.atan(ent.getTargetVZ()/ent.getTargetVX());
+				if (ent.getTargetVX() > 0) xzAngle += Math.PI;
 				ent.setRotation(new Vector3f(0, (float)xzAngle, 0));
 			}
 			
-			if (ent.vx == 0 || ent.vz == 0) {
+			if (ent.getVX() == 0 || ent.getVZ() == 0) {
 				// jump
 				if (ent.isOnGround()) {
-					ent.vy = 0.2f;
+					ent.setVY(0.2f);
 				}
 				if (nerfTimer == 0) {
 					nerfTimer = System.currentTimeMillis() + 2000;
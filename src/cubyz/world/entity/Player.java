@@ -46,20 +46,27 @@ public class Player extends Entity {
 	
 	public void move(Vector3f inc, Vector3f rot) {
 		// Store it locally so the hunger mechanics can still use it.
-		vx = (float) Math.sin(rot.y) * -1.0F * inc.z + (float) Math.sin(rot.y - Math.PI/2) * -1.0F * inc.x;
-		vz = (float) Math.cos(rot.y) * inc.z + (float) Math.cos(rot.y - Math.PI/2) * inc.x;
+		setVX((float) Math.sin(rot.y) * -1.0F * inc.z + (float) Math.sin(rot.y - Math.PI/2) * -1.0F * inc.x);
+		setVZ((float) Math.cos(rot.y) * inc.z + (float) Math.cos(rot.y - Math.PI/2) * inc.x);
 		if (inc.y != 0) {
-			vy = inc.y;
+			setVY(inc.y);
 		}
 	}
 	
 	@Override
-	public void update(float deltaTime) {
+	protected double move(float deltaTime) {
 		if (!flying) {
-			super.update(deltaTime);
-		} else {
-			position.add(vx*deltaTime, vy*deltaTime, vz*deltaTime);
-			vy = 0;
+			return super.move(deltaTime);
+		}
+		setPosition(getX() + getVX()*deltaTime, getY() + getVY()*deltaTime, getZ() + getVZ()*deltaTime);
+		setVY(0);
+		return 0;
+	}
+
+	@Override
+	protected void updateState(float deltaTime, double step) {
+		if (!flying) {
+			super.updateState(deltaTime, step);
 		}
 	}
 
@@ -20,7 +20,7 @@ public class PlayerEntity extends EntityType {
 		ent.health = ent.maxHealth;
 		ent.hunger = ent.maxHunger;
 		ent.setPosition(ent.world.spawn);
-		ent.vx = ent.vy = ent.vz = 0;
+		ent.setVelocity(0, 0, 0);
 		// TODO: Respawn screen
 	}
 }
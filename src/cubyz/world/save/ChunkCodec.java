@@ -0,0 +1,102 @@
+package cubyz.world.save;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+/**
+ * A compression algorithm for chunk data.<br>
+ * The id of the codec is stored with every chunk, so a world can contain chunks of different codecs.
+ */
+public abstract class ChunkCodec {
+	public static final int DEFLATE_ID = 0;
+	public static final int UNCOMPRESSED_ID = 1;
+	public static final int LZ_ID = 2;
+
+	public static final ChunkCodec DEFLATE = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+	public static final ChunkCodec UNCOMPRESSED = new UncompressedCodec();
+	public static final ChunkCodec LZ = new LZCodec();
+
+	private static final ThreadLocal<byte[]> threadLocalBuffer = ThreadLocal.withInitial(() -> new byte[4096]);
+
+	public final int id;
+	public final String name;
+
+	protected ChunkCodec(int id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
+	/**
+	 * @param id
+	 * @return the codec with the given id or null if there is none. All deflate levels share the same codec.
+	 */
+	public static ChunkCodec getCodec(int id) {
+		switch(id) {
+			case DEFLATE_ID: return DEFLATE;
+			case UNCOMPRESSED_ID: return UNCOMPRESSED;
+			case LZ_ID: return LZ;
+			default: return null;
+		}
+	}
+
+	/**
+	 * @param name the name of the codec as returned by {@link #toString()}. Deflate accepts a compression level, for example "deflate-9".
+	 * @return the codec with the given name or null if there is none.
+	 */
+	public static ChunkCodec getCodec(String name) {
+		if(name.equals(DEFLATE.name)) return DEFLATE;
+		if(name.equals(UNCOMPRESSED.name)) return UNCOMPRESSED;
+		if(name.equals(LZ.name)) return LZ;
+		if(name.startsWith("deflate-")) {
+			try {
+				int level = Integer.parseInt(name.substring("deflate-".length()));
+				if(level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION) {
+					return new DeflateCodec(level);
+				}
+			} catch(NumberFormatException e) {}
+		}
+		return null;
+	}
+
+	/**
+	 * @param minSize
+	 * @return a buffer of this thread that is at least minSize bytes big. It is shared by all codecs.
+	 */
+	protected static byte[] getBuffer(int minSize) {
+		byte[] buffer = threadLocalBuffer.get();
+		if(buffer.length < minSize) {
+			buffer = new byte[Math.max(minSize, 2*buffer.length)];
+			threadLocalBuffer.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Replaces the buffer of this thread with one of twice the size.
+	 * @param buffer the current buffer
+	 * @param usedLength the number of bytes at the start of the buffer that need to be kept
+	 * @return the new buffer
+	 */
+	protected static byte[] growBuffer(byte[] buffer, int usedLength) {
+		byte[] newBuffer = new byte[2*buffer.length];
+		System.arraycopy(buffer, 0, newBuffer, 0, usedLength);
+		threadLocalBuffer.set(newBuffer);
+		return newBuffer;
+	}
+
+	public abstract byte[] compress(byte[] data, int offset, int length);
+
+	/**
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return the decompressed data.
+	 * @throws DataFormatException if the data is invalid.
+	 */
+	public abstract byte[] decompress(byte[] data, int offset, int length) throws DataFormatException;
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -2,79 +2,203 @@ package cubyz.world.save;
 
 import cubyz.utils.Logger;
 import cubyz.utils.datastructures.Cache;
-import cubyz.world.Chunk;
+import cubyz.utils.datastructures.MemoryBudget;
+import cubyz.utils.math.Bits;
 import cubyz.world.SavableChunk;
 import cubyz.world.World;
 
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 public final class ChunkIO {
 	private ChunkIO() {} // No instances allowed.
 
-	private static final ThreadLocal<byte[]> threadLocalInputBuffer = ThreadLocal.withInitial(() -> new byte[4096]);
-	private static final ThreadLocal<byte[]> threadLocalOutputBuffer = ThreadLocal.withInitial(() -> new byte[4 << Chunk.chunkShift*3]);
-
-	// Region files generally seem to be less than 1 MB on disk. To be on the safe side the amount of cached region files is limited to 128.
+	// Only the headers of the region files are kept in memory. To be on the safe side the amount of cached region files is limited to 128.
 	private static final int HASH_MASK = 31;
-	private static final Cache<RegionFile> regionCache = new Cache<>(new RegionFile[HASH_MASK+1][4]);
+	private static final Cache<RegionFile> regionCache = new Cache<>("Region files", new RegionFile[HASH_MASK+1][4], RegionFile::getMemoryUsage, ChunkIO::releaseRegionFile, MemoryBudget.GLOBAL);
+	/**
+	 * All region files that are in the cache or still used by a thread after they were evicted.
+	 * Every file only has one instance, otherwise the instances would overwrite each other's sectors and headers.
+	 */
+	private static final HashMap<RegionFileCompare, RegionFile> openRegions = new HashMap<>();
+
+	/** Every chunk in a region file starts with a CRC32 of the rest of its data, followed by the id of its codec. */
+	public static final int CHECKSUM_SIZE = 4;
+	public static final int BLOB_HEADER_SIZE = CHECKSUM_SIZE + 1;
+	/** The codec used for newly saved chunks. Set by the "chunkCodec" entry of the world data. */
+	public static volatile ChunkCodec codec = ChunkCodec.DEFLATE;
+	/** The number of stored chunks that were corrupted and got generated again. */
+	public static final AtomicInteger corruptedChunks = new AtomicInteger();
+
+	private static final SaveQueue saveQueue = new SaveQueue();
+	static {
+		// Chunks that are still waiting get written before the game exits:
+		Runtime.getRuntime().addShutdownHook(new Thread(saveQueue::shutdown, "Save-Thread-Shutdown"));
+	}
 	
-	private static RegionFile getOrLoadRegionFile(World world, int wx, int wy, int wz, int voxelSize, String fileEnding) {
+	/**
+	 * Finds the region file in the cache or loads it. It is kept open until {@link #releaseRegionFile} is called, even if it gets evicted from the cache in the meantime.
+	 * @return the region file that contains the given coordinates.
+	 */
+	static RegionFile acquireRegionFile(World world, int wx, int wy, int wz, int voxelSize, String fileEnding) {
 		wx = RegionFile.findCoordinate(wx, voxelSize);
 		wy = RegionFile.findCoordinate(wy, voxelSize);
 		wz = RegionFile.findCoordinate(wz, voxelSize);
 		RegionFileCompare data = new RegionFileCompare(wx, wy, wz, voxelSize, fileEnding);
 		int hash = data.hashCode() & HASH_MASK;
-		RegionFile res = regionCache.find(data, hash);
-		if (res != null) return res;
-		synchronized(regionCache.cache[hash]) {
-			res = regionCache.find(data, hash);
-			if (res != null) return res;
-			// Generate a new chunk:
-			res = new RegionFile(world, wx, wy, wz, voxelSize, fileEnding);
-			RegionFile old = regionCache.addToCache(res, hash);
-			if(old != null) {
-				old.clean();
+		while(true) {
+			// The cache holds a reference of its own, which gets released on eviction.
+			RegionFile region = regionCache.findOrCreate(data, hash, () -> openRegionFile(world, data));
+			synchronized(openRegions) {
+				// The region might have been evicted and closed right after it was found.
+				if(openRegions.get(data) == region) {
+					region.references++;
+					return region;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets called by the cache with the line of the region locked, so no other thread can open the same file at the same time.
+	 * @return the region file with a reference for the cache.
+	 */
+	private static RegionFile openRegionFile(World world, RegionFileCompare data) {
+		synchronized(openRegions) {
+			RegionFile region = openRegions.get(data);
+			if(region != null) {
+				region.references++;
+				return region;
 			}
 		}
-		return res;
+		RegionFile region = new RegionFile(world, data.wx, data.wy, data.wz, data.voxelSize, data.fileEnding);
+		synchronized(openRegions) {
+			region.references++;
+			openRegions.put(data, region);
+		}
+		return region;
 	}
+
+	/**
+	 * Stores and closes the region file once the cache and all threads released it.
+	 * @param region
+	 */
+	static void releaseRegionFile(RegionFile region) {
+		synchronized(openRegions) {
+			if(--region.references != 0) return;
+			region.clean();
+			if(openRegions.get(region) == region) {
+				openRegions.remove(region);
+			}
+		}
+	}
+
 	public static boolean loadChunkFromFile(World world, SavableChunk ch) {
-		RegionFile region = getOrLoadRegionFile(world, ch.wx, ch.wy, ch.wz, ch.voxelSize, ch.fileEnding());
-		return region.loadChunk(ch);
+		// The newest version might still be waiting to be written:
+		byte[] waiting = saveQueue.getWaitingData(ch);
+		if(waiting != null) {
+			return ch.loadFromByteArray(waiting, waiting.length);
+		}
+		RegionFile region = acquireRegionFile(world, ch.wx, ch.wy, ch.wz, ch.voxelSize, ch.fileEnding());
+		try {
+			return region.loadChunk(ch);
+		} finally {
+			releaseRegionFile(region);
+		}
 	}
+	/**
+	 * Queues the chunk to be written by the save thread. Use {@link #flush()} to wait until it is on disk.
+	 * @param world
+	 * @param ch
+	 */
 	public static void storeChunkToFile(World world, SavableChunk ch) {
-		RegionFile region = getOrLoadRegionFile(world, ch.wx, ch.wy, ch.wz, ch.voxelSize, ch.fileEnding());
-		region.saveChunk(ch);
+		saveQueue.add(world, ch);
+	}
+
+	/**
+	 * Blocks until all chunks that were stored before are written to disk.
+	 */
+	public static void flush() {
+		saveQueue.flush();
 	}
 	
 	public static void save() {
+		flush();
 		regionCache.foreach(RegionFile::clean);
 	}
 	
 	public static void clean() {
 		save();
 		regionCache.clear();
+		synchronized(openRegions) {
+			openRegions.clear();
+		}
 	}
 
-	public static byte[] compressChunk(byte[] input) {
-		byte[] output = threadLocalOutputBuffer.get();
-
-		Deflater compressor = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
-		compressor.setInput(input);
-		compressor.finish();
-		int dataLength = compressor.deflate(output);
+	/**
+	 * Compresses the chunk data with the current {@link #codec}.
+	 * @param data
+	 * @return the blob that gets stored in the region file.
+	 */
+	public static byte[] encodeChunk(byte[] data) {
+		ChunkCodec codec = ChunkIO.codec;
+		return createBlob(codec.id, codec.compress(data, 0, data.length));
+	}
 
-		while(!compressor.needsInput()) { // The buffer was too small. Switching to a bigger buffer.
-			output = Arrays.copyOf(output, output.length*2);
-			threadLocalOutputBuffer.set(output);
-			dataLength += compressor.deflate(output, output.length/2, output.length/2);
+	/**
+	 * @param blob a blob with a valid checksum.
+	 * @return the chunk data or null if the codec is unknown or the data is invalid.
+	 */
+	public static byte[] decodeChunk(byte[] blob) {
+		if(blob.length < BLOB_HEADER_SIZE) return null;
+		ChunkCodec codec = ChunkCodec.getCodec(blob[CHECKSUM_SIZE] & 255);
+		if(codec == null) {
+			Logger.error("Unknown chunk codec "+(blob[CHECKSUM_SIZE] & 255)+".");
+			return null;
 		}
-		compressor.end();
+		try {
+			return codec.decompress(blob, BLOB_HEADER_SIZE, blob.length - BLOB_HEADER_SIZE);
+		} catch(DataFormatException e) {
+			Logger.error(e);
+			return null;
+		}
+	}
 
-		return Arrays.copyOf(output, dataLength);
+	/**
+	 * @param codecId
+	 * @param compressed
+	 * @return the compressed data with the checksum and the codec id in front.
+	 */
+	static byte[] createBlob(int codecId, byte[] compressed) {
+		byte[] output = new byte[BLOB_HEADER_SIZE + compressed.length];
+		output[CHECKSUM_SIZE] = (byte)codecId;
+		System.arraycopy(compressed, 0, output, BLOB_HEADER_SIZE, compressed.length);
+		CRC32 crc = new CRC32();
+		crc.update(output, CHECKSUM_SIZE, output.length - CHECKSUM_SIZE);
+		Bits.putInt(output, 0, (int)crc.getValue());
+		return output;
+	}
+
+	/**
+	 * @param data a blob with a checksum in front.
+	 * @return true if the checksum matches the data.
+	 */
+	public static boolean hasValidChecksum(byte[] data) {
+		if(data.length < CHECKSUM_SIZE) return false;
+		CRC32 crc = new CRC32();
+		crc.update(data, CHECKSUM_SIZE, data.length - CHECKSUM_SIZE);
+		return (int)crc.getValue() == Bits.getInt(data, 0);
+	}
+
+	/**
+	 * Compresses with deflate, which is also used by the network protocols.
+	 * @param input
+	 * @return
+	 */
+	public static byte[] compressChunk(byte[] input) {
+		return ChunkCodec.DEFLATE.compress(input, 0, input.length);
 	}
 
 	public static byte[] compressChunk(SavableChunk ch) {
@@ -82,32 +206,11 @@ public final class ChunkIO {
 	}
 
 	public static byte[] decompressChunk(byte[] in, int offset, int length) {
-		byte[] input = threadLocalInputBuffer.get();
-		if(length > input.length) {
-			input = new byte[length];
-			threadLocalInputBuffer.set(input);
-		}
-		byte[] output = threadLocalOutputBuffer.get();
-		System.arraycopy(in, offset, input, 0, length);
-
-		Inflater decompresser = new Inflater(true);
-		decompresser.setInput(input, 0, length);
-		int outputLength;
 		try {
-			outputLength = decompresser.inflate(output);
-			while(!decompresser.finished()) {
-				output = Arrays.copyOf(output, output.length*2);
-				threadLocalOutputBuffer.set(output);
-				outputLength += decompresser.inflate(output, outputLength, output.length - outputLength);
-			}
+			return ChunkCodec.DEFLATE.decompress(in, offset, length);
 		} catch (DataFormatException e) {
 			Logger.error(e);
 			return null;
 		}
-		decompresser.end();
-
-		byte[] out = new byte[outputLength]; // TODO(post-valhalla): return an offset byte array.
-		System.arraycopy(output, 0, out, 0, outputLength);
-		return out;
 	}
 }
@@ -0,0 +1,73 @@
+package cubyz.world.save;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate without zlib header.<br>
+ * Deflaters and Inflaters hold native memory and are expensive to create, so they are pooled and reused.
+ */
+public class DeflateCodec extends ChunkCodec {
+	private final int level;
+	private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param level compression level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}. Doesn't affect decompression.
+	 */
+	public DeflateCodec(int level) {
+		super(DEFLATE_ID, level == Deflater.DEFAULT_COMPRESSION ? "deflate" : "deflate-"+level);
+		this.level = level;
+	}
+
+	@Override
+	public byte[] compress(byte[] data, int offset, int length) {
+		Deflater deflater = deflaters.poll();
+		if(deflater == null) {
+			deflater = new Deflater(level, true);
+		}
+		try {
+			deflater.setInput(data, offset, length);
+			deflater.finish();
+			byte[] output = getBuffer(length/2 + 64);
+			int outputLength = deflater.deflate(output);
+			while(!deflater.finished()) { // The buffer was too small. Switching to a bigger buffer.
+				output = growBuffer(output, outputLength);
+				outputLength += deflater.deflate(output, outputLength, output.length - outputLength);
+			}
+			return Arrays.copyOf(output, outputLength);
+		} finally {
+			deflater.reset();
+			deflaters.offer(deflater);
+		}
+	}
+
+	@Override
+	public byte[] decompress(byte[] data, int offset, int length) throws DataFormatException {
+		Inflater inflater = inflaters.poll();
+		if(inflater == null) {
+			inflater = new Inflater(true);
+		}
+		try {
+			inflater.setInput(data, offset, length);
+			byte[] output = getBuffer(4*length);
+			int outputLength = inflater.inflate(output);
+			while(!inflater.finished()) {
+				if(inflater.needsInput() || inflater.needsDictionary()) {
+					throw new DataFormatException("Unexpected end of deflate data.");
+				}
+				if(outputLength == output.length) {
+					output = growBuffer(output, outputLength);
+				}
+				outputLength += inflater.inflate(output, outputLength, output.length - outputLength);
+			}
+			return Arrays.copyOf(output, outputLength);
+		} finally {
+			inflater.reset();
+			inflaters.offer(inflater);
+		}
+	}
+}
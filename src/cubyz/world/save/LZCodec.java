@@ -0,0 +1,143 @@
+package cubyz.world.save;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+import cubyz.utils.math.Bits;
+
+/**
+ * A fast LZ77 compressor in the style of LZ4. It compresses worse than deflate, but is several times faster.<br>
+ * Format: the uncompressed length(int), followed by sequences of<br>
+ * token(literal count in the upper 4 bits, match length - 4 in the lower 4 bits, 15 means that more bytes of 255 follow),
+ * literals, match offset(short) and the extra bytes of the match length.<br>
+ * The last sequence only contains literals.
+ */
+public class LZCodec extends ChunkCodec {
+	private static final int MIN_MATCH = 4;
+	private static final int MAX_OFFSET = 65535;
+	private static final int HASH_BITS = 14;
+
+	private static final ThreadLocal<int[]> threadLocalHashTable = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+	public LZCodec() {
+		super(LZ_ID, "lz");
+	}
+
+	private static int hash(int value) {
+		return value*-1640531535 >>> 32 - HASH_BITS;
+	}
+
+	@Override
+	public byte[] compress(byte[] data, int offset, int length) {
+		byte[] output = getBuffer(4 + length + length/255 + 16);
+		Bits.putInt(output, 0, length);
+		int outputIndex = 4;
+		int[] hashTable = threadLocalHashTable.get();
+		Arrays.fill(hashTable, -1);
+
+		int end = offset + length;
+		int matchLimit = end - MIN_MATCH;
+		int anchor = offset;
+		int index = offset;
+		while(index <= matchLimit) {
+			int sequence = Bits.getInt(data, index);
+			int hash = hash(sequence);
+			int reference = hashTable[hash];
+			hashTable[hash] = index;
+			if(reference < 0 || index - reference > MAX_OFFSET || Bits.getInt(data, reference) != sequence) {
+				index++;
+				continue;
+			}
+			int matchLength = MIN_MATCH;
+			while(index + matchLength < end && data[reference + matchLength] == data[index + matchLength]) {
+				matchLength++;
+			}
+			outputIndex = writeSequence(data, anchor, index - anchor, output, outputIndex, matchLength);
+			output[outputIndex++] = (byte)(index - reference >>> 8);
+			output[outputIndex++] = (byte)(index - reference);
+			outputIndex = writeLength(output, outputIndex, matchLength - MIN_MATCH);
+			index += matchLength;
+			anchor = index;
+		}
+		outputIndex = writeSequence(data, anchor, end - anchor, output, outputIndex, MIN_MATCH);
+		return Arrays.copyOf(output, outputIndex);
+	}
+
+	/**
+	 * Writes the token and the literals.
+	 */
+	private static int writeSequence(byte[] data, int literalStart, int literalCount, byte[] output, int outputIndex, int matchLength) {
+		output[outputIndex++] = (byte)(Math.min(literalCount, 15) << 4 | Math.min(matchLength - MIN_MATCH, 15));
+		outputIndex = writeLength(output, outputIndex, literalCount);
+		System.arraycopy(data, literalStart, output, outputIndex, literalCount);
+		return outputIndex + literalCount;
+	}
+
+	/**
+	 * Writes the part of the length that doesn't fit into the token.
+	 */
+	private static int writeLength(byte[] output, int outputIndex, int length) {
+		if(length < 15) return outputIndex;
+		length -= 15;
+		while(length >= 255) {
+			output[outputIndex++] = (byte)255;
+			length -= 255;
+		}
+		output[outputIndex++] = (byte)length;
+		return outputIndex;
+	}
+
+	@Override
+	public byte[] decompress(byte[] data, int offset, int length) throws DataFormatException {
+		int end = offset + length;
+		if(length < 4) throw new DataFormatException("Missing length.");
+		int outputLength = Bits.getInt(data, offset);
+		if(outputLength < 0) throw new DataFormatException("Invalid length "+outputLength+".");
+		byte[] output = new byte[outputLength];
+		int outputIndex = 0;
+		int index = offset + 4;
+		while(true) {
+			if(index >= end) throw new DataFormatException("Unexpected end of data.");
+			int token = data[index++] & 255;
+			int literalCount = token >>> 4;
+			if(literalCount == 15) {
+				int extra;
+				do {
+					if(index >= end) throw new DataFormatException("Unexpected end of data.");
+					extra = data[index++] & 255;
+					literalCount += extra;
+				} while(extra == 255);
+			}
+			if(literalCount > end - index || literalCount > outputLength - outputIndex) throw new DataFormatException("Literals out of bounds.");
+			System.arraycopy(data, index, output, outputIndex, literalCount);
+			index += literalCount;
+			outputIndex += literalCount;
+			if(outputIndex == outputLength) break;
+
+			if(index + 2 > end) throw new DataFormatException("Unexpected end of data.");
+			int matchOffset = (data[index] & 255) << 8 | data[index + 1] & 255;
+			index += 2;
+			int matchLength = token & 15;
+			if(matchLength == 15) {
+				int extra;
+				do {
+					if(index >= end) throw new DataFormatException("Unexpected end of data.");
+					extra = data[index++] & 255;
+					matchLength += extra;
+				} while(extra == 255);
+			}
+			matchLength += MIN_MATCH;
+			if(matchOffset == 0 || matchOffset > outputIndex || matchLength > outputLength - outputIndex) throw new DataFormatException("Match out of bounds.");
+			int source = outputIndex - matchOffset;
+			if(matchOffset >= matchLength) {
+				System.arraycopy(output, source, output, outputIndex, matchLength);
+			} else { // Overlapping match, which repeats the last matchOffset bytes.
+				for(int i = 0; i < matchLength; i++) {
+					output[outputIndex + i] = output[source + i];
+				}
+			}
+			outputIndex += matchLength;
+		}
+		return output;
+	}
+}
@@ -0,0 +1,209 @@
+package cubyz.world.save;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import cubyz.Constants;
+import cubyz.api.Side;
+import cubyz.modding.ModLoader;
+import cubyz.multiplayer.server.Server;
+import cubyz.utils.Logger;
+import cubyz.world.Chunk;
+import cubyz.world.NormalChunk;
+import cubyz.world.ReducedChunk;
+import cubyz.world.ServerWorld;
+
+/**
+ * Shrinks the region files of a world while the game isn't running.<br>
+ * --drop-generated removes all normal chunks that are identical to a freshly generated chunk, because they can be generated again from the seed.<br>
+ * --rebuild-lods deletes all reduced resolution regions and builds them again from the stored normal chunks.<br>
+ * Afterwards every region file is rewritten without free sectors.<br>
+ * Usage: java cubyz.world.save.RegionCompactor [world] [--drop-generated] [--rebuild-lods]
+ */
+public final class RegionCompactor {
+	private RegionCompactor() {} // No instances allowed.
+
+	private static final String FILE_ENDING = "region";
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 1) {
+			System.out.println("Usage: java cubyz.world.save.RegionCompactor [world] [--drop-generated] [--rebuild-lods]");
+			return;
+		}
+		String name = args[0];
+		List<String> options = Arrays.asList(args).subList(1, args.length);
+		boolean dropGenerated = options.contains("--drop-generated");
+		boolean rebuildLods = options.contains("--rebuild-lods");
+		File worldFolder = new File("saves/"+name);
+		if(!worldFolder.isDirectory()) {
+			Logger.error("The world \""+name+"\" doesn't exist.");
+			return;
+		}
+		long sizeBefore = getTotalSize(listRegionFiles(worldFolder, 0));
+
+		if(dropGenerated || rebuildLods) {
+			Constants.setGameSide(Side.SERVER);
+			ModLoader.load();
+			ServerWorld world = new ServerWorld(name, null);
+			Server.world = world;
+			List<NormalChunk> normalChunks = findStoredNormalChunks(world, worldFolder);
+			Logger.info("Found "+normalChunks.size()+" stored normal chunks.");
+			if(dropGenerated) {
+				normalChunks = dropGeneratedChunks(world, normalChunks);
+			}
+			if(rebuildLods) {
+				rebuildLods(world, worldFolder, normalChunks);
+			}
+			world.cleanup();
+			Server.world = null;
+		}
+
+		File quarantine = new File(worldFolder, "quarantine");
+		long compacted = 0;
+		for(File file : listRegionFiles(worldFolder, 0)) {
+			try {
+				// The position doesn't matter for copying the chunks:
+				compacted += new RegionFile(file, quarantine, 0, 0, 0, 1, FILE_ENDING).compact();
+			} catch(IOException e) {
+				Logger.error("Unable to compact \""+file.getPath()+"\".");
+				Logger.error(e);
+			}
+		}
+		long sizeAfter = getTotalSize(listRegionFiles(worldFolder, 0));
+		Logger.info("Compaction freed "+compacted/1024+" KiB.");
+		Logger.info("Region files: "+sizeBefore/1024+" KiB before, "+sizeAfter/1024+" KiB after. Reclaimed "+(sizeBefore - sizeAfter)/1024+" KiB in total.");
+	}
+
+	/**
+	 * @param voxelSize only lists the regions of this voxel size. 0 lists all regions.
+	 * @return the region files of the world, sorted by path.
+	 */
+	private static List<File> listRegionFiles(File worldFolder, int voxelSize) throws IOException {
+		String voxelSizePattern = voxelSize == 0 ? "\\d+" : Integer.toString(voxelSize);
+		try (Stream<Path> paths = Files.walk(worldFolder.toPath())) {
+			return paths.filter(Files::isRegularFile)
+					.filter(path -> worldFolder.toPath().relativize(path).toString().matches(voxelSizePattern+"[/\\\\]-?\\d+[/\\\\]-?\\d+[/\\\\]-?\\d+\\."+FILE_ENDING))
+					.map(Path::toFile)
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static long getTotalSize(List<File> files) {
+		long size = 0;
+		for(File file : files) {
+			size += file.length();
+		}
+		return size;
+	}
+
+	/**
+	 * @return unloaded chunks at the positions of all normal chunks that are stored in the world.
+	 */
+	private static List<NormalChunk> findStoredNormalChunks(ServerWorld world, File worldFolder) throws IOException {
+		List<NormalChunk> chunks = new ArrayList<>();
+		for(File file : listRegionFiles(worldFolder, 1)) {
+			int wx = Integer.parseInt(file.getParentFile().getParentFile().getName());
+			int wy = Integer.parseInt(file.getParentFile().getName());
+			int wz = Integer.parseInt(file.getName().substring(0, file.getName().indexOf('.')));
+			RegionFile region = ChunkIO.acquireRegionFile(world, wx, wy, wz, 1, FILE_ENDING);
+			try {
+				for(int i = 0; i < RegionFile.CHUNKS_PER_REGION; i++) {
+					if(!region.hasChunk(i)) continue;
+					int x = i >> 2*RegionFile.REGION_SHIFT & RegionFile.REGION_SIZE - 1;
+					int y = i >> RegionFile.REGION_SHIFT & RegionFile.REGION_SIZE - 1;
+					int z = i & RegionFile.REGION_SIZE - 1;
+					chunks.add(new NormalChunk(world, wx + x*Chunk.chunkSize, wy + y*Chunk.chunkSize, wz + z*Chunk.chunkSize));
+				}
+			} finally {
+				ChunkIO.releaseRegionFile(region);
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * Removes all chunks from their regions that are identical to a freshly generated chunk.
+	 * @return the chunks that were kept.
+	 */
+	private static List<NormalChunk> dropGeneratedChunks(ServerWorld world, List<NormalChunk> chunks) throws InterruptedException {
+		List<NormalChunk> keptChunks = Collections.synchronizedList(new ArrayList<>());
+		runOnAllCores(chunks, chunk -> {
+			NormalChunk generated = new NormalChunk(world, chunk.wx, chunk.wy, chunk.wz);
+			generated.generateFromSeed(world.getSeed(), world.chunkManager.terrainGenerationProfile);
+			chunk.generate(world.getSeed(), world.chunkManager.terrainGenerationProfile);
+			if(Arrays.equals(chunk.saveToByteArray(), generated.saveToByteArray())) {
+				RegionFile region = ChunkIO.acquireRegionFile(world, chunk.wx, chunk.wy, chunk.wz, 1, FILE_ENDING);
+				region.removeChunk(chunk);
+				ChunkIO.releaseRegionFile(region);
+			} else {
+				keptChunks.add(chunk);
+			}
+		});
+		ChunkIO.save();
+		Logger.info("Dropped "+(chunks.size() - keptChunks.size())+" chunks that can be generated again.");
+		keptChunks.sort(Comparator.comparingInt((NormalChunk chunk) -> chunk.wx).thenComparingInt(chunk -> chunk.wy).thenComparingInt(chunk -> chunk.wz));
+		return keptChunks;
+	}
+
+	/**
+	 * Deletes all reduced resolution regions and updates freshly generated reduced chunks with the given normal chunks.
+	 * Saving the reduced chunks updates the next lod level, just like it does in game.
+	 */
+	private static void rebuildLods(ServerWorld world, File worldFolder, List<NormalChunk> chunks) throws IOException {
+		ChunkIO.clean();
+		long deletedSize = 0;
+		for(int lod = 1; lod <= Constants.HIGHEST_LOD; lod++) {
+			List<File> files = listRegionFiles(worldFolder, 1 << lod);
+			deletedSize += getTotalSize(files);
+			for(File file : files) {
+				Files.delete(file.toPath());
+			}
+		}
+		Logger.info("Deleted "+deletedSize/1024+" KiB of reduced resolution regions.");
+		for(int i = 0; i < chunks.size(); i++) {
+			NormalChunk chunk = chunks.get(i);
+			chunks.set(i, null); // The chunk isn't needed afterwards.
+			if(!chunk.isGenerated()) {
+				chunk.generate(world.getSeed(), world.chunkManager.terrainGenerationProfile);
+			}
+			ReducedChunk reducedChunk = world.chunkManager.getOrGenerateReducedChunk(chunk.wx, chunk.wy, chunk.wz, 2);
+			reducedChunk.updateFromLowerResolution(chunk);
+		}
+		world.chunkManager.forceSave();
+		Logger.info("Rebuilt the reduced resolution regions from "+chunks.size()+" normal chunks.");
+	}
+
+	private static <T> void runOnAllCores(List<T> list, Consumer<T> task) throws InterruptedException {
+		AtomicInteger nextIndex = new AtomicInteger();
+		Thread[] threads = new Thread[Runtime.getRuntime().availableProcessors()];
+		for(int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				int index;
+				while((index = nextIndex.getAndIncrement()) < list.size()) {
+					try {
+						task.accept(list.get(index));
+					} catch(Throwable e) {
+						Logger.error(e);
+					}
+				}
+			});
+			threads[i].setName("Compaction-Thread-"+(i+1));
+			threads[i].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+	}
+}
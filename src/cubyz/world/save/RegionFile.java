@@ -1,15 +1,20 @@
 package cubyz.world.save;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 import cubyz.client.GameLauncher;
-import cubyz.multiplayer.server.Server;
 import cubyz.utils.Logger;
 import cubyz.utils.math.Bits;
 import cubyz.world.Chunk;
@@ -17,163 +22,530 @@ import cubyz.world.SavableChunk;
 import cubyz.world.World;
 
 /**
- * Multiple chunks are bundled up in regions to reduce disk reads/writes.
+ * Multiple chunks are bundled up in regions to reduce disk reads/writes.<br>
+ * The file is split into sectors. Each chunk is stored in its own range of sectors, so saving a chunk only writes that chunk.<br>
+ * The table of chunk locations is stored in two alternating header slots, each with a sequence number and a checksum.
+ * New chunk data is only ever written into sectors that aren't referenced by the last committed header,
+ * so a crash in the middle of a save can at most lose the uncommitted changes, but never corrupt other chunks.<br>
+ * Chunks should be saved through {@link ChunkIO}, which writes them in batches on a single thread, so there is only one writer per file.<br>
+ * Every chunk starts with a checksum and the id of the {@link ChunkCodec} it was compressed with. Chunks that fail it are moved to the quarantine folder and removed from the region, so they get generated again.
  */
 public class RegionFile extends RegionFileCompare {
 	public static final int REGION_SHIFT = 3;
 	public static final int REGION_SIZE = 1 << REGION_SHIFT;
-	private byte[] data = new byte[0];
-	private final boolean[] occupancy = new boolean[REGION_SIZE*REGION_SIZE*REGION_SIZE];
-	private final int[] startingIndices = new int[REGION_SIZE*REGION_SIZE*REGION_SIZE + 1];
+	public static final int CHUNKS_PER_REGION = REGION_SIZE*REGION_SIZE*REGION_SIZE;
+
+	static final int SECTOR_SIZE = 512;
+	private static final int MAGIC = 0x43594252; // "CYBR"
+	private static final int VERSION = 1;
+	/** magic, version, sequence, (starting sector, length) for every chunk, crc32 */
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8*CHUNKS_PER_REGION + 4;
+	private static final int HEADER_SECTORS = (HEADER_SIZE + SECTOR_SIZE - 1)/SECTOR_SIZE;
+	private static final int FIRST_DATA_SECTOR = 2*HEADER_SECTORS;
+
+	// Statistics:
+	public static final AtomicLong bytesWritten = new AtomicLong();
+	public static final AtomicLong chunksWritten = new AtomicLong();
+
+	private final File file;
+	private final File quarantineDirectory;
+	/** The chunk locations of the last header that was written to disk. */
+	private final int[] committedSectors = new int[CHUNKS_PER_REGION];
+	private final int[] committedLengths = new int[CHUNKS_PER_REGION];
+	/** The chunk locations including all changes since the last commit. A length of 0 means the chunk isn't stored. */
+	private final int[] sectors = new int[CHUNKS_PER_REGION];
+	private final int[] lengths = new int[CHUNKS_PER_REGION];
+	/** All sectors used by either the committed or the current chunk locations. */
+	private final BitSet usedSectors = new BitSet();
+	private long sequence = 0;
 	private boolean wasChanged = false;
-	private boolean storeOnChange = false;
+	/** Opened on first use and kept open until {@link #clean()}. Only used while holding the lock. */
+	private RandomAccessFile openFile = null;
+	/** The number of users, including the cache. Only changed by {@link ChunkIO} while it holds the lock of its open regions. */
+	int references = 0;
 
 	public RegionFile(World world, int wx, int wy, int wz, int voxelSize, String fileEnding) {
+		this(new File("saves/"+world.getName()+"/"+voxelSize+"/"+wx+"/"+wy+"/"+wz+"."+fileEnding), new File("saves/"+world.getName()+"/quarantine"), wx, wy, wz, voxelSize, fileEnding);
+	}
+
+	RegionFile(File file, File quarantineDirectory, int wx, int wy, int wz, int voxelSize, String fileEnding) {
 		super(wx, wy, wz, voxelSize, fileEnding);
-		// Load data from file:
-		File file = new File("saves/"+world.getName()+"/"+voxelSize+"/"+wx+"/"+wy+"/"+wz+"."+fileEnding);
+		this.file = file;
+		this.quarantineDirectory = quarantineDirectory;
+		usedSectors.set(0, FIRST_DATA_SECTOR);
 		if(!file.exists()) {
 			return;
 		}
-		try (InputStream in = new FileInputStream(file)) {
-			byte[] data = in.readAllBytes();
-			if(data.length < 4) return;
-			
-			int offset = 0;
-			int compressor = Bits.getInt(data, offset);
-			offset += 4;
-			if(compressor != 0) {
-				Logger.error("Unknown compression algorithm "+compressor+" for save file \""+file.getAbsolutePath()+"\".");
-				return;
+		try {
+			if(!loadHeader()) {
+				migrateLegacyFile();
 			}
-			byte[] occupancyBytes = new byte[occupancy.length/8];
-			System.arraycopy(data, 4, occupancyBytes, 0, occupancyBytes.length);
-			offset += occupancyBytes.length;
-			int index = -1;
-			for(int i = 0; i < occupancy.length; i++) {
-				occupancy[i] = (occupancyBytes[i >> 3] & 1L << (i & 7)) != 0;
-				if(occupancy[i]) {
-					startingIndices[i] = Bits.getInt(data, offset);
-					for(index++; index < i; index++) {
-						startingIndices[index] = startingIndices[i];
+		} catch (IOException e) {
+			Logger.error("Unable to load chunk resources.");
+			Logger.error(e);
+		}
+	}
+
+	/**
+	 * Loads the chunk locations from the newest valid header.
+	 * @return false if the file uses the old format.
+	 */
+	private boolean loadHeader() throws IOException {
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			if(in.length() < 4) return true;
+			if(in.readInt() != MAGIC) return false;
+			byte[] header = new byte[HEADER_SIZE];
+			long bestSequence = -1;
+			for(int slot = 0; slot < 2; slot++) {
+				if(in.length() < (long)slot*HEADER_SECTORS*SECTOR_SIZE + HEADER_SIZE) break;
+				in.seek((long)slot*HEADER_SECTORS*SECTOR_SIZE);
+				in.readFully(header);
+				long headerSequence = parseHeader(header);
+				if(headerSequence > bestSequence) {
+					bestSequence = headerSequence;
+					for(int i = 0; i < CHUNKS_PER_REGION; i++) {
+						sectors[i] = Bits.getInt(header, 16 + 8*i);
+						lengths[i] = Bits.getInt(header, 20 + 8*i);
 					}
-					offset += 4;
-				} else if(i == 0) {
-					startingIndices[i] = 0;
-				} else {
-					startingIndices[i] = startingIndices[i - 1];
 				}
 			}
-			
-			this.data = Arrays.copyOfRange(data, offset, data.length);
-			for(index++; index < startingIndices.length; index++) {
-				startingIndices[index] = this.data.length;
+			if(bestSequence == -1) {
+				Logger.error("Both headers of the region file \""+file.getAbsolutePath()+"\" are corrupted.");
+				return true;
 			}
-		} catch (IOException e) {
-			Logger.error("Unable to load chunk resources.");
-			Logger.error(e);
+			sequence = bestSequence;
+			markCommitted();
+			return true;
+		}
+	}
+
+	/**
+	 * @param header
+	 * @return the sequence number of the header or -1 if it is invalid.
+	 */
+	private static long parseHeader(byte[] header) {
+		if(Bits.getInt(header, 0) != MAGIC) return -1;
+		int version = Bits.getInt(header, 4);
+		if(version != VERSION) return -1;
+		CRC32 crc = new CRC32();
+		crc.update(header, 0, HEADER_SIZE - 4);
+		if((int)crc.getValue() != Bits.getInt(header, HEADER_SIZE - 4)) return -1;
+		return Bits.getLong(header, 8);
+	}
+
+	/**
+	 * Converts a region file from the old format, which stored all chunks back to back, into the sector format.
+	 * The new file is written next to the old one and then moved over it, so the old file stays intact if this fails.
+	 */
+	private void migrateLegacyFile() throws IOException {
+		byte[] data;
+		try (InputStream in = new FileInputStream(file)) {
+			data = in.readAllBytes();
+		}
+		if(data.length < 4 + CHUNKS_PER_REGION/8) return;
+		int offset = 0;
+		int compressor = Bits.getInt(data, offset);
+		offset += 4;
+		if(compressor != 0) {
+			Logger.error("Unknown compression algorithm "+compressor+" for save file \""+file.getAbsolutePath()+"\".");
+			return;
+		}
+		boolean[] occupancy = new boolean[CHUNKS_PER_REGION];
+		int[] startingIndices = new int[CHUNKS_PER_REGION + 1];
+		byte[] occupancyBytes = new byte[occupancy.length/8];
+		System.arraycopy(data, 4, occupancyBytes, 0, occupancyBytes.length);
+		offset += occupancyBytes.length;
+		int index = -1;
+		for(int i = 0; i < occupancy.length; i++) {
+			occupancy[i] = (occupancyBytes[i >> 3] & 1L << (i & 7)) != 0;
+			if(occupancy[i]) {
+				startingIndices[i] = Bits.getInt(data, offset);
+				for(index++; index < i; index++) {
+					startingIndices[index] = startingIndices[i];
+				}
+				offset += 4;
+			} else if(i == 0) {
+				startingIndices[i] = 0;
+			} else {
+				startingIndices[i] = startingIndices[i - 1];
+			}
+		}
+		for(index++; index < startingIndices.length; index++) {
+			startingIndices[index] = data.length - offset;
+		}
+
+		File tempFile = new File(file.getPath()+".migrating");
+		try (RandomAccessFile out = new RandomAccessFile(tempFile, "rw")) {
+			out.setLength(0);
+			for(int i = 0; i < CHUNKS_PER_REGION; i++) {
+				int length = startingIndices[i + 1] - startingIndices[i];
+				if(length == 0) continue;
+				byte[] blob = ChunkIO.createBlob(ChunkCodec.DEFLATE_ID, Arrays.copyOfRange(data, offset + startingIndices[i], offset + startingIndices[i + 1]));
+				int sector = allocateSectors(sectorCount(blob.length));
+				out.seek((long)sector*SECTOR_SIZE);
+				out.write(blob);
+				sectors[i] = sector;
+				lengths[i] = blob.length;
+			}
+			writeHeader(out);
+			out.getChannel().force(false);
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		markCommitted();
+		Logger.info("Migrated region file \""+file.getPath()+"\" to the sector format.");
+	}
+
+	/**
+	 * @return the open file, which is created if it doesn't exist yet.
+	 */
+	private RandomAccessFile getFile() throws IOException {
+		if(openFile == null || !openFile.getChannel().isOpen()) { // Interrupting a thread during a write closes the file.
+			file.getParentFile().mkdirs();
+			openFile = new RandomAccessFile(file, "rw");
+		}
+		return openFile;
+	}
+
+	private void closeFile() throws IOException {
+		if(openFile != null) {
+			openFile.close();
+			openFile = null;
 		}
 	}
-	
+
+	private void readSectors(int sector, byte[] data) throws IOException {
+		RandomAccessFile in = getFile();
+		in.seek((long)sector*SECTOR_SIZE);
+		in.readFully(data);
+	}
+
 	private int getChunkIndex(SavableChunk ch) {
 		int chunkIndex = (ch.wx - wx)/ch.getWidth();
 		chunkIndex = chunkIndex << REGION_SHIFT | (ch.wy - wy)/ch.getWidth();
 		chunkIndex = chunkIndex << REGION_SHIFT | (ch.wz - wz)/ch.getWidth();
 		return chunkIndex;
 	}
-	
+
+	private static int sectorCount(int length) {
+		return (length + SECTOR_SIZE - 1)/SECTOR_SIZE;
+	}
+
+	/**
+	 * Finds the first free range of sectors that is big enough and marks it as used.
+	 * @param count
+	 * @return the first sector of the range
+	 */
+	private int allocateSectors(int count) {
+		int start = usedSectors.nextClearBit(FIRST_DATA_SECTOR);
+		while(true) {
+			int nextUsed = usedSectors.nextSetBit(start);
+			if(nextUsed == -1 || nextUsed - start >= count) break;
+			start = usedSectors.nextClearBit(nextUsed);
+		}
+		usedSectors.set(start, start + count);
+		return start;
+	}
+
 	public boolean loadChunk(SavableChunk ch) {
 		assert ch.fileEnding().equals(fileEnding) : "Wrong RegionFile: Uses file ending ."+fileEnding+"  instead of ."+ch.fileEnding();
 		int chunkIndex = getChunkIndex(ch);
-		
-		int inputLength = startingIndices[chunkIndex + 1] - startingIndices[chunkIndex];
-		if(inputLength == 0) return false;
-		
-		byte[] out = ChunkIO.decompressChunk(data, startingIndices[chunkIndex], inputLength);
+		byte[] data;
+		int sector;
+		synchronized(this) {
+			int inputLength = lengths[chunkIndex];
+			if(inputLength == 0) return false;
+			sector = sectors[chunkIndex];
+			data = new byte[inputLength];
+			try {
+				readSectors(sector, data);
+			} catch (IOException e) {
+				quarantine(ch, chunkIndex, sector, null, e.toString());
+				return false;
+			}
+		}
+
+		if(!ChunkIO.hasValidChecksum(data)) {
+			quarantine(ch, chunkIndex, sector, data, "checksum mismatch");
+			return false;
+		}
+
+		byte[] out = ChunkIO.decodeChunk(data);
+
+		if(out == null || !ch.loadFromByteArray(out, out.length)) {
+			quarantine(ch, chunkIndex, sector, data, "invalid chunk data");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the stored blob of a chunk without decoding it.
+	 * @param chunkIndex
+	 * @return the blob or null if the chunk isn't stored.
+	 */
+	synchronized byte[] loadBlob(int chunkIndex) throws IOException {
+		if(lengths[chunkIndex] == 0) return null;
+		byte[] data = new byte[lengths[chunkIndex]];
+		readSectors(sectors[chunkIndex], data);
+		return data;
+	}
 
-		if(out == null) return false;
-		
-		return ch.loadFromByteArray(out, out.length);
+	/**
+	 * Copies a corrupted chunk into the quarantine folder and removes it from the region, so it gets generated again.
+	 * @param ch
+	 * @param chunkIndex
+	 * @param sector the sector the corrupted data was read from. If the chunk was saved again in the meantime, it is kept.
+	 * @param data the corrupted data or null if it couldn't be read at all.
+	 * @param reason
+	 */
+	private void quarantine(SavableChunk ch, int chunkIndex, int sector, byte[] data, String reason) {
+		ChunkIO.corruptedChunks.incrementAndGet();
+		Logger.error("Chunk "+ch+" in \""+file.getPath()+"\" is corrupted("+reason+"). It will be generated again.");
+		if(data != null) {
+			File quarantineFile = new File(quarantineDirectory, ch.voxelSize+"_"+ch.wx+"_"+ch.wy+"_"+ch.wz+"_"+System.currentTimeMillis()+"."+fileEnding);
+			quarantineDirectory.mkdirs();
+			try {
+				Files.write(quarantineFile.toPath(), data);
+			} catch (IOException e) {
+				Logger.error("Unable to quarantine chunk "+ch+".");
+				Logger.error(e);
+			}
+		}
+		synchronized(this) {
+			if(lengths[chunkIndex] == 0 || sectors[chunkIndex] != sector) return;
+			unsynchronized_removeChunk(chunkIndex);
+		}
 	}
-	
+
+	/**
+	 * @param chunkIndex
+	 * @return true if the chunk is stored in this region.
+	 */
+	synchronized boolean hasChunk(int chunkIndex) {
+		return lengths[chunkIndex] != 0;
+	}
+
+	/**
+	 * Removes the chunk from the region, so it gets generated again.
+	 * @param ch
+	 */
+	synchronized void removeChunk(SavableChunk ch) {
+		int chunkIndex = getChunkIndex(ch);
+		if(lengths[chunkIndex] == 0) return;
+		unsynchronized_removeChunk(chunkIndex);
+	}
+
+	private void unsynchronized_removeChunk(int chunkIndex) {
+		if(sectors[chunkIndex] != committedSectors[chunkIndex]) {
+			usedSectors.clear(sectors[chunkIndex], sectors[chunkIndex] + sectorCount(lengths[chunkIndex]));
+		}
+		sectors[chunkIndex] = 0;
+		lengths[chunkIndex] = 0;
+		wasChanged = true;
+	}
+
+	/**
+	 * Rewrites the file without any free sectors between the chunks. Empty regions are deleted.
+	 * The new file is written next to the old one and then moved over it, so the old file stays intact if this fails.
+	 * @return the number of bytes that were freed on disk.
+	 */
+	synchronized long compact() throws IOException {
+		long oldSize = file.length();
+		if(getStoredChunkCount() == 0) {
+			closeFile();
+			Files.deleteIfExists(file.toPath());
+			markCommitted();
+			wasChanged = false;
+			return oldSize;
+		}
+		File tempFile = new File(file.getPath()+".compacting");
+		int[] oldSectors = sectors.clone();
+		long oldSequence = sequence;
+		try {
+			RandomAccessFile in = getFile();
+			try (RandomAccessFile out = new RandomAccessFile(tempFile, "rw")) {
+				out.setLength(0);
+				int nextSector = FIRST_DATA_SECTOR;
+				for(int i = 0; i < CHUNKS_PER_REGION; i++) {
+					if(lengths[i] == 0) continue;
+					byte[] data = new byte[lengths[i]];
+					in.seek((long)oldSectors[i]*SECTOR_SIZE);
+					in.readFully(data);
+					out.seek((long)nextSector*SECTOR_SIZE);
+					out.write(data);
+					sectors[i] = nextSector;
+					nextSector += sectorCount(data.length);
+				}
+				sequence = 0; // The new file only has one header, which needs to go into the first slot.
+				out.getChannel().force(false);
+				writeHeader(out);
+				out.getChannel().force(false);
+			}
+			closeFile(); // The open file would still refer to the old one after the move.
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(IOException e) {
+			System.arraycopy(oldSectors, 0, sectors, 0, CHUNKS_PER_REGION);
+			sequence = oldSequence;
+			tempFile.delete();
+			throw e;
+		}
+		markCommitted();
+		wasChanged = false;
+		return oldSize - file.length();
+	}
+
 	public void saveChunk(SavableChunk ch) {
-		assert ch.fileEnding().equals(fileEnding) : "Wrong RegionFile: Uses file ending ."+fileEnding+"  instead of ."+ch.fileEnding();
+		saveChunks(Collections.singletonList(ch));
+	}
+
+	/**
+	 * Writes all chunks into free sectors and then commits them together.
+	 * @param chunks
+	 */
+	public void saveChunks(Collection<SavableChunk> chunks) {
+		SavableChunk[] chunkArray = chunks.toArray(new SavableChunk[0]);
+		byte[][] outputs = new byte[chunkArray.length][];
+		for(int i = 0; i < chunkArray.length; i++) {
+			outputs[i] = ChunkIO.encodeChunk(chunkArray[i].saveToByteArray());
+		}
+		try {
+			saveBlobs(chunkArray, outputs);
+		} catch (IOException e) {
+			Logger.error("Unable to store "+chunkArray.length+" chunks to \""+file.getPath()+"\".");
+			Logger.error(e);
+		}
+	}
+
+	/**
+	 * Writes the already encoded chunks into free sectors and then commits them together.
+	 * @param chunkArray
+	 * @param outputs the blobs created by {@link ChunkIO#encodeChunk} for each chunk.
+	 * @throws IOException if the chunks couldn't be written. Saving them again replaces the chunks that were written so far.
+	 */
+	void saveBlobs(SavableChunk[] chunkArray, byte[][] outputs) throws IOException {
+		for(int i = 0; i < chunkArray.length; i++) {
+			assert chunkArray[i].fileEnding().equals(fileEnding) : "Wrong RegionFile: Uses file ending ."+fileEnding+"  instead of ."+chunkArray[i].fileEnding();
+		}
 		synchronized(this) {
-			wasChanged = true;
-			int chunkIndex = getChunkIndex(ch);
-			
-			int dataInsertionIndex = startingIndices[chunkIndex];
-			int oldDataLength = startingIndices[chunkIndex + 1] - dataInsertionIndex;
-
-			byte[] output = ChunkIO.compressChunk(ch);
-
-			byte[] newData = new byte[data.length + output.length - oldDataLength];
-			System.arraycopy(data, 0, newData, 0, dataInsertionIndex);
-			System.arraycopy(output, 0, newData, dataInsertionIndex, output.length);
-			System.arraycopy(data, startingIndices[chunkIndex + 1], newData, dataInsertionIndex + output.length, data.length - startingIndices[chunkIndex + 1]);
-			data = newData;
-			
-			for(int i = chunkIndex + 1; i < startingIndices.length; i++) {
-				startingIndices[i] += output.length - oldDataLength;
+			RandomAccessFile out = getFile();
+			for(int i = 0; i < chunkArray.length; i++) {
+				int chunkIndex = getChunkIndex(chunkArray[i]);
+				byte[] output = outputs[i];
+				// Sectors that were never committed can be reused right away:
+				if(lengths[chunkIndex] != 0 && sectors[chunkIndex] != committedSectors[chunkIndex]) {
+					usedSectors.clear(sectors[chunkIndex], sectors[chunkIndex] + sectorCount(lengths[chunkIndex]));
+				}
+				int sector = allocateSectors(sectorCount(output.length));
+				out.seek((long)sector*SECTOR_SIZE);
+				out.write(output);
+				bytesWritten.addAndGet(output.length);
+				chunksWritten.incrementAndGet();
+				sectors[chunkIndex] = sector;
+				lengths[chunkIndex] = output.length;
+				wasChanged = true;
 			}
-			if(oldDataLength == 0) {
-				// This chunks wasn't in the list before:
-				occupancy[chunkIndex] = true;
+			commit(out);
+		}
+	}
+
+	/**
+	 * Makes sure all chunk data is on the disk and then writes the new header into the older header slot.
+	 * The sectors of the previous header are only released once the new header is on the disk as well.
+	 */
+	private void commit(RandomAccessFile out) throws IOException {
+		out.getChannel().force(false);
+		writeHeader(out);
+		out.getChannel().force(false);
+		markCommitted();
+		wasChanged = false;
+	}
+
+	/**
+	 * Copies the current chunk locations to the committed ones and frees all sectors that are only referenced by the old header.
+	 */
+	private void markCommitted() {
+		System.arraycopy(sectors, 0, committedSectors, 0, CHUNKS_PER_REGION);
+		System.arraycopy(lengths, 0, committedLengths, 0, CHUNKS_PER_REGION);
+		usedSectors.clear();
+		usedSectors.set(0, FIRST_DATA_SECTOR);
+		for(int i = 0; i < CHUNKS_PER_REGION; i++) {
+			if(lengths[i] != 0) {
+				usedSectors.set(sectors[i], sectors[i] + sectorCount(lengths[i]));
 			}
-			if(storeOnChange)
-				unsynchronized_store();
 		}
 	}
-	
+
+	private void writeHeader(RandomAccessFile out) throws IOException {
+		sequence++;
+		byte[] header = new byte[HEADER_SIZE];
+		Bits.putInt(header, 0, MAGIC);
+		Bits.putInt(header, 4, VERSION);
+		Bits.putLong(header, 8, sequence);
+		for(int i = 0; i < CHUNKS_PER_REGION; i++) {
+			Bits.putInt(header, 16 + 8*i, sectors[i]);
+			Bits.putInt(header, 20 + 8*i, lengths[i]);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(header, 0, HEADER_SIZE - 4);
+		Bits.putInt(header, HEADER_SIZE - 4, (int)crc.getValue());
+		out.seek(((sequence - 1) & 1)*HEADER_SECTORS*SECTOR_SIZE); // The first header goes into slot 0, which is also used to detect the format.
+		out.write(header);
+		bytesWritten.addAndGet(HEADER_SIZE);
+	}
+
 	private void unsynchronized_store() {
 		if(!wasChanged) return; // No need to save it.
-		File file = new File("saves/"+ Server.world.getName()+"/"+voxelSize+"/"+wx+"/"+wy+"/"+wz+"."+fileEnding);
-		file.getParentFile().mkdirs();
-		try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
-			byte[] occupancyBytes = new byte[occupancy.length/8];
-			int numberOfChunks = 0;
-			for(int i = 0; i < occupancy.length; i++) {
-				if(occupancy[i]) {
-					occupancyBytes[i >> 3] |= 1L << (i & 7);
-					numberOfChunks++;
-				}
-			}
-			
-			byte[] metaData = new byte[4 + occupancyBytes.length + 4*numberOfChunks];
-			int offset = 0;
-			Bits.putInt(metaData, offset, 0); // compressor version
-			offset += 4;
-			System.arraycopy(occupancyBytes, 0, metaData, 4, occupancyBytes.length);
-			offset += occupancyBytes.length;
-			for(int i = 0; i < occupancy.length; i++) {
-				if(occupancy[i]) {
-					Bits.putInt(metaData, offset, startingIndices[i]);
-					offset += 4;
-				}
-			}
-			
-			out.write(metaData);
-			out.write(data);
+		try {
+			commit(getFile());
 		} catch (IOException e) {
 			Logger.error("Unable to store chunk resources.");
 			Logger.error(e);
 		}
-		wasChanged = false;
 	}
-	
+
 	public void clean() {
 		synchronized(this) {
-			storeOnChange = true;
 			unsynchronized_store();
+			try {
+				closeFile();
+			} catch (IOException e) {
+				Logger.error(e);
+			}
 		}
 	}
-	
+
 	public void store() {
 		synchronized(this) {
 			unsynchronized_store();
 		}
 	}
 
+	/**
+	 * @return the number of bytes of all stored chunks.
+	 */
+	public synchronized long getStoredDataSize() {
+		long size = 0;
+		for(int length : lengths) {
+			size += length;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of stored chunks.
+	 */
+	public synchronized int getStoredChunkCount() {
+		return (int)Arrays.stream(lengths).filter(length -> length != 0).count();
+	}
+
+	/**
+	 * @return an estimate of the heap memory used by the header data in bytes.
+	 */
+	public long getMemoryUsage() {
+		final int objectHeader = 16;
+		return objectHeader + 64 + 4*(objectHeader + 4L*CHUNKS_PER_REGION) + objectHeader + usedSectors.size()/8;
+	}
+
 	/**
 	 * Converts the world coordinate to the coordinate of the region file it lies in.
 	 * @param worldCoordinate
@@ -183,7 +555,7 @@ public class RegionFile extends RegionFileCompare {
 	public static int findCoordinate(int worldCoordinate, int voxelSize) {
 		return worldCoordinate & ~(REGION_SIZE*voxelSize*Chunk.chunkSize - 1);
 	}
-	
+
 	@Override
 	public void finalize() {
 		if(wasChanged) {
@@ -0,0 +1,200 @@
+package cubyz.world.save;
+
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import cubyz.utils.Logger;
+import cubyz.world.ChunkData;
+import cubyz.world.SavableChunk;
+import cubyz.world.World;
+
+/**
+ * Writes chunks to their region files on a dedicated thread.<br>
+ * The thread that adds a chunk only copies its data, the compression happens on the save thread.<br>
+ * Repeated saves of the same chunk are coalesced, and all waiting chunks of a region are written with a single commit.<br>
+ * Threads that add chunks are blocked while too much data is waiting.<br>
+ * The save thread keeps running until {@link #shutdown()} is called, which still writes all waiting chunks.
+ */
+final class SaveQueue {
+	/** The size of the uncompressed data of all waiting chunks at which new saves get blocked. */
+	private static final long MAX_WAITING_BYTES = 64L << 20;
+
+	private static final class Entry {
+		private final SavableChunk chunk;
+		/** The uncompressed data from {@link SavableChunk#saveToByteArray()}. */
+		private final byte[] data;
+		private Entry(SavableChunk chunk, byte[] data) {
+			this.chunk = chunk;
+			this.data = data;
+		}
+	}
+
+	private static final class RegionBatch {
+		private final World world;
+		private final RegionFileCompare region;
+		private final LinkedHashMap<ChunkData, Entry> chunks = new LinkedHashMap<>();
+		private RegionBatch(World world, RegionFileCompare region) {
+			this.world = world;
+			this.region = region;
+		}
+	}
+
+	private final LinkedHashMap<RegionFileCompare, RegionBatch> waiting = new LinkedHashMap<>();
+	/** The batch that is currently written. Its chunks are still returned by {@link #getWaitingData}. */
+	private RegionBatch current = null;
+	private long waitingBytes = 0;
+	private boolean shutdown = false;
+	private final Thread thread;
+
+	SaveQueue() {
+		thread = new Thread(this::run);
+		thread.setName("Save-Thread");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static RegionFileCompare getRegion(SavableChunk ch) {
+		return new RegionFileCompare(RegionFile.findCoordinate(ch.wx, ch.voxelSize), RegionFile.findCoordinate(ch.wy, ch.voxelSize), RegionFile.findCoordinate(ch.wz, ch.voxelSize), ch.voxelSize, ch.fileEnding());
+	}
+
+	/**
+	 * Queues the chunk to be saved. If the chunk is already waiting, it only gets saved once.
+	 * Blocks while too much data is waiting.
+	 * @param world
+	 * @param ch
+	 */
+	void add(World world, SavableChunk ch) {
+		RegionFileCompare region = getRegion(ch);
+		byte[] data = ch.saveToByteArray();
+		synchronized(this) {
+			while(waitingBytes > MAX_WAITING_BYTES && Thread.currentThread() != thread) {
+				try {
+					wait();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			RegionBatch batch = waiting.get(region);
+			if(batch == null) {
+				batch = new RegionBatch(world, region);
+				waiting.put(region, batch);
+			}
+			Entry old = batch.chunks.put(new ChunkData(ch.wx, ch.wy, ch.wz, ch.voxelSize), new Entry(ch, data));
+			if(old != null) {
+				waitingBytes -= old.data.length;
+			}
+			waitingBytes += data.length;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @param ch
+	 * @return the uncompressed data of the newest chunk at the same position that is waiting to be saved or null if there is none.
+	 */
+	synchronized byte[] getWaitingData(SavableChunk ch) {
+		RegionFileCompare region = getRegion(ch);
+		ChunkData key = new ChunkData(ch.wx, ch.wy, ch.wz, ch.voxelSize);
+		RegionBatch batch = waiting.get(region);
+		if(batch != null && batch.chunks.containsKey(key)) {
+			return batch.chunks.get(key).data;
+		}
+		if(current != null && current.region.equals(region) && current.chunks.containsKey(key)) {
+			return current.chunks.get(key).data;
+		}
+		return null;
+	}
+
+	/**
+	 * Blocks until all chunks that were added before are written to disk.
+	 */
+	synchronized void flush() {
+		while(!waiting.isEmpty() || current != null) {
+			try {
+				wait();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes all waiting chunks and then stops the save thread.
+	 */
+	void shutdown() {
+		synchronized(this) {
+			shutdown = true;
+			notifyAll();
+		}
+		boolean interrupted = false;
+		while(thread.isAlive()) {
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run() {
+		while(true) {
+			RegionBatch batch;
+			synchronized(this) {
+				while(waiting.isEmpty()) {
+					if(shutdown) return;
+					try {
+						wait();
+					} catch(InterruptedException e) {
+						// Only a shutdown stops the thread, otherwise chunks would stay unsaved.
+					}
+				}
+				Iterator<RegionBatch> iterator = waiting.values().iterator();
+				batch = iterator.next();
+				iterator.remove();
+				current = batch;
+			}
+			try {
+				SavableChunk[] chunks = new SavableChunk[batch.chunks.size()];
+				byte[][] blobs = new byte[chunks.length][];
+				int i = 0;
+				for(Entry entry : batch.chunks.values()) {
+					chunks[i] = entry.chunk;
+					blobs[i] = ChunkIO.encodeChunk(entry.data);
+					i++;
+				}
+				RegionFileCompare region = batch.region;
+				RegionFile file = ChunkIO.acquireRegionFile(batch.world, region.wx, region.wy, region.wz, region.voxelSize, region.fileEnding);
+				try {
+					while(true) {
+						// An interrupt during a write closes the file, so it is cleared and the write gets repeated:
+						Thread.interrupted();
+						try {
+							file.saveBlobs(chunks, blobs);
+							break;
+						} catch(ClosedByInterruptException e) {
+							Logger.warning("Save-Thread was interrupted while writing region "+region+". Retrying.");
+						}
+					}
+				} finally {
+					ChunkIO.releaseRegionFile(file);
+				}
+			} catch(Throwable e) {
+				Logger.error("Could not save "+batch.chunks.size()+" chunks of region "+batch.region+".");
+				Logger.error(e);
+			}
+			synchronized(this) {
+				for(Entry entry : batch.chunks.values()) {
+					waitingBytes -= entry.data.length;
+				}
+				current = null;
+				notifyAll();
+			}
+		}
+	}
+}
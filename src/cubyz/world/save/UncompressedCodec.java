@@ -0,0 +1,22 @@
+package cubyz.world.save;
+
+import java.util.Arrays;
+
+/**
+ * Stores the data as it is.
+ */
+public class UncompressedCodec extends ChunkCodec {
+	public UncompressedCodec() {
+		super(UNCOMPRESSED_ID, "uncompressed");
+	}
+
+	@Override
+	public byte[] compress(byte[] data, int offset, int length) {
+		return Arrays.copyOfRange(data, offset, offset + length);
+	}
+
+	@Override
+	public byte[] decompress(byte[] data, int offset, int length) {
+		return Arrays.copyOfRange(data, offset, offset + length);
+	}
+}
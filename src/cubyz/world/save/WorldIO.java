@@ -68,6 +68,13 @@ public class WorldIO {
 			world.spawn.x = spawnData.getInt("x", 0);
 			world.spawn.y = spawnData.getInt("y", Integer.MIN_VALUE);
 			world.spawn.z = spawnData.getInt("z", 0);
+			String codecName = worldData.getString("chunkCodec", ChunkCodec.DEFLATE.name);
+			ChunkCodec codec = ChunkCodec.getCodec(codecName);
+			if (codec == null) {
+				Logger.warning("Unknown chunk codec \"" + codecName + "\". Using " + ChunkCodec.DEFLATE.name + " instead.");
+				codec = ChunkCodec.DEFLATE;
+			}
+			ChunkIO.codec = codec;
 		} catch (IOException e) {
 			Logger.error(e);
 		}
@@ -87,6 +94,7 @@ public class WorldIO {
 			spawnData.put("y", world.spawn.y);
 			spawnData.put("z", world.spawn.z);
 			worldData.put("spawn", spawnData);
+			worldData.put("chunkCodec", ChunkIO.codec.name);
 			JsonArray entityData = new JsonArray();
 			worldData.put("entities", entityData);
 			// TODO: Store entities per chunk.
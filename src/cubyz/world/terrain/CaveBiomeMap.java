@@ -2,6 +2,7 @@ package cubyz.world.terrain;
 
 import cubyz.multiplayer.server.Server;
 import cubyz.utils.datastructures.Cache;
+import cubyz.utils.datastructures.MemoryBudget;
 import cubyz.world.Chunk;
 import cubyz.world.ChunkData;
 import cubyz.world.terrain.biomes.Biome;
@@ -11,7 +12,7 @@ public class CaveBiomeMap extends InterpolatableCaveBiomeMap {
 	private static final int CACHE_SIZE = 1 << 8; // Must be a power of 2!
 	private static final int CACHE_MASK = CACHE_SIZE - 1;
 	private static final int ASSOCIATIVITY = 8;
-	private static final Cache<CaveBiomeMapFragment> cache = new Cache<>(new CaveBiomeMapFragment[CACHE_SIZE][ASSOCIATIVITY]);
+	private static final Cache<CaveBiomeMapFragment> cache = new Cache<>("Cave biome maps", new CaveBiomeMapFragment[CACHE_SIZE][ASSOCIATIVITY], CaveBiomeMapFragment::getMemoryUsage, null, MemoryBudget.GLOBAL);
 
 	private static TerrainGenerationProfile profile;
 
@@ -82,16 +83,7 @@ public class CaveBiomeMap extends InterpolatableCaveBiomeMap {
 		wz &= ~CaveBiomeMapFragment.CAVE_BIOME_MAP_MASK;
 		ChunkData compare = new ChunkData(wx, wy, wz, CaveBiomeMapFragment.CAVE_BIOME_SIZE);
 		int hash = compare.hashCode() & CACHE_MASK;
-		CaveBiomeMapFragment ret = cache.find(compare, hash);
-		if (ret != null) return ret;
-		synchronized(cache.cache[hash]) {
-			// Try again in case it was already generated in another thread:
-			ret = cache.find(new ChunkData(wx, wy, wz, 1), hash);
-			if (ret != null) return ret;
-			ret = new CaveBiomeMapFragment(wx, wy, wz, profile);
-			cache.addToCache(ret, hash & CACHE_MASK);
-			return ret;
-		}
+		return cache.findOrCreate(compare, hash, () -> new CaveBiomeMapFragment(compare.wx, compare.wy, compare.wz, profile));
 	}
 
 	public static void cleanup() {
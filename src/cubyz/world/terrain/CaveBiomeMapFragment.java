@@ -26,6 +26,14 @@ public class CaveBiomeMapFragment extends ChunkData {
 		}
 	}
 
+	/**
+	 * @return an estimate of the heap memory used by the map in bytes. The biomes themselves are shared and not included.
+	 */
+	public long getMemoryUsage() {
+		final int objectHeader = 16;
+		return objectHeader + 8L*biomeMap.length;
+	}
+
 	public static int getIndex(int relX, int relY, int relZ) {
 		assert(relX >= 0 && relX < CAVE_BIOME_MAP_SIZE) : "x coordinate out of bounds: " + relX;
 		assert(relY >= 0 && relY < CAVE_BIOME_MAP_SIZE) : "y coordinate out of bounds: " + relY;
@@ -1,6 +1,7 @@
 package cubyz.world.terrain;
 
 import cubyz.utils.datastructures.Cache;
+import cubyz.utils.datastructures.MemoryBudget;
 import cubyz.world.Chunk;
 import cubyz.world.ChunkData;
 
@@ -12,8 +13,8 @@ import cubyz.world.ChunkData;
 public class CaveMap {
 	private static final int CACHE_SIZE = 1 << 9; // Must be a power of 2!
 	private static final int CACHE_MASK = CACHE_SIZE - 1;
-	private static final int ASSOCIATIVITY = 8; // 512 MiB Cache size
-	private static final Cache<CaveMapFragment> cache = new Cache<>(new CaveMapFragment[CACHE_SIZE][ASSOCIATIVITY]);
+	private static final int ASSOCIATIVITY = 8; // At most 512 MiB, if the memory budget allows it.
+	private static final Cache<CaveMapFragment> cache = new Cache<>("Cave maps", new CaveMapFragment[CACHE_SIZE][ASSOCIATIVITY], CaveMapFragment::getMemoryUsage, null, MemoryBudget.GLOBAL);
 
 	private static TerrainGenerationProfile profile;
 
@@ -168,16 +169,7 @@ public class CaveMap {
 		wz &= ~(CaveMapFragment.WIDTH_MASK*voxelSize | voxelSize-1);
 		ChunkData compare = new ChunkData(wx, wy, wz, voxelSize);
 		int hash = compare.hashCode() & CACHE_MASK;
-		CaveMapFragment ret = cache.find(compare, hash);
-		if (ret != null) return ret;
-		synchronized(cache.cache[hash]) {
-			// Try again in case it was already generated in another thread:
-			ret = cache.find(new ChunkData(wx, wy, wz, voxelSize), hash);
-			if (ret != null) return ret;
-			ret = new CaveMapFragment(wx, wy, wz, voxelSize, profile);
-			cache.addToCache(ret, hash & CACHE_MASK);
-			return ret;
-		}
+		return cache.findOrCreate(compare, hash, () -> new CaveMapFragment(compare.wx, compare.wy, compare.wz, voxelSize, profile));
 	}
 
 	public static void cleanup() {
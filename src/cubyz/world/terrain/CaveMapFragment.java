@@ -24,6 +24,14 @@ public class CaveMapFragment extends ChunkData {
 		}
 	}
 
+	/**
+	 * @return an estimate of the heap memory used by the cave data in bytes.
+	 */
+	public long getMemoryUsage() {
+		final int objectHeader = 16;
+		return objectHeader + 8L*data.length;
+	}
+
 	private static int getIndex(int x, int z) {
 		return x*WIDTH + z;
 	}
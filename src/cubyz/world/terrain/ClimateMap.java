@@ -1,6 +1,7 @@
 package cubyz.world.terrain;
 
 import cubyz.utils.datastructures.Cache;
+import cubyz.utils.datastructures.MemoryBudget;
 
 public final class ClimateMap {
 	private ClimateMap() {} // No instances allowed.
@@ -8,7 +9,7 @@ public final class ClimateMap {
 	private static final int CACHE_SIZE = 1 << 8; // Must be a power of 2!
 	private static final int CACHE_MASK = CACHE_SIZE - 1;
 	private static final int ASSOCIATIVITY = 4;
-	private static final Cache<ClimateMapFragment> cache = new Cache<>(new ClimateMapFragment[CACHE_SIZE][ASSOCIATIVITY]);
+	private static final Cache<ClimateMapFragment> cache = new Cache<>("Climate maps", new ClimateMapFragment[CACHE_SIZE][ASSOCIATIVITY], ClimateMapFragment::getMemoryUsage, null, MemoryBudget.GLOBAL);
 
 	private static TerrainGenerationProfile profile;
 
@@ -56,17 +57,11 @@ public final class ClimateMap {
 	
 	public static ClimateMapFragment getOrGenerateFragment(int wx, int wz) {
 		int hash = ClimateMapFragment.hashCode(wx, wz) & CACHE_MASK;
-		ClimateMapFragment ret = cache.find(new ClimateMapFragmentComparator(wx, wz), hash);
-		if (ret != null) return ret;
-		synchronized(cache.cache[hash]) {
-			// Try again in case it was already generated in another thread:
-			ret = cache.find(new ClimateMapFragmentComparator(wx, wz), hash);
-			if (ret != null) return ret;
-			ret = new ClimateMapFragment(wx, wz);
+		return cache.findOrCreate(new ClimateMapFragmentComparator(wx, wz), hash, () -> {
+			ClimateMapFragment ret = new ClimateMapFragment(wx, wz);
 			profile.climateGenerator.generateMapFragment(ret, profile.seed);
-			cache.addToCache(ret, ret.hashCode() & CACHE_MASK);
 			return ret;
-		}
+		});
 	}
 
 	public static void cleanup() {
@@ -13,6 +13,16 @@ public class ClimateMapFragment {
 		map = new BiomePoint[MAP_SIZE/MapFragment.BIOME_SIZE][MAP_SIZE/MapFragment.BIOME_SIZE];
 	}
 	
+	/**
+	 * @return an estimate of the heap memory used by the map and its biome points in bytes.
+	 */
+	public long getMemoryUsage() {
+		final int objectHeader = 16;
+		final int biomePointSize = objectHeader + 32;
+		long size = map.length;
+		return objectHeader + 8*size + size*(objectHeader + size*(8 + biomePointSize));
+	}
+	
 	@Override
 	public int hashCode() {
 		return hashCode(wx, wz);
@@ -0,0 +1,219 @@
+package cubyz.world.terrain;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import cubyz.utils.datastructures.Cache;
+import cubyz.utils.datastructures.MemoryBudget;
+import pixelguys.json.JsonObject;
+
+/**
+ * Collects how long each step of the terrain generation takes and how much it allocates, to find out why chunks arrive late.<br>
+ * The times are sorted into a histogram with power of 2 buckets, so outliers are visible and recording is cheap enough to always be on.
+ * The hit rates of the caches are measured since the last reset.
+ */
+public final class GenerationStatistics {
+	private GenerationStatistics() {} // No instances allowed.
+
+	/** Bucket i contains the durations in [2^(i-1), 2^i) µs. */
+	private static final int BUCKETS = 24;
+
+	private static final com.sun.management.ThreadMXBean threadBean;
+	static {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+			threadBean = (com.sun.management.ThreadMXBean)bean;
+			threadBean.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			threadBean = null;
+		}
+	}
+
+	/**
+	 * The statistics of one generation step.
+	 */
+	public static final class Timer {
+		public final String name;
+		private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		private Timer(String name) {
+			this.name = name;
+		}
+
+		private void record(long nanos, long bytes) {
+			histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos/1000)));
+			count.increment();
+			this.nanos.add(nanos);
+			this.bytes.add(bytes);
+			maxNanos.accumulateAndGet(nanos, Math::max);
+		}
+
+		private void reset() {
+			for(int i = 0; i < BUCKETS; i++) {
+				histogram.set(i, 0);
+			}
+			count.reset();
+			nanos.reset();
+			bytes.reset();
+			maxNanos.set(0);
+		}
+
+		/**
+		 * @return the time in nanoseconds below which the given share of the measurements are, rounded up to a power of 2 µs.
+		 */
+		public long getPercentile(double share) {
+			long total = count.sum();
+			long sum = 0;
+			for(int i = 0; i < BUCKETS; i++) {
+				sum += histogram.get(i);
+				if(sum >= share*total) {
+					return 1000L << i;
+				}
+			}
+			return maxNanos.get();
+		}
+
+		private String getSummary() {
+			long count = this.count.sum();
+			if(count == 0) return name+": -";
+			return name+": "+count+"×, avg "+nanos.sum()/count/1000+" µs, 90% < "+getPercentile(0.9)/1000+" µs, max "+maxNanos.get()/1000+" µs, "+bytes.sum()/count/1024+" KiB allocated";
+		}
+
+		private JsonObject toJson() {
+			JsonObject json = new JsonObject();
+			long count = this.count.sum();
+			json.put("count", (double)count);
+			json.put("totalMs", nanos.sum()/1e6);
+			json.put("maxMs", maxNanos.get()/1e6);
+			json.put("allocatedBytes", (double)bytes.sum());
+			JsonObject histogram = new JsonObject();
+			for(int i = 0; i < BUCKETS; i++) {
+				if(this.histogram.get(i) != 0) {
+					histogram.put("<"+(1L << i)+"us", (double)this.histogram.get(i));
+				}
+			}
+			json.put("histogram", histogram);
+			return json;
+		}
+	}
+
+	/** Keyed by the object that is measured, so no key needs to be created for every measurement. */
+	private static final ConcurrentHashMap<Object, Timer> timers = new ConcurrentHashMap<>();
+	private static final ArrayList<Timer> timerList = new ArrayList<>();
+	/** The whole chunk, including the cave maps. */
+	public static final Timer CHUNK = getTimer(GenerationStatistics.class, "Chunk");
+	public static final Timer CAVE_MAP = getTimer(CaveMap.class, "Cave map");
+	public static final Timer CAVE_BIOME_MAP = getTimer(CaveBiomeMap.class, "Cave biome map");
+	/** The cache statistics at the last reset. */
+	private static final IdentityHashMap<Cache<?>, long[]> cacheBaseline = new IdentityHashMap<>();
+
+	/**
+	 * @param key the object that is measured, for example the generator.
+	 * @param name only used when it's a new timer.
+	 */
+	public static Timer getTimer(Object key, String name) {
+		Timer timer = timers.get(key);
+		if(timer != null) return timer;
+		synchronized(timerList) {
+			timer = timers.get(key);
+			if(timer == null) {
+				timer = new Timer(name);
+				timerList.add(timer);
+				timers.put(key, timer);
+			}
+		}
+		return timer;
+	}
+
+	/**
+	 * @return the number of bytes the current thread allocated so far, or 0 if the JVM can't measure it.
+	 */
+	public static long getAllocatedBytes() {
+		if(threadBean == null) return 0;
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Records a step that started at the given time and allocation count.
+	 */
+	public static void record(Timer timer, long startTime, long startBytes) {
+		timer.record(System.nanoTime() - startTime, getAllocatedBytes() - startBytes);
+	}
+
+	public static void reset() {
+		synchronized(timerList) {
+			for(Timer timer : timerList) {
+				timer.reset();
+			}
+		}
+		synchronized(cacheBaseline) {
+			cacheBaseline.clear();
+			for(Cache<?> cache : MemoryBudget.GLOBAL.getCaches()) {
+				cacheBaseline.put(cache, new long[] {cache.hits.get(), cache.misses.get(), cache.evictions.get()});
+			}
+		}
+	}
+
+	/**
+	 * @return hits, misses and evictions since the last reset.
+	 */
+	private static long[] getCacheStatistics(Cache<?> cache) {
+		long[] baseline;
+		synchronized(cacheBaseline) {
+			baseline = cacheBaseline.getOrDefault(cache, new long[3]);
+		}
+		return new long[] {cache.hits.get() - baseline[0], cache.misses.get() - baseline[1], cache.evictions.get() - baseline[2]};
+	}
+
+	/**
+	 * @return one line for every step and for every cache.
+	 */
+	public static ArrayList<String> getSummary() {
+		ArrayList<String> lines = new ArrayList<>();
+		synchronized(timerList) {
+			for(Timer timer : timerList) {
+				lines.add(timer.getSummary());
+			}
+		}
+		for(Cache<?> cache : MemoryBudget.GLOBAL.getCaches()) {
+			long[] statistics = getCacheStatistics(cache);
+			long requests = statistics[0] + statistics[1];
+			if(requests == 0) continue;
+			lines.add(cache.name+" cache: "+Math.round(1000.0*statistics[0]/requests)/10.0+"% hits of "+requests+", "+statistics[2]+" evictions");
+		}
+		return lines;
+	}
+
+	public static JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		JsonObject steps = new JsonObject();
+		synchronized(timerList) {
+			for(Timer timer : timerList) {
+				steps.put(timer.name, timer.toJson());
+			}
+		}
+		json.put("steps", steps);
+		JsonObject caches = new JsonObject();
+		for(Cache<?> cache : MemoryBudget.GLOBAL.getCaches()) {
+			long[] statistics = getCacheStatistics(cache);
+			JsonObject cacheJson = new JsonObject();
+			cacheJson.put("hits", (double)statistics[0]);
+			cacheJson.put("misses", (double)statistics[1]);
+			cacheJson.put("evictions", (double)statistics[2]);
+			cacheJson.put("bytes", (double)cache.getWeight());
+			caches.put(cache.name, cacheJson);
+		}
+		json.put("caches", caches);
+		json.put("allocationMeasured", threadBean != null ? 1 : 0);
+		return json;
+	}
+}
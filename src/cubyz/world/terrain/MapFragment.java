@@ -44,4 +44,13 @@ public class MapFragment extends MapFragmentCompare {
 	public int getMaxHeight() {
 		return maxHeight;
 	}
+
+	/**
+	 * @return an estimate of the heap memory used by the maps in bytes. The biomes themselves are shared and not included.
+	 */
+	public long getMemoryUsage() {
+		final int objectHeader = 16;
+		long size = heightMap.length;
+		return 2*(objectHeader + 8*size) + size*(objectHeader + 4*size) + size*(objectHeader + 8*size);
+	}
 }
@@ -21,6 +21,8 @@ public class TerrainGenerationProfile {
 	public final CaveBiomeGenerator[] caveBiomeGenerators;
 	public final CaveGenerator[] caveGenerators;
 	public final Generator[] generators;
+	/** The statistics of each generator, at the same index. */
+	public final GenerationStatistics.Timer[] generatorTimers;
 	public final long seed;
 	
 	public TerrainGenerationProfile(JsonObject settings, CurrentWorldRegistries registries, long seed) {
@@ -48,6 +50,10 @@ public class TerrainGenerationProfile {
 				}
 			}
 		});
+		generatorTimers = new GenerationStatistics.Timer[generators.length];
+		for(int i = 0; i < generators.length; i++) {
+			generatorTimers[i] = GenerationStatistics.getTimer(generators[i], generators[i].getRegistryID().toString());
+		}
 
 		caveGenerators = CubyzRegistries.CAVE_GENERATORS.registered(new CaveGenerator[0]);
 		for(int i = 0; i < caveGenerators.length; i++) {
@@ -29,27 +29,39 @@ public class NoiseCaveGenerator implements CaveGenerator {
 		return 65536;
 	}
 
-	private float getValue(Cached3DFractalNoise noise, InterpolatableCaveBiomeMap map, int wx, int wy, int wz) {
-		return noise.getValue(wx, wy, wz) + map.interpolateValue(wx, wy, wz)*SCALE;
-	}
-	
 	@Override
 	public void generate(long seed, CaveMapFragment map) {
 		if (map.voxelSize > 2) return;
 		InterpolatableCaveBiomeMap biomeMap = new InterpolatableCaveBiomeMap(map, CaveMapFragment.WIDTH*map.voxelSize);
 		int outerSize = Math.max(map.voxelSize, INTERPOLATED_PART);
 		Cached3DFractalNoise noise = new Cached3DFractalNoise(map.wx, map.wy & ~(CaveMapFragment.WIDTH*map.voxelSize - 1), map.wz, outerSize, map.voxelSize*CaveMapFragment.WIDTH, seed, SCALE);
+		// Evaluate every grid point once, instead of once for each of the 8 neighboring cells:
+		int sizeX = map.voxelSize*CaveMapFragment.WIDTH/outerSize + 1;
+		int sizeY = map.voxelSize*CaveMapFragment.HEIGHT/outerSize + 1;
+		int sizeZ = sizeX;
+		float[] values = new float[sizeX*sizeY*sizeZ];
+		noise.getValues(map.wx, map.wy, map.wz, sizeX, sizeY, sizeZ, values);
+		int index = 0;
+		for(int x = 0; x < sizeX; x++) {
+			for(int y = 0; y < sizeY; y++) {
+				for(int z = 0; z < sizeZ; z++) {
+					values[index++] += biomeMap.interpolateValue(map.wx + x*outerSize, map.wy + y*outerSize, map.wz + z*outerSize)*SCALE;
+				}
+			}
+		}
+		int strideX = sizeY*sizeZ;
 		for(int x = 0; x < map.voxelSize*CaveMapFragment.WIDTH; x += outerSize) {
 			for(int y = 0; y < map.voxelSize*CaveMapFragment.HEIGHT; y += outerSize) {
 				for(int z = 0; z < map.voxelSize*CaveMapFragment.WIDTH; z += outerSize) {
-					float val000 = getValue(noise, biomeMap, x + map.wx, y + map.wy, z + map.wz);
-					float val001 = getValue(noise, biomeMap, x + map.wx, y + map.wy, z + map.wz + outerSize);
-					float val010 = getValue(noise, biomeMap, x + map.wx, y + map.wy + outerSize, z + map.wz);
-					float val011 = getValue(noise, biomeMap, x + map.wx, y + map.wy + outerSize, z + map.wz + outerSize);
-					float val100 = getValue(noise, biomeMap, x + map.wx + outerSize, y + map.wy, z + map.wz);
-					float val101 = getValue(noise, biomeMap, x + map.wx + outerSize, y + map.wy, z + map.wz + outerSize);
-					float val110 = getValue(noise, biomeMap, x + map.wx + outerSize, y + map.wy + outerSize, z + map.wz);
-					float val111 = getValue(noise, biomeMap, x + map.wx + outerSize, y + map.wy + outerSize, z + map.wz + outerSize);
+					int index000 = (x/outerSize*sizeY + y/outerSize)*sizeZ + z/outerSize;
+					float val000 = values[index000];
+					float val001 = values[index000 + 1];
+					float val010 = values[index000 + sizeZ];
+					float val011 = values[index000 + sizeZ + 1];
+					float val100 = values[index000 + strideX];
+					float val101 = values[index000 + strideX + 1];
+					float val110 = values[index000 + strideX + sizeZ];
+					float val111 = values[index000 + strideX + sizeZ + 1];
 					// Test if they are all inside or all outside the cave to skip these cases:
 					float measureForEquality = Math.signum(val000) + Math.signum(val001) + Math.signum(val010) + Math.signum(val011) + Math.signum(val100) + Math.signum(val101) + Math.signum(val110) + Math.signum(val111);
 					if(measureForEquality == -8) {
@@ -8,7 +8,9 @@ import cubyz.world.ChunkData;
  */
 public class Cached3DFractalNoise extends ChunkData {
 
-	private final float[][][] cache;
+	/** Index: (x*size + y)*size + z */
+	private final float[] cache;
+	private final int size;
 	private final int voxelShift;
 	private final long seedX, seedY, seedZ;
 	private final int scale;
@@ -17,7 +19,8 @@ public class Cached3DFractalNoise extends ChunkData {
 		super(wx, wy, wz, voxelSize);
 		int maxSize = size/voxelSize;
 		voxelShift = Integer.numberOfTrailingZeros(voxelSize);
-		cache = new float[maxSize + 1][maxSize + 1][maxSize + 1];
+		this.size = maxSize + 1;
+		cache = new float[this.size*this.size*this.size];
 		FastRandom rand = new FastRandom(seed);
 		seedX = rand.nextInt();
 		seedY = rand.nextInt();
@@ -28,12 +31,16 @@ public class Cached3DFractalNoise extends ChunkData {
 		for(int x = 0; x <= maxSize; x += scale) {
 			for(int y = 0; y <= maxSize; y += scale) {
 				for (int z = 0; z <= maxSize; z += scale) {
-					cache[x][y][z] = (scale + 1 + scale*getGridValue(x, y, z))*voxelSize;
+					cache[index(x, y, z)] = (scale + 1 + scale*getGridValue(x, y, z))*voxelSize;
 				}//                    ↑ sacrifice some resolution to reserve the value 0, for determining if the value was initialized. This prevents an expensive array initialization.
 			}
 		}
 	}
 
+	private int index(int x, int y, int z) {
+		return (x*size + y)*size + z;
+	}
+
 	public float getRandomValue(int wx, int wy, int wz) {
 		return FastRandom.nextFloat(wx*seedX ^ wy*seedY ^ wz*seedZ) - 0.5f;
 	}
@@ -55,40 +62,40 @@ public class Cached3DFractalNoise extends ChunkData {
 		float randomFactor = voxelSize*this.voxelSize;
 		for(int a = 0; a <= voxelSize; a += voxelSize) { // 2 coordinates on the grid.
 			for(int b = 0; b <= voxelSize; b += voxelSize) {
-				cache[x + a][y + b][zMid] = (cache[x + a][y + b][z] + cache[x + a][y + b][z + voxelSize])/2 + randomFactor*getGridValue(x + a, y + b, zMid); // x-y
-				cache[x + a][yMid][z + b] = (cache[x + a][y][z + b] + cache[x + a][y + voxelSize][z + b])/2 + randomFactor*getGridValue(x + a, yMid, z + b); // x-z
-				cache[xMid][y + a][z + b] = (cache[x][y + a][z + b] + cache[x + voxelSize][y + a][z + b])/2 + randomFactor*getGridValue(xMid, y + a, z + b); // y-z
+				cache[index(x + a, y + b, zMid)] = (cache[index(x + a, y + b, z)] + cache[index(x + a, y + b, z + voxelSize)])/2 + randomFactor*getGridValue(x + a, y + b, zMid); // x-y
+				cache[index(x + a, yMid, z + b)] = (cache[index(x + a, y, z + b)] + cache[index(x + a, y + voxelSize, z + b)])/2 + randomFactor*getGridValue(x + a, yMid, z + b); // x-z
+				cache[index(xMid, y + a, z + b)] = (cache[index(x, y + a, z + b)] + cache[index(x + voxelSize, y + a, z + b)])/2 + randomFactor*getGridValue(xMid, y + a, z + b); // y-z
 			}
 		}
 		for(int a = 0; a <= voxelSize; a += voxelSize) { // 1 coordinate on the grid.
-			cache[x + a][yMid][zMid] = (
-						cache[x + a][yMid][z] + cache[x + a][yMid][z + voxelSize]
-						+ cache[x + a][y][zMid] + cache[x + a][y + voxelSize][zMid]
+			cache[index(x + a, yMid, zMid)] = (
+						cache[index(x + a, yMid, z)] + cache[index(x + a, yMid, z + voxelSize)]
+						+ cache[index(x + a, y, zMid)] + cache[index(x + a, y + voxelSize, zMid)]
 					)/4 + randomFactor*getGridValue(x + a, yMid, zMid); // x
-			cache[xMid][y + a][zMid] = (
-						cache[xMid][y + a][z] + cache[xMid][y + a][z + voxelSize]
-						+ cache[x][y + a][zMid] + cache[x + voxelSize][y + a][zMid]
+			cache[index(xMid, y + a, zMid)] = (
+						cache[index(xMid, y + a, z)] + cache[index(xMid, y + a, z + voxelSize)]
+						+ cache[index(x, y + a, zMid)] + cache[index(x + voxelSize, y + a, zMid)]
 					)/4 + randomFactor*getGridValue(xMid, y + a, zMid); // y
-			cache[xMid][yMid][z + a] = (
-						cache[xMid][y][z + a] + cache[xMid][y + voxelSize][z + a]
-						+ cache[x][yMid][z + a] + cache[x + voxelSize][yMid][z + a]
+			cache[index(xMid, yMid, z + a)] = (
+						cache[index(xMid, y, z + a)] + cache[index(xMid, y + voxelSize, z + a)]
+						+ cache[index(x, yMid, z + a)] + cache[index(x + voxelSize, yMid, z + a)]
 					)/4 + randomFactor*getGridValue(xMid, yMid, z + a); // z
 		}
 		// Center point:
-		cache[xMid][yMid][zMid] = (
-					cache[xMid][yMid][z] + cache[xMid][yMid][z + voxelSize]
-					+ cache[xMid][y][zMid] + cache[xMid][y + voxelSize][zMid]
-					+ cache[x][yMid][zMid] + cache[x + voxelSize][yMid][zMid]
+		cache[index(xMid, yMid, zMid)] = (
+					cache[index(xMid, yMid, z)] + cache[index(xMid, yMid, z + voxelSize)]
+					+ cache[index(xMid, y, zMid)] + cache[index(xMid, y + voxelSize, zMid)]
+					+ cache[index(x, yMid, zMid)] + cache[index(x + voxelSize, yMid, zMid)]
 				)/6 + randomFactor*getGridValue(xMid, yMid, zMid);
 	}
 
 	private float _getValue(int x, int y, int z) {
-		float value = cache[x][y][z];
+		float value = cache[index(x, y, z)];
 		if(value != 0) return value;
 		// Need to actually generate stuff now.
 		int minShift = Math.min(Integer.numberOfTrailingZeros(x), Math.min(Integer.numberOfTrailingZeros(y), Integer.numberOfTrailingZeros(z)));
 		generateRegion(x, y, z, 2 << minShift);
-		return cache[x][y][z];
+		return cache[index(x, y, z)];
 	}
 
 	public float getValue(int wx, int wy, int wz) {
@@ -97,4 +104,27 @@ public class Cached3DFractalNoise extends ChunkData {
 		int z = (wz - this.wz) >> voxelShift;
 		return _getValue(x, y, z) - scale;
 	}
+
+	/**
+	 * Fills a grid of values, spaced by the voxel size of this noise, starting at the given world coordinates.
+	 * @param output index: (x*sizeY + y)*sizeZ + z
+	 */
+	public void getValues(int wx, int wy, int wz, int sizeX, int sizeY, int sizeZ, float[] output) {
+		int x0 = (wx - this.wx) >> voxelShift;
+		int y0 = (wy - this.wy) >> voxelShift;
+		int z0 = (wz - this.wz) >> voxelShift;
+		int i = 0;
+		for(int x = x0; x < x0 + sizeX; x++) {
+			for(int y = y0; y < y0 + sizeY; y++) {
+				int index = index(x, y, z0);
+				for(int z = z0; z < z0 + sizeZ; z++) {
+					float value = cache[index++];
+					if(value == 0) {
+						value = _getValue(x, y, z);
+					}
+					output[i++] = value - scale;
+				}
+			}
+		}
+	}
 }
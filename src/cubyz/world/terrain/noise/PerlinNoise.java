@@ -1,132 +1,139 @@
 package cubyz.world.terrain.noise;
 
+import java.util.Arrays;
+
 import cubyz.utils.FastRandom;
-import cubyz.utils.Logger;
 import cubyz.utils.math.CubyzMath;
 
+/**
+ * Generates 2D perlin noise for an entire region at once.<br>
+ * The buffers are reused between calls, so an instance should be kept per thread.
+ */
 public class PerlinNoise {
-	private float[][] xGridPoints; // [x][y]
-	private float[][] yGridPoints; // [x][y]
+	private static final float SQRT_2 = (float)Math.sqrt(2);
+
+	/** The normalized gradients of all grid points of the current region. Index: x*gridStride + y */
+	private float[] xGradients = new float[0];
+	private float[] yGradients = new float[0];
+	private int gridStride;
+	// The values that only depend on the y coordinate of a sample, for the current region and scale:
+	private int[] cellY = new int[0];
+	private float[] fractionY = new float[0];
+	private float[] weightY = new float[0];
+
 	// Calculate the gradient instead of storing it.
 	// This is inefficient(since it is called every time), but allows infinite chunk generation.
 	private float generateGradient(int x, int y, int i, long l1, long l2, long l3, int resolution) {
 		return 2*FastRandom.nextFloat(l1*x+l2*y+l3*i+resolution) - 1;
 	}
-	
-	private float getGradientX(int x, int y) {
-		try {
-			return xGridPoints[x][y];
-		} catch (ArrayIndexOutOfBoundsException e) { // quick and dirty fix
-			Logger.error(e);
-			return 0;
-		}
-	}
-	
-	private float getGradientY(int x, int y) {
-		try {
-			return yGridPoints[x][y];
-		} catch (ArrayIndexOutOfBoundsException e) {
-			Logger.error(e);
-			return 0;
-		}
-	}
-	/* Function to linearly interpolate between a0 and a1
-	 * Weight w should be in the range [0.0, 1.0]
-	 */
-	private static float lerp(float a0, float a1, float w) {
-		return a0 + w*(a1 - a0);
-	}
-	
+
 	// s-curve
 	private static float s(float x) {
 		return 3*x*x-2*x*x*x;
 	}
 
-	// Computes the dot product of the distance and gradient vectors.
-	private float dotGridGradient(int ix, int iy, float x, float y, int resolution) {
-
-		// Compute the distance vector
-		float dx = x/resolution - ix;
-		float dy = y/resolution - iy;
-
-		// Compute the dot-product
-		float gx = getGradientX(ix, iy);
-		float gy = getGradientY(ix, iy);
-		float gr = (float)Math.sqrt(gx*gx + gy*gy);
-		gx /= gr;
-		gy /= gr;
-		return dx*gx + dy*gy;
-	}
-
-	// Compute Perlin noise at coordinates x, y
-	private float perlin(int x, int y, int resolution, int resolution2) {
-
-		// Determine grid cell coordinates
-		int x0 = x/resolution;
-		int x1 = x0 + 1;
-		int y0 = y/resolution;
-		int y1 = y0 + 1;
-
-		// Determine interpolation weights
-		// Could also use higher order polynomial/s-curve here
-		float sx = s((x&resolution2)/(float)resolution);
-		float sy = s((y&resolution2)/(float)resolution);
-
-		// Interpolate between grid point gradients
-		float n0, n1, ix0, ix1;
-
-		n0 = dotGridGradient(x0, y0, x, y, resolution);
-		n1 = dotGridGradient(x1, y0, x, y, resolution);
-		ix0 = lerp(n0, n1, sx);
-
-		n0 = dotGridGradient(x0, y1, x, y, resolution);
-		n1 = dotGridGradient(x1, y1, x, y, resolution);
-		ix1 = lerp(n0, n1, sx);
-		return lerp(ix0, ix1, sy)*(float)Math.sqrt(2);
-	}
-	
 	// Calculate all grid points that will be needed to prevent double calculating them.
 	private void calculateGridPoints(int x, int y, int width, int height, int scale, long l1, long l2, long l3) {
-		// Create one gridpoint more, just in case...
-		width += scale;
-		height += scale;
 		int resolutionShift = CubyzMath.binaryLog(scale);
-		// Determine grid cell coordinates of all cells that points can be in:
-		float[][] xGrid = new float[width/scale + 3][height/scale + 3]; // Simply assume the absolute maximum number of grid points are generated.
-		float[][] yGrid = new float[width/scale + 3][height/scale + 3]; // Simply assume the absolute maximum number of grid points are generated.
-		int numX = 0, numY = 0;
-		int x0 = 0;
-		for(int ix = x; ix < x+width; ix += scale) {
-			numY = 0;
-			x0 = ix >> resolutionShift;
-			int y0 = 0;
-			for(int iy = y; iy < y+height; iy += scale) {
-				y0 = iy >> resolutionShift;
-				xGrid[numX][numY] = generateGradient(x0, y0, 0, l1, l2, l3, resolutionShift);
-				yGrid[numX][numY] = generateGradient(x0, y0, 1, l1, l2, l3, resolutionShift);
-				numY++;
+		int x0 = x >> resolutionShift;
+		int y0 = y >> resolutionShift;
+		// One more grid point than cells in each direction:
+		int numX = ((x + width - 1) >> resolutionShift) - x0 + 2;
+		int numY = ((y + height - 1) >> resolutionShift) - y0 + 2;
+		gridStride = numY;
+		if(xGradients.length < numX*numY) {
+			xGradients = new float[numX*numY];
+			yGradients = new float[numX*numY];
+		}
+		for(int ix = 0; ix < numX; ix++) {
+			for(int iy = 0; iy < numY; iy++) {
+				float gx = generateGradient(x0 + ix, y0 + iy, 0, l1, l2, l3, resolutionShift);
+				float gy = generateGradient(x0 + ix, y0 + iy, 1, l1, l2, l3, resolutionShift);
+				float gr = (float)Math.sqrt(gx*gx + gy*gy);
+				xGradients[ix*gridStride + iy] = gx/gr;
+				yGradients[ix*gridStride + iy] = gy/gr;
+			}
+		}
+	}
+
+	/**
+	 * Adds one octave of perlin noise to the map.
+	 * @param ridgid if true (1 - |noise|) is added instead of the noise.
+	 */
+	private void addOctave(int x, int y, int width, int height, int scale, int voxelSize, float fac, boolean ridgid, float[] map, int offset) {
+		int scaleMask = scale - 1;
+		int xOrigin = x & ~scaleMask;
+		int yOrigin = y & ~scaleMask;
+		int mapWidth = width/voxelSize;
+		int mapHeight = height/voxelSize;
+		if(cellY.length < mapHeight) {
+			cellY = new int[mapHeight];
+			fractionY = new float[mapHeight];
+			weightY = new float[mapHeight];
+		}
+		for(int j = 0; j < mapHeight; j++) {
+			int relY = y + j*voxelSize - yOrigin;
+			cellY[j] = relY/scale;
+			fractionY[j] = (float)relY/scale;
+			weightY[j] = s((relY & scaleMask)/(float)scale);
+		}
+		for(int i = 0; i < mapWidth; i++) {
+			int relX = x + i*voxelSize - xOrigin;
+			int x0 = relX/scale;
+			float fractionX = (float)relX/scale;
+			float dx0 = fractionX - x0;
+			float dx1 = fractionX - (x0 + 1);
+			float sx = s((relX & scaleMask)/(float)scale);
+			int row = offset + i*mapHeight;
+			int j = 0;
+			while(j < mapHeight) {
+				// All samples within one grid cell use the same gradients:
+				int y0 = cellY[j];
+				int end = j + 1;
+				while(end < mapHeight && cellY[end] == y0) end++;
+				int index = x0*gridStride + y0;
+				float gx00 = xGradients[index], gy00 = yGradients[index];
+				float gx01 = xGradients[index + 1], gy01 = yGradients[index + 1];
+				float gx10 = xGradients[index + gridStride], gy10 = yGradients[index + gridStride];
+				float gx11 = xGradients[index + gridStride + 1], gy11 = yGradients[index + gridStride + 1];
+				float fy0 = y0, fy1 = y0 + 1;
+				for(; j < end; j++) {
+					float dy0 = fractionY[j] - fy0;
+					float dy1 = fractionY[j] - fy1;
+					// Interpolate between grid point gradients
+					float n0 = dx0*gx00 + dy0*gy00;
+					float n1 = dx1*gx10 + dy0*gy10;
+					float ix0 = n0 + sx*(n1 - n0);
+					n0 = dx0*gx01 + dy1*gy01;
+					n1 = dx1*gx11 + dy1*gy11;
+					float ix1 = n0 + sx*(n1 - n0);
+					float value = (ix0 + weightY[j]*(ix1 - ix0))*SQRT_2;
+					if(ridgid) {
+						value = 1 - Math.abs(value);
+					}
+					map[row + j] += value*fac;
+				}
 			}
-			xGrid[numX][numY] = generateGradient(x0, y0 + 1, 0, l1, l2, l3, resolutionShift);
-			yGrid[numX][numY] = generateGradient(x0, y0 + 1, 1, l1, l2, l3, resolutionShift);
-			numX++;
 		}
-		numY = 0;
-		int y0 = 0;
-		for(int iy = y; iy < y+height; iy += scale) {
-			y0 = iy >> resolutionShift;
-			xGrid[numX][numY] = generateGradient(x0+1, y0, 0, l1, l2, l3, resolutionShift);
-			yGrid[numX][numY] = generateGradient(x0+1, y0, 1, l1, l2, l3, resolutionShift);
-			numY++;
+	}
+
+	private void generateNoise(int x, int y, int width, int height, int scale, int minScale, long seed, int voxelSize, float reductionFactor, boolean ridgid, float[] map, int offset) {
+		Arrays.fill(map, offset, offset + width/voxelSize*(height/voxelSize), 0);
+		FastRandom r = new FastRandom(seed);
+		long l1 = r.nextLong();
+		long l2 = r.nextLong();
+		long l3 = r.nextLong();
+		float fac = 1/((1 - (float)Math.pow(reductionFactor, CubyzMath.binaryLog(scale/minScale)+1))/(1 - reductionFactor)); // geometric series.
+		for(; scale >= minScale; scale >>= 1) {
+			calculateGridPoints(x, y, width, height, scale, l1, l2, l3);
+			addOctave(x, y, width, height, scale, voxelSize, fac, ridgid, map, offset);
+			fac *= reductionFactor;
 		}
-		
-		xGrid[numX][numY] = generateGradient(x0+1, y0+1, 0, l1, l2, l3, resolutionShift);
-		yGrid[numX][numY] = generateGradient(x0+1, y0+1, 1, l1, l2, l3, resolutionShift);
-		xGridPoints = xGrid;
-		yGridPoints = yGrid;
 	}
-	
+
 	/**
-	 * Returns a ridgid map of floats with values between 0 and 1.
+	 * Fills a region of the map with ridgid noise with values between 0 and 1.
+	 * The region is stored row by row: the value at (x + i*voxelSize, y + j*voxelSize) is stored at offset + i*height/voxelSize + j.
 	 * @param x
 	 * @param y
 	 * @param width
@@ -136,33 +143,16 @@ public class PerlinNoise {
 	 * @param seed
 	 * @param voxelSize size of each unit in the indexing of the output map
 	 * @param reductionFactor amplitude reduction for each frequency increase.
-	 * @return
+	 * @param map needs space for (width/voxelSize)*(height/voxelSize) values after the offset.
+	 * @param offset
 	 */
-	public float[][] generateRidgidNoise(int x, int y, int width, int height, int scale, int minScale, long seed, int voxelSize, float reductionFactor) {
-		float[][] map = new float[width/voxelSize][height/voxelSize];
-		FastRandom r = new FastRandom(seed);
-		long l1 = r.nextLong();
-		long l2 = r.nextLong();
-		long l3 = r.nextLong();
-		float fac = 1/((1 - (float)Math.pow(reductionFactor, CubyzMath.binaryLog(scale/minScale)+1))/(1 - reductionFactor)); // geometric series.
-		for(; scale >= minScale; scale >>= 1) {
-			calculateGridPoints(x, y, width, height, scale, l1, l2, l3);
-			int scaleMask = scale - 1;
-			int x0 = x & ~scaleMask;
-			int y0 = y & ~scaleMask;
-				
-			for (int x1 = x; x1 < width + x; x1 += voxelSize) {
-				for (int y1 = y; y1 < height + y; y1 += voxelSize) {
-					map[(x1 - x)/voxelSize][(y1 - y)/voxelSize] += (1 - Math.abs(perlin(x1-x0, y1-y0, scale, scaleMask)))*fac;
-				}
-			}
-			fac *= reductionFactor;
-		}
-		return map;
+	public void generateRidgidNoise(int x, int y, int width, int height, int scale, int minScale, long seed, int voxelSize, float reductionFactor, float[] map, int offset) {
+		generateNoise(x, y, width, height, scale, minScale, seed, voxelSize, reductionFactor, true, map, offset);
 	}
-	
+
 	/**
-	 * Returns a smooth map of floats with values between 0 and 1.
+	 * Fills a region of the map with smooth noise with values between 0 and 1.
+	 * The region is stored row by row: the value at (x + i*voxelSize, y + j*voxelSize) is stored at offset + i*height/voxelSize + j.
 	 * @param x
 	 * @param y
 	 * @param width
@@ -172,28 +162,10 @@ public class PerlinNoise {
 	 * @param seed
 	 * @param voxelSize size of each unit in the indexing of the output map
 	 * @param reductionFactor amplitude reduction for each frequency increase.
-	 * @return
+	 * @param map needs space for (width/voxelSize)*(height/voxelSize) values after the offset.
+	 * @param offset
 	 */
-	public float[][] generateSmoothNoise(int x, int y, int width, int height, int scale, int minScale, long seed, int voxelSize, float reductionFactor) {
-		float[][] map = new float[width/voxelSize][height/voxelSize];
-		FastRandom r = new FastRandom(seed);
-		long l1 = r.nextLong();
-		long l2 = r.nextLong();
-		long l3 = r.nextLong();
-		float fac = 1/((1 - (float)Math.pow(reductionFactor, CubyzMath.binaryLog(scale/minScale)+1))/(1 - reductionFactor)); // geometric series.
-		for(; scale >= minScale; scale >>= 1) {
-			calculateGridPoints(x, y, width, height, scale, l1, l2, l3);
-			int scaleMask = scale -1;
-			int x0 = x & ~scaleMask;
-			int y0 = y & ~scaleMask;
-				
-			for (int x1 = x; x1 < width + x; x1 += voxelSize) {
-				for (int y1 = y; y1 < height + y; y1 += voxelSize) {
-					map[(x1 - x)/voxelSize][(y1 - y)/voxelSize] += perlin(x1-x0, y1-y0, scale, scaleMask)*fac;
-				}
-			}
-			fac *= reductionFactor;
-		}
-		return map;
+	public void generateSmoothNoise(int x, int y, int width, int height, int scale, int minScale, long seed, int voxelSize, float reductionFactor, float[] map, int offset) {
+		generateNoise(x, y, width, height, scale, minScale, seed, voxelSize, reductionFactor, false, map, offset);
 	}
 }
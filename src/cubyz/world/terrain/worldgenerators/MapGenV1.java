@@ -3,6 +3,7 @@ package cubyz.world.terrain.worldgenerators;
 import cubyz.api.CurrentWorldRegistries;
 import cubyz.api.Resource;
 import cubyz.utils.FastRandom;
+import cubyz.utils.ThreadPool;
 import cubyz.world.terrain.BiomePoint;
 import cubyz.world.terrain.ClimateMap;
 import cubyz.world.terrain.MapFragment;
@@ -15,10 +16,52 @@ import pixelguys.json.JsonObject;
 import static cubyz.world.terrain.MapFragment.*;
 
 public class MapGenV1 implements MapGenerator {
+	/** The number of row bands a map fragment is split into. More bands than threads even out the load. */
+	private static final int BANDS = 32;
+
+	/**
+	 * The interpolation weight of a biome for every distance in x and z direction up to {@link MapFragment#BIOME_SIZE}, index: |dx|*(BIOME_SIZE + 1) + |dz|.
+	 * Biomes further away have a weight of 0.
+	 */
+	private static final float[] BLEND_WEIGHTS = new float[(BIOME_SIZE + 1)*(BIOME_SIZE + 1)];
+	static {
+		for(int dx = 0; dx <= BIOME_SIZE; dx++) {
+			for(int dz = 0; dz <= BIOME_SIZE; dz++) {
+				float dist = (float)Math.sqrt(dx*dx + dz*dz);
+				dist /= BIOME_SIZE;
+				float maxNorm = Math.max(dx, dz)/(float)BIOME_SIZE;
+				// There are cases where this point is further away than 1 unit from all nearby biomes. For that case the euclidian distance function is interpolated to the max-norm for higher distances.
+				if (dist > 0.9f && maxNorm < 1) {
+					float borderMax = 0.9f*maxNorm/dist;
+					float scale = 1/(1 - borderMax);
+					dist = dist*(1 - maxNorm)*scale + scale*(maxNorm - borderMax)*maxNorm;
+				}
+				if (dist <= 1) {
+					float weight = 1 - dist;
+					// smooth the interpolation with the s-curve:
+					BLEND_WEIGHTS[dx*(BIOME_SIZE + 1) + dz] = weight*weight*(3 - 2*weight);
+				}
+			}
+		}
+	}
+
+	private static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+	/**
+	 * The maximum number of threads that generate a map fragment, limited by the size of the thread pool.
+	 * The calling thread only gets help from threads that are idle, so this doesn't slow down the generation of other map fragments.
+	 * Can be changed with the "threads" parameter in the "mapGenerator" object of the generatorSettings.json of a world, for example:
+	 * <pre>"mapGenerator": {"id": "cubyz:mapgen_v1", "threads": 4}</pre>
+	 * 1 generates every map fragment on a single thread.
+	 */
+	private int threads = DEFAULT_THREADS;
 
 	@Override
 	public void init(JsonObject parameters, CurrentWorldRegistries registries) {
-		
+		threads = Math.max(1, parameters.getInt("threads", DEFAULT_THREADS));
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
 	}
 
 	@Override
@@ -30,96 +73,148 @@ public class MapGenV1 implements MapGenerator {
 
 	@Override
 	public void generateMapFragment(MapFragment map, long seed) {
-		int scaledSize = MAP_SIZE/map.voxelSize;
 		// Create the biomes that will be placed on the map:
 		BiomePoint[][] biomePositions = ClimateMap.getBiomeMap(map.wx - BIOME_SIZE, map.wz - BIOME_SIZE, MAP_SIZE + 3*BIOME_SIZE, MAP_SIZE + 3*BIOME_SIZE);
+		generateMapFragment(map, seed, biomePositions);
+	}
+
+	/**
+	 * Generates the map fragment from the given biomes. The rows of the map are split into bands that are generated in parallel.
+	 * The result doesn't depend on the number of threads.
+	 */
+	public void generateMapFragment(MapFragment map, long seed, BiomePoint[][] biomePositions) {
+		int scaledSize = MAP_SIZE/map.voxelSize;
 		FastRandom rand = new FastRandom(seed);
-		rand.setSeed((rand.nextLong() | 1)*map.wx ^ (rand.nextLong() | 1)*map.wz);
-		int scaledBiomeSize = BIOME_SIZE/map.voxelSize;
+		long randomSeed = (rand.nextLong() | 1)*map.wx ^ (rand.nextLong() | 1)*map.wz;
 		float[][] xOffsetMap = new float[scaledSize][scaledSize];
 		float[][] zOffsetMap = new float[scaledSize][scaledSize];
-
-		FractalNoise.generateSparseFractalTerrain(map.wx, map.wz, MAP_SIZE, MAP_SIZE, BIOME_SIZE/2, seed^675396758496549L, xOffsetMap, map.voxelSize);
-		FractalNoise.generateSparseFractalTerrain(map.wx, map.wz, MAP_SIZE, MAP_SIZE, BIOME_SIZE/2, seed^543864367373859L, zOffsetMap, map.voxelSize);
-
 		// A ridgid noise map to generate interesting mountains.
 		float[][] mountainMap = new float[scaledSize][scaledSize];
-		RandomlyWeightedFractalNoise.generateSparseFractalTerrain(map.wx, map.wz, MAP_SIZE, MAP_SIZE, 64, seed ^ -6758947592930535L, mountainMap, map.voxelSize);
-		
 		// A smooth map for smaller hills.
-		float[][] hillMap = threadLocalNoise.get().generateSmoothNoise(map.wx, map.wz, MAP_SIZE, MAP_SIZE, 128, 32, seed ^ -157839765839495820L, map.voxelSize, 0.5f);
-		
+		float[] hillMap = new float[scaledSize*scaledSize];
 		// A fractal map to generate high-detail roughness.
 		float[][] roughMap = new float[scaledSize][scaledSize];
-		FractalNoise.generateSparseFractalTerrain(map.wx, map.wz, MAP_SIZE, MAP_SIZE, 64, seed ^ -954936678493L, roughMap, map.voxelSize);
-		
-		for(int x = 0; x < map.heightMap.length; x++) {
-			for(int z = 0; z < map.heightMap.length; z++) {
-				// Do the biome interpolation:
-				float totalWeight = 0;
-				float height = 0;
-				float roughness = 0;
-				float hills = 0;
-				float mountains = 0;
-				int xBiome = (x + scaledBiomeSize/2)/scaledBiomeSize;
-				int zBiome = (z + scaledBiomeSize/2)/scaledBiomeSize;
-				int wx = x*map.voxelSize + map.wx;
-				int wz = z*map.voxelSize + map.wz;
-				for(int x0 = xBiome; x0 <= xBiome+2; x0++) {
-					for(int z0 = zBiome; z0 <= zBiome+2; z0++) {
-						float dist = (float)Math.sqrt(biomePositions[x0][z0].distSquare(wx, wz));
-						dist /= BIOME_SIZE;
-						float maxNorm = biomePositions[x0][z0].maxNorm(wx, wz)/BIOME_SIZE;
-						// There are cases where this point is further away than 1 unit from all nearby biomes. For that case the euclidian distance function is interpolated to the max-norm for higher distances.
-						if (dist > 0.9f && maxNorm < 1) {
-							float borderMax = 0.9f*maxNorm/dist;
-							float scale = 1/(1 - borderMax);
-							dist = dist*(1 - maxNorm)*scale + scale*(maxNorm - borderMax)*maxNorm;
-						}
-						if (dist <= 1) {
-							float weight = 1 - dist;
-							// smooth the interpolation with the s-curve:
-							weight = weight*weight*(3 - 2*weight);
-							height += biomePositions[x0][z0].height*weight;
-							roughness += biomePositions[x0][z0].biome.roughness*weight;
-							hills += biomePositions[x0][z0].biome.hills*weight;
-							mountains += biomePositions[x0][z0].biome.mountains*weight;
+
+		ThreadPool.runParallel(5, threads, i -> {
+			switch(i) {
+				case 0:
+					FractalNoise.generateSparseFractalTerrain(map.wx, map.wz, MAP_SIZE, MAP_SIZE, BIOME_SIZE/2, seed^675396758496549L, xOffsetMap, map.voxelSize);
+					break;
+				case 1:
+					FractalNoise.generateSparseFractalTerrain(map.wx, map.wz, MAP_SIZE, MAP_SIZE, BIOME_SIZE/2, seed^543864367373859L, zOffsetMap, map.voxelSize);
+					break;
+				case 2:
+					RandomlyWeightedFractalNoise.generateSparseFractalTerrain(map.wx, map.wz, MAP_SIZE, MAP_SIZE, 64, seed ^ -6758947592930535L, mountainMap, map.voxelSize);
+					break;
+				case 3:
+					threadLocalNoise.get().generateSmoothNoise(map.wx, map.wz, MAP_SIZE, MAP_SIZE, 128, 32, seed ^ -157839765839495820L, map.voxelSize, 0.5f, hillMap, 0);
+					break;
+				case 4:
+					FractalNoise.generateSparseFractalTerrain(map.wx, map.wz, MAP_SIZE, MAP_SIZE, 64, seed ^ -954936678493L, roughMap, map.voxelSize);
+					break;
+			}
+		});
+
+		// Copy the properties of the biomes into flat arrays, so the interpolation doesn't need to follow references:
+		int biomeMapSize = biomePositions.length;
+		int[] biomeX = new int[biomeMapSize*biomeMapSize];
+		int[] biomeZ = new int[biomeMapSize*biomeMapSize];
+		float[] biomeHeight = new float[biomeMapSize*biomeMapSize];
+		float[] biomeRoughness = new float[biomeMapSize*biomeMapSize];
+		float[] biomeHills = new float[biomeMapSize*biomeMapSize];
+		float[] biomeMountains = new float[biomeMapSize*biomeMapSize];
+		for(int x = 0; x < biomeMapSize; x++) {
+			for(int z = 0; z < biomeMapSize; z++) {
+				BiomePoint point = biomePositions[x][z];
+				int index = x*biomeMapSize + z;
+				biomeX[index] = point.x;
+				biomeZ[index] = point.z;
+				biomeHeight[index] = point.height;
+				biomeRoughness[index] = point.biome.roughness;
+				biomeHills[index] = point.biome.hills;
+				biomeMountains[index] = point.biome.mountains;
+			}
+		}
+
+		int[] minHeights = new int[BANDS];
+		int[] maxHeights = new int[BANDS];
+		int bandSize = Math.max(1, scaledSize/BANDS);
+		int bands = Math.min(BANDS, scaledSize);
+		ThreadPool.runParallel(bands, threads, band -> {
+			int startX = band*bandSize;
+			int endX = band == bands - 1 ? scaledSize : startX + bandSize;
+			// Every sample uses 3 random numbers, so skip those of the previous bands to get the same result as a single thread:
+			FastRandom bandRand = new FastRandom(randomSeed);
+			bandRand.skip(3L*startX*scaledSize);
+			int scaledBiomeSize = BIOME_SIZE/map.voxelSize;
+			int minHeight = Integer.MAX_VALUE;
+			int maxHeight = 0;
+			for(int x = startX; x < endX; x++) {
+				for(int z = 0; z < scaledSize; z++) {
+					// Do the biome interpolation:
+					float totalWeight = 0;
+					float height = 0;
+					float roughness = 0;
+					float hills = 0;
+					float mountains = 0;
+					int xBiome = (x + scaledBiomeSize/2)/scaledBiomeSize;
+					int zBiome = (z + scaledBiomeSize/2)/scaledBiomeSize;
+					int wx = x*map.voxelSize + map.wx;
+					int wz = z*map.voxelSize + map.wz;
+					for(int x0 = xBiome; x0 <= xBiome+2; x0++) {
+						for(int z0 = zBiome; z0 <= zBiome+2; z0++) {
+							int index = x0*biomeMapSize + z0;
+							int dx = Math.abs(biomeX[index] - wx);
+							int dz = Math.abs(biomeZ[index] - wz);
+							if(dx > BIOME_SIZE || dz > BIOME_SIZE) continue;
+							float weight = BLEND_WEIGHTS[dx*(BIOME_SIZE + 1) + dz];
+							if(weight == 0) continue;
+							height += biomeHeight[index]*weight;
+							roughness += biomeRoughness[index]*weight;
+							hills += biomeHills[index]*weight;
+							mountains += biomeMountains[index]*weight;
 							totalWeight += weight;
 						}
 					}
-				}
-				// Norm the result:
-				height /= totalWeight;
-				roughness /= totalWeight;
-				hills /= totalWeight;
-				mountains /= totalWeight;
-				height += (roughMap[x][z] - 0.5f)*2*roughness;
-				height += (hillMap[x][z] - 0.5f)*2*hills;
-				height += (mountainMap[x][z] - 0.5f)*2*mountains;
-				map.heightMap[x][z] = height;
-				map.minHeight = Math.min(map.minHeight, (int)map.heightMap[x][z]);
-				map.minHeight = Math.max(map.minHeight, 0);
-				map.maxHeight = Math.max(map.maxHeight, (int)map.heightMap[x][z]);
-				
+					// Norm the result:
+					height /= totalWeight;
+					roughness /= totalWeight;
+					hills /= totalWeight;
+					mountains /= totalWeight;
+					height += (roughMap[x][z] - 0.5f)*2*roughness;
+					height += (hillMap[x*scaledSize + z] - 0.5f)*2*hills;
+					height += (mountainMap[x][z] - 0.5f)*2*mountains;
+					map.heightMap[x][z] = height;
+					minHeight = Math.min(minHeight, (int)height);
+					minHeight = Math.max(minHeight, 0);
+					maxHeight = Math.max(maxHeight, (int)height);
 
-				// Select a biome. The shape of the biome is randomized by applying noise (fractal noise and white noise) to the coordinates.
-				float updatedX = wx + (rand.nextInt(8) - 3.5f)*BIOME_SIZE/128 + (xOffsetMap[x][z] - 0.5f)*BIOME_SIZE/2;
-				float updatedZ = wz + (rand.nextInt(8) - 3.5f)*BIOME_SIZE/128 + (zOffsetMap[x][z] - 0.5f)*BIOME_SIZE/2;
-				xBiome = (int)((updatedX - map.wx)/map.voxelSize + scaledBiomeSize/2)/scaledBiomeSize;
-				zBiome = (int)((updatedZ - map.wz)/map.voxelSize + scaledBiomeSize/2)/scaledBiomeSize;
-				float shortestDist = Float.MAX_VALUE;
-				BiomePoint shortestBiome = null;
-				for(int x0 = xBiome; x0 <= xBiome+2; x0++) {
-					for(int z0 = zBiome; z0 <= zBiome+2; z0++) {
-						float distSquare = biomePositions[x0][z0].distSquare(updatedX, updatedZ);
-						if (distSquare < shortestDist) {
-							shortestDist = distSquare;
-							shortestBiome = biomePositions[x0][z0];
+					// Select a biome. The shape of the biome is randomized by applying noise (fractal noise and white noise) to the coordinates.
+					float updatedX = wx + (bandRand.nextInt(8) - 3.5f)*BIOME_SIZE/128 + (xOffsetMap[x][z] - 0.5f)*BIOME_SIZE/2;
+					float updatedZ = wz + (bandRand.nextInt(8) - 3.5f)*BIOME_SIZE/128 + (zOffsetMap[x][z] - 0.5f)*BIOME_SIZE/2;
+					xBiome = (int)((updatedX - map.wx)/map.voxelSize + scaledBiomeSize/2)/scaledBiomeSize;
+					zBiome = (int)((updatedZ - map.wz)/map.voxelSize + scaledBiomeSize/2)/scaledBiomeSize;
+					float shortestDist = Float.MAX_VALUE;
+					BiomePoint shortestBiome = null;
+					for(int x0 = xBiome; x0 <= xBiome+2; x0++) {
+						for(int z0 = zBiome; z0 <= zBiome+2; z0++) {
+							float distSquare = biomePositions[x0][z0].distSquare(updatedX, updatedZ);
+							if (distSquare < shortestDist) {
+								shortestDist = distSquare;
+								shortestBiome = biomePositions[x0][z0];
+							}
 						}
 					}
+					map.biomeMap[x][z] = shortestBiome.getFittingReplacement(height + bandRand.nextFloat()*4 - 2);
 				}
-				map.biomeMap[x][z] = shortestBiome.getFittingReplacement(height + rand.nextFloat()*4 - 2);
 			}
+			minHeights[band] = minHeight;
+			maxHeights[band] = maxHeight;
+		});
+		for(int band = 0; band < bands; band++) {
+			// Same as the sequential order: the minimum is clamped to 0 after every sample.
+			map.minHeight = Math.max(Math.min(map.minHeight, minHeights[band]), 0);
+			map.maxHeight = Math.max(map.maxHeight, maxHeights[band]);
 		}
 	}
 	